@@ -0,0 +1,112 @@
+/*
+ * Copyright (c) 2013, Peter Szabados
+ * All rights reserved.
+ *
+ * Redistribution and use in source and binary forms, with or without
+ * modification, are permitted provided that the following conditions are
+ * met:
+ *
+ *     (1) Redistributions of source code must retain the above copyright
+ *     notice, this list of conditions and the following disclaimer.
+ *
+ *     (2) Redistributions in binary form must reproduce the above copyright
+ *     notice, this list of conditions and the following disclaimer in
+ *     the documentation and/or other materials provided with the
+ *     distribution.
+ *
+ *     (3)The name of the author may not be used to
+ *     endorse or promote products derived from this software without
+ *     specific prior written permission.
+ *
+ * THIS SOFTWARE IS PROVIDED BY THE AUTHOR ``AS IS'' AND ANY EXPRESS OR
+ * IMPLIED WARRANTIES, INCLUDING, BUT NOT LIMITED TO, THE IMPLIED
+ * WARRANTIES OF MERCHANTABILITY AND FITNESS FOR A PARTICULAR PURPOSE ARE
+ * DISCLAIMED. IN NO EVENT SHALL THE AUTHOR BE LIABLE FOR ANY DIRECT,
+ * INDIRECT, INCIDENTAL, SPECIAL, EXEMPLARY, OR CONSEQUENTIAL DAMAGES
+ * (INCLUDING, BUT NOT LIMITED TO, PROCUREMENT OF SUBSTITUTE GOODS OR
+ * SERVICES; LOSS OF USE, DATA, OR PROFITS; OR BUSINESS INTERRUPTION)
+ * HOWEVER CAUSED AND ON ANY THEORY OF LIABILITY, WHETHER IN CONTRACT,
+ * STRICT LIABILITY, OR TORT (INCLUDING NEGLIGENCE OR OTHERWISE) ARISING
+ * IN ANY WAY OUT OF THE USE OF THIS SOFTWARE, EVEN IF ADVISED OF THE
+ * POSSIBILITY OF SUCH DAMAGE.
+ */
+
+package com.kangirigungi.jstatemachine.benchmark;
+
+import java.util.concurrent.TimeUnit;
+
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.BenchmarkMode;
+import org.openjdk.jmh.annotations.Fork;
+import org.openjdk.jmh.annotations.Measurement;
+import org.openjdk.jmh.annotations.Mode;
+import org.openjdk.jmh.annotations.OutputTimeUnit;
+import org.openjdk.jmh.annotations.Param;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.Setup;
+import org.openjdk.jmh.annotations.State;
+import org.openjdk.jmh.annotations.Warmup;
+import org.openjdk.jmh.infra.BenchmarkParams;
+
+import com.kangirigungi.jstatemachine.IStateMachine;
+import com.kangirigungi.jstatemachine.MachineDefinition;
+import com.kangirigungi.jstatemachine.StateMachineBuilder;
+
+/**
+ * Time needed to build state machines with {@link StateMachineBuilder}.
+ */
+@State(Scope.Benchmark)
+@BenchmarkMode(Mode.AverageTime)
+@OutputTimeUnit(TimeUnit.MICROSECONDS)
+@Warmup(iterations = 3, time = 2)
+@Measurement(iterations = 5, time = 2)
+@Fork(1)
+public class BuildBenchmark {
+
+	@Param({"100", "10000"})
+	public int states;
+
+	@Param({"4"})
+	public int fanOut;
+
+	@Param({"1", "10"})
+	public int depth;
+
+	private final Counter<Integer, Integer> counter =
+			new Counter<Integer, Integer>();
+
+	@Benchmark
+	public IStateMachine<Integer, Integer> create() {
+		return SyntheticMachines.create(states / depth, fanOut, depth,
+				counter).create();
+	}
+
+	@Benchmark
+	public MachineDefinition<Integer, Integer> createDefinition() {
+		return SyntheticMachines.create(states / depth, fanOut, depth,
+				counter).createDefinition();
+	}
+
+	@Benchmark
+	public IStateMachine<Integer, Integer> newInstance(
+			DefinitionState definition) {
+		return definition.definition.newInstance();
+	}
+
+	/**
+	 * A definition built once for measuring instance creation.
+	 */
+	@State(Scope.Benchmark)
+	public static class DefinitionState {
+		public MachineDefinition<Integer, Integer> definition;
+
+		@Setup
+		public void setup(BenchmarkParams params) {
+			int states = Integer.parseInt(params.getParam("states"));
+			int fanOut = Integer.parseInt(params.getParam("fanOut"));
+			int depth = Integer.parseInt(params.getParam("depth"));
+			definition = SyntheticMachines.create(states / depth, fanOut,
+					depth, new Counter<Integer, Integer>()).createDefinition();
+		}
+	}
+}
@@ -0,0 +1,102 @@
+/*
+ * Copyright (c) 2013, Peter Szabados
+ * All rights reserved.
+ *
+ * Redistribution and use in source and binary forms, with or without
+ * modification, are permitted provided that the following conditions are
+ * met:
+ *
+ *     (1) Redistributions of source code must retain the above copyright
+ *     notice, this list of conditions and the following disclaimer.
+ *
+ *     (2) Redistributions in binary form must reproduce the above copyright
+ *     notice, this list of conditions and the following disclaimer in
+ *     the documentation and/or other materials provided with the
+ *     distribution.
+ *
+ *     (3)The name of the author may not be used to
+ *     endorse or promote products derived from this software without
+ *     specific prior written permission.
+ *
+ * THIS SOFTWARE IS PROVIDED BY THE AUTHOR ``AS IS'' AND ANY EXPRESS OR
+ * IMPLIED WARRANTIES, INCLUDING, BUT NOT LIMITED TO, THE IMPLIED
+ * WARRANTIES OF MERCHANTABILITY AND FITNESS FOR A PARTICULAR PURPOSE ARE
+ * DISCLAIMED. IN NO EVENT SHALL THE AUTHOR BE LIABLE FOR ANY DIRECT,
+ * INDIRECT, INCIDENTAL, SPECIAL, EXEMPLARY, OR CONSEQUENTIAL DAMAGES
+ * (INCLUDING, BUT NOT LIMITED TO, PROCUREMENT OF SUBSTITUTE GOODS OR
+ * SERVICES; LOSS OF USE, DATA, OR PROFITS; OR BUSINESS INTERRUPTION)
+ * HOWEVER CAUSED AND ON ANY THEORY OF LIABILITY, WHETHER IN CONTRACT,
+ * STRICT LIABILITY, OR TORT (INCLUDING NEGLIGENCE OR OTHERWISE) ARISING
+ * IN ANY WAY OUT OF THE USE OF THIS SOFTWARE, EVEN IF ADVISED OF THE
+ * POSSIBILITY OF SUCH DAMAGE.
+ */
+
+package com.kangirigungi.jstatemachine.benchmark;
+
+import java.util.concurrent.TimeUnit;
+
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.BenchmarkMode;
+import org.openjdk.jmh.annotations.Fork;
+import org.openjdk.jmh.annotations.Measurement;
+import org.openjdk.jmh.annotations.Mode;
+import org.openjdk.jmh.annotations.OutputTimeUnit;
+import org.openjdk.jmh.annotations.Param;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.Setup;
+import org.openjdk.jmh.annotations.State;
+import org.openjdk.jmh.annotations.Warmup;
+
+import com.kangirigungi.jstatemachine.IStateMachine;
+import com.kangirigungi.jstatemachine.benchmark.CdPlayerMachines.Events;
+import com.kangirigungi.jstatemachine.benchmark.CdPlayerMachines.States;
+
+/**
+ * Throughput and latency of processing single events in the CD player
+ * state machines.
+ */
+@State(Scope.Thread)
+@BenchmarkMode({Mode.Throughput, Mode.SampleTime})
+@OutputTimeUnit(TimeUnit.MICROSECONDS)
+@Warmup(iterations = 5, time = 1)
+@Measurement(iterations = 5, time = 1)
+@Fork(1)
+public class CdPlayerBenchmark {
+
+	@Param({"flat", "composite"})
+	public String shape;
+
+	@Param
+	public Variant variant;
+
+	private IStateMachine<States, Events> stateMachine;
+	private Counter<States, Events> counter;
+	private Events[] events;
+	private int index;
+
+	@Setup
+	public void setup() {
+		counter = new Counter<States, Events>();
+		if (shape.equals("flat")) {
+			stateMachine = variant.create(
+					CdPlayerMachines.createFlat(counter),
+					States.class, Events.class);
+			events = CdPlayerMachines.FLAT_CYCLE;
+		} else {
+			stateMachine = variant.create(
+					CdPlayerMachines.createComposite(counter),
+					States.class, Events.class);
+			events = CdPlayerMachines.COMPOSITE_CYCLE;
+		}
+		index = 0;
+	}
+
+	@Benchmark
+	public int processEvent() {
+		stateMachine.processEvent(events[index]);
+		if (++index == events.length) {
+			index = 0;
+		}
+		return counter.count;
+	}
+}
@@ -0,0 +1,142 @@
+/*
+ * Copyright (c) 2013, Peter Szabados
+ * All rights reserved.
+ *
+ * Redistribution and use in source and binary forms, with or without
+ * modification, are permitted provided that the following conditions are
+ * met:
+ *
+ *     (1) Redistributions of source code must retain the above copyright
+ *     notice, this list of conditions and the following disclaimer.
+ *
+ *     (2) Redistributions in binary form must reproduce the above copyright
+ *     notice, this list of conditions and the following disclaimer in
+ *     the documentation and/or other materials provided with the
+ *     distribution.
+ *
+ *     (3)The name of the author may not be used to
+ *     endorse or promote products derived from this software without
+ *     specific prior written permission.
+ *
+ * THIS SOFTWARE IS PROVIDED BY THE AUTHOR ``AS IS'' AND ANY EXPRESS OR
+ * IMPLIED WARRANTIES, INCLUDING, BUT NOT LIMITED TO, THE IMPLIED
+ * WARRANTIES OF MERCHANTABILITY AND FITNESS FOR A PARTICULAR PURPOSE ARE
+ * DISCLAIMED. IN NO EVENT SHALL THE AUTHOR BE LIABLE FOR ANY DIRECT,
+ * INDIRECT, INCIDENTAL, SPECIAL, EXEMPLARY, OR CONSEQUENTIAL DAMAGES
+ * (INCLUDING, BUT NOT LIMITED TO, PROCUREMENT OF SUBSTITUTE GOODS OR
+ * SERVICES; LOSS OF USE, DATA, OR PROFITS; OR BUSINESS INTERRUPTION)
+ * HOWEVER CAUSED AND ON ANY THEORY OF LIABILITY, WHETHER IN CONTRACT,
+ * STRICT LIABILITY, OR TORT (INCLUDING NEGLIGENCE OR OTHERWISE) ARISING
+ * IN ANY WAY OUT OF THE USE OF THIS SOFTWARE, EVEN IF ADVISED OF THE
+ * POSSIBILITY OF SUCH DAMAGE.
+ */
+
+package com.kangirigungi.jstatemachine.benchmark;
+
+import com.kangirigungi.jstatemachine.GuardNot;
+import com.kangirigungi.jstatemachine.IGuard;
+import com.kangirigungi.jstatemachine.StateMachineBuilder;
+import com.kangirigungi.jstatemachine.SubStateMachineBuilder;
+
+/**
+ * The CD player state machines of the component tests, with counting
+ * callbacks.
+ */
+public final class CdPlayerMachines {
+	public static enum States {
+		Empty, Stopped, Playing, Playback, Paused, Open
+	}
+
+	public static enum Events {
+		Play, Stop, Pause, OpenClose, FastForward, CdDetected
+	}
+
+	/**
+	 * Events that take the flat state machine around all its states and
+	 * back to the initial state.
+	 */
+	public static final Events[] FLAT_CYCLE = {
+		Events.OpenClose, Events.OpenClose, Events.CdDetected, Events.Play,
+		Events.Pause, Events.Pause, Events.Stop, Events.OpenClose,
+		Events.OpenClose
+	};
+
+	/**
+	 * Events that take the composite state machine around all its states
+	 * and back to the state after start.
+	 */
+	public static final Events[] COMPOSITE_CYCLE = {
+		Events.Play, Events.Pause, Events.Pause, Events.FastForward,
+		Events.Stop, Events.OpenClose, Events.OpenClose
+	};
+
+	private CdPlayerMachines() {
+	}
+
+	public static StateMachineBuilder<States, Events> createFlat(
+			Counter<States, Events> counter) {
+		StateMachineBuilder<States, Events> stateMachineBuilder =
+				new StateMachineBuilder<States, Events>();
+		SubStateMachineBuilder<States, Events> mainStateMachine =
+				stateMachineBuilder.get();
+
+		mainStateMachine.addState(States.Empty).setEntryExitAction(counter);
+		mainStateMachine.addState(States.Stopped).setEntryExitAction(counter);
+		mainStateMachine.addState(States.Playing).setEntryExitAction(counter);
+		mainStateMachine.addState(States.Open).setEntryExitAction(counter);
+		mainStateMachine.addState(States.Paused).setEntryExitAction(counter);
+
+		mainStateMachine.setInitialState(States.Empty)
+			.addTransition(States.Empty,   Events.CdDetected, counter, States.Stopped)
+			.addTransition(States.Empty,   Events.OpenClose,  counter, States.Open)
+			.addTransition(States.Stopped, Events.Play,       counter, States.Playing)
+			.addTransition(States.Stopped, Events.OpenClose,  counter, States.Open)
+			.addTransition(States.Playing, Events.Pause,      counter, States.Paused)
+			.addTransition(States.Playing, Events.Stop,       counter, States.Stopped)
+			.addTransition(States.Playing, Events.OpenClose,  counter, States.Open)
+			.addTransition(States.Paused,  Events.Pause,      counter, States.Playing)
+			.addTransition(States.Paused,  Events.Stop,       counter, States.Stopped)
+			.addTransition(States.Paused,  Events.OpenClose,  counter, States.Open)
+			.addTransition(States.Open,    Events.OpenClose,  counter, States.Empty);
+		return stateMachineBuilder;
+	}
+
+	public static StateMachineBuilder<States, Events> createComposite(
+			Counter<States, Events> counter) {
+		StateMachineBuilder<States, Events> stateMachineBuilder =
+				new StateMachineBuilder<States, Events>();
+		SubStateMachineBuilder<States, Events> mainStateMachine =
+				stateMachineBuilder.get();
+		IGuard<States, Events> isCdDetected = new ConstantGuard<States, Events>(true);
+		IGuard<States, Events> isLastTrack = new ConstantGuard<States, Events>(false);
+
+		mainStateMachine.addState(States.Empty).setEntryExitAction(counter);
+		mainStateMachine.addState(States.Stopped).setEntryExitAction(counter);
+		mainStateMachine.addState(States.Open).setEntryExitAction(counter);
+		SubStateMachineBuilder<States, Events> statePlaying =
+				mainStateMachine.addCompositeState(States.Playing).
+				setEntryExitAction(counter).
+				getStateMachineBuilder();
+		statePlaying.addState(States.Playback).setEntryExitAction(counter);
+		statePlaying.addState(States.Paused).setEntryExitAction(counter);
+
+		mainStateMachine.setInitialState(States.Empty)
+			.addTransition(States.Empty,   null,              counter, States.Stopped,
+					isCdDetected)
+			.addTransition(States.Empty,   Events.OpenClose,  counter, States.Open)
+			.addTransition(States.Stopped, Events.Play,       counter, States.Playing)
+			.addTransition(States.Stopped, Events.OpenClose,  counter, States.Open)
+			.addTransition(States.Playing, Events.Stop,       counter, States.Stopped)
+			.addTransition(States.Playing, Events.FastForward, counter, States.Stopped,
+					isLastTrack)
+			.addInternalTransition(States.Playing, Events.FastForward, counter,
+					new GuardNot<States, Events>(isLastTrack))
+			.addTransition(States.Playing, Events.OpenClose,  counter, States.Open)
+			.addTransition(States.Open,    Events.OpenClose,  counter, States.Empty);
+
+		statePlaying.setInitialState(States.Playback)
+			.addTransition(States.Playback, Events.Pause, counter, States.Paused)
+			.addTransition(States.Paused,   Events.Pause, counter, States.Playback);
+		return stateMachineBuilder;
+	}
+}
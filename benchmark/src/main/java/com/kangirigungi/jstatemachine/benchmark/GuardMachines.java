@@ -0,0 +1,138 @@
+/*
+ * Copyright (c) 2013, Peter Szabados
+ * All rights reserved.
+ *
+ * Redistribution and use in source and binary forms, with or without
+ * modification, are permitted provided that the following conditions are
+ * met:
+ *
+ *     (1) Redistributions of source code must retain the above copyright
+ *     notice, this list of conditions and the following disclaimer.
+ *
+ *     (2) Redistributions in binary form must reproduce the above copyright
+ *     notice, this list of conditions and the following disclaimer in
+ *     the documentation and/or other materials provided with the
+ *     distribution.
+ *
+ *     (3)The name of the author may not be used to
+ *     endorse or promote products derived from this software without
+ *     specific prior written permission.
+ *
+ * THIS SOFTWARE IS PROVIDED BY THE AUTHOR ``AS IS'' AND ANY EXPRESS OR
+ * IMPLIED WARRANTIES, INCLUDING, BUT NOT LIMITED TO, THE IMPLIED
+ * WARRANTIES OF MERCHANTABILITY AND FITNESS FOR A PARTICULAR PURPOSE ARE
+ * DISCLAIMED. IN NO EVENT SHALL THE AUTHOR BE LIABLE FOR ANY DIRECT,
+ * INDIRECT, INCIDENTAL, SPECIAL, EXEMPLARY, OR CONSEQUENTIAL DAMAGES
+ * (INCLUDING, BUT NOT LIMITED TO, PROCUREMENT OF SUBSTITUTE GOODS OR
+ * SERVICES; LOSS OF USE, DATA, OR PROFITS; OR BUSINESS INTERRUPTION)
+ * HOWEVER CAUSED AND ON ANY THEORY OF LIABILITY, WHETHER IN CONTRACT,
+ * STRICT LIABILITY, OR TORT (INCLUDING NEGLIGENCE OR OTHERWISE) ARISING
+ * IN ANY WAY OUT OF THE USE OF THIS SOFTWARE, EVEN IF ADVISED OF THE
+ * POSSIBILITY OF SUCH DAMAGE.
+ */
+
+package com.kangirigungi.jstatemachine.benchmark;
+
+import com.kangirigungi.jstatemachine.GuardAnd;
+import com.kangirigungi.jstatemachine.GuardNot;
+import com.kangirigungi.jstatemachine.GuardOr;
+import com.kangirigungi.jstatemachine.GuardState;
+import com.kangirigungi.jstatemachine.IGuard;
+import com.kangirigungi.jstatemachine.IStateMachine;
+import com.kangirigungi.jstatemachine.StateMachineBuilder;
+import com.kangirigungi.jstatemachine.SubStateMachineBuilder;
+
+/**
+ * A state machine where every transition is guarded by a combination of
+ * {@link GuardAnd}, {@link GuardOr}, {@link GuardNot} and
+ * {@link GuardState}. Some events have a rejected transition before the
+ * accepted one, so several guards are evaluated for each event.
+ */
+public final class GuardMachines {
+	public static enum States {
+		Idle, Running, Fast, Slow
+	}
+
+	public static enum Events {
+		Start, Toggle, Stop
+	}
+
+	/**
+	 * Events that take the state machine around all its states and back
+	 * to the initial state.
+	 */
+	public static final Events[] CYCLE = {
+		Events.Start, Events.Toggle, Events.Toggle, Events.Stop
+	};
+
+	private GuardMachines() {
+	}
+
+	/**
+	 * Create the state machine queried by the {@link GuardState} guards. It
+	 * stays in {@link States#Running} and {@link States#Fast}.
+	 */
+	public static IStateMachine<States, Events> createMode() {
+		StateMachineBuilder<States, Events> stateMachineBuilder =
+				new StateMachineBuilder<States, Events>();
+		SubStateMachineBuilder<States, Events> stateRunning =
+				stateMachineBuilder.get().addCompositeState(States.Running).
+				getStateMachineBuilder();
+		stateRunning.addState(States.Fast);
+		stateRunning.setInitialState(States.Fast);
+		stateMachineBuilder.get().setInitialState(States.Running);
+		return stateMachineBuilder.create();
+	}
+
+	/**
+	 * @param mode The state machine created by {@link #createMode()}.
+	 */
+	public static StateMachineBuilder<States, Events> create(
+			Counter<States, Events> counter,
+			IStateMachine<States, Events> mode) {
+		StateMachineBuilder<States, Events> stateMachineBuilder =
+				new StateMachineBuilder<States, Events>();
+		SubStateMachineBuilder<States, Events> mainStateMachine =
+				stateMachineBuilder.get();
+		IGuard<States, Events> isTrue = new ConstantGuard<States, Events>(true);
+		IGuard<States, Events> isFalse =
+				new ConstantGuard<States, Events>(false);
+
+		mainStateMachine.addState(States.Idle).setEntryExitAction(counter);
+		SubStateMachineBuilder<States, Events> stateRunning =
+				mainStateMachine.addCompositeState(States.Running).
+				setEntryExitAction(counter).
+				getStateMachineBuilder();
+		stateRunning.addState(States.Fast).setEntryExitAction(counter);
+		stateRunning.addState(States.Slow).setEntryExitAction(counter);
+
+		mainStateMachine.setInitialState(States.Idle)
+			.addTransition(States.Idle, Events.Start, counter, States.Running,
+				new GuardAnd<States, Events>(isTrue,
+					new GuardState<States, Events>(mode,
+						new States[] {States.Idle}, false)))
+			.addTransition(States.Idle, Events.Start, counter, States.Running,
+				new GuardOr<States, Events>(
+					new GuardNot<States, Events>(isTrue),
+					new GuardState<States, Events>(mode,
+						new States[] {States.Idle, States.Running}, false)))
+			.addTransition(States.Running, Events.Stop, counter, States.Idle,
+				new GuardAnd<States, Events>(
+					new GuardState<States, Events>(mode,
+						new States[] {States.Fast}, true),
+					new GuardNot<States, Events>(
+						new GuardState<States, Events>(mode,
+							new States[] {States.Slow}, true))));
+
+		stateRunning.setInitialState(States.Fast)
+			.addTransition(States.Fast, Events.Toggle, counter, States.Slow,
+				new GuardAnd<States, Events>(
+					new GuardNot<States, Events>(isFalse),
+					new GuardOr<States, Events>(isFalse, isTrue)))
+			.addTransition(States.Slow, Events.Toggle, counter, States.Fast,
+				new GuardOr<States, Events>(isFalse,
+					new GuardNot<States, Events>(
+						new GuardAnd<States, Events>(isTrue, isFalse))));
+		return stateMachineBuilder;
+	}
+}
@@ -0,0 +1,104 @@
+/*
+ * Copyright (c) 2013, Peter Szabados
+ * All rights reserved.
+ *
+ * Redistribution and use in source and binary forms, with or without
+ * modification, are permitted provided that the following conditions are
+ * met:
+ *
+ *     (1) Redistributions of source code must retain the above copyright
+ *     notice, this list of conditions and the following disclaimer.
+ *
+ *     (2) Redistributions in binary form must reproduce the above copyright
+ *     notice, this list of conditions and the following disclaimer in
+ *     the documentation and/or other materials provided with the
+ *     distribution.
+ *
+ *     (3)The name of the author may not be used to
+ *     endorse or promote products derived from this software without
+ *     specific prior written permission.
+ *
+ * THIS SOFTWARE IS PROVIDED BY THE AUTHOR ``AS IS'' AND ANY EXPRESS OR
+ * IMPLIED WARRANTIES, INCLUDING, BUT NOT LIMITED TO, THE IMPLIED
+ * WARRANTIES OF MERCHANTABILITY AND FITNESS FOR A PARTICULAR PURPOSE ARE
+ * DISCLAIMED. IN NO EVENT SHALL THE AUTHOR BE LIABLE FOR ANY DIRECT,
+ * INDIRECT, INCIDENTAL, SPECIAL, EXEMPLARY, OR CONSEQUENTIAL DAMAGES
+ * (INCLUDING, BUT NOT LIMITED TO, PROCUREMENT OF SUBSTITUTE GOODS OR
+ * SERVICES; LOSS OF USE, DATA, OR PROFITS; OR BUSINESS INTERRUPTION)
+ * HOWEVER CAUSED AND ON ANY THEORY OF LIABILITY, WHETHER IN CONTRACT,
+ * STRICT LIABILITY, OR TORT (INCLUDING NEGLIGENCE OR OTHERWISE) ARISING
+ * IN ANY WAY OUT OF THE USE OF THIS SOFTWARE, EVEN IF ADVISED OF THE
+ * POSSIBILITY OF SUCH DAMAGE.
+ */
+
+package com.kangirigungi.jstatemachine.benchmark;
+
+import java.util.Random;
+
+import com.kangirigungi.jstatemachine.StateMachineBuilder;
+import com.kangirigungi.jstatemachine.SubStateMachineBuilder;
+
+/**
+ * Generated state machines of arbitrary size.
+ * <p>
+ * The state machine has <code>depth</code> levels, each with
+ * <code>states</code> states. The first state of each level except the
+ * deepest one is a composite state containing the next level. Each state
+ * has <code>fanOut</code> transitions, with events that are unique to its
+ * level, so events of the deeper levels are delegated through the
+ * composite states.
+ */
+public final class SyntheticMachines {
+
+	private SyntheticMachines() {
+	}
+
+	public static StateMachineBuilder<Integer, Integer> create(int states,
+			int fanOut, int depth, Counter<Integer, Integer> counter) {
+		StateMachineBuilder<Integer, Integer> stateMachineBuilder =
+				new StateMachineBuilder<Integer, Integer>();
+		SubStateMachineBuilder<Integer, Integer> level =
+				stateMachineBuilder.get();
+		for (int depthIndex = 0; depthIndex < depth; ++depthIndex) {
+			int firstState = depthIndex * states;
+			int firstEvent = depthIndex * fanOut;
+			SubStateMachineBuilder<Integer, Integer> next = null;
+			if (depthIndex + 1 < depth) {
+				next = level.addCompositeState(firstState).
+						setEntryExitAction(counter).getStateMachineBuilder();
+			} else {
+				level.addState(firstState).setEntryExitAction(counter);
+			}
+			for (int i = 1; i < states; ++i) {
+				level.addState(firstState + i).setEntryExitAction(counter);
+			}
+			for (int i = 0; i < states; ++i) {
+				for (int j = 0; j < fanOut; ++j) {
+					level.addTransition(firstState + i, firstEvent + j,
+							counter, firstState + getTarget(i, j, states));
+				}
+			}
+			level.setInitialState(firstState);
+			level = next;
+		}
+		return stateMachineBuilder;
+	}
+
+	/**
+	 * Generate a random sequence of events that are used by the state
+	 * machine.
+	 */
+	public static Integer[] createEvents(int fanOut, int depth, int length,
+			long seed) {
+		Random random = new Random(seed);
+		Integer[] result = new Integer[length];
+		for (int i = 0; i < length; ++i) {
+			result[i] = random.nextInt(fanOut * depth);
+		}
+		return result;
+	}
+
+	private static int getTarget(int state, int transition, int states) {
+		return (int)((state * 31L + transition * 17L + 1) % states);
+	}
+}
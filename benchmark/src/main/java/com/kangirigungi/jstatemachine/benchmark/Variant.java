@@ -0,0 +1,83 @@
+/*
+ * Copyright (c) 2013, Peter Szabados
+ * All rights reserved.
+ *
+ * Redistribution and use in source and binary forms, with or without
+ * modification, are permitted provided that the following conditions are
+ * met:
+ *
+ *     (1) Redistributions of source code must retain the above copyright
+ *     notice, this list of conditions and the following disclaimer.
+ *
+ *     (2) Redistributions in binary form must reproduce the above copyright
+ *     notice, this list of conditions and the following disclaimer in
+ *     the documentation and/or other materials provided with the
+ *     distribution.
+ *
+ *     (3)The name of the author may not be used to
+ *     endorse or promote products derived from this software without
+ *     specific prior written permission.
+ *
+ * THIS SOFTWARE IS PROVIDED BY THE AUTHOR ``AS IS'' AND ANY EXPRESS OR
+ * IMPLIED WARRANTIES, INCLUDING, BUT NOT LIMITED TO, THE IMPLIED
+ * WARRANTIES OF MERCHANTABILITY AND FITNESS FOR A PARTICULAR PURPOSE ARE
+ * DISCLAIMED. IN NO EVENT SHALL THE AUTHOR BE LIABLE FOR ANY DIRECT,
+ * INDIRECT, INCIDENTAL, SPECIAL, EXEMPLARY, OR CONSEQUENTIAL DAMAGES
+ * (INCLUDING, BUT NOT LIMITED TO, PROCUREMENT OF SUBSTITUTE GOODS OR
+ * SERVICES; LOSS OF USE, DATA, OR PROFITS; OR BUSINESS INTERRUPTION)
+ * HOWEVER CAUSED AND ON ANY THEORY OF LIABILITY, WHETHER IN CONTRACT,
+ * STRICT LIABILITY, OR TORT (INCLUDING NEGLIGENCE OR OTHERWISE) ARISING
+ * IN ANY WAY OUT OF THE USE OF THIS SOFTWARE, EVEN IF ADVISED OF THE
+ * POSSIBILITY OF SUCH DAMAGE.
+ */
+
+package com.kangirigungi.jstatemachine.benchmark;
+
+import com.kangirigungi.jstatemachine.IStateMachine;
+import com.kangirigungi.jstatemachine.StateMachineBuilder;
+
+/**
+ * The ways a state machine can be created from a builder.
+ */
+public enum Variant {
+	ENGINE {
+		@Override
+		public <StateId, Event> IStateMachine<StateId, Event> create(
+				StateMachineBuilder<StateId, Event> builder,
+				Class<StateId> stateType, Class<Event> eventType) {
+			return builder.create();
+		}
+	},
+	COMPILED {
+		@Override
+		public <StateId, Event> IStateMachine<StateId, Event> create(
+				StateMachineBuilder<StateId, Event> builder,
+				Class<StateId> stateType, Class<Event> eventType) {
+			return builder.createCompiled(stateType, eventType);
+		}
+	},
+	DEFINITION {
+		@Override
+		public <StateId, Event> IStateMachine<StateId, Event> create(
+				StateMachineBuilder<StateId, Event> builder,
+				Class<StateId> stateType, Class<Event> eventType) {
+			return builder.createDefinition().newInstance();
+		}
+	},
+	CONCURRENT {
+		@Override
+		public <StateId, Event> IStateMachine<StateId, Event> create(
+				StateMachineBuilder<StateId, Event> builder,
+				Class<StateId> stateType, Class<Event> eventType) {
+			return builder.createConcurrent();
+		}
+	};
+
+	/**
+	 * Create the state machine. The types are only used by
+	 * {@link #COMPILED}, which requires <code>enum</code> types.
+	 */
+	public abstract <StateId, Event> IStateMachine<StateId, Event> create(
+			StateMachineBuilder<StateId, Event> builder,
+			Class<StateId> stateType, Class<Event> eventType);
+}
@@ -52,6 +52,12 @@ class CompositeState<StateId, Event>
 		stateMachine.enter();
 	}
 
+	@Override
+	public void resumeState(Event event) {
+		state.enterState(event);
+		stateMachine.resume();
+	}
+
 	@Override
 	public void exitState(Event event) {
 		stateMachine.leave();
@@ -81,6 +81,26 @@ public class CompositeStateBuilder<StateId, Event> {
 		return this;
 	}
 
+	/**
+	 * Get the history of the state.
+	 */
+	public History getHistory() {
+		return compositeState.getStateMachine().getHistory();
+	}
+
+	/**
+	 * Set the history of the state, which determines the states entered
+	 * when the state is entered again. The default is
+	 * {@link History#NONE}.
+	 *
+	 * @param history The history of the state.
+	 * @return this.
+	 */
+	public CompositeStateBuilder<StateId, Event> setHistory(History history) {
+		compositeState.getStateMachine().setHistory(history);
+		return this;
+	}
+
 	/**
 	 * Get the state machine builder for this composite state.
 	 */
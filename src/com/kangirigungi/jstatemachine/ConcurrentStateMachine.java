@@ -0,0 +1,181 @@
+/*
+ * Copyright (c) 2013, Peter Szabados
+ * All rights reserved.
+ *
+ * Redistribution and use in source and binary forms, with or without
+ * modification, are permitted provided that the following conditions are
+ * met:
+ *
+ *     (1) Redistributions of source code must retain the above copyright
+ *     notice, this list of conditions and the following disclaimer.
+ *
+ *     (2) Redistributions in binary form must reproduce the above copyright
+ *     notice, this list of conditions and the following disclaimer in
+ *     the documentation and/or other materials provided with the
+ *     distribution.
+ *
+ *     (3)The name of the author may not be used to
+ *     endorse or promote products derived from this software without
+ *     specific prior written permission.
+ *
+ * THIS SOFTWARE IS PROVIDED BY THE AUTHOR ``AS IS'' AND ANY EXPRESS OR
+ * IMPLIED WARRANTIES, INCLUDING, BUT NOT LIMITED TO, THE IMPLIED
+ * WARRANTIES OF MERCHANTABILITY AND FITNESS FOR A PARTICULAR PURPOSE ARE
+ * DISCLAIMED. IN NO EVENT SHALL THE AUTHOR BE LIABLE FOR ANY DIRECT,
+ * INDIRECT, INCIDENTAL, SPECIAL, EXEMPLARY, OR CONSEQUENTIAL DAMAGES
+ * (INCLUDING, BUT NOT LIMITED TO, PROCUREMENT OF SUBSTITUTE GOODS OR
+ * SERVICES; LOSS OF USE, DATA, OR PROFITS; OR BUSINESS INTERRUPTION)
+ * HOWEVER CAUSED AND ON ANY THEORY OF LIABILITY, WHETHER IN CONTRACT,
+ * STRICT LIABILITY, OR TORT (INCLUDING NEGLIGENCE OR OTHERWISE) ARISING
+ * IN ANY WAY OUT OF THE USE OF THIS SOFTWARE, EVEN IF ADVISED OF THE
+ * POSSIBILITY OF SUCH DAMAGE.
+ */
+
+package com.kangirigungi.jstatemachine;
+
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.List;
+import java.util.concurrent.locks.ReentrantLock;
+
+class ConcurrentStateMachine<StateId, Event>
+		implements IStateMachine<StateId, Event>,
+		IIndexedStateMachine<StateId> {
+
+	private static final class Configuration<StateId> {
+		final StateId state;
+		final List<StateId> states;
+		final StateId deepState;
+		final int stateIndex;
+		final int deepStateIndex;
+
+		Configuration(StateId state, List<StateId> states,
+				StateId deepState, int stateIndex, int deepStateIndex) {
+			this.state = state;
+			// the list of the delegate may be a view of its current state
+			this.states = Collections.unmodifiableList(
+					new ArrayList<StateId>(states));
+			this.deepState = deepState;
+			this.stateIndex = stateIndex;
+			this.deepStateIndex = deepStateIndex;
+		}
+	}
+
+	private final IStateMachine<StateId, Event> stateMachine;
+	/**
+	 * The same as {@link #stateMachine} if it is indexed, otherwise
+	 * <code>null</code>.
+	 */
+	private final IIndexedStateMachine<StateId> indexedStateMachine;
+	/**
+	 * The same as {@link #stateMachine} if it may have orthogonal regions,
+	 * otherwise <code>null</code>.
+	 */
+	private final StateMachine<StateId, Event> engineStateMachine;
+	private final ReentrantLock lock = new ReentrantLock();
+	private volatile Configuration<StateId> configuration;
+
+	@SuppressWarnings("unchecked")
+	public ConcurrentStateMachine(IStateMachine<StateId, Event> stateMachine) {
+		this.stateMachine = stateMachine;
+		indexedStateMachine =
+				stateMachine instanceof IIndexedStateMachine<?> ?
+				(IIndexedStateMachine<StateId>)stateMachine : null;
+		engineStateMachine = stateMachine instanceof StateMachine<?, ?> ?
+				(StateMachine<StateId, Event>)stateMachine : null;
+		publish();
+	}
+
+	@Override
+	public StateId getCurrentState() {
+		return configuration.state;
+	}
+
+	@Override
+	public List<StateId> getCurrentStates() {
+		return configuration.states;
+	}
+
+	@Override
+	public StateId getCurrentDeepState() {
+		return configuration.deepState;
+	}
+
+	@Override
+	public int getStateIndex(StateId id) {
+		return indexedStateMachine == null ? -1 :
+				indexedStateMachine.getStateIndex(id);
+	}
+
+	@Override
+	public int getCurrentStateIndex() {
+		return configuration.stateIndex;
+	}
+
+	@Override
+	public int getCurrentDeepStateIndex() {
+		return configuration.deepStateIndex;
+	}
+
+	@Override
+	public void processEvent(Event event) {
+		lock.lock();
+		try {
+			stateMachine.processEvent(event);
+		} finally {
+			// Events sent from callbacks reenter the lock on the same
+			// thread, the outermost call publishes the final state.
+			if (lock.getHoldCount() == 1) {
+				publish();
+			}
+			lock.unlock();
+		}
+	}
+
+	@Override
+	public EventOutcome[] processEvents(Event[] events, int from, int to) {
+		lock.lock();
+		try {
+			return stateMachine.processEvents(events, from, to);
+		} finally {
+			if (lock.getHoldCount() == 1) {
+				publish();
+			}
+			lock.unlock();
+		}
+	}
+
+	@Override
+	public EventOutcome[] processEvents(Iterable<Event> events) {
+		lock.lock();
+		try {
+			return stateMachine.processEvents(events);
+		} finally {
+			if (lock.getHoldCount() == 1) {
+				publish();
+			}
+			lock.unlock();
+		}
+	}
+
+	private void publish() {
+		int deepStateIndex = indexedStateMachine == null ? -1 :
+				indexedStateMachine.getCurrentDeepStateIndex();
+		Configuration<StateId> current = configuration;
+		// the deepest state determines the whole configuration, unless the
+		// regions below it changed their states
+		if (current != null && deepStateIndex >= 0 &&
+				current.deepStateIndex == deepStateIndex &&
+				(engineStateMachine == null ||
+						!engineStateMachine.hasActiveRegions())) {
+			return;
+		}
+		configuration = new Configuration<StateId>(
+				stateMachine.getCurrentState(),
+				stateMachine.getCurrentStates(),
+				stateMachine.getCurrentDeepState(),
+				indexedStateMachine == null ? -1 :
+						indexedStateMachine.getCurrentStateIndex(),
+				deepStateIndex);
+	}
+}
@@ -0,0 +1,253 @@
+/*
+ * Copyright (c) 2013, Peter Szabados
+ * All rights reserved.
+ *
+ * Redistribution and use in source and binary forms, with or without
+ * modification, are permitted provided that the following conditions are
+ * met:
+ *
+ *     (1) Redistributions of source code must retain the above copyright
+ *     notice, this list of conditions and the following disclaimer.
+ *
+ *     (2) Redistributions in binary form must reproduce the above copyright
+ *     notice, this list of conditions and the following disclaimer in
+ *     the documentation and/or other materials provided with the
+ *     distribution.
+ *
+ *     (3)The name of the author may not be used to
+ *     endorse or promote products derived from this software without
+ *     specific prior written permission.
+ *
+ * THIS SOFTWARE IS PROVIDED BY THE AUTHOR ``AS IS'' AND ANY EXPRESS OR
+ * IMPLIED WARRANTIES, INCLUDING, BUT NOT LIMITED TO, THE IMPLIED
+ * WARRANTIES OF MERCHANTABILITY AND FITNESS FOR A PARTICULAR PURPOSE ARE
+ * DISCLAIMED. IN NO EVENT SHALL THE AUTHOR BE LIABLE FOR ANY DIRECT,
+ * INDIRECT, INCIDENTAL, SPECIAL, EXEMPLARY, OR CONSEQUENTIAL DAMAGES
+ * (INCLUDING, BUT NOT LIMITED TO, PROCUREMENT OF SUBSTITUTE GOODS OR
+ * SERVICES; LOSS OF USE, DATA, OR PROFITS; OR BUSINESS INTERRUPTION)
+ * HOWEVER CAUSED AND ON ANY THEORY OF LIABILITY, WHETHER IN CONTRACT,
+ * STRICT LIABILITY, OR TORT (INCLUDING NEGLIGENCE OR OTHERWISE) ARISING
+ * IN ANY WAY OUT OF THE USE OF THIS SOFTWARE, EVEN IF ADVISED OF THE
+ * POSSIBILITY OF SUCH DAMAGE.
+ */
+
+package com.kangirigungi.jstatemachine;
+
+import java.util.Arrays;
+
+/**
+ * The events deferred by the states of a state machine instance. Each state
+ * has its own queue, so when a state is left, only the events it deferred
+ * are released for replaying. The released events are polled in the order
+ * they first arrived, including the ones deferred again after a replay.
+ * <p>
+ * The entries are kept in linked lists over arrays, and removed entries are
+ * reused, so no memory is allocated once the arrays are large enough.
+ * <code>null</code> events are not allowed.
+ */
+class DeferredEvents<Event> {
+	private static final int INITIAL_CAPACITY = 8;
+
+	private Object[] events = new Object[INITIAL_CAPACITY];
+	/**
+	 * The arrival order of each entry.
+	 */
+	private long[] sequences = new long[INITIAL_CAPACITY];
+	/**
+	 * The next entry in the same list, or -1.
+	 */
+	private int[] next = new int[INITIAL_CAPACITY];
+	/**
+	 * The number of entries that were ever used.
+	 */
+	private int used = 0;
+	/**
+	 * The first entry of the list of unused entries, or -1.
+	 */
+	private int free = -1;
+	/**
+	 * The first and last entry of the queue of each state, indexed by the
+	 * index of the state, or -1 if the queue is empty.
+	 */
+	private int[] heads = new int[0];
+	private int[] tails = new int[0];
+	/**
+	 * The first entry of the released events, or -1.
+	 */
+	private int released = -1;
+	/**
+	 * The released entry that is being replayed, or -1.
+	 */
+	private int replayed = -1;
+	private long nextSequence = 0;
+	private int size = 0;
+
+	/**
+	 * Get the number of deferred and released events.
+	 */
+	public int size() {
+		return size;
+	}
+
+	/**
+	 * Add an event to the queue of a state. If the event is the one being
+	 * replayed, it keeps its place in the arrival order.
+	 *
+	 * @param state The index of the state deferring the event.
+	 */
+	public void defer(int state, Event event) {
+		int entry = replayed;
+		if (entry >= 0) {
+			replayed = -1;
+		} else {
+			entry = allocate();
+			events[entry] = event;
+			sequences[entry] = nextSequence++;
+			++size;
+		}
+		if (state >= heads.length) {
+			int length = Math.max(state + 1, heads.length * 2);
+			int oldLength = heads.length;
+			heads = Arrays.copyOf(heads, length);
+			tails = Arrays.copyOf(tails, length);
+			Arrays.fill(heads, oldLength, length, -1);
+			Arrays.fill(tails, oldLength, length, -1);
+		}
+
+		int tail = tails[state];
+		if (tail < 0 || sequences[tail] < sequences[entry]) {
+			// the usual case: the event arrived after the others
+			next[entry] = -1;
+			if (tail < 0) {
+				heads[state] = entry;
+			} else {
+				next[tail] = entry;
+			}
+			tails[state] = entry;
+			return;
+		}
+		int previous = -1;
+		int current = heads[state];
+		while (sequences[current] < sequences[entry]) {
+			previous = current;
+			current = next[current];
+		}
+		next[entry] = current;
+		if (previous < 0) {
+			heads[state] = entry;
+		} else {
+			next[previous] = entry;
+		}
+	}
+
+	/**
+	 * Release the events deferred by a state. It is called when the state
+	 * is left.
+	 */
+	public void release(int state) {
+		if (state >= heads.length || heads[state] < 0) {
+			return;
+		}
+		int entry = heads[state];
+		heads[state] = -1;
+		tails[state] = -1;
+
+		// merge the two lists ordered by arrival
+		int merged = -1;
+		int last = -1;
+		int other = released;
+		while (entry >= 0 || other >= 0) {
+			int current;
+			if (other < 0 || (entry >= 0 &&
+					sequences[entry] < sequences[other])) {
+				current = entry;
+				entry = next[entry];
+			} else {
+				current = other;
+				other = next[other];
+			}
+			if (last < 0) {
+				merged = current;
+			} else {
+				next[last] = current;
+			}
+			last = current;
+		}
+		next[last] = -1;
+		released = merged;
+	}
+
+	public boolean hasReleased() {
+		return released >= 0;
+	}
+
+	/**
+	 * Remove the first released event to replay it. The next call of
+	 * {@link #defer(int, Object)} defers this event again, until
+	 * {@link #finishReplay()} is called. There must be a released event.
+	 */
+	@SuppressWarnings("unchecked")
+	public Event replay() {
+		replayed = released;
+		released = next[replayed];
+		return (Event)events[replayed];
+	}
+
+	/**
+	 * Drop the replayed event unless it was deferred again.
+	 */
+	public void finishReplay() {
+		freeReplayed();
+	}
+
+	/**
+	 * Drop the released events.
+	 */
+	public void clearReleased() {
+		freeReplayed();
+		while (released >= 0) {
+			int entry = released;
+			released = next[entry];
+			freeEntry(entry);
+		}
+	}
+
+	/**
+	 * Drop all events.
+	 */
+	public void clear() {
+		for (int state = 0; state < heads.length; ++state) {
+			release(state);
+		}
+		clearReleased();
+	}
+
+	private void freeReplayed() {
+		if (replayed >= 0) {
+			freeEntry(replayed);
+			replayed = -1;
+		}
+	}
+
+	private int allocate() {
+		if (free >= 0) {
+			int result = free;
+			free = next[result];
+			return result;
+		}
+		if (used == events.length) {
+			int length = used * 2;
+			events = Arrays.copyOf(events, length);
+			sequences = Arrays.copyOf(sequences, length);
+			next = Arrays.copyOf(next, length);
+		}
+		return used++;
+	}
+
+	private void freeEntry(int entry) {
+		events[entry] = null;
+		next[entry] = free;
+		free = entry;
+		--size;
+	}
+}
@@ -0,0 +1,238 @@
+/*
+ * Copyright (c) 2013, Peter Szabados
+ * All rights reserved.
+ *
+ * Redistribution and use in source and binary forms, with or without
+ * modification, are permitted provided that the following conditions are
+ * met:
+ *
+ *     (1) Redistributions of source code must retain the above copyright
+ *     notice, this list of conditions and the following disclaimer.
+ *
+ *     (2) Redistributions in binary form must reproduce the above copyright
+ *     notice, this list of conditions and the following disclaimer in
+ *     the documentation and/or other materials provided with the
+ *     distribution.
+ *
+ *     (3)The name of the author may not be used to
+ *     endorse or promote products derived from this software without
+ *     specific prior written permission.
+ *
+ * THIS SOFTWARE IS PROVIDED BY THE AUTHOR ``AS IS'' AND ANY EXPRESS OR
+ * IMPLIED WARRANTIES, INCLUDING, BUT NOT LIMITED TO, THE IMPLIED
+ * WARRANTIES OF MERCHANTABILITY AND FITNESS FOR A PARTICULAR PURPOSE ARE
+ * DISCLAIMED. IN NO EVENT SHALL THE AUTHOR BE LIABLE FOR ANY DIRECT,
+ * INDIRECT, INCIDENTAL, SPECIAL, EXEMPLARY, OR CONSEQUENTIAL DAMAGES
+ * (INCLUDING, BUT NOT LIMITED TO, PROCUREMENT OF SUBSTITUTE GOODS OR
+ * SERVICES; LOSS OF USE, DATA, OR PROFITS; OR BUSINESS INTERRUPTION)
+ * HOWEVER CAUSED AND ON ANY THEORY OF LIABILITY, WHETHER IN CONTRACT,
+ * STRICT LIABILITY, OR TORT (INCLUDING NEGLIGENCE OR OTHERWISE) ARISING
+ * IN ANY WAY OUT OF THE USE OF THIS SOFTWARE, EVEN IF ADVISED OF THE
+ * POSSIBILITY OF SUCH DAMAGE.
+ */
+
+package com.kangirigungi.jstatemachine;
+
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.Collections;
+import java.util.HashMap;
+import java.util.HashSet;
+import java.util.LinkedHashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.Set;
+
+/**
+ * Creates a {@link MachineDefinition} from the structure of a state machine
+ * engine.
+ */
+class DefinitionCompiler<StateId, Event>
+		implements IStateMachineEngineVisitor<StateId, Event> {
+
+	private static class NodeBuilder<StateId, Event> {
+		public IState<StateId, Event> state;
+		public int[] path;
+		public int initialState = -1;
+		public IStateMachineEngine<StateId, Event> subStateMachine;
+		public Map<Event, List<MachineDefinition.Transition<StateId, Event>>>
+				transitions = new LinkedHashMap<Event,
+						List<MachineDefinition.Transition<StateId, Event>>>();
+		public List<MachineDefinition.TimedTransition<StateId, Event>>
+				timedTransitions = new ArrayList<
+						MachineDefinition.TimedTransition<StateId, Event>>();
+		public Set<Event> deferredEvents = null;
+	}
+
+	private List<NodeBuilder<StateId, Event>> nodes =
+			new ArrayList<NodeBuilder<StateId, Event>>();
+	private Map<StateId, Integer> indexes = new HashMap<StateId, Integer>();
+	private int[] parentPath;
+	private int timedTransitionCount = 0;
+
+	@SuppressWarnings({"unchecked", "rawtypes"})
+	public MachineDefinition<StateId, Event> compile(
+			IStateMachineEngine<StateId, Event> stateMachine) {
+		int initialState = compileLevel(stateMachine, new int[0]);
+
+		Map<Event, MachineDefinition.Transition<StateId, Event>[]>[]
+				transitions = new Map[nodes.size()];
+		for (int i = 0; i < transitions.length; ++i) {
+			transitions[i] = new HashMap<Event,
+					MachineDefinition.Transition<StateId, Event>[]>();
+			for (Map.Entry<Event, List<MachineDefinition.Transition<
+					StateId, Event>>> entry:
+					nodes.get(i).transitions.entrySet()) {
+				transitions[i].put(entry.getKey(), entry.getValue().toArray(
+						new MachineDefinition.Transition[0]));
+			}
+		}
+
+		MachineDefinition.Node<StateId, Event>[] result =
+				new MachineDefinition.Node[nodes.size()];
+		for (int i = 0; i < result.length; ++i) {
+			NodeBuilder<StateId, Event> node = nodes.get(i);
+			Object[] pathIds = new Object[node.path.length];
+			for (int j = 0; j < pathIds.length; ++j) {
+				pathIds[j] = nodes.get(node.path[j]).state.getId();
+			}
+			result[i] = new MachineDefinition.Node<StateId, Event>(
+					node.state.getId(), node.state.getEntryExitAction(),
+					node.initialState,
+					node.subStateMachine == null ? History.NONE :
+							node.subStateMachine.getHistory(),
+					node.path,
+					Collections.unmodifiableList(
+							(List<StateId>)Arrays.asList(pathIds)),
+					transitions[i],
+					node.subStateMachine != null ? null :
+							createHandlers(node.path, transitions),
+					node.timedTransitions.toArray(
+							new MachineDefinition.TimedTransition[0]),
+					node.deferredEvents);
+		}
+		return new MachineDefinition<StateId, Event>(result, initialState,
+				stateMachine.getMaxCompletionSteps(),
+				stateMachine.getEventQueueCapacity(),
+				stateMachine.getTransitionListener(), indexes,
+				stateMachine.getTimingWheel(), timedTransitionCount);
+	}
+
+	/**
+	 * Collect the handler of each event for a leaf state. The levels are
+	 * visited from the deepest one upwards, so outer levels override
+	 * inner ones, the same way as when the event is dispatched level by
+	 * level. On the same level, transitions override deferring the event.
+	 */
+	private Map<Event, MachineDefinition.Handler<StateId, Event>>
+			createHandlers(int[] path,
+					Map<Event, MachineDefinition.Transition<StateId, Event>[]>[]
+							transitions) {
+		Map<Event, MachineDefinition.Handler<StateId, Event>> result =
+				new HashMap<Event, MachineDefinition.Handler<StateId, Event>>();
+		for (int depth = path.length - 1; depth >= 0; --depth) {
+			int index = path[depth];
+			Set<Event> deferredEvents = nodes.get(index).deferredEvents;
+			if (deferredEvents != null) {
+				for (Event event: deferredEvents) {
+					result.put(event,
+							new MachineDefinition.Handler<StateId, Event>(
+									index, null));
+				}
+			}
+			for (Map.Entry<Event, MachineDefinition.Transition<StateId, Event>[]>
+					entry: transitions[index].entrySet()) {
+				if (entry.getKey() != null) {
+					result.put(entry.getKey(),
+							new MachineDefinition.Handler<StateId, Event>(
+									index, entry.getValue()));
+				}
+			}
+		}
+		return result;
+	}
+
+	/**
+	 * Add the states of one level of the state machine.
+	 *
+	 * @return The index of the initial state of the level.
+	 */
+	private int compileLevel(IStateMachineEngine<StateId, Event> stateMachine,
+			int[] path) {
+		int first = nodes.size();
+		parentPath = path;
+		stateMachine.accept(this);
+		int last = nodes.size();
+
+		IState<StateId, Event> initialState = stateMachine.getInitialState();
+		if (initialState == null) {
+			throw new StateMachineException("No initial state is set" +
+					(path.length == 0 ? "." : " in state " +
+					nodes.get(path[path.length - 1]).state.getId() + "."));
+		}
+
+		for (int i = first; i < last; ++i) {
+			NodeBuilder<StateId, Event> node = nodes.get(i);
+			if (node.subStateMachine != null) {
+				node.initialState = compileLevel(node.subStateMachine,
+						node.path);
+			}
+		}
+		return indexes.get(initialState.getId());
+	}
+
+	@Override
+	public void visitState(IState<StateId, Event> state,
+			IStateMachineEngine<StateId, Event> subStateMachine) {
+		if (state instanceof IOrthogonalState<?, ?>) {
+			throw new StateMachineException("Orthogonal regions are not " +
+					"supported by machine definitions: " + state.getId() +
+					".");
+		}
+		NodeBuilder<StateId, Event> node = new NodeBuilder<StateId, Event>();
+		node.state = state;
+		node.subStateMachine = subStateMachine;
+		node.path = Arrays.copyOf(parentPath, parentPath.length + 1);
+		node.path[parentPath.length] = nodes.size();
+		indexes.put(state.getId(), nodes.size());
+		nodes.add(node);
+	}
+
+	@Override
+	public void visitTransition(StateId fromState, Event event,
+			ITransitionAction<StateId, Event> action, StateId toState,
+			IGuard<StateId, Event> guard) {
+		NodeBuilder<StateId, Event> node = nodes.get(indexes.get(fromState));
+		List<MachineDefinition.Transition<StateId, Event>> transitions =
+				node.transitions.get(event);
+		if (transitions == null) {
+			transitions =
+					new ArrayList<MachineDefinition.Transition<StateId, Event>>();
+			node.transitions.put(event, transitions);
+		}
+		transitions.add(new MachineDefinition.Transition<StateId, Event>(
+				GuardCompiler.compile(guard), action,
+				toState == null ? -1 : indexes.get(toState)));
+	}
+
+	@Override
+	public void visitTimedTransition(StateId fromState, long delay,
+			ITransitionAction<StateId, Event> action, StateId toState,
+			IGuard<StateId, Event> guard) {
+		nodes.get(indexes.get(fromState)).timedTransitions.add(
+				new MachineDefinition.TimedTransition<StateId, Event>(delay,
+						timedTransitionCount++,
+						new MachineDefinition.Transition<StateId, Event>(
+								GuardCompiler.compile(guard), action,
+								indexes.get(toState))));
+	}
+
+	@Override
+	public void visitDeferredEvent(StateId state, Event event) {
+		NodeBuilder<StateId, Event> node = nodes.get(indexes.get(state));
+		if (node.deferredEvents == null) {
+			node.deferredEvents = new HashSet<Event>();
+		}
+		node.deferredEvents.add(event);
+	}
+}
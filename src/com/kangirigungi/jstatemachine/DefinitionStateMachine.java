@@ -0,0 +1,708 @@
+/*
+ * Copyright (c) 2013, Peter Szabados
+ * All rights reserved.
+ *
+ * Redistribution and use in source and binary forms, with or without
+ * modification, are permitted provided that the following conditions are
+ * met:
+ *
+ *     (1) Redistributions of source code must retain the above copyright
+ *     notice, this list of conditions and the following disclaimer.
+ *
+ *     (2) Redistributions in binary form must reproduce the above copyright
+ *     notice, this list of conditions and the following disclaimer in
+ *     the documentation and/or other materials provided with the
+ *     distribution.
+ *
+ *     (3)The name of the author may not be used to
+ *     endorse or promote products derived from this software without
+ *     specific prior written permission.
+ *
+ * THIS SOFTWARE IS PROVIDED BY THE AUTHOR ``AS IS'' AND ANY EXPRESS OR
+ * IMPLIED WARRANTIES, INCLUDING, BUT NOT LIMITED TO, THE IMPLIED
+ * WARRANTIES OF MERCHANTABILITY AND FITNESS FOR A PARTICULAR PURPOSE ARE
+ * DISCLAIMED. IN NO EVENT SHALL THE AUTHOR BE LIABLE FOR ANY DIRECT,
+ * INDIRECT, INCIDENTAL, SPECIAL, EXEMPLARY, OR CONSEQUENTIAL DAMAGES
+ * (INCLUDING, BUT NOT LIMITED TO, PROCUREMENT OF SUBSTITUTE GOODS OR
+ * SERVICES; LOSS OF USE, DATA, OR PROFITS; OR BUSINESS INTERRUPTION)
+ * HOWEVER CAUSED AND ON ANY THEORY OF LIABILITY, WHETHER IN CONTRACT,
+ * STRICT LIABILITY, OR TORT (INCLUDING NEGLIGENCE OR OTHERWISE) ARISING
+ * IN ANY WAY OUT OF THE USE OF THIS SOFTWARE, EVEN IF ADVISED OF THE
+ * POSSIBILITY OF SUCH DAMAGE.
+ */
+
+package com.kangirigungi.jstatemachine;
+
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.List;
+
+import com.kangirigungi.jstatemachine.MachineDefinition.Handler;
+import com.kangirigungi.jstatemachine.MachineDefinition.Node;
+import com.kangirigungi.jstatemachine.MachineDefinition.TimedTransition;
+import com.kangirigungi.jstatemachine.MachineDefinition.Transition;
+
+/**
+ * A state machine instance created from a {@link MachineDefinition}. The
+ * active configuration is stored as the index of the deepest active state,
+ * the active states of the upper levels are its ancestors.
+ */
+class DefinitionStateMachine<StateId, Event>
+		implements IStateMachine<StateId, Event>,
+		IIndexedStateMachine<StateId>, IRestorableStateMachine {
+
+	/**
+	 * A timed transition scheduled for this instance. Each one is created
+	 * when its state is first entered, and reused afterwards.
+	 */
+	private static final class InstanceTimeout<StateId, Event>
+			extends Timeout {
+		final DefinitionStateMachine<StateId, Event> stateMachine;
+		/**
+		 * The index of the state of the transition.
+		 */
+		final int state;
+		final TimedTransition<StateId, Event> transition;
+
+		InstanceTimeout(DefinitionStateMachine<StateId, Event> stateMachine,
+				int state, TimedTransition<StateId, Event> transition) {
+			this.stateMachine = stateMachine;
+			this.state = state;
+			this.transition = transition;
+		}
+
+		@Override
+		void expire() {
+			stateMachine.processTimeout(this);
+		}
+	}
+
+	private final MachineDefinition<StateId, Event> definition;
+	private int leaf = -1;
+	private boolean inTransition = false;
+	private final EventQueue<Event> eventQueue;
+	/**
+	 * Indexed by {@link TimedTransition#index}. It is only allocated when a
+	 * state with timed transitions is entered.
+	 */
+	private InstanceTimeout<StateId, Event>[] timeouts = null;
+	/**
+	 * The last active child of each composite state, indexed by the index
+	 * of the composite state, or -1 if it was not active yet. It is only
+	 * allocated if the definition has history.
+	 */
+	private int[] history = null;
+	/**
+	 * It is only allocated when an event is deferred.
+	 */
+	private DeferredEvents<Event> deferredEvents = null;
+
+	DefinitionStateMachine(MachineDefinition<StateId, Event> definition) {
+		this.definition = definition;
+		eventQueue = definition.eventQueueCapacity == 0 ? null :
+				new EventQueue<Event>(definition.eventQueueCapacity);
+	}
+
+	void start() {
+		inTransition = true;
+		try {
+			enterState(definition.initialState, null);
+			processCompletionTransitions(0);
+			processQueuedEvents();
+		} catch (RuntimeException e) {
+			clearEventQueue();
+			throw e;
+		} finally {
+			inTransition = false;
+		}
+	}
+
+	@Override
+	public StateId getCurrentState() {
+		return definition.nodes[leaf].pathIds.get(0);
+	}
+
+	/**
+	 * {@inheritDoc}
+	 * <p>
+	 * The returned list is shared by all state machines of the same
+	 * definition and cannot be modified.
+	 */
+	@Override
+	public List<StateId> getCurrentStates() {
+		return definition.nodes[leaf].pathIds;
+	}
+
+	@Override
+	public StateId getCurrentDeepState() {
+		return definition.nodes[leaf].id;
+	}
+
+	@Override
+	public int getStateIndex(StateId id) {
+		Integer result = definition.indexes.get(id);
+		return result == null ? -1 : result;
+	}
+
+	@Override
+	public int getCurrentStateIndex() {
+		return definition.nodes[leaf].path[0];
+	}
+
+	@Override
+	public int getCurrentDeepStateIndex() {
+		return leaf;
+	}
+
+	@Override
+	public int[] getConfiguration() {
+		return definition.nodes[leaf].path.clone();
+	}
+
+	@Override
+	public void restoreConfiguration(int[] configuration) {
+		checkNotInTransition();
+		Node<StateId, Event> node =
+				definition.nodes[definition.getLeaf(configuration)];
+		int common = 0;
+		if (leaf >= 0) {
+			// the states active in both configurations keep their timers
+			Node<StateId, Event> leafNode = definition.nodes[leaf];
+			while (common <= leafNode.depth && common <= node.depth &&
+					leafNode.path[common] == node.path[common]) {
+				++common;
+			}
+			for (int depth = leafNode.depth; depth >= common; --depth) {
+				cancelTimeouts(definition.nodes[leafNode.path[depth]]);
+			}
+		}
+		leaf = node.path[node.depth];
+		for (int depth = common; depth <= node.depth; ++depth) {
+			scheduleTimeouts(node.path[depth]);
+		}
+		// deferred events are not part of the configuration
+		if (deferredEvents != null) {
+			deferredEvents.clear();
+		}
+	}
+
+	@Override
+	public int getDeferredEventCount() {
+		return deferredEvents == null ? 0 : deferredEvents.size();
+	}
+
+	@Override
+	public int[] getRememberedStates() {
+		if (history == null) {
+			return new int[0];
+		}
+		int count = 0;
+		for (int i = 0; i < history.length; ++i) {
+			if (history[i] >= 0) {
+				++count;
+			}
+		}
+		int[] result = new int[count * 2];
+		int position = 0;
+		for (int i = 0; i < history.length; ++i) {
+			if (history[i] >= 0) {
+				result[position++] = i;
+				result[position++] = history[i];
+			}
+		}
+		return result;
+	}
+
+	@Override
+	public void restoreRememberedStates(int[] history) {
+		checkNotInTransition();
+		int[] restored = new int[definition.nodes.length];
+		Arrays.fill(restored, -1);
+		boolean valid = history.length % 2 == 0;
+		for (int i = 0; valid && i < history.length; i += 2) {
+			int composite = history[i];
+			int substate = history[i + 1];
+			valid = composite >= 0 && composite < restored.length &&
+					restored[composite] < 0 &&
+					definition.nodes[composite].isComposite() &&
+					substate >= 0 && substate < restored.length &&
+					definition.nodes[substate].depth ==
+							definition.nodes[composite].depth + 1 &&
+					definition.nodes[substate].path[
+							definition.nodes[composite].depth] == composite;
+			if (valid) {
+				restored[composite] = substate;
+			}
+		}
+		if (!valid) {
+			throw new StateMachineException("Invalid history: " +
+					Arrays.toString(history));
+		}
+		this.history = history.length == 0 ? null : restored;
+	}
+
+	@Override
+	public void processEvent(Event event) {
+		if (inTransition) {
+			if (eventQueue == null) {
+				throw new InTransitionException("Cannot initiate transition " +
+						"while another transition is running.");
+			}
+			if (!eventQueue.offer(event)) {
+				throw new EventQueueFullException("Cannot queue more than " +
+						eventQueue.capacity() + " events.");
+			}
+			return;
+		}
+		process(event);
+	}
+
+	/**
+	 * Process an event and the events sent while it is processed. No
+	 * transition can be running.
+	 *
+	 * @return The outcome of the event.
+	 */
+	EventOutcome process(Event event) {
+		inTransition = true;
+		try {
+			EventOutcome result = dispatch(event, 0);
+			processQueuedEvents();
+			return result;
+		} catch (RuntimeException e) {
+			clearEventQueue();
+			throw e;
+		} finally {
+			inTransition = false;
+		}
+	}
+
+	/**
+	 * Make a state the deepest active state without calling any callbacks
+	 * or checking anything. The state machine must not have timed
+	 * transitions, history or deferred events, which are kept by the
+	 * instance besides the active state.
+	 *
+	 * @param leaf The index of a simple state, or -1.
+	 */
+	void setLeaf(int leaf) {
+		this.leaf = leaf;
+	}
+
+	@Override
+	public EventOutcome[] processEvents(Event[] events, int from, int to) {
+		if (from < 0 || to > events.length || from > to) {
+			throw new IndexOutOfBoundsException("Invalid range: " + from +
+					" - " + to + ", length = " + events.length);
+		}
+		EventOutcome[] result = new EventOutcome[to - from];
+		if (inTransition && eventQueue != null) {
+			for (int i = from; i < to; ++i) {
+				processEvent(events[i]);
+				result[i - from] = EventOutcome.QUEUED;
+			}
+			return result;
+		}
+		checkNotInTransition();
+		inTransition = true;
+		try {
+			for (int i = from; i < to; ++i) {
+				result[i - from] = dispatch(events[i], 0);
+				processQueuedEvents();
+			}
+		} catch (RuntimeException e) {
+			clearEventQueue();
+			throw e;
+		} finally {
+			inTransition = false;
+		}
+		return result;
+	}
+
+	@Override
+	public EventOutcome[] processEvents(Iterable<Event> events) {
+		List<EventOutcome> result = new ArrayList<EventOutcome>();
+		if (inTransition && eventQueue != null) {
+			for (Event event: events) {
+				processEvent(event);
+				result.add(EventOutcome.QUEUED);
+			}
+			return result.toArray(new EventOutcome[result.size()]);
+		}
+		checkNotInTransition();
+		inTransition = true;
+		try {
+			for (Event event: events) {
+				result.add(dispatch(event, 0));
+				processQueuedEvents();
+			}
+		} catch (RuntimeException e) {
+			clearEventQueue();
+			throw e;
+		} finally {
+			inTransition = false;
+		}
+		return result.toArray(new EventOutcome[result.size()]);
+	}
+
+	private void processTimeout(InstanceTimeout<StateId, Event> timeout) {
+		if (inTransition) {
+			throw new InTransitionException("Cannot execute a timed " +
+					"transition while another transition is running.");
+		}
+
+		inTransition = true;
+		try {
+			handleEvent(timeout.state, timeout.transition.transitions, null);
+			processQueuedEvents();
+		} catch (RuntimeException e) {
+			clearEventQueue();
+			throw e;
+		} finally {
+			inTransition = false;
+		}
+	}
+
+	private void checkNotInTransition() {
+		if (inTransition) {
+			throw new InTransitionException("Cannot process events " +
+					"while a transition is running.");
+		}
+	}
+
+	/**
+	 * Process the deferred events released by the last step, then the
+	 * events sent while it was running.
+	 */
+	private void processQueuedEvents() {
+		processDeferredEvents();
+		if (eventQueue != null) {
+			while (!eventQueue.isEmpty()) {
+				dispatch(eventQueue.poll(), 0);
+				processDeferredEvents();
+			}
+		}
+	}
+
+	private void processDeferredEvents() {
+		if (deferredEvents == null) {
+			return;
+		}
+		while (deferredEvents.hasReleased()) {
+			dispatch(deferredEvents.replay(), 0);
+			deferredEvents.finishReplay();
+		}
+	}
+
+	private void clearEventQueue() {
+		if (eventQueue != null) {
+			eventQueue.clear();
+		}
+		if (deferredEvents != null) {
+			deferredEvents.clearReleased();
+		}
+	}
+
+	private EventOutcome deferEvent(int index, Event event) {
+		if (deferredEvents == null) {
+			deferredEvents = new DeferredEvents<Event>();
+		}
+		deferredEvents.defer(index, event);
+		return EventOutcome.DEFERRED;
+	}
+
+	/**
+	 * Process an event starting from the given level. If the active state of
+	 * a level has no transitions for the event and does not defer it, it is
+	 * delegated to the level below. Events starting from the top level are looked up in the
+	 * handlers of the deepest active state instead of walking the levels.
+	 */
+	private EventOutcome dispatch(Event event, int depth) {
+		if (depth == 0 && event != null) {
+			Node<StateId, Event> leafNode = definition.nodes[leaf];
+			Handler<StateId, Event> handler = leafNode.handlers.get(event);
+			if (handler == null) {
+				if (definition.transitionListener != null) {
+					definition.transitionListener.onEventIgnored(leafNode.id,
+							event);
+				}
+				return EventOutcome.IGNORED;
+			}
+			if (handler.transitions == null) {
+				return deferEvent(handler.state, event);
+			}
+			return handleEvent(handler.state, handler.transitions, event);
+		}
+
+		while (true) {
+			int index = definition.nodes[leaf].path[depth];
+			Node<StateId, Event> node = definition.nodes[index];
+			Transition<StateId, Event>[] transitions =
+					node.transitions.get(event);
+			if (transitions != null) {
+				return handleEvent(index, transitions, event);
+			}
+			if (event == null) {
+				return EventOutcome.IGNORED;
+			}
+			if (node.defers(event)) {
+				return deferEvent(index, event);
+			}
+			if (!node.isComposite()) {
+				if (definition.transitionListener != null) {
+					definition.transitionListener.onEventIgnored(node.id,
+							event);
+				}
+				return EventOutcome.IGNORED;
+			}
+			++depth;
+		}
+	}
+
+	/**
+	 * Execute the transitions of a state for an event, then the completion
+	 * transitions that follow.
+	 */
+	private EventOutcome handleEvent(int index,
+			Transition<StateId, Event>[] transitions, Event event) {
+		EventOutcome result = executeTransition(index, transitions, event);
+		if (result != EventOutcome.GUARD_REJECTED) {
+			processCompletionTransitions(definition.nodes[index].depth);
+		} else if (event != null && definition.nodes[index].defers(event)) {
+			result = deferEvent(index, event);
+		} else if (definition.transitionListener != null) {
+			definition.transitionListener.onGuardRejected(
+					definition.nodes[index].id, event);
+		}
+		return result;
+	}
+
+	private void processCompletionTransitions(int depth) {
+		for (int steps = 0; ; ++steps) {
+			int index = definition.nodes[leaf].path[depth];
+			Transition<StateId, Event>[] transitions =
+					definition.nodes[index].transitions.get(null);
+			if (transitions == null) {
+				return;
+			}
+			if (steps == definition.maxCompletionSteps) {
+				if (!isAllowed(index, transitions)) {
+					return;
+				}
+				throw new CompletionCycleException("Completion transitions " +
+						"did not finish after " + definition.maxCompletionSteps +
+						" steps. Last state: " + definition.nodes[index].id +
+						".");
+			}
+			if (executeTransition(index, transitions, null) ==
+					EventOutcome.GUARD_REJECTED) {
+				return;
+			}
+		}
+	}
+
+	/**
+	 * Check whether the guard of any of the completion transitions allows
+	 * it, without executing it.
+	 */
+	private boolean isAllowed(int index,
+			Transition<StateId, Event>[] transitions) {
+		Node<StateId, Event> node = definition.nodes[index];
+		for (int i = 0; i < transitions.length; ++i) {
+			Transition<StateId, Event> transition = transitions[i];
+			if (transition.guard == null || transition.guard.checkTransition(
+					node.id, transition.target < 0 ? null :
+							definition.nodes[transition.target].id, null)) {
+				return true;
+			}
+		}
+		return false;
+	}
+
+	/**
+	 * Execute the first transition whose guard allows it.
+	 *
+	 * @return The kind of the executed transition, or
+	 * {@link EventOutcome#GUARD_REJECTED} if none was executed.
+	 */
+	private EventOutcome executeTransition(int index,
+			Transition<StateId, Event>[] transitions, Event event) {
+		ITransitionListener<StateId, Event> listener =
+				definition.transitionListener;
+		if (listener == null) {
+			return doExecuteTransition(index, transitions, event);
+		}
+
+		long start = System.nanoTime();
+		Node<StateId, Event> node = definition.nodes[index];
+		EventOutcome result = doExecuteTransition(index, transitions, event);
+		if (result != EventOutcome.GUARD_REJECTED) {
+			long nanos = System.nanoTime() - start;
+			// the target is the active state on the level of the source
+			listener.onTransition(node.id, event,
+					result == EventOutcome.INTERNAL ? null :
+							definition.nodes[leaf].pathIds.get(node.depth),
+					nanos);
+		}
+		return result;
+	}
+
+	private EventOutcome doExecuteTransition(int index,
+			Transition<StateId, Event>[] transitions, Event event) {
+		Node<StateId, Event> node = definition.nodes[index];
+		for (int i = 0; i < transitions.length; ++i) {
+			Transition<StateId, Event> transition = transitions[i];
+			StateId targetId = transition.target < 0 ? null :
+					definition.nodes[transition.target].id;
+
+			// check guard condition
+			if (transition.guard != null &&
+					!transition.guard.checkTransition(node.id, targetId,
+							event)) {
+				continue;
+			}
+
+			if (transition.target < 0) {
+				// internal transition
+				if (transition.action != null) {
+					transition.action.onTransition(node.id, null, event);
+				}
+				if (node.isComposite()) {
+					dispatch(event, node.depth + 1);
+				}
+			} else {
+				// change the state
+				exitState(index, event);
+				try {
+					if (transition.action != null) {
+						transition.action.onTransition(node.id, targetId,
+								event);
+					}
+					enterState(transition.target, event);
+				} catch (RuntimeException e) {
+					enterState(index, null);
+					throw e;
+				}
+				// only released when the source is really left, so they
+				// are kept if the transition fails
+				releaseDeferredEvents(index);
+			}
+			return transition.target < 0 ?
+					EventOutcome.INTERNAL : EventOutcome.TRANSITIONED;
+		}
+		return EventOutcome.GUARD_REJECTED;
+	}
+
+	/**
+	 * Exit the active states from the deepest one up to the given state.
+	 */
+	private void exitState(int index, Event event) {
+		Node<StateId, Event> leafNode = definition.nodes[leaf];
+		Node<StateId, Event> node = definition.nodes[index];
+		if (definition.hasHistory) {
+			recordHistory(leafNode, node.depth);
+		}
+		for (int depth = leafNode.depth; depth > node.depth; --depth) {
+			Node<StateId, Event> substate =
+					definition.nodes[leafNode.path[depth]];
+			cancelTimeouts(substate);
+			releaseDeferredEvents(leafNode.path[depth]);
+			if (substate.entryExitAction != null) {
+				substate.entryExitAction.onExit(substate.id, null);
+			}
+		}
+		leaf = index;
+		cancelTimeouts(node);
+		if (node.entryExitAction != null) {
+			node.entryExitAction.onExit(node.id, event);
+		}
+	}
+
+	/**
+	 * Remember the active child of the composite states that are exited.
+	 *
+	 * @param depth The depth of the outermost state that is exited.
+	 */
+	private void recordHistory(Node<StateId, Event> leafNode, int depth) {
+		if (history == null) {
+			history = new int[definition.nodes.length];
+			Arrays.fill(history, -1);
+		}
+		for (int i = depth; i < leafNode.depth; ++i) {
+			history[leafNode.path[i]] = leafNode.path[i + 1];
+		}
+	}
+
+	private void enterState(int index, Event event) {
+		enterState(index, event, false);
+	}
+
+	/**
+	 * Enter a state, and the initial or remembered states of its sub state
+	 * machines.
+	 *
+	 * @param resume If true, the remembered states are entered regardless
+	 * of the history of the state (deep history of a state above it).
+	 */
+	private void enterState(int index, Event event, boolean resume) {
+		Node<StateId, Event> node = definition.nodes[index];
+		if (node.entryExitAction != null) {
+			node.entryExitAction.onEnter(node.id, event);
+		}
+		leaf = index;
+		scheduleTimeouts(index);
+		if (node.isComposite()) {
+			int substate = node.initialState;
+			resume |= node.history == History.DEEP;
+			if ((resume || node.history == History.SHALLOW) &&
+					history != null && history[index] >= 0) {
+				substate = history[index];
+			}
+			enterState(substate, null, resume);
+			processCompletionTransitions(node.depth + 1);
+		}
+	}
+
+	private void releaseDeferredEvents(int index) {
+		if (deferredEvents != null &&
+				definition.nodes[index].deferredEvents != null) {
+			deferredEvents.release(index);
+		}
+	}
+
+	@SuppressWarnings({"unchecked", "rawtypes"})
+	private void scheduleTimeouts(int index) {
+		TimedTransition<StateId, Event>[] transitions =
+				definition.nodes[index].timedTransitions;
+		if (transitions.length == 0) {
+			return;
+		}
+		if (timeouts == null) {
+			timeouts = new InstanceTimeout[definition.timedTransitionCount];
+		}
+		for (int i = 0; i < transitions.length; ++i) {
+			TimedTransition<StateId, Event> transition = transitions[i];
+			InstanceTimeout<StateId, Event> timeout =
+					timeouts[transition.index];
+			if (timeout == null) {
+				timeout = new InstanceTimeout<StateId, Event>(this, index,
+						transition);
+				timeouts[transition.index] = timeout;
+			}
+			definition.timingWheel.schedule(timeout, transition.delay);
+		}
+	}
+
+	private void cancelTimeouts(Node<StateId, Event> node) {
+		if (timeouts == null) {
+			return;
+		}
+		for (int i = 0; i < node.timedTransitions.length; ++i) {
+			InstanceTimeout<StateId, Event> timeout =
+					timeouts[node.timedTransitions[i].index];
+			if (timeout != null) {
+				definition.timingWheel.cancel(timeout);
+			}
+		}
+	}
+}
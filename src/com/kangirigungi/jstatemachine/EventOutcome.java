@@ -0,0 +1,77 @@
+/*
+ * Copyright (c) 2013, Peter Szabados
+ * All rights reserved.
+ *
+ * Redistribution and use in source and binary forms, with or without
+ * modification, are permitted provided that the following conditions are
+ * met:
+ *
+ *     (1) Redistributions of source code must retain the above copyright
+ *     notice, this list of conditions and the following disclaimer.
+ *
+ *     (2) Redistributions in binary form must reproduce the above copyright
+ *     notice, this list of conditions and the following disclaimer in
+ *     the documentation and/or other materials provided with the
+ *     distribution.
+ *
+ *     (3)The name of the author may not be used to
+ *     endorse or promote products derived from this software without
+ *     specific prior written permission.
+ *
+ * THIS SOFTWARE IS PROVIDED BY THE AUTHOR ``AS IS'' AND ANY EXPRESS OR
+ * IMPLIED WARRANTIES, INCLUDING, BUT NOT LIMITED TO, THE IMPLIED
+ * WARRANTIES OF MERCHANTABILITY AND FITNESS FOR A PARTICULAR PURPOSE ARE
+ * DISCLAIMED. IN NO EVENT SHALL THE AUTHOR BE LIABLE FOR ANY DIRECT,
+ * INDIRECT, INCIDENTAL, SPECIAL, EXEMPLARY, OR CONSEQUENTIAL DAMAGES
+ * (INCLUDING, BUT NOT LIMITED TO, PROCUREMENT OF SUBSTITUTE GOODS OR
+ * SERVICES; LOSS OF USE, DATA, OR PROFITS; OR BUSINESS INTERRUPTION)
+ * HOWEVER CAUSED AND ON ANY THEORY OF LIABILITY, WHETHER IN CONTRACT,
+ * STRICT LIABILITY, OR TORT (INCLUDING NEGLIGENCE OR OTHERWISE) ARISING
+ * IN ANY WAY OUT OF THE USE OF THIS SOFTWARE, EVEN IF ADVISED OF THE
+ * POSSIBILITY OF SUCH DAMAGE.
+ */
+
+package com.kangirigungi.jstatemachine;
+
+/**
+ * The result of processing one event, as returned by
+ * {@link IStateMachine#processEvents(Object[], int, int)}. It describes
+ * the level of the state machine that handled the event: the first level,
+ * from the top level state machine downwards, whose active state has
+ * transitions for the event or defers it. Completion transitions and events sent from
+ * callbacks do not change the outcome.
+ *
+ * @author Peter Szabados
+ *
+ */
+public enum EventOutcome {
+	/**
+	 * A transition changed the state.
+	 */
+	TRANSITIONED,
+	/**
+	 * An internal transition was executed.
+	 */
+	INTERNAL,
+	/**
+	 * No active state has transitions for the event.
+	 */
+	IGNORED,
+	/**
+	 * The active state has transitions for the event, but their guards
+	 * did not allow any of them.
+	 */
+	GUARD_REJECTED,
+	/**
+	 * The active state defers the event, and its transitions for the event,
+	 * if any, were not allowed by their guards. The event is processed again
+	 * when the state is left.
+	 */
+	DEFERRED,
+	/**
+	 * The event was sent from a callback and put into the event queue. It
+	 * is processed after the running transition, so its outcome is not
+	 * known yet.
+	 */
+	QUEUED
+}
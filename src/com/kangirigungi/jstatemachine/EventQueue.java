@@ -0,0 +1,99 @@
+/*
+ * Copyright (c) 2013, Peter Szabados
+ * All rights reserved.
+ *
+ * Redistribution and use in source and binary forms, with or without
+ * modification, are permitted provided that the following conditions are
+ * met:
+ *
+ *     (1) Redistributions of source code must retain the above copyright
+ *     notice, this list of conditions and the following disclaimer.
+ *
+ *     (2) Redistributions in binary form must reproduce the above copyright
+ *     notice, this list of conditions and the following disclaimer in
+ *     the documentation and/or other materials provided with the
+ *     distribution.
+ *
+ *     (3)The name of the author may not be used to
+ *     endorse or promote products derived from this software without
+ *     specific prior written permission.
+ *
+ * THIS SOFTWARE IS PROVIDED BY THE AUTHOR ``AS IS'' AND ANY EXPRESS OR
+ * IMPLIED WARRANTIES, INCLUDING, BUT NOT LIMITED TO, THE IMPLIED
+ * WARRANTIES OF MERCHANTABILITY AND FITNESS FOR A PARTICULAR PURPOSE ARE
+ * DISCLAIMED. IN NO EVENT SHALL THE AUTHOR BE LIABLE FOR ANY DIRECT,
+ * INDIRECT, INCIDENTAL, SPECIAL, EXEMPLARY, OR CONSEQUENTIAL DAMAGES
+ * (INCLUDING, BUT NOT LIMITED TO, PROCUREMENT OF SUBSTITUTE GOODS OR
+ * SERVICES; LOSS OF USE, DATA, OR PROFITS; OR BUSINESS INTERRUPTION)
+ * HOWEVER CAUSED AND ON ANY THEORY OF LIABILITY, WHETHER IN CONTRACT,
+ * STRICT LIABILITY, OR TORT (INCLUDING NEGLIGENCE OR OTHERWISE) ARISING
+ * IN ANY WAY OUT OF THE USE OF THIS SOFTWARE, EVEN IF ADVISED OF THE
+ * POSSIBILITY OF SUCH DAMAGE.
+ */
+
+package com.kangirigungi.jstatemachine;
+
+/**
+ * Fixed size ring buffer of events. It does not allocate memory after it
+ * is created. <code>null</code> events are allowed.
+ */
+class EventQueue<Event> {
+	private final Object[] events;
+	private int head = 0;
+	private int size = 0;
+
+	EventQueue(int capacity) {
+		events = new Object[capacity];
+	}
+
+	public boolean isEmpty() {
+		return size == 0;
+	}
+
+	public int size() {
+		return size;
+	}
+
+	public int capacity() {
+		return events.length;
+	}
+
+	/**
+	 * Add an event to the end of the queue.
+	 *
+	 * @return False if the queue is full.
+	 */
+	public boolean offer(Event event) {
+		if (size == events.length) {
+			return false;
+		}
+		int tail = head + size;
+		if (tail >= events.length) {
+			tail -= events.length;
+		}
+		events[tail] = event;
+		++size;
+		return true;
+	}
+
+	/**
+	 * Remove the first event of the queue. The queue must not be empty.
+	 */
+	@SuppressWarnings("unchecked")
+	public Event poll() {
+		Event result = (Event)events[head];
+		events[head] = null;
+		if (++head == events.length) {
+			head = 0;
+		}
+		--size;
+		return result;
+	}
+
+	public void clear() {
+		while (size != 0) {
+			poll();
+		}
+		head = 0;
+	}
+}
@@ -0,0 +1,365 @@
+/*
+ * Copyright (c) 2013, Peter Szabados
+ * All rights reserved.
+ *
+ * Redistribution and use in source and binary forms, with or without
+ * modification, are permitted provided that the following conditions are
+ * met:
+ *
+ *     (1) Redistributions of source code must retain the above copyright
+ *     notice, this list of conditions and the following disclaimer.
+ *
+ *     (2) Redistributions in binary form must reproduce the above copyright
+ *     notice, this list of conditions and the following disclaimer in
+ *     the documentation and/or other materials provided with the
+ *     distribution.
+ *
+ *     (3)The name of the author may not be used to
+ *     endorse or promote products derived from this software without
+ *     specific prior written permission.
+ *
+ * THIS SOFTWARE IS PROVIDED BY THE AUTHOR ``AS IS'' AND ANY EXPRESS OR
+ * IMPLIED WARRANTIES, INCLUDING, BUT NOT LIMITED TO, THE IMPLIED
+ * WARRANTIES OF MERCHANTABILITY AND FITNESS FOR A PARTICULAR PURPOSE ARE
+ * DISCLAIMED. IN NO EVENT SHALL THE AUTHOR BE LIABLE FOR ANY DIRECT,
+ * INDIRECT, INCIDENTAL, SPECIAL, EXEMPLARY, OR CONSEQUENTIAL DAMAGES
+ * (INCLUDING, BUT NOT LIMITED TO, PROCUREMENT OF SUBSTITUTE GOODS OR
+ * SERVICES; LOSS OF USE, DATA, OR PROFITS; OR BUSINESS INTERRUPTION)
+ * HOWEVER CAUSED AND ON ANY THEORY OF LIABILITY, WHETHER IN CONTRACT,
+ * STRICT LIABILITY, OR TORT (INCLUDING NEGLIGENCE OR OTHERWISE) ARISING
+ * IN ANY WAY OUT OF THE USE OF THIS SOFTWARE, EVEN IF ADVISED OF THE
+ * POSSIBILITY OF SUCH DAMAGE.
+ */
+
+package com.kangirigungi.jstatemachine;
+
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.Comparator;
+import java.util.List;
+
+/**
+ * Compiles expressions built from {@link GuardAnd}, {@link GuardOr},
+ * {@link GuardNot} and {@link GuardConstant} into a single flat guard.
+ * <p>
+ * The expression is simplified before compiling: negations are moved to
+ * the leaf guards, nested <i>and</i> and <i>or</i> expressions are merged,
+ * constants are folded, and duplicate operands are removed. The operands
+ * of each <i>and</i> and <i>or</i> expression are ordered by their cost
+ * (see {@link IGuardCost}), so cheaper guards are checked first. The
+ * result is a branching program: an array of the leaf guards, each with
+ * the index of the next guard to check if it returns true and if it
+ * returns false. Checking the compiled guard is a single loop instead of
+ * a chain of nested calls, and the evaluation still stops as soon as the
+ * result is known.
+ * <p>
+ * Guards are required to have no side effects (see {@link IGuard}), so
+ * the compiled guard returns the same result as the original, but the
+ * leaf guards may be called in a different order, and some of them may
+ * not be called at all.
+ *
+ * @author Peter Szabados
+ *
+ */
+public final class GuardCompiler {
+
+	private static final int ACCEPT = -1;
+	private static final int REJECT = -2;
+
+	private static abstract class Expression {
+		int cost;
+	}
+
+	private static class Constant extends Expression {
+		final boolean value;
+
+		Constant(boolean value) {
+			this.value = value;
+			cost = 0;
+		}
+
+		@Override
+		public boolean equals(Object other) {
+			return other instanceof Constant &&
+					((Constant)other).value == value;
+		}
+
+		@Override
+		public int hashCode() {
+			return value ? 1 : 0;
+		}
+	}
+
+	private static class Literal extends Expression {
+		final IGuard<?, ?> guard;
+		final boolean negated;
+
+		Literal(IGuard<?, ?> guard, boolean negated) {
+			this.guard = guard;
+			this.negated = negated;
+			cost = guard instanceof IGuardCost ?
+					((IGuardCost)guard).getCost() : IGuardCost.DEFAULT_COST;
+		}
+
+		boolean isComplementOf(Expression other) {
+			return other instanceof Literal &&
+					((Literal)other).guard == guard &&
+					((Literal)other).negated != negated;
+		}
+
+		@Override
+		public boolean equals(Object other) {
+			return other instanceof Literal &&
+					((Literal)other).guard == guard &&
+					((Literal)other).negated == negated;
+		}
+
+		@Override
+		public int hashCode() {
+			return System.identityHashCode(guard) ^ (negated ? 1 : 0);
+		}
+	}
+
+	private static class Junction extends Expression {
+		final boolean and;
+		final List<Expression> operands;
+
+		Junction(boolean and, List<Expression> operands) {
+			this.and = and;
+			this.operands = operands;
+		}
+
+		@Override
+		public boolean equals(Object other) {
+			return other instanceof Junction &&
+					((Junction)other).and == and &&
+					((Junction)other).operands.equals(operands);
+		}
+
+		@Override
+		public int hashCode() {
+			return operands.hashCode() ^ (and ? 1 : 0);
+		}
+	}
+
+	private static final Comparator<Expression> COST_ORDER =
+			new Comparator<Expression>() {
+		@Override
+		public int compare(Expression left, Expression right) {
+			return left.cost < right.cost ? -1 :
+					left.cost == right.cost ? 0 : 1;
+		}
+	};
+
+	private static class CompiledGuard<StateId, Event>
+			implements IGuard<StateId, Event>, IGuardCost {
+		private final IGuard<StateId, Event>[] guards;
+		private final int[] onTrue;
+		private final int[] onFalse;
+		private final int entry;
+		private final int cost;
+
+		CompiledGuard(IGuard<StateId, Event>[] guards, int[] onTrue,
+				int[] onFalse, int entry, int cost) {
+			this.guards = guards;
+			this.onTrue = onTrue;
+			this.onFalse = onFalse;
+			this.entry = entry;
+			this.cost = cost;
+		}
+
+		@Override
+		public boolean checkTransition(StateId fromState, StateId toState,
+				Event event) {
+			int next = entry;
+			while (next >= 0) {
+				next = guards[next].checkTransition(fromState, toState, event) ?
+						onTrue[next] : onFalse[next];
+			}
+			return next == ACCEPT;
+		}
+
+		@Override
+		public int getCost() {
+			return cost;
+		}
+	}
+
+	private final List<IGuard<?, ?>> guards = new ArrayList<IGuard<?, ?>>();
+	private final List<Integer> onTrue = new ArrayList<Integer>();
+	private final List<Integer> onFalse = new ArrayList<Integer>();
+
+	private GuardCompiler() {
+	}
+
+	/**
+	 * Compile a guard expression.
+	 *
+	 * @param guard The guard to be compiled. It can be <code>null</code>.
+	 * @return The compiled guard. If the guard is not an expression of
+	 * other guards, or the expression is simplified to a single guard, that
+	 * guard is returned. If the expression is simplified to a constant, a
+	 * {@link GuardConstant} is returned.
+	 */
+	@SuppressWarnings({"unchecked", "rawtypes"})
+	public static <StateId, Event> IGuard<StateId, Event> compile(
+			IGuard<StateId, Event> guard) {
+		if (guard == null || !isExpression(guard)) {
+			return guard;
+		}
+
+		Expression expression = simplify(toExpression(guard, false));
+		if (expression instanceof Constant) {
+			return new GuardConstant<StateId, Event>(
+					((Constant)expression).value);
+		}
+		if (expression instanceof Literal &&
+				!((Literal)expression).negated) {
+			return (IGuard<StateId, Event>)((Literal)expression).guard;
+		}
+
+		GuardCompiler compiler = new GuardCompiler();
+		int entry = compiler.emit(expression, ACCEPT, REJECT);
+		int size = compiler.guards.size();
+		IGuard<StateId, Event>[] guards = compiler.guards.toArray(
+				new IGuard[size]);
+		int[] onTrue = new int[size];
+		int[] onFalse = new int[size];
+		for (int i = 0; i < size; ++i) {
+			onTrue[i] = compiler.onTrue.get(i);
+			onFalse[i] = compiler.onFalse.get(i);
+		}
+		return new CompiledGuard<StateId, Event>(guards, onTrue, onFalse,
+				entry, expression.cost);
+	}
+
+	private static boolean isExpression(IGuard<?, ?> guard) {
+		Class<?> type = guard.getClass();
+		return type == GuardAnd.class || type == GuardOr.class ||
+				type == GuardNot.class || type == GuardConstant.class;
+	}
+
+	private static Expression toExpression(IGuard<?, ?> guard,
+			boolean negated) {
+		Class<?> type = guard.getClass();
+		if (type == GuardNot.class) {
+			return toExpression(((GuardNot<?, ?>)guard).getOther(), !negated);
+		}
+		if (type == GuardConstant.class) {
+			return new Constant(((GuardConstant<?, ?>)guard).getValue() !=
+					negated);
+		}
+		if (type == GuardAnd.class) {
+			// De Morgan: !(a && b) == !a || !b
+			GuardAnd<?, ?> and = (GuardAnd<?, ?>)guard;
+			return createJunction(!negated,
+					toExpression(and.getLeft(), negated),
+					toExpression(and.getRight(), negated));
+		}
+		if (type == GuardOr.class) {
+			GuardOr<?, ?> or = (GuardOr<?, ?>)guard;
+			return createJunction(negated,
+					toExpression(or.getLeft(), negated),
+					toExpression(or.getRight(), negated));
+		}
+		return new Literal(guard, negated);
+	}
+
+	private static Junction createJunction(boolean and, Expression left,
+			Expression right) {
+		List<Expression> operands = new ArrayList<Expression>(2);
+		operands.add(left);
+		operands.add(right);
+		return new Junction(and, operands);
+	}
+
+	private static Expression simplify(Expression expression) {
+		if (!(expression instanceof Junction)) {
+			return expression;
+		}
+
+		Junction junction = (Junction)expression;
+		List<Expression> operands = new ArrayList<Expression>();
+		List<Expression> pending = new ArrayList<Expression>();
+		for (Expression operand: junction.operands) {
+			Expression simplified = simplify(operand);
+			if (simplified instanceof Junction &&
+					((Junction)simplified).and == junction.and) {
+				// (a && b) && c == a && b && c
+				pending.addAll(((Junction)simplified).operands);
+			} else {
+				pending.add(simplified);
+			}
+		}
+
+		for (Expression operand: pending) {
+			if (operand instanceof Constant) {
+				if (((Constant)operand).value != junction.and) {
+					// false && x == false, true || x == true
+					return operand;
+				}
+				// true && x == x, false || x == x
+				continue;
+			}
+			if (operands.contains(operand)) {
+				continue;
+			}
+			if (operand instanceof Literal) {
+				for (Expression other: operands) {
+					if (((Literal)operand).isComplementOf(other)) {
+						// x && !x == false, x || !x == true
+						return new Constant(!junction.and);
+					}
+				}
+			}
+			operands.add(operand);
+		}
+
+		if (operands.isEmpty()) {
+			return new Constant(junction.and);
+		}
+		if (operands.size() == 1) {
+			return operands.get(0);
+		}
+
+		Collections.sort(operands, COST_ORDER);
+		Junction result = new Junction(junction.and, operands);
+		for (Expression operand: operands) {
+			result.cost += operand.cost;
+		}
+		return result;
+	}
+
+	/**
+	 * Add the instructions checking an expression.
+	 *
+	 * @param expression The expression to check.
+	 * @param whenTrue The instruction to continue with if the expression
+	 * is true.
+	 * @param whenFalse The instruction to continue with if the expression
+	 * is false.
+	 * @return The first instruction checking the expression.
+	 */
+	private int emit(Expression expression, int whenTrue, int whenFalse) {
+		if (expression instanceof Constant) {
+			return ((Constant)expression).value ? whenTrue : whenFalse;
+		}
+		if (expression instanceof Literal) {
+			Literal literal = (Literal)expression;
+			guards.add(literal.guard);
+			onTrue.add(literal.negated ? whenFalse : whenTrue);
+			onFalse.add(literal.negated ? whenTrue : whenFalse);
+			return guards.size() - 1;
+		}
+
+		// emit the operands backwards, so each knows where to continue
+		Junction junction = (Junction)expression;
+		int next = junction.and ? whenTrue : whenFalse;
+		for (int i = junction.operands.size() - 1; i >= 0; --i) {
+			next = junction.and ?
+					emit(junction.operands.get(i), next, whenFalse) :
+					emit(junction.operands.get(i), whenTrue, next);
+		}
+		return next;
+	}
+}
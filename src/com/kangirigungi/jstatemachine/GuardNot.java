@@ -56,6 +56,10 @@ public class GuardNot<StateId, Event> implements IGuard<StateId, Event> {
 		return !other.checkTransition(fromState, toState, event);
 	}
 
+	IGuard<StateId, Event> getOther() {
+		return other;
+	}
+
 
 
 }
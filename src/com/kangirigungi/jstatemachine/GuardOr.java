@@ -60,6 +60,14 @@ public class GuardOr<StateId, Event> implements IGuard<StateId, Event> {
 				right.checkTransition(fromState, toState, event);
 	}
 
+	IGuard<StateId, Event> getLeft() {
+		return left;
+	}
+
+	IGuard<StateId, Event> getRight() {
+		return right;
+	}
+
 
 
 }
@@ -33,34 +33,79 @@
 
 package com.kangirigungi.jstatemachine;
 
-import java.util.List;
+import java.util.BitSet;
 
-public class GuardState<StateId, Event> implements IGuard<StateId, Event> {
+/**
+ * Guard checking the current state of a state machine. It returns true
+ * if the current state is one of the given states.
+ * <p>
+ * If the state machine is created by {@link StateMachineBuilder} or
+ * {@link MachineDefinition}, the given states are converted to a set of
+ * state indexes when the guard is created, so the check is a single bit
+ * lookup.
+ *
+ * @author Peter Szabados
+ *
+ */
+public class GuardState<StateId, Event> implements IGuard<StateId, Event>,
+		IGuardCost {
 
 	private IStateMachine<StateId, Event> stateMachine;
 	private StateId[] states;
 	private boolean deep;
+	/**
+	 * The same as {@link #stateMachine} if it is indexed, otherwise
+	 * <code>null</code>.
+	 */
+	private IIndexedStateMachine<StateId> indexedStateMachine;
+	private BitSet stateIndexes;
 
+	/**
+	 * Initialize the guard.
+	 *
+	 * @param stateMachine The state machine to check.
+	 * @param states The accepted states.
+	 * @param deep If true, the state of the deepest active sub state
+	 * machine is checked, otherwise the state of the top level state
+	 * machine.
+	 */
+	@SuppressWarnings("unchecked")
 	public GuardState(IStateMachine<StateId, Event> stateMachine,
 			StateId[] states, boolean deep) {
 		this.stateMachine = stateMachine;
 		this.states = states.clone();
 		this.deep = deep;
+
+		if (stateMachine instanceof IIndexedStateMachine<?>) {
+			indexedStateMachine =
+					(IIndexedStateMachine<StateId>)stateMachine;
+			stateIndexes = new BitSet();
+			for (StateId state: states) {
+				int index = indexedStateMachine.getStateIndex(state);
+				if (index >= 0) {
+					stateIndexes.set(index);
+				}
+			}
+		}
 	}
 
 	@Override
 	public boolean checkTransition(StateId fromState,
 			StateId toState, Event event) {
+		if (indexedStateMachine != null) {
+			int index = deep ?
+					indexedStateMachine.getCurrentDeepStateIndex() :
+					indexedStateMachine.getCurrentStateIndex();
+			return index >= 0 && stateIndexes.get(index);
+		}
 
-		List<StateId> currentStates = stateMachine.getCurrentStates();
+		StateId currentState = deep ? stateMachine.getCurrentDeepState() :
+				stateMachine.getCurrentState();
 
-		if (currentStates.size() == 0) {
+		if (currentState == null) {
 			return false;
 		}
 
-		StateId currentState = currentStates.get(deep ?
-				currentStates.size() - 1 : 0);
-
 		for (StateId stateId: states) {
 			if (currentState.equals(stateId)) {
 				return true;
@@ -70,6 +115,9 @@ public class GuardState<StateId, Event> implements IGuard<StateId, Event> {
 		return false;
 	}
 
-
+	@Override
+	public int getCost() {
+		return indexedStateMachine != null ? 1 : 1 + states.length;
+	}
 
 }
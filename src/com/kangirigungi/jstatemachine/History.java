@@ -0,0 +1,69 @@
+/*
+ * Copyright (c) 2013, Peter Szabados
+ * All rights reserved.
+ *
+ * Redistribution and use in source and binary forms, with or without
+ * modification, are permitted provided that the following conditions are
+ * met:
+ *
+ *     (1) Redistributions of source code must retain the above copyright
+ *     notice, this list of conditions and the following disclaimer.
+ *
+ *     (2) Redistributions in binary form must reproduce the above copyright
+ *     notice, this list of conditions and the following disclaimer in
+ *     the documentation and/or other materials provided with the
+ *     distribution.
+ *
+ *     (3)The name of the author may not be used to
+ *     endorse or promote products derived from this software without
+ *     specific prior written permission.
+ *
+ * THIS SOFTWARE IS PROVIDED BY THE AUTHOR ``AS IS'' AND ANY EXPRESS OR
+ * IMPLIED WARRANTIES, INCLUDING, BUT NOT LIMITED TO, THE IMPLIED
+ * WARRANTIES OF MERCHANTABILITY AND FITNESS FOR A PARTICULAR PURPOSE ARE
+ * DISCLAIMED. IN NO EVENT SHALL THE AUTHOR BE LIABLE FOR ANY DIRECT,
+ * INDIRECT, INCIDENTAL, SPECIAL, EXEMPLARY, OR CONSEQUENTIAL DAMAGES
+ * (INCLUDING, BUT NOT LIMITED TO, PROCUREMENT OF SUBSTITUTE GOODS OR
+ * SERVICES; LOSS OF USE, DATA, OR PROFITS; OR BUSINESS INTERRUPTION)
+ * HOWEVER CAUSED AND ON ANY THEORY OF LIABILITY, WHETHER IN CONTRACT,
+ * STRICT LIABILITY, OR TORT (INCLUDING NEGLIGENCE OR OTHERWISE) ARISING
+ * IN ANY WAY OUT OF THE USE OF THIS SOFTWARE, EVEN IF ADVISED OF THE
+ * POSSIBILITY OF SUCH DAMAGE.
+ */
+package com.kangirigungi.jstatemachine;
+
+/**
+ * The history of a composite state. It determines which states of the sub
+ * state machine are entered when the composite state is entered again,
+ * like the history pseudo-states of UML. See
+ * {@link CompositeStateBuilder#setHistory(History)}.
+ * <p>
+ * Each level of the state machine remembers the state that was active when
+ * it was last left, so resuming is done in constant time for each level.
+ * States entered because of the history get <code>null</code> as event,
+ * the same way as initial states. The history is not part of the
+ * configuration of the state machine (see {@link IRestorableStateMachine}).
+ *
+ * @author Peter Szabados
+ *
+ */
+public enum History {
+	/**
+	 * The initial state of the sub state machine is entered each time.
+	 */
+	NONE,
+	/**
+	 * The state of the sub state machine that was active when the composite
+	 * state was last exited is entered again. Its own sub state machine is
+	 * entered according to its own history. The initial state is entered
+	 * the first time.
+	 */
+	SHALLOW,
+	/**
+	 * The states of all levels below the composite state that were active
+	 * when it was last exited are entered again, regardless of the history
+	 * of the levels below. The initial states are entered on the levels
+	 * that were not active before.
+	 */
+	DEEP
+}
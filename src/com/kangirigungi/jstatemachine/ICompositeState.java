@@ -37,6 +37,11 @@ interface ICompositeState<StateId, Event>
 		extends IState<StateId, Event> {
 
 	public IStateMachineEngine<StateId, Event> getStateMachine();
+	/**
+	 * Enter the state, and resume its sub state machine from the states
+	 * that were last active on each level (deep history).
+	 */
+	public void resumeState(Event event);
 
 	@Override
 	public void setEntryExitAction(
@@ -40,7 +40,8 @@ package com.kangirigungi.jstatemachine;
  * it cannot be relied on that all guards are executed.
  * <p>
  * Logical functions of more than one guards can be created by instantiating
- * the {@link GuardAnd}, {@link GuardOr} and {@link GuardNot} classes.
+ * the {@link GuardAnd}, {@link GuardOr} and {@link GuardNot} classes. Such
+ * expressions can be flattened with {@link GuardCompiler}.
  *
  * @author Peter Szabados
  *
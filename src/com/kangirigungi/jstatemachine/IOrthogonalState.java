@@ -0,0 +1,115 @@
+/*
+ * Copyright (c) 2013, Peter Szabados
+ * All rights reserved.
+ *
+ * Redistribution and use in source and binary forms, with or without
+ * modification, are permitted provided that the following conditions are
+ * met:
+ *
+ *     (1) Redistributions of source code must retain the above copyright
+ *     notice, this list of conditions and the following disclaimer.
+ *
+ *     (2) Redistributions in binary form must reproduce the above copyright
+ *     notice, this list of conditions and the following disclaimer in
+ *     the documentation and/or other materials provided with the
+ *     distribution.
+ *
+ *     (3)The name of the author may not be used to
+ *     endorse or promote products derived from this software without
+ *     specific prior written permission.
+ *
+ * THIS SOFTWARE IS PROVIDED BY THE AUTHOR ``AS IS'' AND ANY EXPRESS OR
+ * IMPLIED WARRANTIES, INCLUDING, BUT NOT LIMITED TO, THE IMPLIED
+ * WARRANTIES OF MERCHANTABILITY AND FITNESS FOR A PARTICULAR PURPOSE ARE
+ * DISCLAIMED. IN NO EVENT SHALL THE AUTHOR BE LIABLE FOR ANY DIRECT,
+ * INDIRECT, INCIDENTAL, SPECIAL, EXEMPLARY, OR CONSEQUENTIAL DAMAGES
+ * (INCLUDING, BUT NOT LIMITED TO, PROCUREMENT OF SUBSTITUTE GOODS OR
+ * SERVICES; LOSS OF USE, DATA, OR PROFITS; OR BUSINESS INTERRUPTION)
+ * HOWEVER CAUSED AND ON ANY THEORY OF LIABILITY, WHETHER IN CONTRACT,
+ * STRICT LIABILITY, OR TORT (INCLUDING NEGLIGENCE OR OTHERWISE) ARISING
+ * IN ANY WAY OUT OF THE USE OF THIS SOFTWARE, EVEN IF ADVISED OF THE
+ * POSSIBILITY OF SUCH DAMAGE.
+ */
+package com.kangirigungi.jstatemachine;
+
+import java.util.List;
+import java.util.concurrent.ExecutorService;
+
+/**
+ * A state with orthogonal regions. Each region is an independent state
+ * machine with its own top level, and all of them are active while the
+ * state is active. For the state machine containing it, the state is a
+ * simple state. The states of the regions are registered on the top level
+ * of the state machine containing the state, see
+ * {@link IStateMachineEngine#setEnclosingStateMachine(IStateMachineEngine)}.
+ */
+interface IOrthogonalState<StateId, Event>
+		extends IState<StateId, Event> {
+
+	/**
+	 * Add a new region. The regions are entered in the order they are
+	 * added, and exited in reverse order.
+	 *
+	 * @return The top level state machine of the region.
+	 */
+	public IStateMachineEngine<StateId, Event> addRegion();
+	public List<IStateMachineEngine<StateId, Event>> getRegions();
+	/**
+	 * Set the executor used to dispatch events to the regions in parallel,
+	 * or <code>null</code> to dispatch them one after the other.
+	 */
+	public void setExecutor(ExecutorService executor);
+	public ExecutorService getExecutor();
+	/**
+	 * Set the history of all regions.
+	 */
+	public void setHistory(History history);
+	/**
+	 * Enter the state, and resume the regions from the states that were
+	 * last active on each level (deep history).
+	 */
+	public void resumeState(Event event);
+	/**
+	 * Dispatch an event to all regions.
+	 *
+	 * @return The merged outcome of the regions.
+	 */
+	public EventOutcome dispatchEvent(Event event);
+	/**
+	 * Get the number of active states of all regions.
+	 */
+	public int getActiveStateCount();
+	/**
+	 * Get an active state of the regions. The active states of each region
+	 * are listed from its top level down to its deepest active state, and
+	 * the regions follow each other in the order they were added.
+	 */
+	public StateId getActiveState(int index);
+	/**
+	 * Append the configurations of the regions to the configuration of
+	 * the levels above the state. Each region is stored as the length of
+	 * its configuration, followed by the configuration.
+	 */
+	public int[] getConfiguration(int[] prefix);
+	/**
+	 * Check the part of a configuration that belongs to the regions.
+	 *
+	 * @param from The position of the first region in the configuration.
+	 * @return The position after the last region, or -1 if the
+	 * configuration is not valid.
+	 */
+	public int checkConfiguration(int[] configuration, int from);
+	/**
+	 * Make the configurations of the regions active without calling any
+	 * callbacks. No checks are done.
+	 *
+	 * @param configuration The configuration, or <code>null</code> to
+	 * deactivate the regions.
+	 * @param from The position of the first region in the configuration.
+	 */
+	public void restoreRegions(int[] configuration, int from);
+	/**
+	 * Get the number of events deferred by the states of all regions.
+	 */
+	public int getDeferredEventCount();
+}
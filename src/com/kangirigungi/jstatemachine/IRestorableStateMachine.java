@@ -0,0 +1,103 @@
+/*
+ * Copyright (c) 2013, Peter Szabados
+ * All rights reserved.
+ *
+ * Redistribution and use in source and binary forms, with or without
+ * modification, are permitted provided that the following conditions are
+ * met:
+ *
+ *     (1) Redistributions of source code must retain the above copyright
+ *     notice, this list of conditions and the following disclaimer.
+ *
+ *     (2) Redistributions in binary form must reproduce the above copyright
+ *     notice, this list of conditions and the following disclaimer in
+ *     the documentation and/or other materials provided with the
+ *     distribution.
+ *
+ *     (3)The name of the author may not be used to
+ *     endorse or promote products derived from this software without
+ *     specific prior written permission.
+ *
+ * THIS SOFTWARE IS PROVIDED BY THE AUTHOR ``AS IS'' AND ANY EXPRESS OR
+ * IMPLIED WARRANTIES, INCLUDING, BUT NOT LIMITED TO, THE IMPLIED
+ * WARRANTIES OF MERCHANTABILITY AND FITNESS FOR A PARTICULAR PURPOSE ARE
+ * DISCLAIMED. IN NO EVENT SHALL THE AUTHOR BE LIABLE FOR ANY DIRECT,
+ * INDIRECT, INCIDENTAL, SPECIAL, EXEMPLARY, OR CONSEQUENTIAL DAMAGES
+ * (INCLUDING, BUT NOT LIMITED TO, PROCUREMENT OF SUBSTITUTE GOODS OR
+ * SERVICES; LOSS OF USE, DATA, OR PROFITS; OR BUSINESS INTERRUPTION)
+ * HOWEVER CAUSED AND ON ANY THEORY OF LIABILITY, WHETHER IN CONTRACT,
+ * STRICT LIABILITY, OR TORT (INCLUDING NEGLIGENCE OR OTHERWISE) ARISING
+ * IN ANY WAY OUT OF THE USE OF THIS SOFTWARE, EVEN IF ADVISED OF THE
+ * POSSIBILITY OF SUCH DAMAGE.
+ */
+package com.kangirigungi.jstatemachine;
+
+/**
+ * State machine whose active configuration can be saved and restored. The
+ * configuration is the list of the indexes of the active states, from the
+ * top level down to the deepest active state. It holds the same
+ * information as {@link IStateMachine#getCurrentStates()}, in a compact
+ * form. The configurations of orthogonal regions are described in
+ * {@link OrthogonalStateBuilder}.
+ * <p>
+ * The indexes only depend on how the state machine was built, so a
+ * configuration can be restored to any state machine built the same way.
+ * The remembered states of the composite states (see {@link History}) are
+ * saved and restored separately with {@link #getRememberedStates()} and
+ * {@link #restoreRememberedStates(int[])}. The deferred events are not
+ * saved, so the state of an instance is only fully described by them if
+ * {@link #getDeferredEventCount()} is 0. Restoring a configuration drops
+ * the deferred events of the state machine.
+ * The state machines created by {@link StateMachineBuilder#create()} and
+ * {@link MachineDefinition#newInstance()} implement this interface.
+ *
+ * @author Peter Szabados
+ *
+ */
+public interface IRestorableStateMachine {
+	/**
+	 * Get the active configuration.
+	 *
+	 * @return The indexes of the active states. The array is not used by
+	 * the state machine after it is returned.
+	 */
+	public int[] getConfiguration();
+	/**
+	 * Make the states of a configuration active. No callbacks are called:
+	 * the states are neither exited nor entered. The timed transitions of
+	 * the states that become active are started.
+	 *
+	 * @param configuration A configuration returned by
+	 * {@link #getConfiguration()}.
+	 * @throws StateMachineException If the configuration is not valid for
+	 * this state machine.
+	 * @throws InTransitionException If called from within a callback.
+	 */
+	public void restoreConfiguration(int[] configuration);
+	/**
+	 * Get the remembered states of the composite states, which are entered
+	 * again if the composite state has history. The states inside
+	 * orthogonal regions are not included.
+	 *
+	 * @return Pairs of the index of a composite state and the index of its
+	 * sub state that was active when the composite state was last left.
+	 * The array is not used by the state machine after it is returned.
+	 */
+	public int[] getRememberedStates();
+	/**
+	 * Replace the remembered states of the composite states. No callbacks
+	 * are called. The composite states missing from the array have no
+	 * remembered state.
+	 *
+	 * @param history An array returned by {@link #getRememberedStates()}.
+	 * @throws StateMachineException If the history is not valid for this
+	 * state machine.
+	 * @throws InTransitionException If called from within a callback.
+	 */
+	public void restoreRememberedStates(int[] history);
+	/**
+	 * Get the number of events that are deferred by the active states, or
+	 * are released and not yet replayed.
+	 */
+	public int getDeferredEventCount();
+}
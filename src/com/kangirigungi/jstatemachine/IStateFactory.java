@@ -37,6 +37,8 @@ interface IStateFactory<StateId, Event> {
 	IState<StateId, Event> createState(StateId id);
 	ICompositeState<StateId, Event> createCompositeState(StateId id,
 			IStateMachineEngine<StateId, Event> topLevelStateMachine);
+	IOrthogonalState<StateId, Event> createOrthogonalState(StateId id,
+			IStateMachineEngine<StateId, Event> topLevelStateMachine);
 	IStateMachineEngine<StateId, Event> createStateMachine(
 			IStateMachineEngine<StateId, Event> topLevelStateMachine);
 }
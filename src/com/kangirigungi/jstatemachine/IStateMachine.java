@@ -42,7 +42,8 @@ import java.util.List;
  * from within this method.
  * <p>
  * Do not derive directly from this class. Use {@link StateMachineBuilder#create()}
- * to acquire an implementation of this interface.
+ * or {@link MachineDefinition#newInstance()} to acquire an implementation of
+ * this interface.
  */
 public interface IStateMachine<StateId, Event> {
 	/**
@@ -53,20 +54,77 @@ public interface IStateMachine<StateId, Event> {
 	 * Get a list of states that represents the current state of the state
 	 * machine and all its substates. The first element of the result is
 	 * the state of the top level state machine, and the last element is
-	 * the state of the deepest substate.
+	 * the state of the deepest substate. If the deepest substate has
+	 * orthogonal regions, the active states of the regions follow it, see
+	 * {@link OrthogonalStateBuilder}.
+	 * <p>
+	 * The returned list cannot be modified. Depending on the
+	 * implementation, it may be a view that reflects later state changes,
+	 * so copy it if a snapshot is needed.
 	 */
 	public List<StateId> getCurrentStates();
+	/**
+	 * Get the state of the deepest active sub state machine. It is the same
+	 * as the last element of {@link #getCurrentStates()}, unless that state
+	 * has orthogonal regions.
+	 */
+	public StateId getCurrentDeepState();
 
 	/**
 	 * Process one event of the state machine. Make any necessary state
 	 * changes and call the action callbacks (transition, entry and exit
 	 * actions).
 	 *<p>
-	 * <b>Note:</b> Do not call this method from within an action callback.
+	 * <b>Note:</b> Do not call this method from within an action callback,
+	 * unless the state machine has an event queue (see
+	 * {@link StateMachineBuilder#setEventQueueCapacity(int)}). In that case,
+	 * the event is processed after the current transition is finished.
 	 *
 	 * @param event The event to be processed.
 	 * @throws InTransitionException If a callback is called while a transition
-	 * is taking place.
+	 * is taking place and the state machine has no event queue.
+	 * @throws EventQueueFullException If the event is sent from a callback
+	 * and the event queue is full.
 	 */
 	public void processEvent(Event event);
+
+	/**
+	 * Process a batch of events. It has the same effect as calling
+	 * {@link #processEvent(Object) processEvent} for each event, in order,
+	 * but the per call checks are done only once for the whole batch.
+	 * <p>
+	 * If a callback throws an exception, the exception is propagated and
+	 * the rest of the events are not processed.
+	 * <p>
+	 * If called from within a callback of a state machine that has an event
+	 * queue, the events are queued the same way as by
+	 * {@link #processEvent(Object) processEvent}, and the outcome of each is
+	 * {@link EventOutcome#QUEUED}.
+	 *
+	 * @param events The array containing the events.
+	 * @param from The index of the first event to be processed.
+	 * @param to The index after the last event to be processed.
+	 * @return The outcome of each processed event. The element at index
+	 * <code>i</code> belongs to <code>events[from + i]</code>.
+	 * @throws InTransitionException If called from within a callback and
+	 * the state machine has no event queue.
+	 * @throws EventQueueFullException If called from within a callback and
+	 * the event queue is full.
+	 * @throws IndexOutOfBoundsException If the range is not within the array.
+	 */
+	public EventOutcome[] processEvents(Event[] events, int from, int to);
+
+	/**
+	 * Process a batch of events. See
+	 * {@link #processEvents(Object[], int, int)} for details.
+	 *
+	 * @param events The events to be processed.
+	 * @return The outcome of each processed event, in the order of the
+	 * events.
+	 * @throws InTransitionException If called from within a callback and
+	 * the state machine has no event queue.
+	 * @throws EventQueueFullException If called from within a callback and
+	 * the event queue is full.
+	 */
+	public EventOutcome[] processEvents(Iterable<Event> events);
 }
@@ -33,27 +33,261 @@
 
 package com.kangirigungi.jstatemachine;
 
+import java.util.List;
+import java.util.Map;
+
 interface IStateMachineEngine<StateId, Event> {
 
 	public IState<StateId, Event> getInitialState();
 	public IState<StateId, Event> getcurrentState();
 	public IState<StateId, Event> getcurrentDeepState();
+	/**
+	 * Get the ids of the active states of the whole hierarchy, from the top
+	 * level down to the deepest active state. The result is a read-only
+	 * view that reflects later state changes.
+	 */
+	public List<StateId> getCurrentStates();
+	/**
+	 * Get the index of the deepest active state of the whole hierarchy.
+	 *
+	 * @return The index, or -1 if the state machine is not active.
+	 */
+	public int getCurrentDeepStateIndex();
+	/**
+	 * Get the indexes of the active states of the whole hierarchy, from the
+	 * top level down to the deepest active state.
+	 */
+	public int[] getConfiguration();
+	/**
+	 * Make the states of a configuration active without calling any
+	 * callbacks. The configuration is checked before anything is changed.
+	 *
+	 * @throws StateMachineException If the configuration is not valid.
+	 */
+	public void restoreConfiguration(int[] configuration);
+	/**
+	 * See {@link IRestorableStateMachine#getRememberedStates()}. Sub state
+	 * machines delegate it to the top level.
+	 */
+	public int[] getRememberedStates();
+	/**
+	 * See {@link IRestorableStateMachine#restoreRememberedStates(int[])}.
+	 * Sub state machines delegate it to the top level.
+	 */
+	public void restoreRememberedStates(int[] history);
+	/**
+	 * Append the remembered state of this level and of the levels below it
+	 * to a history.
+	 *
+	 * @param compositeIndex The index of the composite state of this level,
+	 * or -1 on the top level.
+	 */
+	public void getRememberedStates(int compositeIndex,
+			List<Integer> history);
+	/**
+	 * Set the remembered state of this level and of the levels below it.
+	 * The entries used are removed from the history.
+	 *
+	 * @param compositeIndex The index of the composite state of this level,
+	 * or -1 on the top level.
+	 * @param history The index of the remembered state by the index of the
+	 * composite state.
+	 * @param apply If false, the history is only checked.
+	 * @return False if a remembered state is not a state of its level.
+	 */
+	public boolean restoreRememberedStates(int compositeIndex,
+			Map<Integer, Integer> history, boolean apply);
+	/**
+	 * See {@link IRestorableStateMachine#getDeferredEventCount()}. Sub
+	 * state machines delegate it to the top level.
+	 */
+	public int getDeferredEventCount();
+	/**
+	 * Check the part of a configuration that belongs to this level and the
+	 * levels below it. Nothing is changed.
+	 *
+	 * @param from The position of the state of this level in the
+	 * configuration.
+	 * @return The position after the part that belongs to this level, or
+	 * -1 if the configuration is not valid.
+	 */
+	public int checkConfiguration(int[] configuration, int from);
+	/**
+	 * Make the state of a configuration on this level active, and restore
+	 * the levels below it. No checks are done, and no callbacks are called.
+	 *
+	 * @param configuration The configuration, or <code>null</code> to
+	 * deactivate this level.
+	 */
+	public void restoreState(int[] configuration);
+	/**
+	 * Record the active state of a level of the hierarchy. It is called
+	 * by each level when its current state changes, and the top level
+	 * keeps the active configuration, so it can be queried without walking
+	 * the levels.
+	 *
+	 * @param depth The level of the state, 0 for the top level.
+	 * @param state The new active state, or <code>null</code> if the level
+	 * is left.
+	 * @param index The index of the state in the whole hierarchy.
+	 */
+	public void setActiveState(int depth, IState<StateId, Event> state,
+			int index);
+	/**
+	 * Get the level of this state machine in the hierarchy. It is 0 for the
+	 * top level.
+	 */
+	public int getDepth();
+	public void setDepth(int depth);
+	/**
+	 * Get the level that contains the composite state of this level.
+	 *
+	 * @return The parent level, or <code>null</code> on the top level.
+	 */
+	public IStateMachineEngine<StateId, Event> getParent();
+	public void setParent(IStateMachineEngine<StateId, Event> parent);
 	public IState<StateId, Event> getState(StateId id);
+	/**
+	 * Get a state of this level by its index in the whole hierarchy.
+	 *
+	 * @return The state, or <code>null</code> if there is no such state on
+	 * this level.
+	 */
+	public IState<StateId, Event> getStateByIndex(int index);
 	public boolean hasState(StateId id);
+	/**
+	 * Record that a state is added to the given level of the hierarchy. The
+	 * index is kept by the top level state machine, so duplicates are
+	 * detected without walking the sub state machines.
+	 *
+	 * @return The index of the state in the whole hierarchy, or -1 if a
+	 * state with the same id already exists anywhere in the hierarchy.
+	 */
+	public int registerState(StateId id,
+			IStateMachineEngine<StateId, Event> stateMachine);
+	/**
+	 * Get the level of the hierarchy that contains a state.
+	 *
+	 * @return The state machine containing the state, or <code>null</code>
+	 * if there is no such state.
+	 */
+	public IStateMachineEngine<StateId, Event> getStateOwner(StateId id);
+	/**
+	 * Get the index of a state in the whole hierarchy.
+	 *
+	 * @return The index, or -1 if there is no such state.
+	 */
+	public int getStateIndex(StateId id);
+	/**
+	 * Get the index of the current state in the whole hierarchy.
+	 *
+	 * @return The index, or -1 if the state machine is not active.
+	 */
+	public int getCurrentStateIndex();
 	public IStateMachineEngine<StateId, Event> getTopLevelStateMachine();
+	/**
+	 * Make this top level the top level of a region. Its states are
+	 * registered in the enclosing state machine, so the indexes are unique
+	 * in the whole hierarchy including the regions, and it uses the timing
+	 * wheel, the transition listener and the maximum number of completion
+	 * steps of the enclosing state machine. It must be called before any
+	 * state is added.
+	 *
+	 * @param enclosingStateMachine The top level of the state machine
+	 * containing the state with the region.
+	 */
+	public void setEnclosingStateMachine(
+			IStateMachineEngine<StateId, Event> enclosingStateMachine);
 	public void setInitialState(StateId initialState);
 	public void enter();
 	public void enter(StateId state);
+	/**
+	 * Enter the state that was active when this level was last left, and
+	 * resume the levels below it the same way (deep history). If this
+	 * level was not active before, its initial state is entered.
+	 */
+	public void resume();
+	public History getHistory();
+	/**
+	 * Set which state is entered by {@link #enter()}.
+	 */
+	public void setHistory(History history);
 	public void leave();
 	public boolean isActive();
 	public IState<StateId, Event> addState(StateId id);
 	public ICompositeState<StateId, Event> addCompositeState(StateId id);
+	public IOrthogonalState<StateId, Event> addOrthogonalState(StateId id);
 	public void addTransition(StateId fromState, Event event,
 			ITransitionAction<StateId, Event> action, StateId toState,
 			IGuard<StateId, Event> guard);
 	public void addInternalTransition(StateId state, Event event,
 			ITransitionAction<StateId, Event> action,
 			IGuard<StateId, Event> guard);
+	/**
+	 * Add a transition that is executed when the state has been active for
+	 * the given time.
+	 *
+	 * @param delay The delay in nanoseconds.
+	 */
+	public void addTimedTransition(StateId fromState, long delay,
+			ITransitionAction<StateId, Event> action, StateId toState,
+			IGuard<StateId, Event> guard);
+	/**
+	 * Make a state defer an event: if the state has no transitions for the
+	 * event that are allowed, the event is kept until the state is left.
+	 */
+	public void addDeferredEvent(StateId state, Event event);
+	/**
+	 * Keep an event in the queue of a state until the state is left. The
+	 * queues are kept by the top level.
+	 *
+	 * @param index The index of the state in the whole hierarchy.
+	 */
+	public void deferEvent(int index, Event event);
+	/**
+	 * Release the events deferred by a state, so they are replayed by
+	 * {@link #processDeferredEvents()}. It is called when the state is left.
+	 *
+	 * @param index The index of the state in the whole hierarchy.
+	 */
+	public void releaseDeferredEvents(int index);
+	/**
+	 * Dispatch the released deferred events of a top level state machine in
+	 * the order they arrived, without checking or changing whether a
+	 * transition is running.
+	 */
+	public void processDeferredEvents();
 	public void processEvent(Event event);
+	/**
+	 * Execute a timed transition on the top level, the same way as an
+	 * event is processed. The top level of a region delegates it to the
+	 * enclosing state machine.
+	 */
+	public void processTimeout(Runnable transition);
+	public EventOutcome[] processEvents(Event[] events, int from, int to);
+	public EventOutcome[] processEvents(Iterable<Event> events);
+	/**
+	 * Process an event on this level only.
+	 *
+	 * @return The state machine of the current state if the event is to be
+	 * delegated to it, or <code>null</code> if the event is processed.
+	 */
+	public IStateMachineEngine<StateId, Event> dispatchEvent(Event event);
+	/**
+	 * Get the outcome of the last call of {@link #dispatchEvent(Object)}.
+	 * It is only meaningful if that call returned <code>null</code>.
+	 */
+	public EventOutcome getDispatchOutcome();
+	public int getMaxCompletionSteps();
+	public void setMaxCompletionSteps(int maxCompletionSteps);
+	public int getEventQueueCapacity();
+	public void setEventQueueCapacity(int capacity);
+	public ITransitionListener<StateId, Event> getTransitionListener();
+	public void setTransitionListener(
+			ITransitionListener<StateId, Event> transitionListener);
+	public TimingWheel getTimingWheel();
+	public void setTimingWheel(TimingWheel timingWheel);
+	public void compile(Class<StateId> stateType, Class<Event> eventType);
+	public void accept(IStateMachineEngineVisitor<StateId, Event> visitor);
 
 }
\ No newline at end of file
@@ -0,0 +1,64 @@
+/*
+ * Copyright (c) 2013, Peter Szabados
+ * All rights reserved.
+ *
+ * Redistribution and use in source and binary forms, with or without
+ * modification, are permitted provided that the following conditions are
+ * met:
+ *
+ *     (1) Redistributions of source code must retain the above copyright
+ *     notice, this list of conditions and the following disclaimer.
+ *
+ *     (2) Redistributions in binary form must reproduce the above copyright
+ *     notice, this list of conditions and the following disclaimer in
+ *     the documentation and/or other materials provided with the
+ *     distribution.
+ *
+ *     (3)The name of the author may not be used to
+ *     endorse or promote products derived from this software without
+ *     specific prior written permission.
+ *
+ * THIS SOFTWARE IS PROVIDED BY THE AUTHOR ``AS IS'' AND ANY EXPRESS OR
+ * IMPLIED WARRANTIES, INCLUDING, BUT NOT LIMITED TO, THE IMPLIED
+ * WARRANTIES OF MERCHANTABILITY AND FITNESS FOR A PARTICULAR PURPOSE ARE
+ * DISCLAIMED. IN NO EVENT SHALL THE AUTHOR BE LIABLE FOR ANY DIRECT,
+ * INDIRECT, INCIDENTAL, SPECIAL, EXEMPLARY, OR CONSEQUENTIAL DAMAGES
+ * (INCLUDING, BUT NOT LIMITED TO, PROCUREMENT OF SUBSTITUTE GOODS OR
+ * SERVICES; LOSS OF USE, DATA, OR PROFITS; OR BUSINESS INTERRUPTION)
+ * HOWEVER CAUSED AND ON ANY THEORY OF LIABILITY, WHETHER IN CONTRACT,
+ * STRICT LIABILITY, OR TORT (INCLUDING NEGLIGENCE OR OTHERWISE) ARISING
+ * IN ANY WAY OUT OF THE USE OF THIS SOFTWARE, EVEN IF ADVISED OF THE
+ * POSSIBILITY OF SUCH DAMAGE.
+ */
+
+package com.kangirigungi.jstatemachine;
+
+/**
+ * Visitor for the structure of one level of a state machine. All states
+ * are visited before any of the transitions, in the order they were added.
+ */
+interface IStateMachineEngineVisitor<StateId, Event> {
+	/**
+	 * @param subStateMachine The state machine of the state if it is
+	 * composite, otherwise <code>null</code>.
+	 */
+	public void visitState(IState<StateId, Event> state,
+			IStateMachineEngine<StateId, Event> subStateMachine);
+
+	/**
+	 * @param toState The target of the transition, or <code>null</code>
+	 * for internal transitions.
+	 */
+	public void visitTransition(StateId fromState, Event event,
+			ITransitionAction<StateId, Event> action, StateId toState,
+			IGuard<StateId, Event> guard);
+
+	/**
+	 * @param delay The delay of the transition in nanoseconds.
+	 */
+	public void visitTimedTransition(StateId fromState, long delay,
+			ITransitionAction<StateId, Event> action, StateId toState,
+			IGuard<StateId, Event> guard);
+
+	public void visitDeferredEvent(StateId state, Event event);
+}
@@ -0,0 +1,84 @@
+/*
+ * Copyright (c) 2013, Peter Szabados
+ * All rights reserved.
+ *
+ * Redistribution and use in source and binary forms, with or without
+ * modification, are permitted provided that the following conditions are
+ * met:
+ *
+ *     (1) Redistributions of source code must retain the above copyright
+ *     notice, this list of conditions and the following disclaimer.
+ *
+ *     (2) Redistributions in binary form must reproduce the above copyright
+ *     notice, this list of conditions and the following disclaimer in
+ *     the documentation and/or other materials provided with the
+ *     distribution.
+ *
+ *     (3)The name of the author may not be used to
+ *     endorse or promote products derived from this software without
+ *     specific prior written permission.
+ *
+ * THIS SOFTWARE IS PROVIDED BY THE AUTHOR ``AS IS'' AND ANY EXPRESS OR
+ * IMPLIED WARRANTIES, INCLUDING, BUT NOT LIMITED TO, THE IMPLIED
+ * WARRANTIES OF MERCHANTABILITY AND FITNESS FOR A PARTICULAR PURPOSE ARE
+ * DISCLAIMED. IN NO EVENT SHALL THE AUTHOR BE LIABLE FOR ANY DIRECT,
+ * INDIRECT, INCIDENTAL, SPECIAL, EXEMPLARY, OR CONSEQUENTIAL DAMAGES
+ * (INCLUDING, BUT NOT LIMITED TO, PROCUREMENT OF SUBSTITUTE GOODS OR
+ * SERVICES; LOSS OF USE, DATA, OR PROFITS; OR BUSINESS INTERRUPTION)
+ * HOWEVER CAUSED AND ON ANY THEORY OF LIABILITY, WHETHER IN CONTRACT,
+ * STRICT LIABILITY, OR TORT (INCLUDING NEGLIGENCE OR OTHERWISE) ARISING
+ * IN ANY WAY OUT OF THE USE OF THIS SOFTWARE, EVEN IF ADVISED OF THE
+ * POSSIBILITY OF SUCH DAMAGE.
+ */
+
+package com.kangirigungi.jstatemachine;
+
+/**
+ * Observer of the transitions of a state machine. Register it with
+ * {@link StateMachineBuilder#setTransitionListener(ITransitionListener)}.
+ * It is called for every level of the state machine, after the callbacks
+ * of the transition are finished. If it throws an exception, the exception
+ * is propagated from {@link IStateMachine#processEvent(Object)}, but the
+ * state is already changed.
+ * <p>
+ * If no listener is registered, the state machine does not measure the
+ * duration of the transitions.
+ *
+ * @author Peter Szabados
+ *
+ * @param <StateId> The type used for referencing states.
+ * @param <Event> The type used for referencing events.
+ */
+public interface ITransitionListener<StateId, Event> {
+	/**
+	 * Called after a transition is executed, including completion and
+	 * internal transitions.
+	 *
+	 * @param fromState The initial state of the transition.
+	 * @param event The event triggering the transition. For completion
+	 * transitions, it is <code>null</code>.
+	 * @param toState The final state of the transition. For internal
+	 * transitions, it is <code>null</code>.
+	 * @param nanos The time spent executing the exit action, the transition
+	 * action and the entry actions, in nanoseconds.
+	 */
+	public void onTransition(StateId fromState, Event event, StateId toState,
+			long nanos);
+
+	/**
+	 * Called when the current state has transitions for an event, but
+	 * their guards did not allow any of them.
+	 *
+	 * @param state The current state.
+	 * @param event The event.
+	 */
+	public void onGuardRejected(StateId state, Event event);
+
+	/**
+	 * Called when no current state has transitions for an event.
+	 *
+	 * @param state The deepest current state.
+	 * @param event The event.
+	 */
+	public void onEventIgnored(StateId state, Event event);
+}
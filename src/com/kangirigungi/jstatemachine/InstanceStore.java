@@ -0,0 +1,283 @@
+/*
+ * Copyright (c) 2013, Peter Szabados
+ * All rights reserved.
+ *
+ * Redistribution and use in source and binary forms, with or without
+ * modification, are permitted provided that the following conditions are
+ * met:
+ *
+ *     (1) Redistributions of source code must retain the above copyright
+ *     notice, this list of conditions and the following disclaimer.
+ *
+ *     (2) Redistributions in binary form must reproduce the above copyright
+ *     notice, this list of conditions and the following disclaimer in
+ *     the documentation and/or other materials provided with the
+ *     distribution.
+ *
+ *     (3)The name of the author may not be used to
+ *     endorse or promote products derived from this software without
+ *     specific prior written permission.
+ *
+ * THIS SOFTWARE IS PROVIDED BY THE AUTHOR ``AS IS'' AND ANY EXPRESS OR
+ * IMPLIED WARRANTIES, INCLUDING, BUT NOT LIMITED TO, THE IMPLIED
+ * WARRANTIES OF MERCHANTABILITY AND FITNESS FOR A PARTICULAR PURPOSE ARE
+ * DISCLAIMED. IN NO EVENT SHALL THE AUTHOR BE LIABLE FOR ANY DIRECT,
+ * INDIRECT, INCIDENTAL, SPECIAL, EXEMPLARY, OR CONSEQUENTIAL DAMAGES
+ * (INCLUDING, BUT NOT LIMITED TO, PROCUREMENT OF SUBSTITUTE GOODS OR
+ * SERVICES; LOSS OF USE, DATA, OR PROFITS; OR BUSINESS INTERRUPTION)
+ * HOWEVER CAUSED AND ON ANY THEORY OF LIABILITY, WHETHER IN CONTRACT,
+ * STRICT LIABILITY, OR TORT (INCLUDING NEGLIGENCE OR OTHERWISE) ARISING
+ * IN ANY WAY OUT OF THE USE OF THIS SOFTWARE, EVEN IF ADVISED OF THE
+ * POSSIBILITY OF SUCH DAMAGE.
+ */
+
+package com.kangirigungi.jstatemachine;
+
+import java.nio.ByteBuffer;
+import java.nio.ByteOrder;
+import java.util.List;
+
+/**
+ * A fixed number of state machine instances of the same
+ * {@link MachineDefinition}, stored outside of the Java heap. Use
+ * {@link MachineDefinition#newInstanceStore(int)} to acquire one.
+ * <p>
+ * The instances are referenced by dense ids, from 0 to {@link #size()}
+ * - 1, in the order they were added. Each instance is stored as the index
+ * of its deepest active state in a direct buffer, using 1, 2 or 4 bytes
+ * depending on the number of states of the definition. No objects are
+ * created for the instances, so millions of them can be kept with little
+ * memory and garbage collection load. The events are processed by a single
+ * state machine object that is loaded with the state of the instance, so
+ * the instances behave the same way as those created by
+ * {@link MachineDefinition#newInstance()}.
+ * <p>
+ * Definitions with timed transitions, history or deferred events are not
+ * supported, because those need memory for each instance besides the
+ * active state. The store is not thread-safe, and the callbacks cannot
+ * call the store.
+ *
+ * @author Peter Szabados
+ *
+ * @param <StateId> The type used for referencing states.
+ * @param <Event> The type used for referencing events.
+ */
+public final class InstanceStore<StateId, Event> {
+	private final MachineDefinition<StateId, Event> definition;
+	private final ByteBuffer states;
+	/**
+	 * The number of bytes used for each instance: 1, 2 or 4.
+	 */
+	private final int width;
+	private final int capacity;
+	private int size = 0;
+	/**
+	 * Processes the events of the instance being loaded into it.
+	 */
+	private final DefinitionStateMachine<StateId, Event> cursor;
+	private boolean busy = false;
+
+	InstanceStore(MachineDefinition<StateId, Event> definition,
+			int capacity) {
+		if (definition.timingWheel != null) {
+			throw new StateMachineException("Timed transitions are not " +
+					"supported by instance stores.");
+		}
+		if (definition.hasHistory) {
+			throw new StateMachineException("History states are not " +
+					"supported by instance stores.");
+		}
+		if (definition.hasDeferredEvents) {
+			throw new StateMachineException("Deferred events are not " +
+					"supported by instance stores.");
+		}
+		int stateCount = definition.nodes.length;
+		width = stateCount <= Byte.MAX_VALUE ? 1 :
+				stateCount <= Short.MAX_VALUE ? 2 : 4;
+		if (capacity < 0 || capacity > Integer.MAX_VALUE / width) {
+			throw new StateMachineException("Invalid capacity: " +
+					capacity + ".");
+		}
+		this.definition = definition;
+		this.capacity = capacity;
+		states = ByteBuffer.allocateDirect(capacity * width).order(
+				ByteOrder.nativeOrder());
+		cursor = new DefinitionStateMachine<StateId, Event>(definition);
+	}
+
+	/**
+	 * Get the maximum number of instances.
+	 */
+	public int getCapacity() {
+		return capacity;
+	}
+
+	/**
+	 * Get the number of instances.
+	 */
+	public int size() {
+		return size;
+	}
+
+	/**
+	 * Get the number of bytes used for each instance.
+	 */
+	public int getBytesPerInstance() {
+		return width;
+	}
+
+	/**
+	 * Add a new instance. The instance is started (the initial states are
+	 * entered) before it is added.
+	 *
+	 * @return The id of the instance.
+	 * @throws StateMachineException If the store is full.
+	 */
+	public int addInstance() {
+		checkNotFull();
+		checkNotBusy();
+		busy = true;
+		try {
+			cursor.setLeaf(-1);
+			cursor.start();
+			store(size, cursor.getCurrentDeepStateIndex());
+		} finally {
+			busy = false;
+		}
+		return size++;
+	}
+
+	/**
+	 * Add a new instance in the given configuration. No entry actions are
+	 * called, and no completion transitions are executed.
+	 *
+	 * @param configuration A configuration saved from an instance of the
+	 * same definition, see {@link IRestorableStateMachine}.
+	 * @return The id of the instance.
+	 * @throws StateMachineException If the store is full or the
+	 * configuration is not valid.
+	 */
+	public int addInstance(int[] configuration) {
+		checkNotFull();
+		store(size, definition.getLeaf(configuration));
+		return size++;
+	}
+
+	/**
+	 * Process an event by an instance. See
+	 * {@link IStateMachine#processEvent(Object)}.
+	 *
+	 * @return The outcome of the event.
+	 */
+	public EventOutcome processEvent(int instance, Event event) {
+		int leaf = load(instance);
+		checkNotBusy();
+		busy = true;
+		cursor.setLeaf(leaf);
+		try {
+			return cursor.process(event);
+		} finally {
+			// a failed transition leaves a consistent state too
+			store(instance, cursor.getCurrentDeepStateIndex());
+			busy = false;
+		}
+	}
+
+	/**
+	 * Get the active state of the top level state machine of an instance.
+	 */
+	public StateId getCurrentState(int instance) {
+		return definition.nodes[load(instance)].pathIds.get(0);
+	}
+
+	/**
+	 * Get the active states of an instance, from the top level down to the
+	 * deepest active state. The returned list is shared by all instances of
+	 * the definition and cannot be modified.
+	 */
+	public List<StateId> getCurrentStates(int instance) {
+		return definition.nodes[load(instance)].pathIds;
+	}
+
+	/**
+	 * Get the deepest active state of an instance.
+	 */
+	public StateId getCurrentDeepState(int instance) {
+		return definition.nodes[load(instance)].id;
+	}
+
+	/**
+	 * Get the index of the deepest active state of an instance. See
+	 * {@link IIndexedStateMachine}.
+	 */
+	public int getCurrentDeepStateIndex(int instance) {
+		return load(instance);
+	}
+
+	/**
+	 * Get the active configuration of an instance. See
+	 * {@link IRestorableStateMachine#getConfiguration()}.
+	 */
+	public int[] getConfiguration(int instance) {
+		return definition.nodes[load(instance)].path.clone();
+	}
+
+	/**
+	 * Make a configuration active in an instance. No callbacks are called.
+	 * See {@link IRestorableStateMachine#restoreConfiguration(int[])}.
+	 *
+	 * @throws StateMachineException If the configuration is not valid.
+	 */
+	public void restoreConfiguration(int instance, int[] configuration) {
+		checkInstance(instance);
+		checkNotBusy();
+		store(instance, definition.getLeaf(configuration));
+	}
+
+	private int load(int instance) {
+		checkInstance(instance);
+		switch (width) {
+		case 1:
+			return states.get(instance);
+		case 2:
+			return states.getShort(instance * 2);
+		default:
+			return states.getInt(instance * 4);
+		}
+	}
+
+	private void store(int instance, int leaf) {
+		switch (width) {
+		case 1:
+			states.put(instance, (byte)leaf);
+			break;
+		case 2:
+			states.putShort(instance * 2, (short)leaf);
+			break;
+		default:
+			states.putInt(instance * 4, leaf);
+			break;
+		}
+	}
+
+	private void checkInstance(int instance) {
+		if (instance < 0 || instance >= size) {
+			throw new IndexOutOfBoundsException("Invalid instance: " +
+					instance + ", size = " + size);
+		}
+	}
+
+	private void checkNotFull() {
+		if (size == capacity) {
+			throw new StateMachineException("Cannot add more than " +
+					capacity + " instances.");
+		}
+	}
+
+	private void checkNotBusy() {
+		if (busy) {
+			throw new InTransitionException("Cannot use the instance " +
+					"store while a transition is running.");
+		}
+	}
+}
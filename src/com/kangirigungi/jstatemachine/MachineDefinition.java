@@ -0,0 +1,357 @@
+/*
+ * Copyright (c) 2013, Peter Szabados
+ * All rights reserved.
+ *
+ * Redistribution and use in source and binary forms, with or without
+ * modification, are permitted provided that the following conditions are
+ * met:
+ *
+ *     (1) Redistributions of source code must retain the above copyright
+ *     notice, this list of conditions and the following disclaimer.
+ *
+ *     (2) Redistributions in binary form must reproduce the above copyright
+ *     notice, this list of conditions and the following disclaimer in
+ *     the documentation and/or other materials provided with the
+ *     distribution.
+ *
+ *     (3)The name of the author may not be used to
+ *     endorse or promote products derived from this software without
+ *     specific prior written permission.
+ *
+ * THIS SOFTWARE IS PROVIDED BY THE AUTHOR ``AS IS'' AND ANY EXPRESS OR
+ * IMPLIED WARRANTIES, INCLUDING, BUT NOT LIMITED TO, THE IMPLIED
+ * WARRANTIES OF MERCHANTABILITY AND FITNESS FOR A PARTICULAR PURPOSE ARE
+ * DISCLAIMED. IN NO EVENT SHALL THE AUTHOR BE LIABLE FOR ANY DIRECT,
+ * INDIRECT, INCIDENTAL, SPECIAL, EXEMPLARY, OR CONSEQUENTIAL DAMAGES
+ * (INCLUDING, BUT NOT LIMITED TO, PROCUREMENT OF SUBSTITUTE GOODS OR
+ * SERVICES; LOSS OF USE, DATA, OR PROFITS; OR BUSINESS INTERRUPTION)
+ * HOWEVER CAUSED AND ON ANY THEORY OF LIABILITY, WHETHER IN CONTRACT,
+ * STRICT LIABILITY, OR TORT (INCLUDING NEGLIGENCE OR OTHERWISE) ARISING
+ * IN ANY WAY OUT OF THE USE OF THIS SOFTWARE, EVEN IF ADVISED OF THE
+ * POSSIBILITY OF SUCH DAMAGE.
+ */
+
+package com.kangirigungi.jstatemachine;
+
+import java.util.Arrays;
+import java.util.List;
+import java.util.Map;
+import java.util.Set;
+
+/**
+ * Immutable description of a state machine that can be shared by any
+ * number of state machine instances. Use
+ * {@link StateMachineBuilder#createDefinition()} to acquire one, and
+ * {@link #newInstance()} to create state machines from it.
+ * <p>
+ * The definition holds the states, the transitions and the callbacks of the
+ * state machine. The instances only hold their active state configuration,
+ * so creating a large number of state machines of the same shape needs
+ * much less memory than calling {@link StateMachineBuilder#create()} for
+ * each of them. The instances behave the same way as those created by
+ * {@link StateMachineBuilder#create()}.
+ * <p>
+ * The definition itself is thread-safe, so instances can be created from
+ * any thread. The instances are not thread-safe. The callbacks given to the
+ * builder are shared by all instances, so they should not hold state that
+ * belongs to a single state machine.
+ *
+ * @author Peter Szabados
+ *
+ * @param <StateId> The type used for referencing states.
+ * @param <Event> The type used for referencing events.
+ */
+public final class MachineDefinition<StateId, Event> {
+
+	static final class Transition<StateId, Event> {
+		final IGuard<StateId, Event> guard;
+		final ITransitionAction<StateId, Event> action;
+		/**
+		 * The index of the target state, or -1 for internal transitions.
+		 */
+		final int target;
+
+		Transition(IGuard<StateId, Event> guard,
+				ITransitionAction<StateId, Event> action, int target) {
+			this.guard = guard;
+			this.action = action;
+			this.target = target;
+		}
+	}
+
+	/**
+	 * The transitions of a state for an event, and the state itself.
+	 */
+	static final class Handler<StateId, Event> {
+		/**
+		 * The index of the state handling the event.
+		 */
+		final int state;
+		/**
+		 * The transitions, or <code>null</code> if the state defers the
+		 * event.
+		 */
+		final Transition<StateId, Event>[] transitions;
+
+		Handler(int state, Transition<StateId, Event>[] transitions) {
+			this.state = state;
+			this.transitions = transitions;
+		}
+	}
+
+	static final class TimedTransition<StateId, Event> {
+		/**
+		 * The delay in nanoseconds.
+		 */
+		final long delay;
+		/**
+		 * The index of the timed transition in the whole definition.
+		 */
+		final int index;
+		/**
+		 * The transition, as the only element of the array.
+		 */
+		final Transition<StateId, Event>[] transitions;
+
+		@SuppressWarnings({"unchecked", "rawtypes"})
+		TimedTransition(long delay, int index,
+				Transition<StateId, Event> transition) {
+			this.delay = delay;
+			this.index = index;
+			this.transitions = new Transition[] {transition};
+		}
+	}
+
+	static final class Node<StateId, Event> {
+		final StateId id;
+		final IEntryExitAction<StateId, Event> entryExitAction;
+		final int depth;
+		/**
+		 * The index of the initial state of the sub state machine, or -1 if
+		 * the state is not composite.
+		 */
+		final int initialState;
+		final History history;
+		/**
+		 * The indexes of the states from the top level down to this state.
+		 */
+		final int[] path;
+		/**
+		 * The ids of the states in {@link #path}.
+		 */
+		final List<StateId> pathIds;
+		final Map<Event, Transition<StateId, Event>[]> transitions;
+		/**
+		 * The state that handles each event while this state is the deepest
+		 * active state. It is the outermost state in {@link #path} that has
+		 * transitions for the event or defers it, so an event is dispatched
+		 * with one lookup instead of one for each level. Completion transitions are
+		 * not included. It is <code>null</code> for composite states.
+		 */
+		final Map<Event, Handler<StateId, Event>> handlers;
+		final TimedTransition<StateId, Event>[] timedTransitions;
+		/**
+		 * The events deferred by the state, or <code>null</code> if it does
+		 * not defer any.
+		 */
+		final Set<Event> deferredEvents;
+
+		Node(StateId id, IEntryExitAction<StateId, Event> entryExitAction,
+				int initialState, History history, int[] path,
+				List<StateId> pathIds,
+				Map<Event, Transition<StateId, Event>[]> transitions,
+				Map<Event, Handler<StateId, Event>> handlers,
+				TimedTransition<StateId, Event>[] timedTransitions,
+				Set<Event> deferredEvents) {
+			this.id = id;
+			this.entryExitAction = entryExitAction;
+			this.depth = path.length - 1;
+			this.initialState = initialState;
+			this.history = history;
+			this.path = path;
+			this.pathIds = pathIds;
+			this.transitions = transitions;
+			this.handlers = handlers;
+			this.timedTransitions = timedTransitions;
+			this.deferredEvents = deferredEvents;
+		}
+
+		boolean isComposite() {
+			return initialState >= 0;
+		}
+
+		boolean defers(Event event) {
+			return deferredEvents != null && deferredEvents.contains(event);
+		}
+	}
+
+	final Node<StateId, Event>[] nodes;
+	/**
+	 * The index of the initial state of the top level state machine.
+	 */
+	final int initialState;
+	final int maxCompletionSteps;
+	final int eventQueueCapacity;
+	final ITransitionListener<StateId, Event> transitionListener;
+	/**
+	 * The index of each state in {@link #nodes}.
+	 */
+	final Map<StateId, Integer> indexes;
+	final TimingWheel timingWheel;
+	final int timedTransitionCount;
+	/**
+	 * True if any composite state has history, so the instances have to
+	 * remember the last active state of each composite state.
+	 */
+	final boolean hasHistory;
+	/**
+	 * True if any state defers events.
+	 */
+	final boolean hasDeferredEvents;
+	/**
+	 * Cached by {@link SourceGenerator#getCallbacks(MachineDefinition, long)}.
+	 * The signature is written before the callbacks.
+	 */
+	long generatedSignature;
+	volatile Object[] generatedCallbacks = null;
+
+	MachineDefinition(Node<StateId, Event>[] nodes, int initialState,
+			int maxCompletionSteps, int eventQueueCapacity,
+			ITransitionListener<StateId, Event> transitionListener,
+			Map<StateId, Integer> indexes, TimingWheel timingWheel,
+			int timedTransitionCount) {
+		this.nodes = nodes;
+		this.initialState = initialState;
+		this.maxCompletionSteps = maxCompletionSteps;
+		this.eventQueueCapacity = eventQueueCapacity;
+		this.transitionListener = transitionListener;
+		this.indexes = indexes;
+		this.timingWheel = timingWheel;
+		this.timedTransitionCount = timedTransitionCount;
+		boolean history = false;
+		boolean deferredEvents = false;
+		for (Node<StateId, Event> node: nodes) {
+			history |= node.history != History.NONE;
+			deferredEvents |= node.deferredEvents != null;
+		}
+		hasHistory = history;
+		hasDeferredEvents = deferredEvents;
+	}
+
+	/**
+	 * Create a new state machine instance. The instance is started (the
+	 * initial states are entered) before it is returned.
+	 *
+	 * @return The created state machine.
+	 */
+	public IStateMachine<StateId, Event> newInstance() {
+		DefinitionStateMachine<StateId, Event> result =
+				new DefinitionStateMachine<StateId, Event>(this);
+		result.start();
+		return result;
+	}
+
+	/**
+	 * Create a new state machine instance in the given configuration,
+	 * without remembered states. No entry actions are called, and no
+	 * completion transitions are executed.
+	 *
+	 * @param configuration A configuration saved from an instance of this
+	 * definition, see {@link IRestorableStateMachine}.
+	 * @return The created state machine. It implements
+	 * {@link IRestorableStateMachine}.
+	 * @throws StateMachineException If the configuration is not valid for
+	 * this definition.
+	 */
+	public IStateMachine<StateId, Event> newInstance(int[] configuration) {
+		return newInstance(configuration, new int[0]);
+	}
+
+	/**
+	 * Create a new state machine instance in the given configuration and
+	 * with the given remembered states. No entry actions are called, and no
+	 * completion transitions are executed.
+	 *
+	 * @param configuration A configuration saved from an instance of this
+	 * definition, see {@link IRestorableStateMachine#getConfiguration()}.
+	 * @param rememberedStates The remembered states saved from the same
+	 * instance, see {@link IRestorableStateMachine#getRememberedStates()}.
+	 * @return The created state machine. It implements
+	 * {@link IRestorableStateMachine}.
+	 * @throws StateMachineException If the configuration or the remembered
+	 * states are not valid for this definition.
+	 */
+	public IStateMachine<StateId, Event> newInstance(int[] configuration,
+			int[] rememberedStates) {
+		DefinitionStateMachine<StateId, Event> result =
+				new DefinitionStateMachine<StateId, Event>(this);
+		result.restoreConfiguration(configuration);
+		result.restoreRememberedStates(rememberedStates);
+		return result;
+	}
+
+	/**
+	 * Check whether any state has timed transitions. The remaining time of
+	 * the timers is not part of the configuration, so a restored instance
+	 * starts its timers again.
+	 */
+	public boolean hasTimedTransitions() {
+		return timedTransitionCount != 0;
+	}
+
+	/**
+	 * Get the deepest state of a configuration.
+	 *
+	 * @return The index of the state.
+	 * @throws StateMachineException If the configuration is not valid.
+	 */
+	int getLeaf(int[] configuration) {
+		int length = configuration.length;
+		int leaf = length == 0 ? -1 : configuration[length - 1];
+		if (leaf < 0 || leaf >= nodes.length || nodes[leaf].isComposite() ||
+				nodes[leaf].path.length != length) {
+			throw new StateMachineException("Invalid configuration: " +
+					Arrays.toString(configuration));
+		}
+		for (int i = 0; i < length; ++i) {
+			if (nodes[leaf].path[i] != configuration[i]) {
+				throw new StateMachineException("Invalid configuration: " +
+						Arrays.toString(configuration));
+			}
+		}
+		return leaf;
+	}
+
+	/**
+	 * Create a new thread-safe state machine instance. See
+	 * {@link StateMachineBuilder#createConcurrent()} for details.
+	 *
+	 * @return The created state machine.
+	 * @throws StateMachineException If the definition has a timing wheel.
+	 */
+	public IStateMachine<StateId, Event> newConcurrentInstance() {
+		StateMachineBuilder.checkNoTimingWheel(timingWheel);
+		return new ConcurrentStateMachine<StateId, Event>(newInstance());
+	}
+
+	/**
+	 * Create a store for the given number of instances, kept outside of the
+	 * Java heap. See {@link InstanceStore} for details.
+	 *
+	 * @param capacity The maximum number of instances.
+	 * @return The created store. It has no instances.
+	 * @throws StateMachineException If the definition has timed
+	 * transitions, history or deferred events.
+	 */
+	public InstanceStore<StateId, Event> newInstanceStore(int capacity) {
+		return new InstanceStore<StateId, Event>(this, capacity);
+	}
+
+	/**
+	 * Get the number of states in the state machine, including the states
+	 * of all sub state machines.
+	 */
+	public int getStateCount() {
+		return nodes.length;
+	}
+}
@@ -0,0 +1,381 @@
+/*
+ * Copyright (c) 2013, Peter Szabados
+ * All rights reserved.
+ *
+ * Redistribution and use in source and binary forms, with or without
+ * modification, are permitted provided that the following conditions are
+ * met:
+ *
+ *     (1) Redistributions of source code must retain the above copyright
+ *     notice, this list of conditions and the following disclaimer.
+ *
+ *     (2) Redistributions in binary form must reproduce the above copyright
+ *     notice, this list of conditions and the following disclaimer in
+ *     the documentation and/or other materials provided with the
+ *     distribution.
+ *
+ *     (3)The name of the author may not be used to
+ *     endorse or promote products derived from this software without
+ *     specific prior written permission.
+ *
+ * THIS SOFTWARE IS PROVIDED BY THE AUTHOR ``AS IS'' AND ANY EXPRESS OR
+ * IMPLIED WARRANTIES, INCLUDING, BUT NOT LIMITED TO, THE IMPLIED
+ * WARRANTIES OF MERCHANTABILITY AND FITNESS FOR A PARTICULAR PURPOSE ARE
+ * DISCLAIMED. IN NO EVENT SHALL THE AUTHOR BE LIABLE FOR ANY DIRECT,
+ * INDIRECT, INCIDENTAL, SPECIAL, EXEMPLARY, OR CONSEQUENTIAL DAMAGES
+ * (INCLUDING, BUT NOT LIMITED TO, PROCUREMENT OF SUBSTITUTE GOODS OR
+ * SERVICES; LOSS OF USE, DATA, OR PROFITS; OR BUSINESS INTERRUPTION)
+ * HOWEVER CAUSED AND ON ANY THEORY OF LIABILITY, WHETHER IN CONTRACT,
+ * STRICT LIABILITY, OR TORT (INCLUDING NEGLIGENCE OR OTHERWISE) ARISING
+ * IN ANY WAY OUT OF THE USE OF THIS SOFTWARE, EVEN IF ADVISED OF THE
+ * POSSIBILITY OF SUCH DAMAGE.
+ */
+package com.kangirigungi.jstatemachine;
+
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.Collections;
+import java.util.List;
+import java.util.concurrent.Callable;
+import java.util.concurrent.CancellationException;
+import java.util.concurrent.ExecutionException;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Future;
+import java.util.concurrent.RejectedExecutionException;
+
+class OrthogonalState<StateId, Event>
+		implements IOrthogonalState<StateId, Event> {
+
+	/**
+	 * Dispatches the current event to one region. Only the regions after
+	 * the first one have a task, the first one is dispatched by the calling
+	 * thread.
+	 */
+	private static class RegionTask<StateId, Event>
+			implements Callable<EventOutcome> {
+		public final IStateMachineEngine<StateId, Event> region;
+		public Event event;
+
+		public RegionTask(IStateMachineEngine<StateId, Event> region) {
+			this.region = region;
+		}
+
+		@Override
+		public EventOutcome call() {
+			return dispatchRegion(region, event);
+		}
+	}
+
+	private IState<StateId, Event> state;
+	private IStateMachineEngine<StateId, Event> topLevelStateMachine;
+	private IStateFactory<StateId, Event> factory;
+	private List<IStateMachineEngine<StateId, Event>> regions =
+			new ArrayList<IStateMachineEngine<StateId, Event>>();
+	private ExecutorService executor = null;
+	private History history = History.NONE;
+	private RegionTask<StateId, Event>[] tasks = null;
+	/**
+	 * The results of the tasks of the current event, reused for each
+	 * event.
+	 */
+	private Future<EventOutcome>[] futures = null;
+
+	public OrthogonalState(StateId id,
+			IStateMachineEngine<StateId, Event> topLevelStateMachine,
+			IStateFactory<StateId, Event> factory) {
+		this.state = factory.createState(id);
+		this.topLevelStateMachine = topLevelStateMachine;
+		this.factory = factory;
+	}
+
+	@Override
+	public IStateMachineEngine<StateId, Event> addRegion() {
+		IStateMachineEngine<StateId, Event> region =
+				factory.createStateMachine(null);
+		region.setEnclosingStateMachine(topLevelStateMachine);
+		region.setHistory(history);
+		regions.add(region);
+		tasks = null;
+		futures = null;
+		return region;
+	}
+
+	@Override
+	public List<IStateMachineEngine<StateId, Event>> getRegions() {
+		return Collections.unmodifiableList(regions);
+	}
+
+	@Override
+	public void setExecutor(ExecutorService executor) {
+		if (executor != null && topLevelStateMachine != null &&
+				topLevelStateMachine.getTimingWheel() != null) {
+			throw new StateMachineException("The regions of state machines " +
+					"with timed transitions cannot run in parallel.");
+		}
+		this.executor = executor;
+	}
+
+	@Override
+	public ExecutorService getExecutor() {
+		return executor;
+	}
+
+	@Override
+	public void setHistory(History history) {
+		this.history = history;
+		for (int i = 0; i < regions.size(); ++i) {
+			regions.get(i).setHistory(history);
+		}
+	}
+
+	@Override
+	public void enterState(Event event) {
+		state.enterState(event);
+		for (int i = 0; i < regions.size(); ++i) {
+			regions.get(i).enter();
+		}
+	}
+
+	@Override
+	public void resumeState(Event event) {
+		state.enterState(event);
+		for (int i = 0; i < regions.size(); ++i) {
+			regions.get(i).resume();
+		}
+	}
+
+	@Override
+	public void exitState(Event event) {
+		for (int i = regions.size() - 1; i >= 0; --i) {
+			regions.get(i).leave();
+		}
+		state.exitState(event);
+	}
+
+	@Override
+	public void processEvent(Event event) {
+		state.processEvent(event);
+		dispatchEvent(event);
+	}
+
+	@Override
+	public EventOutcome dispatchEvent(Event event) {
+		if (executor == null || regions.size() < 2) {
+			EventOutcome result = EventOutcome.IGNORED;
+			for (int i = 0; i < regions.size(); ++i) {
+				result = merge(result,
+						dispatchRegion(regions.get(i), event));
+			}
+			return result;
+		}
+		return dispatchParallel(event);
+	}
+
+	/**
+	 * Dispatch an event to a region, then replay the events released by the
+	 * states it left. The replayed events do not change the outcome.
+	 */
+	private static <StateId, Event> EventOutcome dispatchRegion(
+			IStateMachineEngine<StateId, Event> region, Event event) {
+		EventOutcome result = StateMachineEngine.dispatch(region, event);
+		region.processDeferredEvents();
+		return result;
+	}
+
+	@SuppressWarnings({"unchecked", "rawtypes"})
+	private EventOutcome dispatchParallel(Event event) {
+		if (tasks == null) {
+			tasks = new RegionTask[regions.size()];
+			for (int i = 1; i < tasks.length; ++i) {
+				tasks[i] = new RegionTask<StateId, Event>(regions.get(i));
+			}
+			futures = new Future[tasks.length];
+		}
+		for (int i = 1; i < tasks.length; ++i) {
+			tasks[i].event = event;
+			try {
+				futures[i] = executor.submit(tasks[i]);
+			} catch (RejectedExecutionException e) {
+				// dispatched by the calling thread below
+			}
+		}
+
+		EventOutcome result = EventOutcome.IGNORED;
+		Throwable failure = null;
+		try {
+			result = dispatchRegion(regions.get(0), event);
+		} catch (RuntimeException e) {
+			failure = e;
+		} catch (Error e) {
+			failure = e;
+		}
+		// wait for all regions even if one of them failed, so none of them
+		// is running when this method returns
+		boolean interrupted = false;
+		for (int i = 1; i < tasks.length; ++i) {
+			try {
+				EventOutcome outcome;
+				if (futures[i] == null) {
+					outcome = tasks[i].call();
+				} else {
+					while (true) {
+						try {
+							outcome = futures[i].get();
+							break;
+						} catch (InterruptedException e) {
+							interrupted = true;
+						}
+					}
+				}
+				result = merge(result, outcome);
+			} catch (ExecutionException e) {
+				failure = failure != null ? failure : e.getCause();
+			} catch (RuntimeException e) {
+				failure = failure != null ? failure : e;
+			} catch (Error e) {
+				failure = failure != null ? failure : e;
+			}
+			tasks[i].event = null;
+			futures[i] = null;
+		}
+		if (interrupted) {
+			Thread.currentThread().interrupt();
+		}
+		if (failure instanceof RuntimeException) {
+			throw (RuntimeException)failure;
+		}
+		if (failure instanceof Error) {
+			throw (Error)failure;
+		}
+		if (failure != null) {
+			throw new StateMachineException(failure);
+		}
+		return result;
+	}
+
+	/**
+	 * Merge the outcomes of two regions. A transition in any region is a
+	 * transition of the whole state, and a region that has transitions for
+	 * the event counts more than one that ignores it.
+	 */
+	static EventOutcome merge(EventOutcome left, EventOutcome right) {
+		if (left == EventOutcome.TRANSITIONED ||
+				right == EventOutcome.TRANSITIONED) {
+			return EventOutcome.TRANSITIONED;
+		}
+		if (left == EventOutcome.INTERNAL || right == EventOutcome.INTERNAL) {
+			return EventOutcome.INTERNAL;
+		}
+		if (left == EventOutcome.DEFERRED || right == EventOutcome.DEFERRED) {
+			return EventOutcome.DEFERRED;
+		}
+		if (left == EventOutcome.GUARD_REJECTED ||
+				right == EventOutcome.GUARD_REJECTED) {
+			return EventOutcome.GUARD_REJECTED;
+		}
+		return EventOutcome.IGNORED;
+	}
+
+	@Override
+	public int getActiveStateCount() {
+		int result = 0;
+		for (int i = 0; i < regions.size(); ++i) {
+			result += regions.get(i).getCurrentStates().size();
+		}
+		return result;
+	}
+
+	@Override
+	public StateId getActiveState(int index) {
+		int position = index;
+		for (int i = 0; i < regions.size(); ++i) {
+			List<StateId> states = regions.get(i).getCurrentStates();
+			if (position >= 0 && position < states.size()) {
+				return states.get(position);
+			}
+			position -= states.size();
+		}
+		throw new IndexOutOfBoundsException("Index: " + index +
+				", size: " + getActiveStateCount());
+	}
+
+	@Override
+	public int getDeferredEventCount() {
+		int result = 0;
+		for (IStateMachineEngine<StateId, Event> region: regions) {
+			result += region.getDeferredEventCount();
+		}
+		return result;
+	}
+
+	@Override
+	public int[] getConfiguration(int[] prefix) {
+		int[][] configurations = new int[regions.size()][];
+		int length = prefix.length;
+		for (int i = 0; i < configurations.length; ++i) {
+			configurations[i] = regions.get(i).getConfiguration();
+			length += configurations[i].length + 1;
+		}
+		int[] result = Arrays.copyOf(prefix, length);
+		int position = prefix.length;
+		for (int[] configuration: configurations) {
+			result[position++] = configuration.length;
+			System.arraycopy(configuration, 0, result, position,
+					configuration.length);
+			position += configuration.length;
+		}
+		return result;
+	}
+
+	@Override
+	public int checkConfiguration(int[] configuration, int from) {
+		int position = from;
+		for (int i = 0; i < regions.size(); ++i) {
+			if (position >= configuration.length) {
+				return -1;
+			}
+			int end = position + 1 + configuration[position];
+			if (end <= position + 1 || end > configuration.length ||
+					regions.get(i).checkConfiguration(configuration,
+							position + 1) != end) {
+				return -1;
+			}
+			position = end;
+		}
+		return position;
+	}
+
+	@Override
+	public void restoreRegions(int[] configuration, int from) {
+		if (configuration == null) {
+			for (int i = regions.size() - 1; i >= 0; --i) {
+				regions.get(i).restoreState(null);
+			}
+			return;
+		}
+		int position = from;
+		for (int i = 0; i < regions.size(); ++i) {
+			int end = position + 1 + configuration[position];
+			regions.get(i).restoreState(
+					Arrays.copyOfRange(configuration, position + 1, end));
+			position = end;
+		}
+	}
+
+	@Override
+	public StateId getId() {
+		return state.getId();
+	}
+
+	@Override
+	public IEntryExitAction<StateId, Event> getEntryExitAction() {
+		return state.getEntryExitAction();
+	}
+
+	@Override
+	public void setEntryExitAction(
+			IEntryExitAction<StateId, Event> action) {
+		state.setEntryExitAction(action);
+	}
+
+}
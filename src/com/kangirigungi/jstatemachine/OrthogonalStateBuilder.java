@@ -0,0 +1,166 @@
+/*
+ * Copyright (c) 2013, Peter Szabados
+ * All rights reserved.
+ *
+ * Redistribution and use in source and binary forms, with or without
+ * modification, are permitted provided that the following conditions are
+ * met:
+ *
+ *     (1) Redistributions of source code must retain the above copyright
+ *     notice, this list of conditions and the following disclaimer.
+ *
+ *     (2) Redistributions in binary form must reproduce the above copyright
+ *     notice, this list of conditions and the following disclaimer in
+ *     the documentation and/or other materials provided with the
+ *     distribution.
+ *
+ *     (3)The name of the author may not be used to
+ *     endorse or promote products derived from this software without
+ *     specific prior written permission.
+ *
+ * THIS SOFTWARE IS PROVIDED BY THE AUTHOR ``AS IS'' AND ANY EXPRESS OR
+ * IMPLIED WARRANTIES, INCLUDING, BUT NOT LIMITED TO, THE IMPLIED
+ * WARRANTIES OF MERCHANTABILITY AND FITNESS FOR A PARTICULAR PURPOSE ARE
+ * DISCLAIMED. IN NO EVENT SHALL THE AUTHOR BE LIABLE FOR ANY DIRECT,
+ * INDIRECT, INCIDENTAL, SPECIAL, EXEMPLARY, OR CONSEQUENTIAL DAMAGES
+ * (INCLUDING, BUT NOT LIMITED TO, PROCUREMENT OF SUBSTITUTE GOODS OR
+ * SERVICES; LOSS OF USE, DATA, OR PROFITS; OR BUSINESS INTERRUPTION)
+ * HOWEVER CAUSED AND ON ANY THEORY OF LIABILITY, WHETHER IN CONTRACT,
+ * STRICT LIABILITY, OR TORT (INCLUDING NEGLIGENCE OR OTHERWISE) ARISING
+ * IN ANY WAY OUT OF THE USE OF THIS SOFTWARE, EVEN IF ADVISED OF THE
+ * POSSIBILITY OF SUCH DAMAGE.
+ */
+package com.kangirigungi.jstatemachine;
+
+import java.util.concurrent.ExecutorService;
+
+/**
+ * Builder for states with orthogonal regions. It can be acquired by calling
+ * {@link SubStateMachineBuilder#addOrthogonalState(Object)}. Each region
+ * is built with its own {@link SubStateMachineBuilder}.
+ * <p>
+ * When the state is entered, the initial state of each region is entered,
+ * in the order the regions were added. When the state is exited, the
+ * regions are exited in reverse order. An event that is not handled by
+ * the transitions of the state itself is dispatched to every region, and
+ * the outcome is {@link EventOutcome#TRANSITIONED} if any region changed
+ * its state, otherwise {@link EventOutcome#INTERNAL} if any region
+ * executed an internal transition, otherwise
+ * {@link EventOutcome#DEFERRED} if any region deferred it, otherwise
+ * {@link EventOutcome#GUARD_REJECTED} if any region rejected it, otherwise
+ * {@link EventOutcome#IGNORED}.
+ * <p>
+ * Events deferred by the states of a region are replayed within the
+ * region, after it processed an event. They are dropped when the state
+ * with the regions is exited.
+ * <p>
+ * The active states of the regions are listed by
+ * {@link IStateMachine#getCurrentStates()} after the state itself, region
+ * by region, each from its top level downwards. The deepest state of the
+ * state machine is the state itself. The configuration of the state
+ * machine (see {@link IRestorableStateMachine}) contains the configuration
+ * of each region after the index of the state, prefixed with its length.
+ * <p>
+ * The states of the regions are part of the state machine containing the
+ * state, so their ids have to be unique in the whole state machine. The
+ * timed transitions of the regions use the timing wheel of the state
+ * machine. {@link MachineDefinition} is not supported with orthogonal
+ * regions.
+ *
+ * @author Peter Szabados
+ *
+ */
+public class OrthogonalStateBuilder<StateId, Event> {
+	StateBuilder<StateId, Event> stateBuilder;
+	IOrthogonalState<StateId, Event> orthogonalState;
+
+	OrthogonalStateBuilder(IOrthogonalState<StateId, Event> state) {
+		stateBuilder = new StateBuilder<StateId, Event>(state);
+		orthogonalState = state;
+	}
+
+	/**
+	 * Get the id of the state.
+	 */
+	public StateId getId() {
+		return stateBuilder.getId();
+	}
+
+	/**
+	 * Get the callbacks that are called when the state is entered or exited.
+	 *
+	 * @return The entry/exit action handler defined for this state.
+	 */
+	public IEntryExitAction<StateId, Event> getEntryExitAction() {
+		return stateBuilder.getEntryExitAction();
+	}
+
+	/**
+	 * Set the callbacks that are called when the state is entered or exited.
+	 * The entry action is called before the regions are entered, and the
+	 * exit action after they are exited.
+	 *
+	 * @param action The entry/exit action handler defined for this state.
+	 * @return this.
+	 */
+	public OrthogonalStateBuilder<StateId, Event> setEntryExitAction(
+			IEntryExitAction<StateId, Event> action) {
+		stateBuilder.setEntryExitAction(action);
+		return this;
+	}
+
+	/**
+	 * Add a new region to the state.
+	 *
+	 * @return The builder for the state machine of the region.
+	 */
+	public SubStateMachineBuilder<StateId, Event> addRegion() {
+		return new SubStateMachineBuilder<StateId, Event>(
+				orthogonalState.addRegion());
+	}
+
+	/**
+	 * Set the history of all regions of the state, see
+	 * {@link CompositeStateBuilder#setHistory(History)}. It applies to the
+	 * regions added later too. The default is {@link History#NONE}.
+	 *
+	 * @param history The history of the regions.
+	 * @return this.
+	 */
+	public OrthogonalStateBuilder<StateId, Event> setHistory(
+			History history) {
+		if (history == null) {
+			throw new StateMachineException("The history cannot be null.");
+		}
+		orthogonalState.setHistory(history);
+		return this;
+	}
+
+	/**
+	 * Set the executor that dispatches events to the regions in parallel.
+	 * The default is <code>null</code>, in which case the regions process
+	 * each event one after the other in the calling thread, and a region
+	 * does not get the event if a region before it throws an exception.
+	 * <p>
+	 * With an executor (such as a <code>ForkJoinPool</code>), the first
+	 * region processes the event in the calling thread and the others on
+	 * the executor, and the call returns when all of them are finished. If
+	 * any of them throws an exception, the exception of the first such
+	 * region is thrown, so the result does not depend on the order the
+	 * regions finish. The callbacks of different regions and the transition
+	 * listener of the state machine may be called concurrently, and
+	 * callbacks of the regions must not send events to the state machine.
+	 * The timing wheel is not thread-safe, so the regions of a state machine
+	 * with a timing wheel cannot run in parallel.
+	 *
+	 * @param executor The executor, or <code>null</code>.
+	 * @return this.
+	 * @throws StateMachineException If the state machine has a timing
+	 * wheel.
+	 */
+	public OrthogonalStateBuilder<StateId, Event> setExecutor(
+			ExecutorService executor) {
+		orthogonalState.setExecutor(executor);
+		return this;
+	}
+}
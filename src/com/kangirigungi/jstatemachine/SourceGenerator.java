@@ -0,0 +1,960 @@
+/*
+ * Copyright (c) 2013, Peter Szabados
+ * All rights reserved.
+ *
+ * Redistribution and use in source and binary forms, with or without
+ * modification, are permitted provided that the following conditions are
+ * met:
+ *
+ *     (1) Redistributions of source code must retain the above copyright
+ *     notice, this list of conditions and the following disclaimer.
+ *
+ *     (2) Redistributions in binary form must reproduce the above copyright
+ *     notice, this list of conditions and the following disclaimer in
+ *     the documentation and/or other materials provided with the
+ *     distribution.
+ *
+ *     (3)The name of the author may not be used to
+ *     endorse or promote products derived from this software without
+ *     specific prior written permission.
+ *
+ * THIS SOFTWARE IS PROVIDED BY THE AUTHOR ``AS IS'' AND ANY EXPRESS OR
+ * IMPLIED WARRANTIES, INCLUDING, BUT NOT LIMITED TO, THE IMPLIED
+ * WARRANTIES OF MERCHANTABILITY AND FITNESS FOR A PARTICULAR PURPOSE ARE
+ * DISCLAIMED. IN NO EVENT SHALL THE AUTHOR BE LIABLE FOR ANY DIRECT,
+ * INDIRECT, INCIDENTAL, SPECIAL, EXEMPLARY, OR CONSEQUENTIAL DAMAGES
+ * (INCLUDING, BUT NOT LIMITED TO, PROCUREMENT OF SUBSTITUTE GOODS OR
+ * SERVICES; LOSS OF USE, DATA, OR PROFITS; OR BUSINESS INTERRUPTION)
+ * HOWEVER CAUSED AND ON ANY THEORY OF LIABILITY, WHETHER IN CONTRACT,
+ * STRICT LIABILITY, OR TORT (INCLUDING NEGLIGENCE OR OTHERWISE) ARISING
+ * IN ANY WAY OUT OF THE USE OF THIS SOFTWARE, EVEN IF ADVISED OF THE
+ * POSSIBILITY OF SUCH DAMAGE.
+ */
+package com.kangirigungi.jstatemachine;
+
+import java.io.IOException;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.Collections;
+import java.util.Comparator;
+import java.util.IdentityHashMap;
+import java.util.List;
+import java.util.Map;
+
+import com.kangirigungi.jstatemachine.MachineDefinition.Node;
+import com.kangirigungi.jstatemachine.MachineDefinition.Transition;
+
+/**
+ * Generates the Java source of a state machine class specialized for one
+ * {@link MachineDefinition}. The generated class implements
+ * {@link IStateMachine} and {@link IRestorableStateMachine}, and it behaves
+ * the same way as the instances created by
+ * {@link MachineDefinition#newInstance()}, but without looking up anything
+ * at run time: events are dispatched with <code>switch</code> statements
+ * on the deepest active state and the event, the guards are checked in
+ * order, and each callback is called through its own field.
+ * <p>
+ * The callbacks are not part of the generated source. The generated class
+ * has a constructor taking the definition, and the callbacks are taken
+ * from it. The definition must be built the same way as the one the
+ * source was generated from, otherwise the constructor throws
+ * {@link StateMachineException}.
+ * <p>
+ * States and events must be enums or integers. Timed transitions,
+ * transition listeners, history, deferred events and internal completion
+ * transitions are not supported.
+ *
+ * @author Peter Szabados
+ *
+ * @param <StateId> The type used for referencing states.
+ * @param <Event> The type used for referencing events.
+ */
+public final class SourceGenerator<StateId, Event> {
+
+	private static final Comparator<Object> EVENT_ORDER =
+			new Comparator<Object>() {
+		@Override
+		@SuppressWarnings("unchecked")
+		public int compare(Object left, Object right) {
+			if (left == null || right == null) {
+				return left == null ? (right == null ? 0 : -1) : 1;
+			}
+			return ((Comparable<Object>)left).compareTo(right);
+		}
+	};
+
+	private final MachineDefinition<StateId, Event> definition;
+	private final Class<Event> eventType;
+	private final String stateName;
+	private final String eventName;
+	/**
+	 * The events of all transitions, in a fixed order.
+	 */
+	private final List<Event> events = new ArrayList<Event>();
+	private final Map<Object, Integer> entryExitFields =
+			new IdentityHashMap<Object, Integer>();
+	private final Map<Object, Integer> guardFields =
+			new IdentityHashMap<Object, Integer>();
+	private final Map<Object, Integer> actionFields =
+			new IdentityHashMap<Object, Integer>();
+	private final List<String> fieldTypes = new ArrayList<String>();
+	private boolean delegatesEvents = false;
+	private StringBuilder out;
+
+	/**
+	 * @param definition The definition to generate the class for.
+	 * @param stateType The type of the states. It must be an enum or
+	 * {@link Integer}.
+	 * @param eventType The type of the events. It must be an enum or
+	 * {@link Integer}.
+	 * @throws StateMachineException If the definition uses a feature that
+	 * is not supported by the generated code.
+	 */
+	public SourceGenerator(MachineDefinition<StateId, Event> definition,
+			Class<StateId> stateType, Class<Event> eventType) {
+		checkType(stateType);
+		checkType(eventType);
+		if (definition.timingWheel != null) {
+			throw new StateMachineException(
+					"Timed transitions are not supported.");
+		}
+		if (definition.transitionListener != null) {
+			throw new StateMachineException(
+					"Transition listeners are not supported.");
+		}
+		if (definition.hasHistory) {
+			throw new StateMachineException(
+					"History states are not supported.");
+		}
+		if (definition.hasDeferredEvents) {
+			throw new StateMachineException(
+					"Deferred events are not supported.");
+		}
+		this.definition = definition;
+		this.eventType = eventType;
+		stateName = stateType.getCanonicalName();
+		eventName = eventType.getCanonicalName();
+
+		for (Node<StateId, Event> node: definition.nodes) {
+			for (Event event: sortedEvents(node)) {
+				if (event != null && !events.contains(event)) {
+					events.add(event);
+				}
+				for (Transition<StateId, Event> transition:
+						node.transitions.get(event)) {
+					if (transition.target < 0) {
+						if (event == null) {
+							throw new StateMachineException("Internal " +
+									"completion transitions are not " +
+									"supported.");
+						}
+						delegatesEvents |= node.isComposite();
+					}
+				}
+			}
+		}
+		Collections.sort(events, EVENT_ORDER);
+		collectCallbacks(definition, this);
+	}
+
+	private static void checkType(Class<?> type) {
+		if (!type.isEnum() && type != Integer.class) {
+			throw new StateMachineException("Only enum and Integer " +
+					"states and events are supported: " + type.getName());
+		}
+	}
+
+	@SuppressWarnings("unchecked")
+	private static <StateId, Event> List<Event> sortedEvents(
+			Node<StateId, Event> node) {
+		List<Event> result = new ArrayList<Event>(node.transitions.keySet());
+		Collections.sort(result, (Comparator<Event>)EVENT_ORDER);
+		return result;
+	}
+
+	/**
+	 * Collect the callbacks of a definition in a fixed order.
+	 *
+	 * @param generator If not <code>null</code>, the index of each
+	 * callback is recorded in it.
+	 */
+	private static <StateId, Event> List<Object> collectCallbacks(
+			MachineDefinition<StateId, Event> definition,
+			SourceGenerator<StateId, Event> generator) {
+		List<Object> result = new ArrayList<Object>();
+		for (Node<StateId, Event> node: definition.nodes) {
+			if (node.entryExitAction != null) {
+				if (generator != null) {
+					generator.addField(generator.entryExitFields, node,
+							"IEntryExitAction", result.size());
+				}
+				result.add(node.entryExitAction);
+			}
+			for (Event event: sortedEvents(node)) {
+				for (Transition<StateId, Event> transition:
+						node.transitions.get(event)) {
+					if (transition.guard != null) {
+						if (generator != null) {
+							generator.addField(generator.guardFields,
+									transition, "IGuard", result.size());
+						}
+						result.add(transition.guard);
+					}
+					if (transition.action != null) {
+						if (generator != null) {
+							generator.addField(generator.actionFields,
+									transition, "ITransitionAction",
+									result.size());
+						}
+						result.add(transition.action);
+					}
+				}
+			}
+		}
+		return result;
+	}
+
+	private void addField(Map<Object, Integer> fields, Object owner,
+			String type, int index) {
+		fields.put(owner, index);
+		fieldTypes.add(type);
+	}
+
+	/**
+	 * Compute a value that changes if the structure of the definition
+	 * changes.
+	 */
+	private static <StateId, Event> long getSignature(
+			MachineDefinition<StateId, Event> definition) {
+		StringBuilder description = new StringBuilder();
+		description.append(definition.initialState).append(',').
+				append(definition.maxCompletionSteps).append(',').
+				append(definition.eventQueueCapacity);
+		for (Node<StateId, Event> node: definition.nodes) {
+			description.append(';').append(node.id).append(',').
+					append(node.initialState).append(',').
+					append(Arrays.toString(node.path)).append(',').
+					append(node.entryExitAction != null);
+			for (Event event: sortedEvents(node)) {
+				description.append(',').append(event).append(':');
+				for (Transition<StateId, Event> transition:
+						node.transitions.get(event)) {
+					description.append(transition.target).append('/').
+							append(transition.guard != null).append('/').
+							append(transition.action != null).append(' ');
+				}
+			}
+		}
+		// FNV-1a
+		long hash = 0xcbf29ce484222325L;
+		for (int i = 0; i < description.length(); ++i) {
+			hash ^= description.charAt(i);
+			hash *= 0x100000001b3L;
+		}
+		return hash;
+	}
+
+	/**
+	 * Get the callbacks of a definition for a generated class. It is only
+	 * meant to be called by the generated code.
+	 *
+	 * @param definition The definition.
+	 * @param signature The signature of the definition the class was
+	 * generated from.
+	 * @return The callbacks in the order the generated class expects them.
+	 * The array is shared, it must not be modified.
+	 * @throws StateMachineException If the definition does not match the
+	 * generated class.
+	 */
+	public static Object[] getCallbacks(
+			MachineDefinition<?, ?> definition, long signature) {
+		Object[] result = definition.generatedCallbacks;
+		if (result == null) {
+			// computed once for each definition, races are harmless
+			definition.generatedSignature = getSignature(definition);
+			result = collectCallbacks(definition, null).toArray();
+			definition.generatedCallbacks = result;
+		}
+		if (definition.generatedSignature != signature) {
+			throw new StateMachineException("The definition does not " +
+					"match the generated state machine.");
+		}
+		return result;
+	}
+
+	/**
+	 * Generate the source of the class.
+	 *
+	 * @param packageName The package of the class, or an empty string for
+	 * the default package.
+	 * @param className The simple name of the class.
+	 * @return The source code.
+	 */
+	public String generate(String packageName, String className) {
+		out = new StringBuilder();
+		try {
+			writeClass(packageName, className);
+			return out.toString();
+		} finally {
+			out = null;
+		}
+	}
+
+	/**
+	 * Generate the source of the class.
+	 *
+	 * @param packageName The package of the class, or an empty string for
+	 * the default package.
+	 * @param className The simple name of the class.
+	 * @param output The source code is written here.
+	 * @throws IOException If the output cannot be written.
+	 */
+	public void generate(String packageName, String className,
+			Appendable output) throws IOException {
+		output.append(generate(packageName, className));
+	}
+
+	private void line(int indent, String text) {
+		for (int i = 0; i < indent; ++i) {
+			out.append('\t');
+		}
+		out.append(text).append('\n');
+	}
+
+	private String literal(Object value) {
+		if (value instanceof Enum<?>) {
+			return ((Enum<?>)value).getDeclaringClass().getCanonicalName() +
+					"." + ((Enum<?>)value).name();
+		}
+		return "Integer.valueOf(" + value + ")";
+	}
+
+	private String caseLabel(Event event) {
+		return event instanceof Enum<?> ? ((Enum<?>)event).name() :
+				event.toString();
+	}
+
+	private String eventSwitch() {
+		return eventType.isEnum() ? "switch (event)" :
+				"switch (event.intValue())";
+	}
+
+	private String state(int index) {
+		return index < 0 ? "null" : "STATES[" + index + "]";
+	}
+
+	private String callback(Map<Object, Integer> fields, Object owner) {
+		return "callback" + fields.get(owner);
+	}
+
+	private void writeClass(String packageName, String className) {
+		String type = "<" + stateName + ", " + eventName + ">";
+		Node<StateId, Event>[] nodes = definition.nodes;
+		line(0, "// Generated by " + SourceGenerator.class.getName() +
+				", do not edit.");
+		if (packageName.length() > 0) {
+			line(0, "package " + packageName + ";");
+			line(0, "");
+		}
+		line(0, "import java.util.ArrayList;");
+		line(0, "import java.util.Arrays;");
+		line(0, "import java.util.Collections;");
+		line(0, "import java.util.List;");
+		line(0, "");
+		for (String imported: new String[] {"CompletionCycleException",
+				"EventOutcome", "EventQueueFullException", "IEntryExitAction",
+				"IGuard", "IRestorableStateMachine", "IStateMachine",
+				"ITransitionAction", "InTransitionException",
+				"MachineDefinition", "SourceGenerator",
+				"StateMachineException"}) {
+			line(0, "import " + SourceGenerator.class.getPackage().getName() +
+					"." + imported + ";");
+		}
+		line(0, "");
+		line(0, "public final class " + className + " implements");
+		line(2, "IStateMachine" + type + ", IRestorableStateMachine {");
+		line(0, "");
+		line(1, "private static final long SIGNATURE = " +
+				getSignature(definition) + "L;");
+		line(1, "private static final " + stateName + "[] STATES = {");
+		for (int i = 0; i < nodes.length; ++i) {
+			line(3, literal(nodes[i].id) + ",");
+		}
+		line(1, "};");
+		line(1, "private static final int[][] PATHS = {");
+		for (int i = 0; i < nodes.length; ++i) {
+			String path = Arrays.toString(nodes[i].path);
+			line(3, "{" + path.substring(1, path.length() - 1) + "},");
+		}
+		line(1, "};");
+		line(1, "private static final List<List<" + stateName +
+				">> PATH_IDS =");
+		line(3, "new ArrayList<List<" + stateName + ">>();");
+		line(0, "");
+		line(1, "static {");
+		line(2, "for (int[] path: PATHS) {");
+		line(3, stateName + "[] ids = new " + stateName + "[path.length];");
+		line(3, "for (int i = 0; i < path.length; ++i) {");
+		line(4, "ids[i] = STATES[path[i]];");
+		line(3, "}");
+		line(3, "PATH_IDS.add(Collections.unmodifiableList(" +
+				"Arrays.asList(ids)));");
+		line(2, "}");
+		line(1, "}");
+		line(0, "");
+		for (int i = 0; i < fieldTypes.size(); ++i) {
+			line(1, "private final " + fieldTypes.get(i) + type + " callback" +
+					i + ";");
+		}
+		line(1, "private int leaf = -1;");
+		line(1, "private boolean inTransition = false;");
+		int capacity = definition.eventQueueCapacity;
+		if (capacity > 0) {
+			line(1, "private final Object[] queue = new Object[" + capacity +
+					"];");
+			line(1, "private int queueHead = 0;");
+			line(1, "private int queueSize = 0;");
+		}
+		line(0, "");
+
+		line(1, "@SuppressWarnings(\"unchecked\")");
+		line(1, "public " + className + "(MachineDefinition" + type +
+				" definition) {");
+		line(2, "Object[] callbacks = SourceGenerator.getCallbacks(" +
+				"definition, SIGNATURE);");
+		for (int i = 0; i < fieldTypes.size(); ++i) {
+			line(2, "callback" + i + " = (" + fieldTypes.get(i) + type +
+					")callbacks[" + i + "];");
+		}
+		line(2, "inTransition = true;");
+		line(2, "try {");
+		line(3, "enter(" + definition.initialState + ", null);");
+		line(3, "completion(0);");
+		line(3, "processQueuedEvents();");
+		line(2, "} catch (RuntimeException e) {");
+		line(3, "clearQueue();");
+		line(3, "throw e;");
+		line(2, "} finally {");
+		line(3, "inTransition = false;");
+		line(2, "}");
+		line(1, "}");
+		line(0, "");
+
+		writeQueries(type);
+		writeProcessing(capacity);
+		writeDispatch();
+		for (int i = 0; i < nodes.length; ++i) {
+			for (Event event: sortedEvents(nodes[i])) {
+				if (event != null) {
+					writeHandler(i, event);
+				}
+			}
+		}
+		writeCompletion();
+		writeEnterExit();
+		line(0, "}");
+	}
+
+	private void writeQueries(String type) {
+		line(1, "@Override");
+		line(1, "public " + stateName + " getCurrentState() {");
+		line(2, "return STATES[PATHS[leaf][0]];");
+		line(1, "}");
+		line(0, "");
+		line(1, "@Override");
+		line(1, "public List<" + stateName + "> getCurrentStates() {");
+		line(2, "return PATH_IDS.get(leaf);");
+		line(1, "}");
+		line(0, "");
+		line(1, "@Override");
+		line(1, "public " + stateName + " getCurrentDeepState() {");
+		line(2, "return STATES[leaf];");
+		line(1, "}");
+		line(0, "");
+		line(1, "@Override");
+		line(1, "public int[] getConfiguration() {");
+		line(2, "return PATHS[leaf].clone();");
+		line(1, "}");
+		line(0, "");
+		line(1, "@Override");
+		line(1, "public void restoreConfiguration(int[] configuration) {");
+		line(2, "checkNotInTransition();");
+		line(2, "int index = configuration.length == 0 ? -1 :");
+		line(4, "configuration[configuration.length - 1];");
+		line(2, "if (index < 0 || index >= PATHS.length ||");
+		line(4, "!Arrays.equals(PATHS[index], configuration) ||");
+		line(4, "isComposite(index)) {");
+		line(3, "throw new StateMachineException(\"Invalid configuration: \" +");
+		line(5, "Arrays.toString(configuration));");
+		line(2, "}");
+		line(2, "leaf = index;");
+		line(1, "}");
+		line(0, "");
+		line(1, "@Override");
+		line(1, "public int[] getRememberedStates() {");
+		line(2, "return new int[0];");
+		line(1, "}");
+		line(0, "");
+		line(1, "@Override");
+		line(1, "public void restoreRememberedStates(int[] history) {");
+		line(2, "checkNotInTransition();");
+		line(2, "// no state has history, so nothing is remembered");
+		line(1, "}");
+		line(0, "");
+		line(1, "@Override");
+		line(1, "public int getDeferredEventCount() {");
+		line(2, "return 0;");
+		line(1, "}");
+		line(0, "");
+		line(1, "private static boolean isComposite(int state) {");
+		line(2, "switch (state) {");
+		boolean composite = false;
+		for (int i = 0; i < definition.nodes.length; ++i) {
+			if (definition.nodes[i].isComposite()) {
+				line(2, "case " + i + ":");
+				composite = true;
+			}
+		}
+		if (composite) {
+			line(3, "return true;");
+		}
+		line(2, "default:");
+		line(3, "return false;");
+		line(2, "}");
+		line(1, "}");
+		line(0, "");
+	}
+
+	private void writeProcessing(int capacity) {
+		line(1, "@Override");
+		line(1, "public void processEvent(" + eventName + " event) {");
+		line(2, "if (inTransition) {");
+		if (capacity > 0) {
+			line(3, "if (queueSize == queue.length) {");
+			line(4, "throw new EventQueueFullException(\"Cannot queue more " +
+					"than \" +");
+			line(6, "queue.length + \" events.\");");
+			line(3, "}");
+			line(3, "queue[(queueHead + queueSize) % queue.length] = event;");
+			line(3, "++queueSize;");
+			line(3, "return;");
+		} else {
+			line(3, "throw new InTransitionException(\"Cannot initiate " +
+					"transition \" +");
+			line(5, "\"while another transition is running.\");");
+		}
+		line(2, "}");
+		line(2, "inTransition = true;");
+		line(2, "try {");
+		line(3, "dispatch(event);");
+		line(3, "processQueuedEvents();");
+		line(2, "} catch (RuntimeException e) {");
+		line(3, "clearQueue();");
+		line(3, "throw e;");
+		line(2, "} finally {");
+		line(3, "inTransition = false;");
+		line(2, "}");
+		line(1, "}");
+		line(0, "");
+
+		line(1, "@Override");
+		line(1, "public EventOutcome[] processEvents(" + eventName +
+				"[] events, int from, int to) {");
+		line(2, "if (from < 0 || to > events.length || from > to) {");
+		line(3, "throw new IndexOutOfBoundsException(\"Invalid range: \" + " +
+				"from +");
+		line(5, "\" - \" + to + \", length = \" + events.length);");
+		line(2, "}");
+		line(2, "EventOutcome[] result = new EventOutcome[to - from];");
+		if (capacity > 0) {
+			line(2, "if (inTransition) {");
+			line(3, "for (int i = from; i < to; ++i) {");
+			line(4, "processEvent(events[i]);");
+			line(4, "result[i - from] = EventOutcome.QUEUED;");
+			line(3, "}");
+			line(3, "return result;");
+			line(2, "}");
+		}
+		line(2, "checkNotInTransition();");
+		line(2, "inTransition = true;");
+		line(2, "try {");
+		line(3, "for (int i = from; i < to; ++i) {");
+		line(4, "result[i - from] = dispatch(events[i]);");
+		line(4, "processQueuedEvents();");
+		line(3, "}");
+		line(2, "} catch (RuntimeException e) {");
+		line(3, "clearQueue();");
+		line(3, "throw e;");
+		line(2, "} finally {");
+		line(3, "inTransition = false;");
+		line(2, "}");
+		line(2, "return result;");
+		line(1, "}");
+		line(0, "");
+
+		line(1, "@Override");
+		line(1, "public EventOutcome[] processEvents(Iterable<" + eventName +
+				"> events) {");
+		line(2, "List<EventOutcome> result = new ArrayList<EventOutcome>();");
+		if (capacity > 0) {
+			line(2, "if (inTransition) {");
+			line(3, "for (" + eventName + " event: events) {");
+			line(4, "processEvent(event);");
+			line(4, "result.add(EventOutcome.QUEUED);");
+			line(3, "}");
+			line(3, "return result.toArray(new EventOutcome[result.size()]);");
+			line(2, "}");
+		}
+		line(2, "checkNotInTransition();");
+		line(2, "inTransition = true;");
+		line(2, "try {");
+		line(3, "for (" + eventName + " event: events) {");
+		line(4, "result.add(dispatch(event));");
+		line(4, "processQueuedEvents();");
+		line(3, "}");
+		line(2, "} catch (RuntimeException e) {");
+		line(3, "clearQueue();");
+		line(3, "throw e;");
+		line(2, "} finally {");
+		line(3, "inTransition = false;");
+		line(2, "}");
+		line(2, "return result.toArray(new EventOutcome[result.size()]);");
+		line(1, "}");
+		line(0, "");
+
+		line(1, "private void checkNotInTransition() {");
+		line(2, "if (inTransition) {");
+		line(3, "throw new InTransitionException(\"Cannot process events \" +");
+		line(5, "\"while a transition is running.\");");
+		line(2, "}");
+		line(1, "}");
+		line(0, "");
+		line(1, "private void processQueuedEvents() {");
+		if (capacity > 0) {
+			line(2, "while (queueSize > 0) {");
+			line(3, eventName + " event = (" + eventName + ")queue[queueHead];");
+			line(3, "queue[queueHead] = null;");
+			line(3, "queueHead = (queueHead + 1) % queue.length;");
+			line(3, "--queueSize;");
+			line(3, "dispatch(event);");
+			line(2, "}");
+		}
+		line(1, "}");
+		line(0, "");
+		line(1, "private void clearQueue() {");
+		if (capacity > 0) {
+			line(2, "Arrays.fill(queue, null);");
+			line(2, "queueHead = 0;");
+			line(2, "queueSize = 0;");
+		}
+		line(1, "}");
+		line(0, "");
+	}
+
+	private String handlerName(int state, Event event) {
+		return "handle" + state + "_" + events.indexOf(event);
+	}
+
+	private void writeDispatch() {
+		Node<StateId, Event>[] nodes = definition.nodes;
+		line(1, "private EventOutcome dispatch(" + eventName + " event) {");
+		line(2, "if (event == null) {");
+		line(3, "return dispatchCompletion();");
+		line(2, "}");
+		line(2, "switch (leaf) {");
+		for (int i = 0; i < nodes.length; ++i) {
+			if (nodes[i].handlers == null || nodes[i].handlers.isEmpty()) {
+				continue;
+			}
+			line(2, "case " + i + ":");
+			line(3, eventSwitch() + " {");
+			for (Event event: events) {
+				MachineDefinition.Handler<StateId, Event> handler =
+						nodes[i].handlers.get(event);
+				if (handler != null) {
+					line(3, "case " + caseLabel(event) + ":");
+					line(4, "return " + handlerName(handler.state, event) +
+							"(event);");
+				}
+			}
+			line(3, "default:");
+			line(4, "return EventOutcome.IGNORED;");
+			line(3, "}");
+		}
+		line(2, "default:");
+		line(3, "return EventOutcome.IGNORED;");
+		line(2, "}");
+		line(1, "}");
+		line(0, "");
+
+		line(1, "private EventOutcome dispatchCompletion() {");
+		line(2, "int[] path = PATHS[leaf];");
+		line(2, "for (int depth = 0; depth < path.length; ++depth) {");
+		line(3, "int result = complete(path[depth]);");
+		line(3, "if (result >= 0) {");
+		line(4, "if (result == 0) {");
+		line(5, "return EventOutcome.GUARD_REJECTED;");
+		line(4, "}");
+		line(4, "completion(depth);");
+		line(4, "return EventOutcome.TRANSITIONED;");
+		line(3, "}");
+		line(2, "}");
+		line(2, "return EventOutcome.IGNORED;");
+		line(1, "}");
+		line(0, "");
+
+		if (!delegatesEvents) {
+			return;
+		}
+		// used by internal transitions of composite states
+		line(1, "private void dispatchBelow(" + eventName +
+				" event, int depth) {");
+		line(2, "for (int[] path = PATHS[leaf]; depth < path.length; " +
+				"++depth) {");
+		line(3, "if (handle(path[depth], event) != null) {");
+		line(4, "return;");
+		line(3, "}");
+		line(2, "}");
+		line(1, "}");
+		line(0, "");
+		line(1, "private EventOutcome handle(int state, " + eventName +
+				" event) {");
+		line(2, "switch (state) {");
+		for (int i = 0; i < nodes.length; ++i) {
+			List<Event> nodeEvents = sortedEvents(nodes[i]);
+			nodeEvents.remove(null);
+			if (nodeEvents.isEmpty()) {
+				continue;
+			}
+			line(2, "case " + i + ":");
+			line(3, eventSwitch() + " {");
+			for (Event event: nodeEvents) {
+				line(3, "case " + caseLabel(event) + ":");
+				line(4, "return " + handlerName(i, event) + "(event);");
+			}
+			line(3, "default:");
+			line(4, "return null;");
+			line(3, "}");
+		}
+		line(2, "default:");
+		line(3, "return null;");
+		line(2, "}");
+		line(1, "}");
+		line(0, "");
+	}
+
+	/**
+	 * Write the transitions of a state for an event.
+	 *
+	 * @param event The event, or <code>null</code> for completion
+	 * transitions.
+	 * @return True if there is a transition without guard, so the code
+	 * after the transitions is unreachable.
+	 */
+	private boolean writeTransitions(int indent, int index, Event event) {
+		Node<StateId, Event> node = definition.nodes[index];
+		String eventArgument = event == null ? "null" : "event";
+		for (Transition<StateId, Event> transition:
+				node.transitions.get(event)) {
+			int body = indent;
+			if (transition.guard != null) {
+				line(indent, "if (" + callback(guardFields, transition) +
+						".checkTransition(" + state(index) + ", " +
+						state(transition.target) + ", " + eventArgument +
+						")) {");
+				++body;
+			}
+			if (transition.target < 0) {
+				if (transition.action != null) {
+					line(body, callback(actionFields, transition) +
+							".onTransition(" + state(index) + ", null, " +
+							eventArgument + ");");
+				}
+				if (node.isComposite()) {
+					line(body, "dispatchBelow(event, " + (node.depth + 1) +
+							");");
+				}
+				line(body, "completion(" + node.depth + ");");
+				line(body, "return EventOutcome.INTERNAL;");
+			} else {
+				line(body, "exit(" + index + ", " + eventArgument + ");");
+				line(body, "try {");
+				if (transition.action != null) {
+					line(body + 1, callback(actionFields, transition) +
+							".onTransition(" + state(index) + ", " +
+							state(transition.target) + ", " + eventArgument +
+							");");
+				}
+				line(body + 1, "enter(" + transition.target + ", " +
+						eventArgument + ");");
+				line(body, "} catch (RuntimeException e) {");
+				line(body + 1, "enter(" + index + ", null);");
+				line(body + 1, "throw e;");
+				line(body, "}");
+				if (event == null) {
+					line(body, "return 1;");
+				} else {
+					line(body, "completion(" + node.depth + ");");
+					line(body, "return EventOutcome.TRANSITIONED;");
+				}
+			}
+			if (transition.guard == null) {
+				return true;
+			}
+			line(indent, "}");
+		}
+		return false;
+	}
+
+	private void writeHandler(int index, Event event) {
+		line(1, "private EventOutcome " + handlerName(index, event) + "(" +
+				eventName + " event) {");
+		if (!writeTransitions(2, index, event)) {
+			line(2, "return EventOutcome.GUARD_REJECTED;");
+		}
+		line(1, "}");
+		line(0, "");
+	}
+
+	private void writeCompletion() {
+		Node<StateId, Event>[] nodes = definition.nodes;
+		line(1, "private void completion(int depth) {");
+		line(2, "for (int steps = 0; ; ++steps) {");
+		line(3, "if (steps == " + definition.maxCompletionSteps + " &&");
+		line(5, "completionAllowed(PATHS[leaf][depth])) {");
+		line(4, "throw new CompletionCycleException(\"Completion " +
+				"transitions \" +");
+		line(6, "\"did not finish after " + definition.maxCompletionSteps +
+				" steps. Last state: \" +");
+		line(6, "STATES[PATHS[leaf][depth]] + \".\");");
+		line(3, "}");
+		line(3, "if (complete(PATHS[leaf][depth]) <= 0) {");
+		line(4, "return;");
+		line(3, "}");
+		line(2, "}");
+		line(1, "}");
+		line(0, "");
+		line(1, "/**");
+		line(1, " * Execute the first allowed completion transition of a " +
+				"state.");
+		line(1, " *");
+		line(1, " * @return 1 if a transition is executed, 0 if all are " +
+				"rejected, -1 if");
+		line(1, " * there are none.");
+		line(1, " */");
+		line(1, "private int complete(int state) {");
+		line(2, "switch (state) {");
+		for (int i = 0; i < nodes.length; ++i) {
+			if (nodes[i].transitions.get(null) == null) {
+				continue;
+			}
+			line(2, "case " + i + ":");
+			if (!writeTransitions(3, i, null)) {
+				line(3, "return 0;");
+			}
+		}
+		line(2, "default:");
+		line(3, "return -1;");
+		line(2, "}");
+		line(1, "}");
+		line(0, "");
+		line(1, "/**");
+		line(1, " * Check whether any completion transition of a state is " +
+				"allowed by its");
+		line(1, " * guard, without executing it.");
+		line(1, " */");
+		line(1, "private boolean completionAllowed(int state) {");
+		line(2, "switch (state) {");
+		for (int i = 0; i < nodes.length; ++i) {
+			Transition<StateId, Event>[] transitions =
+					nodes[i].transitions.get(null);
+			if (transitions == null) {
+				continue;
+			}
+			line(2, "case " + i + ":");
+			if (!writeGuards(3, i, transitions)) {
+				line(3, "return false;");
+			}
+		}
+		line(2, "default:");
+		line(3, "return false;");
+		line(2, "}");
+		line(1, "}");
+		line(0, "");
+	}
+
+	/**
+	 * Write code that returns <code>true</code> if any of the completion
+	 * transitions is allowed by its guard.
+	 *
+	 * @return Whether the written code always returns.
+	 */
+	private boolean writeGuards(int indent, int index,
+			Transition<StateId, Event>[] transitions) {
+		for (Transition<StateId, Event> transition: transitions) {
+			if (transition.guard == null) {
+				line(indent, "return true;");
+				return true;
+			}
+			line(indent, "if (" + callback(guardFields, transition) +
+					".checkTransition(" + state(index) + ", " +
+					state(transition.target) + ", null)) {");
+			line(indent + 1, "return true;");
+			line(indent, "}");
+		}
+		return false;
+	}
+
+	private void writeEnterExit() {
+		Node<StateId, Event>[] nodes = definition.nodes;
+		line(1, "private void enter(int state, " + eventName + " event) {");
+		line(2, "switch (state) {");
+		for (int i = 0; i < nodes.length; ++i) {
+			Node<StateId, Event> node = nodes[i];
+			if (node.entryExitAction == null && !node.isComposite()) {
+				continue;
+			}
+			line(2, "case " + i + ":");
+			if (node.entryExitAction != null) {
+				line(3, callback(entryExitFields, node) + ".onEnter(" +
+						state(i) + ", event);");
+			}
+			line(3, "leaf = " + i + ";");
+			if (node.isComposite()) {
+				line(3, "enter(" + node.initialState + ", null);");
+				line(3, "completion(" + (node.depth + 1) + ");");
+			}
+			line(3, "break;");
+		}
+		line(2, "default:");
+		line(3, "leaf = state;");
+		line(2, "}");
+		line(1, "}");
+		line(0, "");
+
+		line(1, "private void exit(int state, " + eventName + " event) {");
+		line(2, "int[] path = PATHS[leaf];");
+		line(2, "for (int depth = path.length - 1; " +
+				"depth >= PATHS[state].length; --depth) {");
+		line(3, "onExit(path[depth], null);");
+		line(2, "}");
+		line(2, "leaf = state;");
+		line(2, "onExit(state, event);");
+		line(1, "}");
+		line(0, "");
+		line(1, "private void onExit(int state, " + eventName + " event) {");
+		line(2, "switch (state) {");
+		for (int i = 0; i < nodes.length; ++i) {
+			if (nodes[i].entryExitAction != null) {
+				line(2, "case " + i + ":");
+				line(3, callback(entryExitFields, nodes[i]) + ".onExit(" +
+						state(i) + ", event);");
+				line(3, "break;");
+			}
+		}
+		line(2, "default:");
+		line(3, "break;");
+		line(2, "}");
+		line(1, "}");
+	}
+}
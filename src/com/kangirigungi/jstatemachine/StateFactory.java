@@ -53,4 +53,11 @@ class StateFactory<StateId, Event> implements IStateFactory<StateId, Event> {
 				topLevelStateMachine, this);
 	}
 
+	@Override
+	public IOrthogonalState<StateId, Event> createOrthogonalState(StateId id,
+			IStateMachineEngine<StateId, Event> topLevelStateMachine) {
+		return new OrthogonalState<StateId, Event>(id,
+				topLevelStateMachine, this);
+	}
+
 }
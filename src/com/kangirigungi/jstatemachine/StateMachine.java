@@ -33,10 +33,10 @@
 
 package com.kangirigungi.jstatemachine;
 
-import java.util.ArrayList;
 import java.util.List;
 
-class StateMachine<StateId, Event> implements IStateMachine<StateId, Event> {
+class StateMachine<StateId, Event> implements IStateMachine<StateId, Event>,
+		IIndexedStateMachine<StateId>, IRestorableStateMachine {
 
 	private IStateMachineEngine<StateId, Event> stateMachineEngine;
 
@@ -49,23 +49,70 @@ class StateMachine<StateId, Event> implements IStateMachine<StateId, Event> {
 		return stateMachineEngine.getcurrentState().getId();
 	}
 
+	/**
+	 * {@inheritDoc}
+	 * <p>
+	 * The returned list is a read-only view that reflects later state
+	 * changes.
+	 */
 	@Override
 	public List<StateId> getCurrentStates() {
-		ArrayList<StateId> result = new ArrayList<StateId>();
+		return stateMachineEngine.getCurrentStates();
+	}
+
+	@Override
+	public StateId getCurrentDeepState() {
+		return stateMachineEngine.getcurrentDeepState().getId();
+	}
+
+	@Override
+	public int getStateIndex(StateId id) {
+		return stateMachineEngine.getStateIndex(id);
+	}
+
+	@Override
+	public int getCurrentStateIndex() {
+		return stateMachineEngine.getCurrentStateIndex();
+	}
+
+	@Override
+	public int getCurrentDeepStateIndex() {
+		return stateMachineEngine.getCurrentDeepStateIndex();
+	}
+
+	/**
+	 * Check whether the deepest active state has orthogonal regions, in
+	 * which case the active states of the regions are not determined by
+	 * the index of the deepest state.
+	 */
+	boolean hasActiveRegions() {
+		return stateMachineEngine.getcurrentDeepState() instanceof
+				IOrthogonalState<?, ?>;
+	}
+
+	@Override
+	public int[] getConfiguration() {
+		return stateMachineEngine.getConfiguration();
+	}
+
+	@Override
+	public void restoreConfiguration(int[] configuration) {
+		stateMachineEngine.restoreConfiguration(configuration);
+	}
 
-		IStateMachineEngine<StateId, Event> current = stateMachineEngine;
+	@Override
+	public int[] getRememberedStates() {
+		return stateMachineEngine.getRememberedStates();
+	}
 
-		while (true) {
-			IState<StateId, Event> state = current.getcurrentState();
-			result.add(state.getId());
+	@Override
+	public void restoreRememberedStates(int[] history) {
+		stateMachineEngine.restoreRememberedStates(history);
+	}
 
-			if (state instanceof ICompositeState<?, ?>) {
-				current = ((ICompositeState<StateId, Event>)state).
-						getStateMachine();
-			} else {
-				return result;
-			}
-		}
+	@Override
+	public int getDeferredEventCount() {
+		return stateMachineEngine.getDeferredEventCount();
 	}
 
 	@Override
@@ -73,4 +120,14 @@ class StateMachine<StateId, Event> implements IStateMachine<StateId, Event> {
 		stateMachineEngine.processEvent(event);
 	}
 
+	@Override
+	public EventOutcome[] processEvents(Event[] events, int from, int to) {
+		return stateMachineEngine.processEvents(events, from, to);
+	}
+
+	@Override
+	public EventOutcome[] processEvents(Iterable<Event> events) {
+		return stateMachineEngine.processEvents(events);
+	}
+
 }
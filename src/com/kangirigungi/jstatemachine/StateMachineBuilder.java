@@ -49,6 +49,11 @@ import java.util.HashMap;
  * which can be acquired by the {@link SubStateMachineBuilder#addCompositeState(Object)}
  * method. Use {@link CompositeStateBuilder#getStateMachineBuilder()} to
  * acquire a {@link SubStateMachineBuilder} instance for the sub state machine.
+ * <li>Each state with orthogonal regions has an instance of
+ * {@link OrthogonalStateBuilder} which can be acquired by the
+ * {@link SubStateMachineBuilder#addOrthogonalState(Object)} method. Use
+ * {@link OrthogonalStateBuilder#addRegion()} to acquire a
+ * {@link SubStateMachineBuilder} instance for each region.
  * <li>When all states and transitions of the state machine and all sub statates
  * are created, call {@link #create()} to create an instance of {@link IStateMachine}.
  * </ol>
@@ -78,7 +83,8 @@ import java.util.HashMap;
  * <b>Note:</b> The created class (and the entire library) is not thread-safe.
  * This means that in order to use it from within multiple threads, calls to any
  * methods (typically {@link IStateMachine#processEvent(Object) processEvent})
- * must be synchronized.
+ * must be synchronized. Alternatively, use {@link #createConcurrent()} to
+ * create a state machine that can be shared between threads.
  *
  * @author Peter Szabados
  *
@@ -100,6 +106,74 @@ public class StateMachineBuilder<StateId, Event> {
 		return topLevelStateMachineBuilder;
 	}
 
+	/**
+	 * Set the maximum number of completion transitions that can follow each
+	 * other on one level of the state machine being built. At most this many
+	 * completion transitions are executed in a row. If the guard of a
+	 * further one allows it, a {@link CompletionCycleException} is thrown
+	 * before it is executed instead of looping forever. The default is
+	 * 10000.
+	 *
+	 * @param maxCompletionSteps The maximum number of completion steps.
+	 * @return this.
+	 */
+	public StateMachineBuilder<StateId, Event> setMaxCompletionSteps(
+			int maxCompletionSteps) {
+		stateMachineEngine.setMaxCompletionSteps(maxCompletionSteps);
+		return this;
+	}
+
+	/**
+	 * Set the capacity of the event queue of the state machine being built.
+	 * If it is not zero, events sent to the state machine from within a
+	 * callback (transition, entry or exit action, or guard) are put into the
+	 * queue instead of throwing an {@link InTransitionException}. Queued
+	 * events are processed in order after the current event and all the
+	 * transitions it triggers are finished. The queue is allocated when the
+	 * state machine is created, so sending events from callbacks does not
+	 * allocate memory. The default is 0 (no queue).
+	 * <p>
+	 * If a callback throws an exception, the queued events are discarded.
+	 *
+	 * @param capacity The maximum number of queued events.
+	 * @return this.
+	 */
+	public StateMachineBuilder<StateId, Event> setEventQueueCapacity(
+			int capacity) {
+		stateMachineEngine.setEventQueueCapacity(capacity);
+		return this;
+	}
+
+	/**
+	 * Set the listener that is notified of the transitions, guard
+	 * rejections and ignored events of the state machine being built.
+	 * The default is no listener, in which case the state machine does
+	 * not spend any time on notifications.
+	 *
+	 * @param transitionListener The listener, or <code>null</code>.
+	 * @return this.
+	 */
+	public StateMachineBuilder<StateId, Event> setTransitionListener(
+			ITransitionListener<StateId, Event> transitionListener) {
+		stateMachineEngine.setTransitionListener(transitionListener);
+		return this;
+	}
+
+	/**
+	 * Set the timing wheel that executes the timed transitions of the state
+	 * machine being built. The same wheel can be shared by any number of
+	 * state machines, see {@link TimingWheel} for details. It must be set
+	 * before adding timed transitions.
+	 *
+	 * @param timingWheel The timing wheel.
+	 * @return this.
+	 */
+	public StateMachineBuilder<StateId, Event> setTimingWheel(
+			TimingWheel timingWheel) {
+		stateMachineEngine.setTimingWheel(timingWheel);
+		return this;
+	}
+
 	/**
 	 * Create the state machine. After calling this method, the created
 	 * state machine is detached from this method. Calling {@link #get()}
@@ -115,6 +189,82 @@ public class StateMachineBuilder<StateId, Event> {
 		return result;
 	}
 
+	/**
+	 * Create the state machine with a compiled transition table. It works
+	 * the same way as {@link #create()}, but both the state and the event
+	 * types must be <code>enum</code> types. The transitions of each state
+	 * machine level are compiled into a table indexed by the ordinals of
+	 * the current state and the event, so no {@link HashMap} lookup is
+	 * needed when processing events.
+	 * <p>
+	 * Guard expressions are compiled with {@link GuardCompiler}.
+	 * <p>
+	 * No states or transitions can be added to the state machine after
+	 * it is compiled.
+	 *
+	 * @param stateType The <code>enum</code> type used for the states.
+	 * @param eventType The <code>enum</code> type used for the events.
+	 * @return The created state machine.
+	 * @throws StateMachineException If either type is not an
+	 * <code>enum</code> type.
+	 */
+	public IStateMachine<StateId, Event> createCompiled(
+			Class<StateId> stateType, Class<Event> eventType) {
+		stateMachineEngine.compile(stateType, eventType);
+		return create();
+	}
+
+	/**
+	 * Create a thread-safe state machine. It works the same way as
+	 * {@link #create()}, but the created state machine can be used from
+	 * multiple threads without external synchronization. Calls to
+	 * {@link IStateMachine#processEvent(Object) processEvent} are
+	 * serialized, so the callbacks are never called concurrently. The
+	 * current state can be queried from any thread without blocking, and
+	 * the result always reflects the state after a fully processed event,
+	 * never an intermediate state of a transition.
+	 * <p>
+	 * <b>Note:</b> Callbacks must not wait for other threads that send events
+	 * to the same state machine, because that results in a deadlock.
+	 *
+	 * @return The created state machine.
+	 * @throws StateMachineException If a timing wheel is set, because timed
+	 * transitions are executed by the thread advancing the wheel.
+	 */
+	public IStateMachine<StateId, Event> createConcurrent() {
+		checkNoTimingWheel(stateMachineEngine.getTimingWheel());
+		return new ConcurrentStateMachine<StateId, Event>(create());
+	}
+
+	/**
+	 * Create an immutable definition of the state machine. Any number of
+	 * state machines can be created from the definition with
+	 * {@link MachineDefinition#newInstance()}, all sharing the same
+	 * states, transitions and callbacks. Guard expressions are compiled
+	 * with {@link GuardCompiler}. After calling this method,
+	 * calling {@link #get()} results in a builder for a completely new
+	 * state machine.
+	 *
+	 * @return The created definition.
+	 * @throws StateMachineException If the initial state of the state machine
+	 * or any of the sub state machines is not set, or the state machine has
+	 * orthogonal regions.
+	 */
+	public MachineDefinition<StateId, Event> createDefinition() {
+		MachineDefinition<StateId, Event> result =
+				new DefinitionCompiler<StateId, Event>().compile(
+						stateMachineEngine);
+		initialize();
+		return result;
+	}
+
+	static void checkNoTimingWheel(TimingWheel timingWheel) {
+		if (timingWheel != null) {
+			throw new StateMachineException("State machines with timed " +
+					"transitions cannot be thread-safe.");
+		}
+	}
+
 	private void initialize() {
 		stateMachineEngine = new StateMachineEngine<StateId, Event>();
 		topLevelStateMachineBuilder =
@@ -33,15 +33,22 @@
 
 package com.kangirigungi.jstatemachine;
 
+import java.util.AbstractList;
 import java.util.ArrayList;
-import java.util.Collection;
+import java.util.Arrays;
 import java.util.HashMap;
+import java.util.HashSet;
+import java.util.LinkedHashMap;
 import java.util.List;
 import java.util.Map;
+import java.util.RandomAccess;
+import java.util.Set;
 
 class StateMachineEngine<StateId, Event> implements
 		IStateMachineEngine<StateId, Event> {
 
+	static final int DEFAULT_MAX_COMPLETION_STEPS = 10000;
+
 	private static class TransitionTarget<StateId, Event> {
 		public IGuard<StateId, Event> guard;
 		public StateDescription<StateId, Event> targetState;
@@ -56,28 +63,176 @@ class StateMachineEngine<StateId, Event> implements
 		}
 	}
 
+	private static class IndexEntry<StateId, Event> {
+		public IStateMachineEngine<StateId, Event> stateMachine;
+		public int index;
+
+		public IndexEntry(IStateMachineEngine<StateId, Event> stateMachine,
+				int index) {
+			this.stateMachine = stateMachine;
+			this.index = index;
+		}
+	}
+
+	/**
+	 * A timed transition of a state. It is scheduled on the timing wheel
+	 * while the state is active.
+	 */
+	private static class TimedTransition<StateId, Event> extends Timeout
+			implements Runnable {
+		public final StateMachineEngine<StateId, Event> stateMachine;
+		public final long delay;
+		public final TransitionTarget<StateId, Event>[] targets;
+
+		@SuppressWarnings({"unchecked", "rawtypes"})
+		public TimedTransition(StateMachineEngine<StateId, Event> stateMachine,
+				long delay, TransitionTarget<StateId, Event> target) {
+			this.stateMachine = stateMachine;
+			this.delay = delay;
+			this.targets = new TransitionTarget[] {target};
+		}
+
+		@Override
+		void expire() {
+			stateMachine.processTimeout(this);
+		}
+
+		@Override
+		public void run() {
+			stateMachine.executeTimedTransition(targets);
+			// the events released in a region are replayed within it
+			stateMachine.getTopLevelStateMachine().processDeferredEvents();
+		}
+	}
+
 	private static class StateDescription<StateId, Event> {
 		public IState<StateId, Event> state;
-		public Map<Event, Collection<TransitionTarget<StateId, Event>>> transitions;
+		public Map<Event, TransitionTarget<StateId, Event>[]> transitions;
+		public TimedTransition<StateId, Event>[] timedTransitions = null;
+		public Set<Event> deferredEvents = null;
+		public int ordinal = -1;
+		/**
+		 * The index of the state in the whole hierarchy.
+		 */
+		public int index;
 
-		public StateDescription(IState<StateId, Event> state) {
+		public StateDescription(IState<StateId, Event> state, int index) {
 			this.state = state;
+			this.index = index;
 			transitions = new HashMap<Event,
-					Collection<TransitionTarget<StateId, Event>>>();
+					TransitionTarget<StateId, Event>[]>();
 		}
 
 	}
 
+	/**
+	 * Read-only view of the ids of the active states.
+	 */
+	private class ActiveStateList extends AbstractList<StateId>
+			implements RandomAccess {
+		@Override
+		public StateId get(int index) {
+			if (index >= 0 && index <= activeDepth) {
+				return activeStates[index].getId();
+			}
+			IOrthogonalState<StateId, Event> regions = getActiveRegions();
+			if (regions == null || index < 0) {
+				throw new IndexOutOfBoundsException("Index: " + index +
+						", size: " + size());
+			}
+			return regions.getActiveState(index - activeDepth - 1);
+		}
+
+		@Override
+		public int size() {
+			IOrthogonalState<StateId, Event> regions = getActiveRegions();
+			return activeDepth + 1 +
+					(regions == null ? 0 : regions.getActiveStateCount());
+		}
+	}
+
 	private IStateFactory<StateId, Event> stateFactory
 			= new StateFactory<StateId, Event>();
 	private Map<StateId, StateDescription<StateId, Event>> states
-			= new HashMap<StateId, StateDescription<StateId, Event>>();
+			= new LinkedHashMap<StateId, StateDescription<StateId, Event>>();
+	/**
+	 * The states of this level by their index in the whole hierarchy.
+	 */
+	private Map<Integer, StateDescription<StateId, Event>> statesByIndex =
+			new HashMap<Integer, StateDescription<StateId, Event>>();
 	private List<ICompositeState<StateId, Event>> substates =
 			new ArrayList<ICompositeState<StateId, Event>>();
+	private List<IOrthogonalState<StateId, Event>> orthogonalStates =
+			new ArrayList<IOrthogonalState<StateId, Event>>();
 	private StateDescription<StateId, Event> initialState;
 	private StateDescription<StateId, Event> currentState;
+	/**
+	 * The state that was active when this level was last left. It is
+	 * recorded regardless of {@link #history}, because a deep history above
+	 * this level resumes it too.
+	 */
+	private StateDescription<StateId, Event> lastState = null;
+	private History history = History.NONE;
 	private boolean inTransition = false;
+	private EventOutcome dispatchOutcome = EventOutcome.IGNORED;
+	private int maxCompletionSteps = DEFAULT_MAX_COMPLETION_STEPS;
+	/**
+	 * Events sent while a transition is running. Only used on the top level.
+	 */
+	private EventQueue<Event> eventQueue = null;
+	/**
+	 * Events deferred by the states of the whole hierarchy. Only used on
+	 * the top level, and only allocated when an event is deferred.
+	 */
+	private DeferredEvents<Event> deferredEvents = null;
+	/**
+	 * Only used on the top level.
+	 */
+	private ITransitionListener<StateId, Event> transitionListener = null;
+	/**
+	 * Only used on the top level.
+	 */
+	private TimingWheel timingWheel = null;
 	private IStateMachineEngine<StateId, Event> topLevelStateMachine = null;
+	/**
+	 * The top level of the state machine containing the orthogonal state if
+	 * this is the top level of a region, otherwise <code>null</code>.
+	 */
+	private IStateMachineEngine<StateId, Event> enclosingStateMachine = null;
+	/**
+	 * The level of this state machine in the hierarchy. It is 0 for the top
+	 * level.
+	 */
+	private int depth = 0;
+	/**
+	 * The level containing the composite state of this level, or
+	 * <code>null</code> on the top level.
+	 */
+	private IStateMachineEngine<StateId, Event> parent = null;
+	/**
+	 * The active state of each level and its index in the whole hierarchy,
+	 * from the top level down to {@link #activeDepth}. Only used on the top
+	 * level.
+	 */
+	private IState<StateId, Event>[] activeStates = null;
+	private int[] activeIndexes = null;
+	/**
+	 * The level of the deepest active state, or -1 if the state machine is
+	 * not active. Only used on the top level.
+	 */
+	private int activeDepth = -1;
+	private List<StateId> activeStateList = null;
+	/**
+	 * The state machine level and the index of each state in the whole
+	 * hierarchy. Only used on the top level.
+	 */
+	private Map<StateId, IndexEntry<StateId, Event>> stateIndex = null;
+	/**
+	 * Transition targets indexed by the ordinal of the current state and
+	 * the event index (see {@link #getEventIndex(Object)}). Only used after
+	 * {@link #compile(Class, Class)} is called.
+	 */
+	private TransitionTarget<StateId, Event>[][][] transitionTable = null;
 
 	private static <StateId, Event> StateId getId(IState<StateId, Event> state) {
 		return state == null ? null : state.getId();
@@ -92,7 +247,7 @@ class StateMachineEngine<StateId, Event> implements
 
 	@Override
 	public IState<StateId, Event> getInitialState() {
-		return initialState.state;
+		return initialState == null ? null : initialState.state;
 	}
 
 	@Override
@@ -102,14 +257,15 @@ class StateMachineEngine<StateId, Event> implements
 
 	@Override
 	public IState<StateId, Event> getcurrentDeepState() {
+		if (topLevelStateMachine == null) {
+			return activeStates[activeDepth];
+		}
 		IState<StateId, Event> state = currentState.state;
-		if (state instanceof ICompositeState<?, ?>) {
-			return ((ICompositeState<StateId, Event>)state).getStateMachine().
-					getcurrentDeepState();
-		} else {
-			return state;
+		while (state instanceof ICompositeState<?, ?>) {
+			state = ((ICompositeState<StateId, Event>)state).getStateMachine().
+					getcurrentState();
 		}
-
+		return state;
 	}
 
 	@Override
@@ -124,20 +280,36 @@ class StateMachineEngine<StateId, Event> implements
 
 	@Override
 	public void enter() {
-		doEnter(initialState);
+		if (history == History.NONE || lastState == null) {
+			doEnter(initialState, false);
+		} else {
+			doEnter(lastState, history == History.DEEP);
+		}
 	}
 
 	@Override
 	public void enter(StateId state) {
-		doEnter(getStateDescription(state));
+		doEnter(getStateDescription(state), false);
 	}
 
-	private void doEnter(StateDescription<StateId, Event> state) {
+	@Override
+	public void resume() {
+		doEnter(lastState == null ? initialState : lastState, true);
+	}
+
+	private void doEnter(StateDescription<StateId, Event> state,
+			boolean resume) {
 		checkActive(false);
-		state.state.enterState(null);
-		currentState = state;
+		if (resume && state.state instanceof ICompositeState<?, ?>) {
+			((ICompositeState<StateId, Event>)state.state).resumeState(null);
+		} else if (resume && state.state instanceof IOrthogonalState<?, ?>) {
+			((IOrthogonalState<StateId, Event>)state.state).resumeState(null);
+		} else {
+			state.state.enterState(null);
+		}
+		setCurrentState(state);
 
-		checkedProcessEvent(null);
+		checkedProcessCompletionTransitions();
 	}
 
 	private void checkActive(boolean running) {
@@ -150,8 +322,313 @@ class StateMachineEngine<StateId, Event> implements
 
 	@Override
 	public void leave() {
+		lastState = currentState;
 		currentState.state.exitState(null);
-		currentState = null;
+		setCurrentState(null);
+		if (topLevelStateMachine == null) {
+			// there is no state left to replay them in
+			clearDeferredEvents();
+		}
+	}
+
+	private void setCurrentState(StateDescription<StateId, Event> state) {
+		if (currentState != null && currentState.timedTransitions != null) {
+			TimingWheel wheel = getTopLevelStateMachine().getTimingWheel();
+			for (int i = 0; i < currentState.timedTransitions.length; ++i) {
+				wheel.cancel(currentState.timedTransitions[i]);
+			}
+		}
+		if (currentState != null && currentState.deferredEvents != null) {
+			getTopLevelStateMachine().releaseDeferredEvents(
+					currentState.index);
+		}
+		currentState = state;
+		if (state != null && state.timedTransitions != null) {
+			TimingWheel wheel = getTopLevelStateMachine().getTimingWheel();
+			for (int i = 0; i < state.timedTransitions.length; ++i) {
+				wheel.schedule(state.timedTransitions[i],
+						state.timedTransitions[i].delay);
+			}
+		}
+		if (state == null) {
+			getTopLevelStateMachine().setActiveState(depth, null, -1);
+		} else {
+			getTopLevelStateMachine().setActiveState(depth, state.state,
+					state.index);
+		}
+	}
+
+	@Override
+	@SuppressWarnings({"unchecked", "rawtypes"})
+	public void setActiveState(int depth, IState<StateId, Event> state,
+			int index) {
+		if (topLevelStateMachine != null) {
+			topLevelStateMachine.setActiveState(depth, state, index);
+			return;
+		}
+		if (state == null) {
+			activeDepth = depth - 1;
+			return;
+		}
+		if (activeStates == null) {
+			activeStates = new IState[depth + 4];
+			activeIndexes = new int[depth + 4];
+		} else if (depth >= activeStates.length) {
+			activeStates = Arrays.copyOf(activeStates, depth * 2);
+			activeIndexes = Arrays.copyOf(activeIndexes, depth * 2);
+		}
+		activeStates[depth] = state;
+		activeIndexes[depth] = index;
+		// the sub state machines of a composite state are entered before
+		// the state itself is recorded, so the leaf is already set
+		if (!(state instanceof ICompositeState<?, ?>)) {
+			activeDepth = depth;
+		}
+	}
+
+	@Override
+	public List<StateId> getCurrentStates() {
+		if (topLevelStateMachine != null) {
+			return topLevelStateMachine.getCurrentStates();
+		}
+		if (activeStateList == null) {
+			activeStateList = new ActiveStateList();
+		}
+		return activeStateList;
+	}
+
+	@Override
+	public int getCurrentDeepStateIndex() {
+		if (topLevelStateMachine != null) {
+			return topLevelStateMachine.getCurrentDeepStateIndex();
+		}
+		return activeDepth < 0 ? -1 : activeIndexes[activeDepth];
+	}
+
+	@Override
+	public int[] getConfiguration() {
+		if (topLevelStateMachine != null) {
+			return topLevelStateMachine.getConfiguration();
+		}
+		if (activeDepth < 0) {
+			return new int[0];
+		}
+		int[] result = Arrays.copyOf(activeIndexes, activeDepth + 1);
+		IOrthogonalState<StateId, Event> regions = getActiveRegions();
+		return regions == null ? result : regions.getConfiguration(result);
+	}
+
+	/**
+	 * Get the deepest active state if it has orthogonal regions. Only used
+	 * on the top level.
+	 */
+	private IOrthogonalState<StateId, Event> getActiveRegions() {
+		return activeDepth >= 0 &&
+				activeStates[activeDepth] instanceof IOrthogonalState<?, ?> ?
+				(IOrthogonalState<StateId, Event>)activeStates[activeDepth] :
+				null;
+	}
+
+	@Override
+	public void restoreConfiguration(int[] configuration) {
+		if (topLevelStateMachine != null) {
+			topLevelStateMachine.restoreConfiguration(configuration);
+			return;
+		}
+		checkNotInTransition();
+		if (checkConfiguration(configuration, 0) != configuration.length) {
+			throw new StateMachineException("Invalid configuration: " +
+					Arrays.toString(configuration));
+		}
+		restoreState(configuration);
+	}
+
+	@Override
+	public int checkConfiguration(int[] configuration, int from) {
+		StateDescription<StateId, Event> state =
+				from < configuration.length ?
+						findState(configuration[from]) : null;
+		if (state == null) {
+			return -1;
+		}
+		// the configuration must end in a simple state
+		if (state.state instanceof ICompositeState<?, ?>) {
+			return ((ICompositeState<StateId, Event>)state.state).
+					getStateMachine().checkConfiguration(configuration,
+							from + 1);
+		}
+		if (state.state instanceof IOrthogonalState<?, ?>) {
+			return ((IOrthogonalState<StateId, Event>)state.state).
+					checkConfiguration(configuration, from + 1);
+		}
+		return from + 1;
+	}
+
+	@Override
+	@SuppressWarnings("unchecked")
+	public void restoreState(int[] configuration) {
+		StateDescription<StateId, Event> state =
+				configuration == null || depth >= configuration.length ?
+						null : findState(configuration[depth]);
+		if (currentState != null && currentState != state) {
+			if (currentState.state instanceof ICompositeState<?, ?>) {
+				((ICompositeState<StateId, Event>)currentState.state).
+						getStateMachine().restoreState(null);
+			} else if (currentState.state instanceof IOrthogonalState<?, ?>) {
+				((IOrthogonalState<StateId, Event>)currentState.state).
+						restoreRegions(null, 0);
+			}
+		}
+		if (state != null && state.state instanceof ICompositeState<?, ?>) {
+			((ICompositeState<StateId, Event>)state.state).getStateMachine().
+					restoreState(configuration);
+		} else if (state != null &&
+				state.state instanceof IOrthogonalState<?, ?>) {
+			((IOrthogonalState<StateId, Event>)state.state).restoreRegions(
+					configuration, depth + 1);
+		}
+		// an unchanged state keeps its timers running
+		if (state != currentState) {
+			setCurrentState(state);
+		}
+		if (topLevelStateMachine == null) {
+			// deferred events are not part of the configuration
+			clearDeferredEvents();
+		}
+	}
+
+	@Override
+	public int[] getRememberedStates() {
+		if (topLevelStateMachine != null) {
+			return topLevelStateMachine.getRememberedStates();
+		}
+		List<Integer> history = new ArrayList<Integer>();
+		getRememberedStates(-1, history);
+		int[] result = new int[history.size()];
+		for (int i = 0; i < result.length; ++i) {
+			result[i] = history.get(i);
+		}
+		return result;
+	}
+
+	@Override
+	@SuppressWarnings("unchecked")
+	public void getRememberedStates(int compositeIndex,
+			List<Integer> history) {
+		if (compositeIndex >= 0 && lastState != null) {
+			history.add(compositeIndex);
+			history.add(lastState.index);
+		}
+		for (StateDescription<StateId, Event> state: states.values()) {
+			if (state.state instanceof ICompositeState<?, ?>) {
+				((ICompositeState<StateId, Event>)state.state).
+						getStateMachine().getRememberedStates(state.index,
+								history);
+			}
+		}
+	}
+
+	@Override
+	public void restoreRememberedStates(int[] history) {
+		if (topLevelStateMachine != null) {
+			topLevelStateMachine.restoreRememberedStates(history);
+			return;
+		}
+		checkNotInTransition();
+		Map<Integer, Integer> entries = new HashMap<Integer, Integer>();
+		boolean valid = history.length % 2 == 0;
+		for (int i = 0; valid && i < history.length; i += 2) {
+			valid = entries.put(history[i], history[i + 1]) == null;
+		}
+		if (valid) {
+			Map<Integer, Integer> unused =
+					new HashMap<Integer, Integer>(entries);
+			valid = restoreRememberedStates(-1, unused, false) &&
+					unused.isEmpty();
+		}
+		if (!valid) {
+			throw new StateMachineException("Invalid history: " +
+					Arrays.toString(history));
+		}
+		restoreRememberedStates(-1, entries, true);
+	}
+
+	@Override
+	@SuppressWarnings("unchecked")
+	public boolean restoreRememberedStates(int compositeIndex,
+			Map<Integer, Integer> history, boolean apply) {
+		if (compositeIndex >= 0) {
+			Integer index = history.remove(compositeIndex);
+			StateDescription<StateId, Event> remembered =
+					index == null ? null : findState(index);
+			if (index != null && remembered == null) {
+				return false;
+			}
+			if (apply) {
+				lastState = remembered;
+			}
+		}
+		for (StateDescription<StateId, Event> state: states.values()) {
+			if (state.state instanceof ICompositeState<?, ?> &&
+					!((ICompositeState<StateId, Event>)state.state).
+							getStateMachine().restoreRememberedStates(
+									state.index, history, apply)) {
+				return false;
+			}
+		}
+		return true;
+	}
+
+	@Override
+	public int getDeferredEventCount() {
+		if (topLevelStateMachine != null) {
+			return topLevelStateMachine.getDeferredEventCount();
+		}
+		int result = deferredEvents == null ? 0 : deferredEvents.size();
+		IOrthogonalState<StateId, Event> regions = getActiveRegions();
+		return regions == null ? result :
+				result + regions.getDeferredEventCount();
+	}
+
+	private StateDescription<StateId, Event> findState(int index) {
+		return statesByIndex.get(index);
+	}
+
+	private void putState(StateId id, IState<StateId, Event> state,
+			int index) {
+		StateDescription<StateId, Event> description =
+				new StateDescription<StateId, Event>(state, index);
+		states.put(id, description);
+		statesByIndex.put(index, description);
+	}
+
+	@Override
+	public IState<StateId, Event> getStateByIndex(int index) {
+		StateDescription<StateId, Event> state = findState(index);
+		return state == null ? null : state.state;
+	}
+
+	@Override
+	public int getDepth() {
+		return depth;
+	}
+
+	@Override
+	public IStateMachineEngine<StateId, Event> getParent() {
+		return parent;
+	}
+
+	@Override
+	public void setParent(IStateMachineEngine<StateId, Event> parent) {
+		this.parent = parent;
+	}
+
+	@Override
+	public void setDepth(int depth) {
+		this.depth = depth;
+		for (ICompositeState<StateId, Event> substate: substates) {
+			substate.getStateMachine().setDepth(depth + 1);
+		}
 	}
 
 	@Override
@@ -161,7 +638,9 @@ class StateMachineEngine<StateId, Event> implements
 
 	@Override
 	public IState<StateId, Event> addState(StateId id) {
-		if (getTopLevelStateMachine().hasState(id)) {
+		checkNotCompiled();
+		int index = getTopLevelStateMachine().registerState(id, this);
+		if (index < 0) {
 			throw new DuplicateStateException(
 					"Duplicate state: "+id.toString()+".",
 					this, id);
@@ -169,13 +648,15 @@ class StateMachineEngine<StateId, Event> implements
 
 		IState<StateId, Event> state =
 				stateFactory.createState(id);
-		states.put(id, new StateDescription<StateId, Event>(state));
+		putState(id, state, index);
 		return state;
 	}
 
 	@Override
 	public ICompositeState<StateId, Event> addCompositeState(StateId id) {
-		if (getTopLevelStateMachine().hasState(id)) {
+		checkNotCompiled();
+		int index = getTopLevelStateMachine().registerState(id, this);
+		if (index < 0) {
 			throw new DuplicateStateException(
 					"Duplicate state: "+id.toString()+".",
 					this, id);
@@ -184,8 +665,28 @@ class StateMachineEngine<StateId, Event> implements
 		ICompositeState<StateId, Event> state =
 				stateFactory.createCompositeState(id,
 						getTopLevelStateMachine());
-		states.put(id, new StateDescription<StateId, Event>(state));
+		putState(id, state, index);
 		substates.add(state);
+		state.getStateMachine().setParent(this);
+		state.getStateMachine().setDepth(depth + 1);
+		return state;
+	}
+
+	@Override
+	public IOrthogonalState<StateId, Event> addOrthogonalState(StateId id) {
+		checkNotCompiled();
+		int index = getTopLevelStateMachine().registerState(id, this);
+		if (index < 0) {
+			throw new DuplicateStateException(
+					"Duplicate state: "+id.toString()+".",
+					this, id);
+		}
+
+		IOrthogonalState<StateId, Event> state =
+				stateFactory.createOrthogonalState(id,
+						getTopLevelStateMachine());
+		putState(id, state, index);
+		orthogonalStates.add(state);
 		return state;
 	}
 
@@ -218,19 +719,67 @@ class StateMachineEngine<StateId, Event> implements
 				null, guard);
 	}
 
+	@Override
+	@SuppressWarnings({"unchecked", "rawtypes"})
+	public void addTimedTransition(StateId fromState, long delay,
+			ITransitionAction<StateId, Event> action, StateId toState,
+			IGuard<StateId, Event> guard) {
+		checkNotCompiled();
+		if (getTopLevelStateMachine().getTimingWheel() == null) {
+			throw new StateMachineException("A timing wheel must be set " +
+					"before adding timed transitions.");
+		}
+		if (delay < 0) {
+			throw new StateMachineException("The delay of a timed " +
+					"transition cannot be negative.");
+		}
+		StateDescription<StateId, Event> fromDescription =
+				getStateDescription(fromState);
+		TimedTransition<StateId, Event> transition =
+				new TimedTransition<StateId, Event>(this, delay,
+						new TransitionTarget<StateId, Event>(guard,
+								getStateDescription(toState), action));
+		TimedTransition<StateId, Event>[] transitions =
+				fromDescription.timedTransitions;
+		if (transitions == null) {
+			transitions = new TimedTransition[1];
+		} else {
+			transitions = Arrays.copyOf(transitions, transitions.length + 1);
+		}
+		transitions[transitions.length - 1] = transition;
+		fromDescription.timedTransitions = transitions;
+	}
+
+	@Override
+	public void addDeferredEvent(StateId state, Event event) {
+		checkNotCompiled();
+		if (event == null) {
+			throw new IllegalEventException("Completion events cannot be " +
+					"deferred.");
+		}
+		StateDescription<StateId, Event> description =
+				getStateDescription(state);
+		if (description.deferredEvents == null) {
+			description.deferredEvents = new HashSet<Event>();
+		}
+		description.deferredEvents.add(event);
+	}
+
+	@SuppressWarnings({"unchecked", "rawtypes"})
 	private void doAddTransition(
 			StateDescription<StateId, Event> fromDescription,
 			Event event,
 			ITransitionAction<StateId, Event> action,
 			StateDescription<StateId, Event> toDescription,
 			IGuard<StateId, Event> guard) {
-		Collection<TransitionTarget<StateId, Event>> transitions =
+		checkNotCompiled();
+		TransitionTarget<StateId, Event>[] transitions =
 				fromDescription.transitions.get(event);
+		TransitionTarget<StateId, Event>[] newTransitions;
 		if (transitions == null) {
-			transitions = new ArrayList<TransitionTarget<StateId, Event>>();
-			fromDescription.transitions.put(event, transitions);
+			newTransitions = new TransitionTarget[1];
 		} else {
-			if (guard == null && !transitions.isEmpty()) {
+			if (guard == null && transitions.length != 0) {
 				throwDuplicateTransitionException(
 						fromDescription.state, event);
 			} else {
@@ -242,48 +791,470 @@ class StateMachineEngine<StateId, Event> implements
 					}
 				}
 			}
+			newTransitions = new TransitionTarget[transitions.length + 1];
+			System.arraycopy(transitions, 0, newTransitions, 0,
+					transitions.length);
 		}
-		transitions.add(new TransitionTarget<StateId, Event>(
-				guard, toDescription, action));
+		newTransitions[newTransitions.length - 1] =
+				new TransitionTarget<StateId, Event>(
+						guard, toDescription, action);
+		fromDescription.transitions.put(event, newTransitions);
+	}
+
+	@Override
+	@SuppressWarnings({"unchecked", "rawtypes"})
+	public void compile(Class<StateId> stateType, Class<Event> eventType) {
+		int stateCount = getEnumConstantCount(stateType);
+		int eventCount = getEnumConstantCount(eventType);
+
+		TransitionTarget<StateId, Event>[][][] table =
+				new TransitionTarget[stateCount][][];
+		for (StateDescription<StateId, Event> description: states.values()) {
+			description.ordinal = getOrdinal(stateType,
+					description.state.getId());
+			TransitionTarget<StateId, Event>[][] row =
+					new TransitionTarget[eventCount + 1][];
+			for (Map.Entry<Event, TransitionTarget<StateId, Event>[]> entry:
+					description.transitions.entrySet()) {
+				Event event = entry.getKey();
+				int eventIndex = event == null ? 0 :
+						getOrdinal(eventType, event) + 1;
+				row[eventIndex] = entry.getValue();
+				for (TransitionTarget<StateId, Event> target:
+						entry.getValue()) {
+					target.guard = GuardCompiler.compile(target.guard);
+				}
+			}
+			table[description.ordinal] = row;
+			if (description.timedTransitions != null) {
+				for (TimedTransition<StateId, Event> transition:
+						description.timedTransitions) {
+					transition.targets[0].guard =
+							GuardCompiler.compile(transition.targets[0].guard);
+				}
+			}
+		}
+
+		for (ICompositeState<StateId, Event> substate: substates) {
+			substate.getStateMachine().compile(stateType, eventType);
+		}
+		for (IOrthogonalState<StateId, Event> state: orthogonalStates) {
+			for (IStateMachineEngine<StateId, Event> region:
+					state.getRegions()) {
+				region.compile(stateType, eventType);
+			}
+		}
+		transitionTable = table;
+	}
+
+	private static int getEnumConstantCount(Class<?> type) {
+		if (type == null || !type.isEnum()) {
+			throw new StateMachineException("Only enum types can be " +
+					"compiled into a transition table: " + type + ".");
+		}
+		return type.getEnumConstants().length;
+	}
+
+	private static int getOrdinal(Class<?> type, Object value) {
+		if (!type.isInstance(value)) {
+			throw new StateMachineException(value + " is not an " +
+					"instance of " + type.getName() + ".");
+		}
+		return ((Enum<?>)value).ordinal();
+	}
+
+	private int getEventIndex(Event event) {
+		return event == null ? 0 : ((Enum<?>)event).ordinal() + 1;
+	}
+
+	private void checkNotCompiled() {
+		if (transitionTable != null) {
+			throw new StateMachineException("Cannot modify a compiled " +
+					"state machine.");
+		}
+	}
 
+	private TransitionTarget<StateId, Event>[] getTransitions(Event event) {
+		if (transitionTable != null) {
+			return transitionTable[currentState.ordinal][getEventIndex(event)];
+		}
+		return currentState.transitions.get(event);
 	}
 
 	@Override
 	public void processEvent(Event event) {
 		if (inTransition) {
-			throw new InTransitionException("Cannot initiate transition " +
-					"while another transition is running.");
+			if (eventQueue == null) {
+				throw new InTransitionException("Cannot initiate transition " +
+						"while another transition is running.");
+			}
+			if (!eventQueue.offer(event)) {
+				throw new EventQueueFullException("Cannot queue more than " +
+						eventQueue.capacity() + " events.");
+			}
+			return;
 		}
 
-		checkedProcessEvent(event);
+		inTransition = true;
+		try {
+			doProcessEvent(event);
+			processQueuedEvents();
+		} catch (RuntimeException e) {
+			clearEventQueue();
+			throw e;
+		} finally {
+			inTransition = false;
+		}
 	}
 
-	private void checkedProcessEvent(Event event) {
+	@Override
+	public EventOutcome[] processEvents(Event[] events, int from, int to) {
+		if (from < 0 || to > events.length || from > to) {
+			throw new IndexOutOfBoundsException("Invalid range: " + from +
+					" - " + to + ", length = " + events.length);
+		}
+		EventOutcome[] result = new EventOutcome[to - from];
+		if (inTransition && eventQueue != null) {
+			for (int i = from; i < to; ++i) {
+				processEvent(events[i]);
+				result[i - from] = EventOutcome.QUEUED;
+			}
+			return result;
+		}
+		checkNotInTransition();
 		inTransition = true;
 		try {
-			doProcessEvent(event);
+			for (int i = from; i < to; ++i) {
+				result[i - from] = doProcessEvent(events[i]);
+				processQueuedEvents();
+			}
+		} catch (RuntimeException e) {
+			clearEventQueue();
+			throw e;
+		} finally {
+			inTransition = false;
+		}
+		return result;
+	}
+
+	@Override
+	public EventOutcome[] processEvents(Iterable<Event> events) {
+		List<EventOutcome> result = new ArrayList<EventOutcome>();
+		if (inTransition && eventQueue != null) {
+			for (Event event: events) {
+				processEvent(event);
+				result.add(EventOutcome.QUEUED);
+			}
+			return result.toArray(new EventOutcome[result.size()]);
+		}
+		checkNotInTransition();
+		inTransition = true;
+		try {
+			for (Event event: events) {
+				result.add(doProcessEvent(event));
+				processQueuedEvents();
+			}
+		} catch (RuntimeException e) {
+			clearEventQueue();
+			throw e;
 		} finally {
 			inTransition = false;
 		}
+		return result.toArray(new EventOutcome[result.size()]);
 	}
 
-	private void doProcessEvent(Event event) {
-		Collection<TransitionTarget<StateId, Event>> targets =
-				currentState.transitions.get(event);
+	private void checkNotInTransition() {
+		if (inTransition) {
+			throw new InTransitionException("Cannot process events " +
+					"while a transition is running.");
+		}
+	}
+
+	private EventOutcome doProcessEvent(Event event) {
+		return dispatch(this, event);
+	}
+
+	/**
+	 * Dispatch an event to a state machine and its active sub state
+	 * machines, without checking or changing whether a transition is
+	 * running.
+	 *
+	 * @return The outcome of the level that handled the event.
+	 */
+	static <StateId, Event> EventOutcome dispatch(
+			IStateMachineEngine<StateId, Event> stateMachine, Event event) {
+		// delegate the event downwards until a level handles it
+		IStateMachineEngine<StateId, Event> last;
+		do {
+			last = stateMachine;
+			stateMachine = stateMachine.dispatchEvent(event);
+		} while (stateMachine != null);
+		return last.getDispatchOutcome();
+	}
+
+	/**
+	 * Process the deferred events released by the last step, then the
+	 * events sent while it was running. A deferred event is processed
+	 * before the events that arrived after it was released.
+	 */
+	private void processQueuedEvents() {
+		processDeferredEvents();
+		if (eventQueue != null) {
+			while (!eventQueue.isEmpty()) {
+				doProcessEvent(eventQueue.poll());
+				processDeferredEvents();
+			}
+		}
+	}
+
+	@Override
+	public void processDeferredEvents() {
+		if (deferredEvents == null) {
+			return;
+		}
+		while (deferredEvents.hasReleased()) {
+			doProcessEvent(deferredEvents.replay());
+			deferredEvents.finishReplay();
+		}
+	}
+
+	@Override
+	public void deferEvent(int index, Event event) {
+		if (topLevelStateMachine != null) {
+			topLevelStateMachine.deferEvent(index, event);
+			return;
+		}
+		if (deferredEvents == null) {
+			deferredEvents = new DeferredEvents<Event>();
+		}
+		deferredEvents.defer(index, event);
+	}
+
+	@Override
+	public void releaseDeferredEvents(int index) {
+		if (topLevelStateMachine != null) {
+			topLevelStateMachine.releaseDeferredEvents(index);
+			return;
+		}
+		if (deferredEvents != null) {
+			deferredEvents.release(index);
+		}
+	}
+
+	/**
+	 * Drop the events that were released but not replayed yet, together
+	 * with the queued events. The events deferred by active states are
+	 * kept.
+	 */
+	private void clearEventQueue() {
+		if (eventQueue != null) {
+			eventQueue.clear();
+		}
+		if (deferredEvents != null) {
+			deferredEvents.clearReleased();
+		}
+	}
+
+	private void clearDeferredEvents() {
+		if (deferredEvents != null) {
+			deferredEvents.clear();
+		}
+	}
+
+	private void checkedProcessCompletionTransitions() {
+		inTransition = true;
+		try {
+			processCompletionTransitions();
+			processQueuedEvents();
+		} catch (RuntimeException e) {
+			clearEventQueue();
+			throw e;
+		} finally {
+			inTransition = false;
+		}
+	}
+
+	@Override
+	public void processTimeout(Runnable transition) {
+		if (topLevelStateMachine != null) {
+			topLevelStateMachine.processTimeout(transition);
+			return;
+		}
+		if (enclosingStateMachine != null) {
+			enclosingStateMachine.processTimeout(transition);
+			return;
+		}
+		if (inTransition) {
+			throw new InTransitionException("Cannot execute a timed " +
+					"transition while another transition is running.");
+		}
+
+		inTransition = true;
+		try {
+			transition.run();
+			processQueuedEvents();
+		} catch (RuntimeException e) {
+			clearEventQueue();
+			throw e;
+		} finally {
+			inTransition = false;
+		}
+	}
+
+	private void executeTimedTransition(
+			TransitionTarget<StateId, Event>[] targets) {
+		if (executeTransition(null, targets) != EventOutcome.GUARD_REJECTED) {
+			processCompletionTransitions();
+		} else {
+			ITransitionListener<StateId, Event> listener =
+					getTopLevelStateMachine().getTransitionListener();
+			if (listener != null) {
+				listener.onGuardRejected(getId(currentState.state), null);
+			}
+		}
+	}
+
+	@Override
+	public IStateMachineEngine<StateId, Event> dispatchEvent(Event event) {
+		TransitionTarget<StateId, Event>[] targets = getTransitions(event);
 		if (targets != null) {
-			for (TransitionTarget<StateId, Event> target: targets) {
-				if (executeTransition(event, target)) {
-					// process completion transitions
-					doProcessEvent(null);
-					break;
+			dispatchOutcome = executeTransition(event, targets);
+			if (dispatchOutcome != EventOutcome.GUARD_REJECTED) {
+				processCompletionTransitions();
+			} else if (!deferEvent(event)) {
+				ITransitionListener<StateId, Event> listener =
+						getTopLevelStateMachine().getTransitionListener();
+				if (listener != null) {
+					listener.onGuardRejected(getId(currentState.state), event);
 				}
 			}
-		} else {
-			if (event != null) {
-				// delegate the event
-				currentState.state.processEvent(event);
+			return null;
+		}
+
+		if (deferEvent(event)) {
+			return null;
+		}
+		dispatchOutcome = EventOutcome.IGNORED;
+		if (event != null) {
+			// delegate the event
+			IState<StateId, Event> state = currentState.state;
+			if (state instanceof ICompositeState<?, ?>) {
+				return ((ICompositeState<StateId, Event>)state).
+						getStateMachine();
+			}
+			if (state instanceof IOrthogonalState<?, ?>) {
+				// the regions notify the listener themselves
+				dispatchOutcome = ((IOrthogonalState<StateId, Event>)state).
+						dispatchEvent(event);
+				return null;
+			}
+			state.processEvent(event);
+			ITransitionListener<StateId, Event> listener =
+					getTopLevelStateMachine().getTransitionListener();
+			if (listener != null) {
+				listener.onEventIgnored(state.getId(), event);
 			}
 		}
+		return null;
+	}
+
+	/**
+	 * Defer the event if the current state defers it.
+	 *
+	 * @return True if the event is deferred.
+	 */
+	private boolean deferEvent(Event event) {
+		if (event == null || currentState.deferredEvents == null ||
+				!currentState.deferredEvents.contains(event)) {
+			return false;
+		}
+		getTopLevelStateMachine().deferEvent(currentState.index, event);
+		dispatchOutcome = EventOutcome.DEFERRED;
+		return true;
+	}
+
+	@Override
+	public EventOutcome getDispatchOutcome() {
+		return dispatchOutcome;
+	}
+
+	private void processCompletionTransitions() {
+		int maxSteps = getTopLevelStateMachine().getMaxCompletionSteps();
+		for (int steps = 0; ; ++steps) {
+			TransitionTarget<StateId, Event>[] targets = getTransitions(null);
+			if (targets == null) {
+				return;
+			}
+			if (steps == maxSteps) {
+				if (!isAllowed(targets)) {
+					return;
+				}
+				throw new CompletionCycleException("Completion transitions " +
+						"did not finish after " + maxSteps + " steps. " +
+						"Last state: " + getId(currentState.state) + ".");
+			}
+			if (executeTransition(null, targets) ==
+					EventOutcome.GUARD_REJECTED) {
+				return;
+			}
+		}
+	}
+
+	/**
+	 * Check whether the guard of any of the completion transitions allows
+	 * it, without executing it.
+	 */
+	private boolean isAllowed(TransitionTarget<StateId, Event>[] targets) {
+		for (int i = 0; i < targets.length; ++i) {
+			TransitionTarget<StateId, Event> target = targets[i];
+			if (target.guard == null || target.guard.checkTransition(
+					getId(currentState.state),
+					target.targetState == null ? null :
+							getId(target.targetState.state), null)) {
+				return true;
+			}
+		}
+		return false;
+	}
+
+	/**
+	 * Execute the first transition whose guard allows it.
+	 *
+	 * @return The kind of the executed transition, or
+	 * {@link EventOutcome#GUARD_REJECTED} if none was executed.
+	 */
+	private EventOutcome executeTransition(Event event,
+			TransitionTarget<StateId, Event>[] targets) {
+		ITransitionListener<StateId, Event> listener =
+				getTopLevelStateMachine().getTransitionListener();
+		if (listener == null) {
+			for (int i = 0; i < targets.length; ++i) {
+				if (executeTransition(event, targets[i])) {
+					return getOutcome(targets[i]);
+				}
+			}
+			return EventOutcome.GUARD_REJECTED;
+		}
+
+		StateId fromState = getId(currentState.state);
+		for (int i = 0; i < targets.length; ++i) {
+			long start = System.nanoTime();
+			if (executeTransition(event, targets[i])) {
+				long nanos = System.nanoTime() - start;
+				listener.onTransition(fromState, event,
+						targets[i].targetState == null ? null :
+								targets[i].targetState.state.getId(),
+						nanos);
+				return getOutcome(targets[i]);
+			}
+		}
+		return EventOutcome.GUARD_REJECTED;
+	}
+
+	private static <StateId, Event> EventOutcome getOutcome(
+			TransitionTarget<StateId, Event> target) {
+		return target.targetState == null ?
+				EventOutcome.INTERNAL : EventOutcome.TRANSITIONED;
 	}
 
 	private boolean executeTransition(Event event,
@@ -316,21 +1287,191 @@ class StateMachineEngine<StateId, Event> implements
 				target.targetState.state.enterState(event);
 			} catch (RuntimeException e) {
 				currentState.state.enterState(null);
+				// entering the target may have changed the deeper levels;
+				// the source stays active, so its timeouts and deferred
+				// events are kept
+				getTopLevelStateMachine().setActiveState(depth,
+						currentState.state, currentState.index);
 				throw e;
 			}
-			currentState = target.targetState;
+			setCurrentState(target.targetState);
 		}
 		return true;
 	}
 
 	@Override
-	public boolean hasState(StateId id) {
-		for (ICompositeState<StateId, Event> substate: substates) {
-			if (substate.getStateMachine().hasState(id)) {
-				return true;
+	public void accept(IStateMachineEngineVisitor<StateId, Event> visitor) {
+		for (StateDescription<StateId, Event> description: states.values()) {
+			IStateMachineEngine<StateId, Event> subStateMachine =
+					description.state instanceof ICompositeState<?, ?> ?
+					((ICompositeState<StateId, Event>)description.state).
+							getStateMachine() :
+					null;
+			visitor.visitState(description.state, subStateMachine);
+		}
+		for (StateDescription<StateId, Event> description: states.values()) {
+			for (Map.Entry<Event, TransitionTarget<StateId, Event>[]> entry:
+					description.transitions.entrySet()) {
+				for (TransitionTarget<StateId, Event> target:
+						entry.getValue()) {
+					visitor.visitTransition(description.state.getId(),
+							entry.getKey(), target.action,
+							target.targetState == null ? null :
+									target.targetState.state.getId(),
+							target.guard);
+				}
+			}
+			if (description.timedTransitions != null) {
+				for (TimedTransition<StateId, Event> transition:
+						description.timedTransitions) {
+					TransitionTarget<StateId, Event> target =
+							transition.targets[0];
+					visitor.visitTimedTransition(description.state.getId(),
+							transition.delay, target.action,
+							target.targetState.state.getId(), target.guard);
+				}
+			}
+			if (description.deferredEvents != null) {
+				for (Event event: description.deferredEvents) {
+					visitor.visitDeferredEvent(description.state.getId(),
+							event);
+				}
 			}
 		}
-		return states.containsKey(id);
+	}
+
+	@Override
+	public boolean hasState(StateId id) {
+		if (topLevelStateMachine == null && enclosingStateMachine == null) {
+			return stateIndex != null && stateIndex.containsKey(id);
+		}
+		// the owner of the state is this level or one of its descendants
+		IStateMachineEngine<StateId, Event> owner = getStateOwner(id);
+		while (owner != null && owner.getDepth() > depth) {
+			owner = owner.getParent();
+		}
+		return owner == this;
+	}
+
+	@Override
+	public int registerState(StateId id,
+			IStateMachineEngine<StateId, Event> stateMachine) {
+		if (topLevelStateMachine != null) {
+			return topLevelStateMachine.registerState(id, stateMachine);
+		}
+		if (enclosingStateMachine != null) {
+			return enclosingStateMachine.registerState(id, stateMachine);
+		}
+		if (stateIndex == null) {
+			stateIndex = new HashMap<StateId, IndexEntry<StateId, Event>>();
+		} else if (stateIndex.containsKey(id)) {
+			return -1;
+		}
+		int index = stateIndex.size();
+		stateIndex.put(id, new IndexEntry<StateId, Event>(stateMachine, index));
+		return index;
+	}
+
+	@Override
+	public IStateMachineEngine<StateId, Event> getStateOwner(StateId id) {
+		if (topLevelStateMachine != null) {
+			return topLevelStateMachine.getStateOwner(id);
+		}
+		if (enclosingStateMachine != null) {
+			return enclosingStateMachine.getStateOwner(id);
+		}
+		IndexEntry<StateId, Event> entry =
+				stateIndex == null ? null : stateIndex.get(id);
+		return entry == null ? null : entry.stateMachine;
+	}
+
+	@Override
+	public int getStateIndex(StateId id) {
+		if (topLevelStateMachine != null) {
+			return topLevelStateMachine.getStateIndex(id);
+		}
+		if (enclosingStateMachine != null) {
+			return enclosingStateMachine.getStateIndex(id);
+		}
+		IndexEntry<StateId, Event> entry =
+				stateIndex == null ? null : stateIndex.get(id);
+		return entry == null ? -1 : entry.index;
+	}
+
+	@Override
+	public int getCurrentStateIndex() {
+		return currentState == null ? -1 : currentState.index;
+	}
+
+	@Override
+	public History getHistory() {
+		return history;
+	}
+
+	@Override
+	public void setHistory(History history) {
+		if (history == null) {
+			throw new StateMachineException("The history cannot be null.");
+		}
+		this.history = history;
+	}
+
+	@Override
+	public int getMaxCompletionSteps() {
+		if (enclosingStateMachine != null) {
+			return enclosingStateMachine.getMaxCompletionSteps();
+		}
+		return maxCompletionSteps;
+	}
+
+	@Override
+	public void setMaxCompletionSteps(int maxCompletionSteps) {
+		if (maxCompletionSteps < 0) {
+			throw new StateMachineException("The number of completion steps " +
+					"cannot be negative.");
+		}
+		this.maxCompletionSteps = maxCompletionSteps;
+	}
+
+	@Override
+	public void setEventQueueCapacity(int capacity) {
+		if (capacity < 0) {
+			throw new StateMachineException("The capacity of the event " +
+					"queue cannot be negative.");
+		}
+		eventQueue = capacity == 0 ? null : new EventQueue<Event>(capacity);
+	}
+
+	@Override
+	public int getEventQueueCapacity() {
+		return eventQueue == null ? 0 : eventQueue.capacity();
+	}
+
+	@Override
+	public ITransitionListener<StateId, Event> getTransitionListener() {
+		if (enclosingStateMachine != null) {
+			return enclosingStateMachine.getTransitionListener();
+		}
+		return transitionListener;
+	}
+
+	@Override
+	public void setTransitionListener(
+			ITransitionListener<StateId, Event> transitionListener) {
+		this.transitionListener = transitionListener;
+	}
+
+	@Override
+	public TimingWheel getTimingWheel() {
+		if (enclosingStateMachine != null) {
+			return enclosingStateMachine.getTimingWheel();
+		}
+		return timingWheel;
+	}
+
+	@Override
+	public void setTimingWheel(TimingWheel timingWheel) {
+		this.timingWheel = timingWheel;
 	}
 
 	@Override
@@ -342,6 +1483,12 @@ class StateMachineEngine<StateId, Event> implements
 		}
 	}
 
+	@Override
+	public void setEnclosingStateMachine(
+			IStateMachineEngine<StateId, Event> enclosingStateMachine) {
+		this.enclosingStateMachine = enclosingStateMachine;
+	}
+
 	private StateDescription<StateId, Event> getStateDescription(StateId id) {
 		StateDescription<StateId, Event> result = states.get(id);
 		if (result == null) {
@@ -33,6 +33,8 @@
 
 package com.kangirigungi.jstatemachine;
 
+import java.util.concurrent.TimeUnit;
+
 /**
  * A builder used to create a certain level of a state machine. Instances
  * of this class are acquired via {@link StateMachineBuilder#get()} (for top
@@ -58,7 +60,14 @@ package com.kangirigungi.jstatemachine;
  * changes to true, it is cannot be checked automatically, only when the next
  * (internal or external) transition happens. It can also be triggered
  * explicitly with {@link IStateMachine#processEvent(Object) processEvent(null)}.
+ * <li><b>Timed transition:</b> Added with
+ * {@link #addTransition(Object, long, TimeUnit, ITransitionAction, Object, IGuard) addTransition}
+ * with a timeout instead of an event. These transitions are triggered when the
+ * state has been active for the given time, like the UML <code>after</code>
+ * event. The event passed to the callbacks is <code>null</code>.
  * </ul>
+ * States can also defer events with
+ * {@link #addDeferredEvent(Object, Object) addDeferredEvent}.
  */
 public class SubStateMachineBuilder<StateId, Event> {
 	private IStateMachineEngine<StateId, Event> stateMachineEngine;
@@ -109,6 +118,24 @@ public class SubStateMachineBuilder<StateId, Event> {
 				stateMachineEngine.addCompositeState(id));
 	}
 
+	/**
+	 * Add a new state with orthogonal regions. See
+	 * {@link OrthogonalStateBuilder} for details.
+	 * <p>
+	 * Only one state with one id is allowed.
+	 * If another one with the same ID is attempted to be added, an
+	 * exception is thrown.
+	 *
+	 * @param id The identifier of the new state.
+	 * @return The instance of the new state.
+	 * @throws DuplicateStateException If the state id already exists.
+	 */
+	public OrthogonalStateBuilder<StateId, Event> addOrthogonalState(
+			StateId id) {
+		return new OrthogonalStateBuilder<StateId, Event>(
+				stateMachineEngine.addOrthogonalState(id));
+	}
+
 	/**
 	 * Add a new transition. The action and guard parameters are optional.
 	 * The fromState parameter is mandatory and cannot be <code>null</code>. If event is
@@ -121,8 +148,9 @@ public class SubStateMachineBuilder<StateId, Event> {
 	 * executed. The first transition where the guard returns true is
 	 * executed.
 	 * <p>
-	 * <b>Warning:</b> There is no check that completion transitions won't
-	 * cause an infinite loop.
+	 * <b>Warning:</b> Completion transitions that form a cycle are only
+	 * detected when they are executed, see
+	 * {@link StateMachineBuilder#setMaxCompletionSteps(int)}.
 	 *
 	 * @param fromState The initial state of the transition.
 	 * @param event The event that triggers the transition. If <code>null</code>, it is a
@@ -152,6 +180,51 @@ public class SubStateMachineBuilder<StateId, Event> {
 		return this;
 	}
 
+	/**
+	 * Add a new timed transition. The transition is executed when the
+	 * state has been active for the given time, unless it is exited before.
+	 * The timer is started again each time the state is entered, and it is
+	 * cancelled when the state is exited. The action and guard parameters
+	 * are optional. If the guard does not allow the transition when the
+	 * timer expires, the transition is not executed until the state is
+	 * entered again.
+	 * <p>
+	 * The timers are kept by the timing wheel of the state machine, which
+	 * must be set with {@link StateMachineBuilder#setTimingWheel(TimingWheel)}
+	 * before calling this method.
+	 *
+	 * @param fromState The initial state of the transition.
+	 * @param timeout The time after which the transition is executed.
+	 * @param unit The unit of <code>timeout</code>.
+	 * @param action The action to be executed.
+	 * @param toState The final state of the transition.
+	 * @param guard The guard of the transition.
+	 * @return this.
+	 * @throws StateMachineException If no timing wheel is set or the
+	 * timeout is negative.
+	 * @throws {@link NoStateException} If either fromState of
+	 * toState does not exist.
+	 */
+	public SubStateMachineBuilder<StateId, Event> addTransition(StateId fromState,
+			long timeout, TimeUnit unit,
+			ITransitionAction<StateId, Event> action, StateId toState,
+			IGuard<StateId, Event> guard) {
+		stateMachineEngine.addTimedTransition(fromState, unit.toNanos(timeout),
+				action, toState, guard);
+		return this;
+	}
+
+	/**
+	 * Same as {@link #addTransition(Object, long, TimeUnit, ITransitionAction, Object, IGuard)
+	 * addTransition(fromState, timeout, unit, action, toState, null)}.
+	 */
+	public SubStateMachineBuilder<StateId, Event> addTransition(StateId fromState,
+			long timeout, TimeUnit unit,
+			ITransitionAction<StateId, Event> action, StateId toState) {
+		stateMachineEngine.addTimedTransition(fromState, unit.toNanos(timeout),
+				action, toState, null);
+		return this;
+	}
 
 	/**
 	 * Add a new internal transition. Internal transitions do not
@@ -186,4 +259,32 @@ public class SubStateMachineBuilder<StateId, Event> {
 		return this;
 	}
 
+	/**
+	 * Make a state defer an event, like a UML deferrable event. If the state
+	 * is active and has no transitions for the event whose guards allow them,
+	 * the event is kept instead of being passed to the states below it, and
+	 * {@link EventOutcome#DEFERRED} is returned for it. When the state is
+	 * left, the events it deferred are processed again in the order they
+	 * arrived, before any event sent during the transition. An event that is
+	 * deferred by the new active states too is kept again.
+	 * <p>
+	 * Transitions of the states above the deferring state take precedence,
+	 * the same way as when an event is delegated. The deferred events are
+	 * not part of the configuration of the state machine (see
+	 * {@link IRestorableStateMachine}), so they are dropped when a
+	 * configuration is restored, and definitions with deferred events
+	 * cannot be restored from snapshots. Events that are released but not processed
+	 * yet are dropped when a callback throws an exception.
+	 *
+	 * @param state The state deferring the event.
+	 * @param event The deferred event. It cannot be <code>null</code>.
+	 * @return this.
+	 * @throws {@link NoStateException} If the state does not exist.
+	 */
+	public SubStateMachineBuilder<StateId, Event> addDeferredEvent(
+			StateId state, Event event) {
+		stateMachineEngine.addDeferredEvent(state, event);
+		return this;
+	}
+
 }
@@ -0,0 +1,254 @@
+/*
+ * Copyright (c) 2013, Peter Szabados
+ * All rights reserved.
+ *
+ * Redistribution and use in source and binary forms, with or without
+ * modification, are permitted provided that the following conditions are
+ * met:
+ *
+ *     (1) Redistributions of source code must retain the above copyright
+ *     notice, this list of conditions and the following disclaimer.
+ *
+ *     (2) Redistributions in binary form must reproduce the above copyright
+ *     notice, this list of conditions and the following disclaimer in
+ *     the documentation and/or other materials provided with the
+ *     distribution.
+ *
+ *     (3)The name of the author may not be used to
+ *     endorse or promote products derived from this software without
+ *     specific prior written permission.
+ *
+ * THIS SOFTWARE IS PROVIDED BY THE AUTHOR ``AS IS'' AND ANY EXPRESS OR
+ * IMPLIED WARRANTIES, INCLUDING, BUT NOT LIMITED TO, THE IMPLIED
+ * WARRANTIES OF MERCHANTABILITY AND FITNESS FOR A PARTICULAR PURPOSE ARE
+ * DISCLAIMED. IN NO EVENT SHALL THE AUTHOR BE LIABLE FOR ANY DIRECT,
+ * INDIRECT, INCIDENTAL, SPECIAL, EXEMPLARY, OR CONSEQUENTIAL DAMAGES
+ * (INCLUDING, BUT NOT LIMITED TO, PROCUREMENT OF SUBSTITUTE GOODS OR
+ * SERVICES; LOSS OF USE, DATA, OR PROFITS; OR BUSINESS INTERRUPTION)
+ * HOWEVER CAUSED AND ON ANY THEORY OF LIABILITY, WHETHER IN CONTRACT,
+ * STRICT LIABILITY, OR TORT (INCLUDING NEGLIGENCE OR OTHERWISE) ARISING
+ * IN ANY WAY OUT OF THE USE OF THIS SOFTWARE, EVEN IF ADVISED OF THE
+ * POSSIBILITY OF SUCH DAMAGE.
+ */
+package com.kangirigungi.jstatemachine;
+
+import java.util.concurrent.TimeUnit;
+
+/**
+ * Hashed hierarchical timing wheel that executes the timed transitions of
+ * any number of state machines. Register it with
+ * {@link StateMachineBuilder#setTimingWheel(TimingWheel)}, then call
+ * {@link #advance()} periodically, for example from a single scheduled
+ * task. Scheduling and cancelling a timeout takes constant time, and the
+ * timeouts of a state are cancelled when the state is exited.
+ * <p>
+ * Time is measured in ticks. A timeout never expires earlier than its
+ * delay, but it can expire up to one tick, plus the time between two calls
+ * of {@link #advance()}, later.
+ * <p>
+ * <b>Note:</b> This class is not thread-safe. The timed transitions are
+ * executed by the thread calling {@link #advance()}, so it must not run
+ * concurrently with any other call of the state machines using the wheel.
+ *
+ * @author Peter Szabados
+ */
+public class TimingWheel {
+	private static final int SLOT_BITS = 6;
+	private static final int SLOT_COUNT = 1 << SLOT_BITS;
+	private static final int SLOT_MASK = SLOT_COUNT - 1;
+	/**
+	 * Enough levels to hold any deadline of 64 bits.
+	 */
+	private static final int LEVEL_COUNT = (64 + SLOT_BITS - 1) / SLOT_BITS;
+
+	private static final class Slot extends Timeout {
+		Slot() {
+			previous = this;
+			next = this;
+		}
+
+		boolean isEmpty() {
+			return next == this;
+		}
+
+		@Override
+		void expire() {
+		}
+	}
+
+	private final IClock clock;
+	private final long tickNanos;
+	private final long start;
+	private final Slot[][] slots = new Slot[LEVEL_COUNT][SLOT_COUNT];
+	/**
+	 * The timeouts being expired or cascaded.
+	 */
+	private final Slot pending = new Slot();
+	/**
+	 * The next tick to be processed.
+	 */
+	private long currentTick = 0;
+	private int size = 0;
+	private boolean advancing = false;
+
+	/**
+	 * Create a timing wheel using the system clock.
+	 *
+	 * @param tickDuration The duration of one tick.
+	 * @param unit The unit of <code>tickDuration</code>.
+	 */
+	public TimingWheel(long tickDuration, TimeUnit unit) {
+		this(IClock.SYSTEM, tickDuration, unit);
+	}
+
+	/**
+	 * Create a timing wheel.
+	 *
+	 * @param clock The source of time.
+	 * @param tickDuration The duration of one tick.
+	 * @param unit The unit of <code>tickDuration</code>.
+	 */
+	public TimingWheel(IClock clock, long tickDuration, TimeUnit unit) {
+		tickNanos = unit.toNanos(tickDuration);
+		if (tickNanos <= 0) {
+			throw new IllegalArgumentException("The tick duration must be " +
+					"positive.");
+		}
+		this.clock = clock;
+		start = clock.nanoTime();
+		for (int level = 0; level < LEVEL_COUNT; ++level) {
+			for (int i = 0; i < SLOT_COUNT; ++i) {
+				slots[level][i] = new Slot();
+			}
+		}
+	}
+
+	/**
+	 * Get the number of scheduled timeouts.
+	 */
+	public int size() {
+		return size;
+	}
+
+	/**
+	 * Expire all timeouts whose deadline is reached. The timed transitions
+	 * are executed in the order of their deadlines.
+	 *
+	 * @throws StateMachineException If it is called from a callback of a
+	 * timed transition.
+	 */
+	public void advance() {
+		if (advancing) {
+			throw new StateMachineException("Cannot advance the timing " +
+					"wheel while it is being advanced.");
+		}
+		long now = (clock.nanoTime() - start) / tickNanos;
+		advancing = true;
+		try {
+			while (currentTick <= now) {
+				int index = (int)(currentTick & SLOT_MASK);
+				// move the timeouts of the upper levels down when a lower
+				// level wraps around
+				for (int level = 1; level < LEVEL_COUNT && index == 0;
+						++level) {
+					index = (int)((currentTick >>> (level * SLOT_BITS)) &
+							SLOT_MASK);
+					cascade(slots[level][index]);
+				}
+				moveAll(slots[0][(int)(currentTick & SLOT_MASK)], pending);
+				// timeouts scheduled by the expired ones go to the next tick
+				++currentTick;
+				while (!pending.isEmpty()) {
+					Timeout timeout = pending.next;
+					unlink(timeout);
+					--size;
+					timeout.expire();
+				}
+			}
+		} finally {
+			// if a timed transition failed, the rest of the expired
+			// timeouts are processed again by the next call
+			if (!pending.isEmpty()) {
+				--currentTick;
+			}
+			while (!pending.isEmpty()) {
+				Timeout timeout = pending.next;
+				unlink(timeout);
+				add(timeout);
+			}
+			advancing = false;
+		}
+	}
+
+	/**
+	 * Schedule a timeout. If it is already scheduled, it is rescheduled.
+	 *
+	 * @param delayNanos The delay in nanoseconds.
+	 */
+	void schedule(Timeout timeout, long delayNanos) {
+		cancel(timeout);
+		long elapsed = clock.nanoTime() - start;
+		timeout.deadline = (elapsed + delayNanos + tickNanos - 1) / tickNanos;
+		add(timeout);
+		++size;
+	}
+
+	/**
+	 * Cancel a timeout. Nothing happens if it is not scheduled.
+	 */
+	void cancel(Timeout timeout) {
+		if (timeout.isScheduled()) {
+			unlink(timeout);
+			--size;
+		}
+	}
+
+	private void cascade(Slot slot) {
+		moveAll(slot, pending);
+		while (!pending.isEmpty()) {
+			Timeout timeout = pending.next;
+			unlink(timeout);
+			add(timeout);
+		}
+	}
+
+	private void add(Timeout timeout) {
+		if (timeout.deadline < currentTick) {
+			timeout.deadline = currentTick;
+		}
+		long delta = timeout.deadline - currentTick;
+		int level = 0;
+		while (level < LEVEL_COUNT - 1 &&
+				(delta >>> ((level + 1) * SLOT_BITS)) != 0) {
+			++level;
+		}
+		Slot slot = slots[level][(int)((timeout.deadline >>>
+				(level * SLOT_BITS)) & SLOT_MASK)];
+		timeout.previous = slot.previous;
+		timeout.next = slot;
+		slot.previous.next = timeout;
+		slot.previous = timeout;
+	}
+
+	private static void unlink(Timeout timeout) {
+		timeout.previous.next = timeout.next;
+		timeout.next.previous = timeout.previous;
+		timeout.previous = null;
+		timeout.next = null;
+	}
+
+	/**
+	 * Move all elements of a list to the end of another one.
+	 */
+	private static void moveAll(Slot from, Slot to) {
+		if (from.isEmpty()) {
+			return;
+		}
+		from.next.previous = to.previous;
+		to.previous.next = from.next;
+		from.previous.next = to;
+		to.previous = from.previous;
+		from.next = from;
+		from.previous = from;
+	}
+}
@@ -0,0 +1,84 @@
+/*
+ * Copyright (c) 2013, Peter Szabados
+ * All rights reserved.
+ *
+ * Redistribution and use in source and binary forms, with or without
+ * modification, are permitted provided that the following conditions are
+ * met:
+ *
+ *     (1) Redistributions of source code must retain the above copyright
+ *     notice, this list of conditions and the following disclaimer.
+ *
+ *     (2) Redistributions in binary form must reproduce the above copyright
+ *     notice, this list of conditions and the following disclaimer in
+ *     the documentation and/or other materials provided with the
+ *     distribution.
+ *
+ *     (3)The name of the author may not be used to
+ *     endorse or promote products derived from this software without
+ *     specific prior written permission.
+ *
+ * THIS SOFTWARE IS PROVIDED BY THE AUTHOR ``AS IS'' AND ANY EXPRESS OR
+ * IMPLIED WARRANTIES, INCLUDING, BUT NOT LIMITED TO, THE IMPLIED
+ * WARRANTIES OF MERCHANTABILITY AND FITNESS FOR A PARTICULAR PURPOSE ARE
+ * DISCLAIMED. IN NO EVENT SHALL THE AUTHOR BE LIABLE FOR ANY DIRECT,
+ * INDIRECT, INCIDENTAL, SPECIAL, EXEMPLARY, OR CONSEQUENTIAL DAMAGES
+ * (INCLUDING, BUT NOT LIMITED TO, PROCUREMENT OF SUBSTITUTE GOODS OR
+ * SERVICES; LOSS OF USE, DATA, OR PROFITS; OR BUSINESS INTERRUPTION)
+ * HOWEVER CAUSED AND ON ANY THEORY OF LIABILITY, WHETHER IN CONTRACT,
+ * STRICT LIABILITY, OR TORT (INCLUDING NEGLIGENCE OR OTHERWISE) ARISING
+ * IN ANY WAY OUT OF THE USE OF THIS SOFTWARE, EVEN IF ADVISED OF THE
+ * POSSIBILITY OF SUCH DAMAGE.
+ */
+package com.kangirigungi.jstatemachine.annotation;
+
+import java.lang.annotation.ElementType;
+import java.lang.annotation.Retention;
+import java.lang.annotation.RetentionPolicy;
+import java.lang.annotation.Target;
+
+/**
+ * Declares a state machine on an enum of states. The constants of the enum
+ * are the states, and their transitions are declared with
+ * {@link Transition} and {@link Transitions}, their entry and exit
+ * actions with {@link StateActions}.
+ * <p>
+ * {@link EnumStateMachineProcessor} generates a final class in the package
+ * of the enum that implements
+ * {@link com.kangirigungi.jstatemachine.IStateMachine IStateMachine} and
+ * {@link com.kangirigungi.jstatemachine.IRestorableStateMachine
+ * IRestorableStateMachine}. The actions and guards are named, and the
+ * generated class has a nested <code>Callbacks</code> interface with a
+ * method for each name. The generated class takes an implementation of
+ * it in its constructor. The guards have the signature of
+ * {@link com.kangirigungi.jstatemachine.IGuard#checkTransition(Object,
+ * Object, Object) IGuard.checkTransition}, the transition actions that of
+ * {@link com.kangirigungi.jstatemachine.ITransitionAction#onTransition(
+ * Object, Object, Object) ITransitionAction.onTransition}, and the entry
+ * and exit actions that of
+ * {@link com.kangirigungi.jstatemachine.IEntryExitAction#onEnter(Object,
+ * Object) IEntryExitAction.onEnter}.
+ * <p>
+ * The generated state machines have no sub state machines, completion
+ * transitions or event queue.
+ *
+ * @author Peter Szabados
+ *
+ */
+@Target(ElementType.TYPE)
+@Retention(RetentionPolicy.SOURCE)
+public @interface EnumStateMachine {
+	/**
+	 * The simple name of the generated class. The default is the name of
+	 * the enum followed by <code>Machine</code>.
+	 */
+	String name() default "";
+	/**
+	 * The enum of the events.
+	 */
+	Class<? extends Enum<?>> events();
+	/**
+	 * The name of the initial state.
+	 */
+	String initial();
+}
@@ -0,0 +1,614 @@
+/*
+ * Copyright (c) 2013, Peter Szabados
+ * All rights reserved.
+ *
+ * Redistribution and use in source and binary forms, with or without
+ * modification, are permitted provided that the following conditions are
+ * met:
+ *
+ *     (1) Redistributions of source code must retain the above copyright
+ *     notice, this list of conditions and the following disclaimer.
+ *
+ *     (2) Redistributions in binary form must reproduce the above copyright
+ *     notice, this list of conditions and the following disclaimer in
+ *     the documentation and/or other materials provided with the
+ *     distribution.
+ *
+ *     (3)The name of the author may not be used to
+ *     endorse or promote products derived from this software without
+ *     specific prior written permission.
+ *
+ * THIS SOFTWARE IS PROVIDED BY THE AUTHOR ``AS IS'' AND ANY EXPRESS OR
+ * IMPLIED WARRANTIES, INCLUDING, BUT NOT LIMITED TO, THE IMPLIED
+ * WARRANTIES OF MERCHANTABILITY AND FITNESS FOR A PARTICULAR PURPOSE ARE
+ * DISCLAIMED. IN NO EVENT SHALL THE AUTHOR BE LIABLE FOR ANY DIRECT,
+ * INDIRECT, INCIDENTAL, SPECIAL, EXEMPLARY, OR CONSEQUENTIAL DAMAGES
+ * (INCLUDING, BUT NOT LIMITED TO, PROCUREMENT OF SUBSTITUTE GOODS OR
+ * SERVICES; LOSS OF USE, DATA, OR PROFITS; OR BUSINESS INTERRUPTION)
+ * HOWEVER CAUSED AND ON ANY THEORY OF LIABILITY, WHETHER IN CONTRACT,
+ * STRICT LIABILITY, OR TORT (INCLUDING NEGLIGENCE OR OTHERWISE) ARISING
+ * IN ANY WAY OUT OF THE USE OF THIS SOFTWARE, EVEN IF ADVISED OF THE
+ * POSSIBILITY OF SUCH DAMAGE.
+ */
+package com.kangirigungi.jstatemachine.annotation;
+
+import java.io.IOException;
+import java.io.Writer;
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.List;
+import java.util.Map;
+import java.util.Set;
+import java.util.TreeMap;
+
+import javax.annotation.processing.AbstractProcessor;
+import javax.annotation.processing.RoundEnvironment;
+import javax.annotation.processing.SupportedAnnotationTypes;
+import javax.lang.model.SourceVersion;
+import javax.lang.model.element.Element;
+import javax.lang.model.element.ElementKind;
+import javax.lang.model.element.TypeElement;
+import javax.lang.model.type.DeclaredType;
+import javax.lang.model.type.MirroredTypeException;
+import javax.lang.model.type.TypeMirror;
+import javax.tools.Diagnostic;
+
+import com.kangirigungi.jstatemachine.EventOutcome;
+import com.kangirigungi.jstatemachine.IRestorableStateMachine;
+import com.kangirigungi.jstatemachine.IStateMachine;
+import com.kangirigungi.jstatemachine.InTransitionException;
+import com.kangirigungi.jstatemachine.StateMachineException;
+
+/**
+ * Generates the state machine classes declared with
+ * {@link EnumStateMachine}. The generated class dispatches events with a
+ * switch on the ordinal of the current state and of the event, and calls
+ * the callbacks directly, so there are no maps, transition objects or
+ * virtual calls to action objects at runtime.
+ * <p>
+ * The declarations are checked at compile time with the same rules as
+ * {@link com.kangirigungi.jstatemachine.StateMachine StateMachine} checks
+ * them at runtime. A violation is reported as a compile error on the
+ * offending element, and no class is generated for that enum.
+ *
+ * @author Peter Szabados
+ *
+ */
+@SupportedAnnotationTypes(
+		"com.kangirigungi.jstatemachine.annotation.EnumStateMachine")
+public class EnumStateMachineProcessor extends AbstractProcessor {
+
+	private static final String ACTION = "action";
+	private static final String GUARD = "guard";
+	private static final String ENTRY_EXIT = "entry or exit action";
+
+	private static final class TransitionInfo {
+		public final int event;
+		public final int target;
+		public final String action;
+		public final String guard;
+
+		public TransitionInfo(int event, int target, String action,
+				String guard) {
+			this.event = event;
+			this.target = target;
+			this.action = action;
+			this.guard = guard;
+		}
+	}
+
+	private String stateName;
+	private String eventName;
+	private List<String> states;
+	private List<String> events;
+	private List<List<TransitionInfo>> transitions;
+	private List<String> entryActions;
+	private List<String> exitActions;
+	/**
+	 * The kind of each callback, by name.
+	 */
+	private Map<String, String> callbacks;
+	private boolean failed;
+	private StringBuilder out;
+
+	@Override
+	public SourceVersion getSupportedSourceVersion() {
+		return SourceVersion.latestSupported();
+	}
+
+	@Override
+	public boolean process(Set<? extends TypeElement> annotations,
+			RoundEnvironment roundEnv) {
+		for (Element element:
+				roundEnv.getElementsAnnotatedWith(EnumStateMachine.class)) {
+			if (element.getKind() != ElementKind.ENUM) {
+				error(element, "@EnumStateMachine can only be used on " +
+						"enums.");
+				continue;
+			}
+			processEnum((TypeElement)element);
+		}
+		return true;
+	}
+
+	private void processEnum(TypeElement stateType) {
+		EnumStateMachine annotation =
+				stateType.getAnnotation(EnumStateMachine.class);
+		TypeElement eventType = getEventType(annotation);
+		if (eventType == null || eventType.getKind() != ElementKind.ENUM) {
+			error(stateType, "The events of a state machine must be an " +
+					"enum.");
+			return;
+		}
+		stateName = stateType.getQualifiedName().toString();
+		eventName = eventType.getQualifiedName().toString();
+		List<Element> stateConstants = getConstants(stateType);
+		states = getNames(stateConstants);
+		events = getNames(getConstants(eventType));
+		transitions = new ArrayList<List<TransitionInfo>>();
+		entryActions = new ArrayList<String>();
+		exitActions = new ArrayList<String>();
+		callbacks = new TreeMap<String, String>();
+		failed = false;
+
+		int initial = states.indexOf(annotation.initial());
+		if (initial < 0) {
+			error(stateType, "Unknown initial state: " +
+					annotation.initial() + ".");
+		}
+		for (Element state: stateConstants) {
+			collectState(state);
+		}
+		if (failed) {
+			return;
+		}
+
+		String packageName = processingEnv.getElementUtils().
+				getPackageOf(stateType).getQualifiedName().toString();
+		String className = annotation.name().length() > 0 ?
+				annotation.name() :
+				stateType.getSimpleName().toString() + "Machine";
+		String qualifiedName = packageName.length() > 0 ?
+				packageName + "." + className : className;
+		out = new StringBuilder();
+		writeClass(packageName, className, initial);
+		try {
+			Writer writer = processingEnv.getFiler().createSourceFile(
+					qualifiedName, stateType).openWriter();
+			try {
+				writer.write(out.toString());
+			} finally {
+				writer.close();
+			}
+		} catch (IOException e) {
+			error(stateType, "Cannot write " + qualifiedName + ": " +
+					e.getMessage());
+		}
+		out = null;
+	}
+
+	private static TypeElement getEventType(EnumStateMachine annotation) {
+		TypeMirror type;
+		try {
+			// Only the mirror of a class value is available during
+			// annotation processing.
+			annotation.events();
+			return null;
+		} catch (MirroredTypeException e) {
+			type = e.getTypeMirror();
+		}
+		if (!(type instanceof DeclaredType)) {
+			return null;
+		}
+		return (TypeElement)((DeclaredType)type).asElement();
+	}
+
+	private static List<Element> getConstants(TypeElement type) {
+		List<Element> result = new ArrayList<Element>();
+		for (Element element: type.getEnclosedElements()) {
+			if (element.getKind() == ElementKind.ENUM_CONSTANT) {
+				result.add(element);
+			}
+		}
+		return result;
+	}
+
+	private static List<String> getNames(List<Element> elements) {
+		List<String> result = new ArrayList<String>();
+		for (Element element: elements) {
+			result.add(element.getSimpleName().toString());
+		}
+		return result;
+	}
+
+	private void collectState(Element state) {
+		StateActions actions = state.getAnnotation(StateActions.class);
+		entryActions.add(actions == null ? "" :
+			addCallback(state, actions.onEnter(), ENTRY_EXIT));
+		exitActions.add(actions == null ? "" :
+			addCallback(state, actions.onExit(), ENTRY_EXIT));
+
+		List<Transition> declared = new ArrayList<Transition>();
+		Transition single = state.getAnnotation(Transition.class);
+		if (single != null) {
+			declared.add(single);
+		}
+		Transitions multiple = state.getAnnotation(Transitions.class);
+		if (multiple != null) {
+			Collections.addAll(declared, multiple.value());
+		}
+		List<TransitionInfo> result = new ArrayList<TransitionInfo>();
+		for (Transition transition: declared) {
+			int event = events.indexOf(transition.event());
+			if (event < 0) {
+				error(state, "Unknown event: " + transition.event() + ".");
+				continue;
+			}
+			int target = -1;
+			if (transition.target().length() > 0) {
+				target = states.indexOf(transition.target());
+				if (target < 0) {
+					error(state, "Unknown target state: " +
+							transition.target() + ".");
+					continue;
+				}
+			}
+			String guard = addCallback(state, transition.guard(), GUARD);
+			for (TransitionInfo previous: result) {
+				if (previous.event == event &&
+						(guard.length() == 0 ||
+						previous.guard.length() == 0)) {
+					error(state, "Duplicate transition from " +
+							state.getSimpleName() + " with event " +
+							transition.event() + ". For each event, " +
+							"either all transitions must be guarded or " +
+							"only one unguarded transition must occur.");
+					break;
+				}
+			}
+			result.add(new TransitionInfo(event, target,
+					addCallback(state, transition.action(), ACTION), guard));
+		}
+		transitions.add(result);
+	}
+
+	private String addCallback(Element element, String name, String kind) {
+		if (name.length() == 0) {
+			return name;
+		}
+		if (!SourceVersion.isIdentifier(name) ||
+				SourceVersion.isKeyword(name)) {
+			error(element, "Invalid callback name: " + name + ".");
+			return name;
+		}
+		String previous = callbacks.put(name, kind);
+		if (previous != null && !previous.equals(kind)) {
+			error(element, "The callback " + name + " is used both as " +
+					previous + " and as " + kind + ".");
+		}
+		return name;
+	}
+
+	private void error(Element element, String message) {
+		processingEnv.getMessager().printMessage(Diagnostic.Kind.ERROR,
+				message, element);
+		failed = true;
+	}
+
+	private void line(int indent, String text) {
+		for (int i = 0; i < indent; ++i) {
+			out.append('\t');
+		}
+		out.append(text).append('\n');
+	}
+
+	private String state(int index) {
+		return index < 0 ? "null" : stateName + "." + states.get(index);
+	}
+
+	private void writeClass(String packageName, String className,
+			int initial) {
+		String type = "<" + stateName + ", " + eventName + ">";
+		line(0, "// Generated by " +
+				EnumStateMachineProcessor.class.getName() + ", do not edit.");
+		if (packageName.length() > 0) {
+			line(0, "package " + packageName + ";");
+			line(0, "");
+		}
+		line(0, "import java.util.ArrayList;");
+		line(0, "import java.util.Arrays;");
+		line(0, "import java.util.Collections;");
+		line(0, "import java.util.List;");
+		line(0, "");
+		for (Class<?> imported: new Class<?>[] {EventOutcome.class,
+				IRestorableStateMachine.class, IStateMachine.class,
+				InTransitionException.class, StateMachineException.class}) {
+			line(0, "import " + imported.getName() + ";");
+		}
+		line(0, "");
+		line(0, "public final class " + className + " implements");
+		line(2, "IStateMachine" + type + ", IRestorableStateMachine {");
+		line(0, "");
+		writeCallbacks();
+		line(1, "private static final " + stateName + "[] STATES =");
+		line(3, stateName + ".values();");
+		line(1, "private static final List<List<" + stateName +
+				">> CURRENT_STATES =");
+		line(3, "new ArrayList<List<" + stateName + ">>();");
+		line(1, "static {");
+		line(2, "for (" + stateName + " state: STATES) {");
+		line(3, "CURRENT_STATES.add(Collections.singletonList(state));");
+		line(2, "}");
+		line(1, "}");
+		line(0, "");
+		line(1, "private final Callbacks callbacks;");
+		line(1, "private int state;");
+		line(1, "private boolean inTransition = false;");
+		line(0, "");
+		line(1, "public " + className + "(Callbacks callbacks) {");
+		line(2, "this.callbacks = callbacks;");
+		line(2, "inTransition = true;");
+		line(2, "try {");
+		line(3, "enter(" + initial + ", null);");
+		line(2, "} finally {");
+		line(3, "inTransition = false;");
+		line(2, "}");
+		line(1, "}");
+		line(0, "");
+		writeQueries();
+		writeProcessing();
+		writeDispatch();
+		writeEnterExit();
+		line(0, "}");
+	}
+
+	private void writeCallbacks() {
+		line(1, "public interface Callbacks {");
+		for (Map.Entry<String, String> callback: callbacks.entrySet()) {
+			if (callback.getValue().equals(ENTRY_EXIT)) {
+				line(2, "void " + callback.getKey() + "(" + stateName +
+						" state, " + eventName + " event);");
+			} else {
+				line(2, (callback.getValue().equals(GUARD) ? "boolean " :
+					"void ") + callback.getKey() + "(" + stateName +
+					" fromState, " + stateName + " toState,");
+				line(4, eventName + " event);");
+			}
+		}
+		line(1, "}");
+		line(0, "");
+	}
+
+	private void writeQueries() {
+		line(1, "@Override");
+		line(1, "public " + stateName + " getCurrentState() {");
+		line(2, "return STATES[state];");
+		line(1, "}");
+		line(0, "");
+		line(1, "@Override");
+		line(1, "public List<" + stateName + "> getCurrentStates() {");
+		line(2, "return CURRENT_STATES.get(state);");
+		line(1, "}");
+		line(0, "");
+		line(1, "@Override");
+		line(1, "public " + stateName + " getCurrentDeepState() {");
+		line(2, "return STATES[state];");
+		line(1, "}");
+		line(0, "");
+		line(1, "@Override");
+		line(1, "public int[] getConfiguration() {");
+		line(2, "return new int[] {state};");
+		line(1, "}");
+		line(0, "");
+		line(1, "@Override");
+		line(1, "public void restoreConfiguration(int[] configuration) {");
+		line(2, "checkNotInTransition();");
+		line(2, "if (configuration.length != 1 || configuration[0] < 0 ||");
+		line(4, "configuration[0] >= STATES.length) {");
+		line(3, "throw new StateMachineException(\"Invalid configuration: \" +");
+		line(5, "Arrays.toString(configuration));");
+		line(2, "}");
+		line(2, "state = configuration[0];");
+		line(1, "}");
+		line(0, "");
+		line(1, "@Override");
+		line(1, "public int[] getRememberedStates() {");
+		line(2, "return new int[0];");
+		line(1, "}");
+		line(0, "");
+		line(1, "@Override");
+		line(1, "public void restoreRememberedStates(int[] history) {");
+		line(2, "checkNotInTransition();");
+		line(2, "// no state has history, so nothing is remembered");
+		line(1, "}");
+		line(0, "");
+		line(1, "@Override");
+		line(1, "public int getDeferredEventCount() {");
+		line(2, "return 0;");
+		line(1, "}");
+		line(0, "");
+	}
+
+	private void writeProcessing() {
+		line(1, "@Override");
+		line(1, "public void processEvent(" + eventName + " event) {");
+		line(2, "if (inTransition) {");
+		line(3, "throw new InTransitionException(\"Cannot initiate " +
+				"transition \" +");
+		line(5, "\"while another transition is running.\");");
+		line(2, "}");
+		line(2, "inTransition = true;");
+		line(2, "try {");
+		line(3, "dispatch(event);");
+		line(2, "} finally {");
+		line(3, "inTransition = false;");
+		line(2, "}");
+		line(1, "}");
+		line(0, "");
+
+		line(1, "@Override");
+		line(1, "public EventOutcome[] processEvents(" + eventName +
+				"[] events, int from, int to) {");
+		line(2, "if (from < 0 || to > events.length || from > to) {");
+		line(3, "throw new IndexOutOfBoundsException(\"Invalid range: \" + " +
+				"from +");
+		line(5, "\" - \" + to + \", length = \" + events.length);");
+		line(2, "}");
+		line(2, "checkNotInTransition();");
+		line(2, "EventOutcome[] result = new EventOutcome[to - from];");
+		line(2, "inTransition = true;");
+		line(2, "try {");
+		line(3, "for (int i = from; i < to; ++i) {");
+		line(4, "result[i - from] = dispatch(events[i]);");
+		line(3, "}");
+		line(2, "} finally {");
+		line(3, "inTransition = false;");
+		line(2, "}");
+		line(2, "return result;");
+		line(1, "}");
+		line(0, "");
+
+		line(1, "@Override");
+		line(1, "public EventOutcome[] processEvents(Iterable<" + eventName +
+				"> events) {");
+		line(2, "checkNotInTransition();");
+		line(2, "List<EventOutcome> result = new ArrayList<EventOutcome>();");
+		line(2, "inTransition = true;");
+		line(2, "try {");
+		line(3, "for (" + eventName + " event: events) {");
+		line(4, "result.add(dispatch(event));");
+		line(3, "}");
+		line(2, "} finally {");
+		line(3, "inTransition = false;");
+		line(2, "}");
+		line(2, "return result.toArray(new EventOutcome[result.size()]);");
+		line(1, "}");
+		line(0, "");
+
+		line(1, "private void checkNotInTransition() {");
+		line(2, "if (inTransition) {");
+		line(3, "throw new InTransitionException(\"Cannot process events \" +");
+		line(5, "\"while a transition is running.\");");
+		line(2, "}");
+		line(1, "}");
+		line(0, "");
+	}
+
+	private void writeDispatch() {
+		line(1, "private EventOutcome dispatch(" + eventName + " event) {");
+		line(2, "if (event == null) {");
+		line(3, "return EventOutcome.IGNORED;");
+		line(2, "}");
+		line(2, "switch (state) {");
+		for (int i = 0; i < states.size(); ++i) {
+			List<TransitionInfo> stateTransitions = transitions.get(i);
+			if (stateTransitions.isEmpty()) {
+				continue;
+			}
+			line(2, "case " + i + ": // " + states.get(i));
+			line(3, "switch (event.ordinal()) {");
+			for (int event = 0; event < events.size(); ++event) {
+				List<TransitionInfo> eventTransitions =
+						new ArrayList<TransitionInfo>();
+				for (TransitionInfo transition: stateTransitions) {
+					if (transition.event == event) {
+						eventTransitions.add(transition);
+					}
+				}
+				if (eventTransitions.isEmpty()) {
+					continue;
+				}
+				line(3, "case " + event + ": // " + events.get(event));
+				if (!writeTransitions(4, i, eventTransitions)) {
+					line(4, "return EventOutcome.GUARD_REJECTED;");
+				}
+			}
+			line(3, "default:");
+			line(4, "return EventOutcome.IGNORED;");
+			line(3, "}");
+		}
+		line(2, "default:");
+		line(3, "return EventOutcome.IGNORED;");
+		line(2, "}");
+		line(1, "}");
+		line(0, "");
+	}
+
+	/**
+	 * Write the transitions of a state with the same event.
+	 *
+	 * @return True if there is an unguarded transition, so the code always
+	 * returns.
+	 */
+	private boolean writeTransitions(int indent, int index,
+			List<TransitionInfo> eventTransitions) {
+		for (TransitionInfo transition: eventTransitions) {
+			int body = indent;
+			if (transition.guard.length() > 0) {
+				line(indent, "if (callbacks." + transition.guard + "(" +
+						state(index) + ", " + state(transition.target) +
+						", event)) {");
+				++body;
+			}
+			if (transition.target < 0) {
+				if (transition.action.length() > 0) {
+					line(body, "callbacks." + transition.action + "(" +
+							state(index) + ", null, event);");
+				}
+				line(body, "return EventOutcome.INTERNAL;");
+			} else {
+				line(body, "exit(event);");
+				line(body, "try {");
+				if (transition.action.length() > 0) {
+					line(body + 1, "callbacks." + transition.action + "(" +
+							state(index) + ", " + state(transition.target) +
+							", event);");
+				}
+				line(body + 1, "enter(" + transition.target + ", event);");
+				line(body, "} catch (RuntimeException e) {");
+				line(body + 1, "enter(" + index + ", null);");
+				line(body + 1, "throw e;");
+				line(body, "}");
+				line(body, "return EventOutcome.TRANSITIONED;");
+			}
+			if (transition.guard.length() == 0) {
+				return true;
+			}
+			line(indent, "}");
+		}
+		return false;
+	}
+
+	private void writeEnterExit() {
+		line(1, "private void enter(int state, " + eventName + " event) {");
+		line(2, "switch (state) {");
+		for (int i = 0; i < states.size(); ++i) {
+			if (entryActions.get(i).length() > 0) {
+				line(2, "case " + i + ":");
+				line(3, "callbacks." + entryActions.get(i) + "(" + state(i) +
+						", event);");
+				line(3, "break;");
+			}
+		}
+		line(2, "default:");
+		line(3, "break;");
+		line(2, "}");
+		line(2, "this.state = state;");
+		line(1, "}");
+		line(0, "");
+		line(1, "private void exit(" + eventName + " event) {");
+		line(2, "switch (state) {");
+		for (int i = 0; i < states.size(); ++i) {
+			if (exitActions.get(i).length() > 0) {
+				line(2, "case " + i + ":");
+				line(3, "callbacks." + exitActions.get(i) + "(" + state(i) +
+						", event);");
+				line(3, "break;");
+			}
+		}
+		line(2, "default:");
+		line(3, "break;");
+		line(2, "}");
+		line(1, "}");
+	}
+}
@@ -0,0 +1,238 @@
+/*
+ * Copyright (c) 2013, Peter Szabados
+ * All rights reserved.
+ *
+ * Redistribution and use in source and binary forms, with or without
+ * modification, are permitted provided that the following conditions are
+ * met:
+ *
+ *     (1) Redistributions of source code must retain the above copyright
+ *     notice, this list of conditions and the following disclaimer.
+ *
+ *     (2) Redistributions in binary form must reproduce the above copyright
+ *     notice, this list of conditions and the following disclaimer in
+ *     the documentation and/or other materials provided with the
+ *     distribution.
+ *
+ *     (3)The name of the author may not be used to
+ *     endorse or promote products derived from this software without
+ *     specific prior written permission.
+ *
+ * THIS SOFTWARE IS PROVIDED BY THE AUTHOR ``AS IS'' AND ANY EXPRESS OR
+ * IMPLIED WARRANTIES, INCLUDING, BUT NOT LIMITED TO, THE IMPLIED
+ * WARRANTIES OF MERCHANTABILITY AND FITNESS FOR A PARTICULAR PURPOSE ARE
+ * DISCLAIMED. IN NO EVENT SHALL THE AUTHOR BE LIABLE FOR ANY DIRECT,
+ * INDIRECT, INCIDENTAL, SPECIAL, EXEMPLARY, OR CONSEQUENTIAL DAMAGES
+ * (INCLUDING, BUT NOT LIMITED TO, PROCUREMENT OF SUBSTITUTE GOODS OR
+ * SERVICES; LOSS OF USE, DATA, OR PROFITS; OR BUSINESS INTERRUPTION)
+ * HOWEVER CAUSED AND ON ANY THEORY OF LIABILITY, WHETHER IN CONTRACT,
+ * STRICT LIABILITY, OR TORT (INCLUDING NEGLIGENCE OR OTHERWISE) ARISING
+ * IN ANY WAY OUT OF THE USE OF THIS SOFTWARE, EVEN IF ADVISED OF THE
+ * POSSIBILITY OF SUCH DAMAGE.
+ */
+
+package com.kangirigungi.jstatemachine.concurrent;
+
+import java.util.Queue;
+import java.util.concurrent.Callable;
+import java.util.concurrent.ConcurrentLinkedQueue;
+import java.util.concurrent.Executor;
+import java.util.concurrent.Future;
+import java.util.concurrent.FutureTask;
+import java.util.concurrent.RejectedExecutionException;
+import java.util.concurrent.atomic.AtomicBoolean;
+import java.util.concurrent.atomic.AtomicInteger;
+
+import com.kangirigungi.jstatemachine.IStateMachine;
+
+/**
+ * Drives one {@link IStateMachine} from a mailbox of events. Any number of
+ * threads can {@link #submit(Object) submit} events without blocking. The
+ * events are processed one at a time, in the order they were submitted, on
+ * the threads of the {@link Executor} of the {@link MachineExecutor} that
+ * created the actor. At most one thread processes the events of an actor at
+ * any time, so the state machine does not need to be thread-safe.
+ * <p>
+ * Use {@link MachineExecutor#spawn(IStateMachine)} to create an instance.
+ *
+ * @author Peter Szabados
+ *
+ * @param <StateId> The type used for referencing states.
+ * @param <Event> The type used for referencing events.
+ */
+public class MachineActor<StateId, Event> implements Runnable {
+
+	/**
+	 * The number of times a submitter tries to drop the oldest event before
+	 * dropping its own.
+	 */
+	private static final int MAX_DROP_ATTEMPTS = 16;
+
+	private class Task extends FutureTask<StateId> {
+		public Task(final Event event) {
+			super(new Callable<StateId>() {
+				@Override
+				public StateId call() {
+					stateMachine.processEvent(event);
+					return stateMachine.getCurrentState();
+				}
+			});
+		}
+	}
+
+	private final IStateMachine<StateId, Event> stateMachine;
+	private final Executor executor;
+	private final int capacity;
+	private final OverflowPolicy overflowPolicy;
+	private final int throughput;
+
+	private final Queue<Task> mailbox = new ConcurrentLinkedQueue<Task>();
+	private final AtomicInteger size = new AtomicInteger(0);
+	private final AtomicBoolean scheduled = new AtomicBoolean(false);
+
+	MachineActor(IStateMachine<StateId, Event> stateMachine,
+			Executor executor, int capacity, OverflowPolicy overflowPolicy,
+			int throughput) {
+		this.stateMachine = stateMachine;
+		this.executor = executor;
+		this.capacity = capacity;
+		this.overflowPolicy = overflowPolicy;
+		this.throughput = throughput;
+	}
+
+	/**
+	 * Submit an event to the state machine. The event is processed
+	 * asynchronously.
+	 *
+	 * @param event The event to be processed.
+	 * @return A future that holds the state of the top level state machine
+	 * after the event is processed. If a callback throws an exception, the
+	 * future throws an {@link java.util.concurrent.ExecutionException}
+	 * wrapping it. If the event is dropped because the mailbox is full, the
+	 * future is cancelled.
+	 * @throws MailboxFullException If the mailbox is full and the overflow
+	 * policy is {@link OverflowPolicy#REJECT}.
+	 * @throws RejectedExecutionException If the executor does not accept the
+	 * actor. The event is not enqueued in this case.
+	 */
+	public Future<StateId> submit(Event event) {
+		Task task = new Task(event);
+		int dropAttempts = 0;
+		while (!reserve()) {
+			if (overflowPolicy == OverflowPolicy.REJECT) {
+				throw new MailboxFullException(
+						"The mailbox is full. Capacity = " + capacity);
+			}
+			if (overflowPolicy == OverflowPolicy.DROP_NEWEST) {
+				task.cancel(false);
+				return task;
+			}
+			if (dropOldest()) {
+				break;
+			}
+			// The slots are held by submitters that have not offered their
+			// events yet, or by events being taken by the actor.
+			if (++dropAttempts == MAX_DROP_ATTEMPTS) {
+				task.cancel(false);
+				return task;
+			}
+			Thread.yield();
+		}
+		mailbox.offer(task);
+		try {
+			schedule();
+		} catch (RejectedExecutionException e) {
+			// The caller does not get the future, so the event must not be
+			// processed later either. If the task is gone already, it has
+			// been taken by the actor or dropped, and its slot is released.
+			if (mailbox.remove(task)) {
+				size.decrementAndGet();
+			}
+			task.cancel(false);
+			throw e;
+		}
+		return task;
+	}
+
+	/**
+	 * Get the number of events waiting in the mailbox.
+	 */
+	public int getMailboxSize() {
+		return size.get();
+	}
+
+	/**
+	 * Get the state machine driven by this actor. It must not be accessed
+	 * from other threads unless it is thread-safe.
+	 */
+	public IStateMachine<StateId, Event> getStateMachine() {
+		return stateMachine;
+	}
+
+	/**
+	 * Process the events in the mailbox. It is called by the executor, do
+	 * not call it directly.
+	 */
+	@Override
+	public void run() {
+		try {
+			for (int i = 0; i < throughput; ++i) {
+				Task task = mailbox.poll();
+				if (task == null) {
+					break;
+				}
+				size.decrementAndGet();
+				task.run();
+			}
+		} finally {
+			scheduled.set(false);
+			if (!mailbox.isEmpty()) {
+				try {
+					schedule();
+				} catch (RejectedExecutionException e) {
+					// Nobody would see the exception here. The flag is
+					// cleared, so the next submit tries again and reports
+					// the failure to its caller.
+				}
+			}
+		}
+	}
+
+	private boolean reserve() {
+		while (true) {
+			int current = size.get();
+			if (current >= capacity) {
+				return false;
+			}
+			if (size.compareAndSet(current, current + 1)) {
+				return true;
+			}
+		}
+	}
+
+	/**
+	 * Cancel the oldest task in the mailbox. Its slot is taken over by the
+	 * caller.
+	 *
+	 * @return False if the mailbox became empty in the meantime.
+	 */
+	private boolean dropOldest() {
+		Task oldest = mailbox.poll();
+		if (oldest == null) {
+			return false;
+		}
+		oldest.cancel(false);
+		return true;
+	}
+
+	private void schedule() {
+		if (scheduled.compareAndSet(false, true)) {
+			try {
+				executor.execute(this);
+			} catch (RuntimeException e) {
+				scheduled.set(false);
+				throw e;
+			}
+		}
+	}
+}
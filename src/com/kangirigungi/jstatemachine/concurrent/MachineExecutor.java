@@ -0,0 +1,115 @@
+/*
+ * Copyright (c) 2013, Peter Szabados
+ * All rights reserved.
+ *
+ * Redistribution and use in source and binary forms, with or without
+ * modification, are permitted provided that the following conditions are
+ * met:
+ *
+ *     (1) Redistributions of source code must retain the above copyright
+ *     notice, this list of conditions and the following disclaimer.
+ *
+ *     (2) Redistributions in binary form must reproduce the above copyright
+ *     notice, this list of conditions and the following disclaimer in
+ *     the documentation and/or other materials provided with the
+ *     distribution.
+ *
+ *     (3)The name of the author may not be used to
+ *     endorse or promote products derived from this software without
+ *     specific prior written permission.
+ *
+ * THIS SOFTWARE IS PROVIDED BY THE AUTHOR ``AS IS'' AND ANY EXPRESS OR
+ * IMPLIED WARRANTIES, INCLUDING, BUT NOT LIMITED TO, THE IMPLIED
+ * WARRANTIES OF MERCHANTABILITY AND FITNESS FOR A PARTICULAR PURPOSE ARE
+ * DISCLAIMED. IN NO EVENT SHALL THE AUTHOR BE LIABLE FOR ANY DIRECT,
+ * INDIRECT, INCIDENTAL, SPECIAL, EXEMPLARY, OR CONSEQUENTIAL DAMAGES
+ * (INCLUDING, BUT NOT LIMITED TO, PROCUREMENT OF SUBSTITUTE GOODS OR
+ * SERVICES; LOSS OF USE, DATA, OR PROFITS; OR BUSINESS INTERRUPTION)
+ * HOWEVER CAUSED AND ON ANY THEORY OF LIABILITY, WHETHER IN CONTRACT,
+ * STRICT LIABILITY, OR TORT (INCLUDING NEGLIGENCE OR OTHERWISE) ARISING
+ * IN ANY WAY OUT OF THE USE OF THIS SOFTWARE, EVEN IF ADVISED OF THE
+ * POSSIBILITY OF SUCH DAMAGE.
+ */
+
+package com.kangirigungi.jstatemachine.concurrent;
+
+import java.util.concurrent.Executor;
+
+import com.kangirigungi.jstatemachine.IStateMachine;
+import com.kangirigungi.jstatemachine.StateMachineException;
+
+/**
+ * Hosts any number of state machines on a shared {@link Executor}. Each
+ * state machine is wrapped in a {@link MachineActor} with its own bounded
+ * mailbox, so producers never block and the state machines never need
+ * to be locked.
+ * <p>
+ * The executor is supplied by the user, so the threading model can be
+ * chosen freely: a small fixed thread pool can drive thousands of state
+ * machines, while an executor that starts a new lightweight thread for each
+ * task gives each busy state machine its own thread. The executor is not
+ * shut down by this class.
+ *
+ * @author Peter Szabados
+ *
+ */
+public class MachineExecutor {
+	/**
+	 * The default maximum number of events processed by an actor before
+	 * its thread is given to another actor.
+	 */
+	public static final int DEFAULT_THROUGHPUT = 64;
+
+	private final Executor executor;
+	private final int mailboxCapacity;
+	private final OverflowPolicy overflowPolicy;
+	private int throughput = DEFAULT_THROUGHPUT;
+
+	/**
+	 * @param executor The executor running the actors.
+	 * @param mailboxCapacity The maximum number of events waiting in the
+	 * mailbox of each actor.
+	 * @param overflowPolicy What to do when an event is submitted to an
+	 * actor with a full mailbox.
+	 */
+	public MachineExecutor(Executor executor, int mailboxCapacity,
+			OverflowPolicy overflowPolicy) {
+		if (mailboxCapacity <= 0) {
+			throw new StateMachineException(
+					"Mailbox capacity must be positive.");
+		}
+		this.executor = executor;
+		this.mailboxCapacity = mailboxCapacity;
+		this.overflowPolicy = overflowPolicy;
+	}
+
+	/**
+	 * Set the maximum number of events an actor processes before giving
+	 * its thread to other actors. It affects only actors spawned after
+	 * this call.
+	 *
+	 * @param throughput The number of events. The default is
+	 * {@link #DEFAULT_THROUGHPUT}.
+	 * @return this.
+	 */
+	public MachineExecutor setThroughput(int throughput) {
+		if (throughput <= 0) {
+			throw new StateMachineException("Throughput must be positive.");
+		}
+		this.throughput = throughput;
+		return this;
+	}
+
+	/**
+	 * Create an actor for a state machine. The state machine must not be
+	 * used directly after this.
+	 *
+	 * @param stateMachine The state machine to be driven.
+	 * @return The created actor.
+	 */
+	public <StateId, Event> MachineActor<StateId, Event> spawn(
+			IStateMachine<StateId, Event> stateMachine) {
+		return new MachineActor<StateId, Event>(stateMachine, executor,
+				mailboxCapacity, overflowPolicy, throughput);
+	}
+}
@@ -0,0 +1,147 @@
+/*
+ * Copyright (c) 2013, Peter Szabados
+ * All rights reserved.
+ *
+ * Redistribution and use in source and binary forms, with or without
+ * modification, are permitted provided that the following conditions are
+ * met:
+ *
+ *     (1) Redistributions of source code must retain the above copyright
+ *     notice, this list of conditions and the following disclaimer.
+ *
+ *     (2) Redistributions in binary form must reproduce the above copyright
+ *     notice, this list of conditions and the following disclaimer in
+ *     the documentation and/or other materials provided with the
+ *     distribution.
+ *
+ *     (3)The name of the author may not be used to
+ *     endorse or promote products derived from this software without
+ *     specific prior written permission.
+ *
+ * THIS SOFTWARE IS PROVIDED BY THE AUTHOR ``AS IS'' AND ANY EXPRESS OR
+ * IMPLIED WARRANTIES, INCLUDING, BUT NOT LIMITED TO, THE IMPLIED
+ * WARRANTIES OF MERCHANTABILITY AND FITNESS FOR A PARTICULAR PURPOSE ARE
+ * DISCLAIMED. IN NO EVENT SHALL THE AUTHOR BE LIABLE FOR ANY DIRECT,
+ * INDIRECT, INCIDENTAL, SPECIAL, EXEMPLARY, OR CONSEQUENTIAL DAMAGES
+ * (INCLUDING, BUT NOT LIMITED TO, PROCUREMENT OF SUBSTITUTE GOODS OR
+ * SERVICES; LOSS OF USE, DATA, OR PROFITS; OR BUSINESS INTERRUPTION)
+ * HOWEVER CAUSED AND ON ANY THEORY OF LIABILITY, WHETHER IN CONTRACT,
+ * STRICT LIABILITY, OR TORT (INCLUDING NEGLIGENCE OR OTHERWISE) ARISING
+ * IN ANY WAY OUT OF THE USE OF THIS SOFTWARE, EVEN IF ADVISED OF THE
+ * POSSIBILITY OF SUCH DAMAGE.
+ */
+
+package com.kangirigungi.jstatemachine.metrics;
+
+import java.util.concurrent.atomic.AtomicLong;
+import java.util.concurrent.atomic.AtomicLongArray;
+
+/**
+ * Lock-free histogram of durations with power of two buckets. Bucket
+ * <code>i</code> counts the durations <code>d</code> with
+ * <code>2<sup>i-1</sup> &lt;= d &lt; 2<sup>i</sup></code> nanoseconds;
+ * bucket 0 counts the zero durations. Values can be recorded and read
+ * from any thread. The values read while others are recorded may be
+ * slightly inconsistent with each other.
+ *
+ * @author Peter Szabados
+ *
+ */
+public class LatencyHistogram {
+	/**
+	 * The number of buckets.
+	 */
+	public static final int BUCKET_COUNT = 64;
+
+	private final AtomicLongArray buckets = new AtomicLongArray(BUCKET_COUNT);
+	private final AtomicLong count = new AtomicLong();
+	private final AtomicLong totalNanos = new AtomicLong();
+	private final AtomicLong maxNanos = new AtomicLong();
+
+	/**
+	 * Record a duration. Negative durations are counted as zero.
+	 */
+	public void record(long nanos) {
+		if (nanos < 0) {
+			nanos = 0;
+		}
+		buckets.incrementAndGet(getBucket(nanos));
+		count.incrementAndGet();
+		totalNanos.addAndGet(nanos);
+		while (true) {
+			long max = maxNanos.get();
+			if (nanos <= max || maxNanos.compareAndSet(max, nanos)) {
+				break;
+			}
+		}
+	}
+
+	/**
+	 * Get the number of recorded durations.
+	 */
+	public long getCount() {
+		return count.get();
+	}
+
+	/**
+	 * Get the sum of the recorded durations.
+	 */
+	public long getTotalNanos() {
+		return totalNanos.get();
+	}
+
+	/**
+	 * Get the longest recorded duration.
+	 */
+	public long getMaxNanos() {
+		return maxNanos.get();
+	}
+
+	/**
+	 * Get a copy of the bucket counts.
+	 */
+	public long[] getBuckets() {
+		long[] result = new long[BUCKET_COUNT];
+		for (int i = 0; i < BUCKET_COUNT; ++i) {
+			result[i] = buckets.get(i);
+		}
+		return result;
+	}
+
+	/**
+	 * Get an upper estimate of a percentile of the recorded durations.
+	 *
+	 * @param percentile The percentile, between 0 and 100.
+	 * @return The upper bound of the bucket containing the percentile, or
+	 * 0 if nothing is recorded.
+	 */
+	public long getPercentile(double percentile) {
+		long[] counts = getBuckets();
+		long total = 0;
+		for (long bucketCount: counts) {
+			total += bucketCount;
+		}
+		long threshold = (long)Math.ceil(total * percentile / 100.0);
+		long sum = 0;
+		for (int i = 0; i < BUCKET_COUNT; ++i) {
+			sum += counts[i];
+			if (sum > 0 && sum >= threshold) {
+				return getBucketUpperBound(i);
+			}
+		}
+		return 0;
+	}
+
+	/**
+	 * Get the largest duration counted in a bucket.
+	 */
+	public static long getBucketUpperBound(int bucket) {
+		return bucket == BUCKET_COUNT - 1 ? Long.MAX_VALUE :
+				(1L << bucket) - 1;
+	}
+
+	private static int getBucket(long nanos) {
+		return Math.min(BUCKET_COUNT - Long.numberOfLeadingZeros(nanos),
+				BUCKET_COUNT - 1);
+	}
+}
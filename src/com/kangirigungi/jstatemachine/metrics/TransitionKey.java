@@ -0,0 +1,103 @@
+/*
+ * Copyright (c) 2013, Peter Szabados
+ * All rights reserved.
+ *
+ * Redistribution and use in source and binary forms, with or without
+ * modification, are permitted provided that the following conditions are
+ * met:
+ *
+ *     (1) Redistributions of source code must retain the above copyright
+ *     notice, this list of conditions and the following disclaimer.
+ *
+ *     (2) Redistributions in binary form must reproduce the above copyright
+ *     notice, this list of conditions and the following disclaimer in
+ *     the documentation and/or other materials provided with the
+ *     distribution.
+ *
+ *     (3)The name of the author may not be used to
+ *     endorse or promote products derived from this software without
+ *     specific prior written permission.
+ *
+ * THIS SOFTWARE IS PROVIDED BY THE AUTHOR ``AS IS'' AND ANY EXPRESS OR
+ * IMPLIED WARRANTIES, INCLUDING, BUT NOT LIMITED TO, THE IMPLIED
+ * WARRANTIES OF MERCHANTABILITY AND FITNESS FOR A PARTICULAR PURPOSE ARE
+ * DISCLAIMED. IN NO EVENT SHALL THE AUTHOR BE LIABLE FOR ANY DIRECT,
+ * INDIRECT, INCIDENTAL, SPECIAL, EXEMPLARY, OR CONSEQUENTIAL DAMAGES
+ * (INCLUDING, BUT NOT LIMITED TO, PROCUREMENT OF SUBSTITUTE GOODS OR
+ * SERVICES; LOSS OF USE, DATA, OR PROFITS; OR BUSINESS INTERRUPTION)
+ * HOWEVER CAUSED AND ON ANY THEORY OF LIABILITY, WHETHER IN CONTRACT,
+ * STRICT LIABILITY, OR TORT (INCLUDING NEGLIGENCE OR OTHERWISE) ARISING
+ * IN ANY WAY OUT OF THE USE OF THIS SOFTWARE, EVEN IF ADVISED OF THE
+ * POSSIBILITY OF SUCH DAMAGE.
+ */
+
+package com.kangirigungi.jstatemachine.metrics;
+
+import com.kangirigungi.jstatemachine.tools.Tools;
+
+/**
+ * Identifies a transition by its source state, event and target state.
+ * Any of them can be <code>null</code>: the event of completion
+ * transitions and the target of internal transitions are
+ * <code>null</code>. For guard rejections and ignored events, the target
+ * is always <code>null</code>.
+ *
+ * @author Peter Szabados
+ *
+ * @param <StateId> The type used for referencing states.
+ * @param <Event> The type used for referencing events.
+ */
+public final class TransitionKey<StateId, Event> {
+	private final StateId fromState;
+	private final Event event;
+	private final StateId toState;
+	private final int hashCode;
+
+	public TransitionKey(StateId fromState, Event event, StateId toState) {
+		this.fromState = fromState;
+		this.event = event;
+		this.toState = toState;
+		hashCode = Tools.hashCombine(Tools.hashCombine(Tools.hashCombine(
+				0, fromState), event), toState);
+	}
+
+	public StateId getFromState() {
+		return fromState;
+	}
+
+	public Event getEvent() {
+		return event;
+	}
+
+	public StateId getToState() {
+		return toState;
+	}
+
+	@Override
+	public boolean equals(Object other) {
+		if (this == other) {
+			return true;
+		}
+		if (!(other instanceof TransitionKey<?, ?>)) {
+			return false;
+		}
+		TransitionKey<?, ?> otherKey = (TransitionKey<?, ?>)other;
+		return equals(fromState, otherKey.fromState) &&
+				equals(event, otherKey.event) &&
+				equals(toState, otherKey.toState);
+	}
+
+	@Override
+	public int hashCode() {
+		return hashCode;
+	}
+
+	@Override
+	public String toString() {
+		return fromState + ": " + event + " -> " + toState;
+	}
+
+	private static boolean equals(Object left, Object right) {
+		return left == null ? right == null : left.equals(right);
+	}
+}
@@ -0,0 +1,168 @@
+/*
+ * Copyright (c) 2013, Peter Szabados
+ * All rights reserved.
+ *
+ * Redistribution and use in source and binary forms, with or without
+ * modification, are permitted provided that the following conditions are
+ * met:
+ *
+ *     (1) Redistributions of source code must retain the above copyright
+ *     notice, this list of conditions and the following disclaimer.
+ *
+ *     (2) Redistributions in binary form must reproduce the above copyright
+ *     notice, this list of conditions and the following disclaimer in
+ *     the documentation and/or other materials provided with the
+ *     distribution.
+ *
+ *     (3)The name of the author may not be used to
+ *     endorse or promote products derived from this software without
+ *     specific prior written permission.
+ *
+ * THIS SOFTWARE IS PROVIDED BY THE AUTHOR ``AS IS'' AND ANY EXPRESS OR
+ * IMPLIED WARRANTIES, INCLUDING, BUT NOT LIMITED TO, THE IMPLIED
+ * WARRANTIES OF MERCHANTABILITY AND FITNESS FOR A PARTICULAR PURPOSE ARE
+ * DISCLAIMED. IN NO EVENT SHALL THE AUTHOR BE LIABLE FOR ANY DIRECT,
+ * INDIRECT, INCIDENTAL, SPECIAL, EXEMPLARY, OR CONSEQUENTIAL DAMAGES
+ * (INCLUDING, BUT NOT LIMITED TO, PROCUREMENT OF SUBSTITUTE GOODS OR
+ * SERVICES; LOSS OF USE, DATA, OR PROFITS; OR BUSINESS INTERRUPTION)
+ * HOWEVER CAUSED AND ON ANY THEORY OF LIABILITY, WHETHER IN CONTRACT,
+ * STRICT LIABILITY, OR TORT (INCLUDING NEGLIGENCE OR OTHERWISE) ARISING
+ * IN ANY WAY OUT OF THE USE OF THIS SOFTWARE, EVEN IF ADVISED OF THE
+ * POSSIBILITY OF SUCH DAMAGE.
+ */
+
+package com.kangirigungi.jstatemachine.metrics;
+
+import java.util.Collections;
+import java.util.Map;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.ConcurrentMap;
+import java.util.concurrent.atomic.AtomicLong;
+
+import com.kangirigungi.jstatemachine.ITransitionListener;
+import com.kangirigungi.jstatemachine.StateMachineBuilder;
+
+/**
+ * Transition listener collecting statistics. It counts the transitions
+ * and measures their durations separately for each (source state, event,
+ * target state) combination, and counts the guard rejections and ignored
+ * events for each (state, event) combination. Register it with
+ * {@link StateMachineBuilder#setTransitionListener(ITransitionListener)}.
+ * The same instance can be registered with any number of state machines.
+ * <p>
+ * The statistics can be read from any thread while the state machines
+ * are running.
+ *
+ * @author Peter Szabados
+ *
+ * @param <StateId> The type used for referencing states.
+ * @param <Event> The type used for referencing events.
+ */
+public class TransitionMetrics<StateId, Event>
+		implements ITransitionListener<StateId, Event> {
+
+	private final ConcurrentMap<TransitionKey<StateId, Event>,
+			LatencyHistogram> transitions = new ConcurrentHashMap<
+					TransitionKey<StateId, Event>, LatencyHistogram>();
+	private final ConcurrentMap<TransitionKey<StateId, Event>, AtomicLong>
+			guardRejections = new ConcurrentHashMap<
+					TransitionKey<StateId, Event>, AtomicLong>();
+	private final ConcurrentMap<TransitionKey<StateId, Event>, AtomicLong>
+			ignoredEvents = new ConcurrentHashMap<
+					TransitionKey<StateId, Event>, AtomicLong>();
+
+	@Override
+	public void onTransition(StateId fromState, Event event, StateId toState,
+			long nanos) {
+		TransitionKey<StateId, Event> key =
+				new TransitionKey<StateId, Event>(fromState, event, toState);
+		LatencyHistogram histogram = transitions.get(key);
+		if (histogram == null) {
+			histogram = new LatencyHistogram();
+			LatencyHistogram existing = transitions.putIfAbsent(key, histogram);
+			if (existing != null) {
+				histogram = existing;
+			}
+		}
+		histogram.record(nanos);
+	}
+
+	@Override
+	public void onGuardRejected(StateId state, Event event) {
+		increment(guardRejections, state, event);
+	}
+
+	@Override
+	public void onEventIgnored(StateId state, Event event) {
+		increment(ignoredEvents, state, event);
+	}
+
+	/**
+	 * Get the statistics of all executed transitions. The returned map is
+	 * a live view, it cannot be modified.
+	 */
+	public Map<TransitionKey<StateId, Event>, LatencyHistogram>
+			getTransitions() {
+		return Collections.unmodifiableMap(transitions);
+	}
+
+	/**
+	 * Get the statistics of a transition.
+	 *
+	 * @return The statistics, or <code>null</code> if the transition has
+	 * not been executed.
+	 */
+	public LatencyHistogram getTransition(StateId fromState, Event event,
+			StateId toState) {
+		return transitions.get(
+				new TransitionKey<StateId, Event>(fromState, event, toState));
+	}
+
+	/**
+	 * Get the number of times a transition was executed.
+	 */
+	public long getTransitionCount(StateId fromState, Event event,
+			StateId toState) {
+		LatencyHistogram histogram = getTransition(fromState, event, toState);
+		return histogram == null ? 0 : histogram.getCount();
+	}
+
+	/**
+	 * Get the number of times the guards of all transitions of a state
+	 * rejected an event.
+	 */
+	public long getGuardRejectionCount(StateId state, Event event) {
+		return get(guardRejections, state, event);
+	}
+
+	/**
+	 * Get the number of times an event was ignored in a state.
+	 */
+	public long getIgnoredEventCount(StateId state, Event event) {
+		return get(ignoredEvents, state, event);
+	}
+
+	private void increment(
+			ConcurrentMap<TransitionKey<StateId, Event>, AtomicLong> counters,
+			StateId state, Event event) {
+		TransitionKey<StateId, Event> key =
+				new TransitionKey<StateId, Event>(state, event, null);
+		AtomicLong counter = counters.get(key);
+		if (counter == null) {
+			counter = new AtomicLong();
+			AtomicLong existing = counters.putIfAbsent(key, counter);
+			if (existing != null) {
+				counter = existing;
+			}
+		}
+		counter.incrementAndGet();
+	}
+
+	private long get(
+			ConcurrentMap<TransitionKey<StateId, Event>, AtomicLong> counters,
+			StateId state, Event event) {
+		AtomicLong counter = counters.get(
+				new TransitionKey<StateId, Event>(state, event, null));
+		return counter == null ? 0 : counter.get();
+	}
+}
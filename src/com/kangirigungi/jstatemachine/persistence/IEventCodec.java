@@ -0,0 +1,61 @@
+/*
+ * Copyright (c) 2013, Peter Szabados
+ * All rights reserved.
+ *
+ * Redistribution and use in source and binary forms, with or without
+ * modification, are permitted provided that the following conditions are
+ * met:
+ *
+ *     (1) Redistributions of source code must retain the above copyright
+ *     notice, this list of conditions and the following disclaimer.
+ *
+ *     (2) Redistributions in binary form must reproduce the above copyright
+ *     notice, this list of conditions and the following disclaimer in
+ *     the documentation and/or other materials provided with the
+ *     distribution.
+ *
+ *     (3)The name of the author may not be used to
+ *     endorse or promote products derived from this software without
+ *     specific prior written permission.
+ *
+ * THIS SOFTWARE IS PROVIDED BY THE AUTHOR ``AS IS'' AND ANY EXPRESS OR
+ * IMPLIED WARRANTIES, INCLUDING, BUT NOT LIMITED TO, THE IMPLIED
+ * WARRANTIES OF MERCHANTABILITY AND FITNESS FOR A PARTICULAR PURPOSE ARE
+ * DISCLAIMED. IN NO EVENT SHALL THE AUTHOR BE LIABLE FOR ANY DIRECT,
+ * INDIRECT, INCIDENTAL, SPECIAL, EXEMPLARY, OR CONSEQUENTIAL DAMAGES
+ * (INCLUDING, BUT NOT LIMITED TO, PROCUREMENT OF SUBSTITUTE GOODS OR
+ * SERVICES; LOSS OF USE, DATA, OR PROFITS; OR BUSINESS INTERRUPTION)
+ * HOWEVER CAUSED AND ON ANY THEORY OF LIABILITY, WHETHER IN CONTRACT,
+ * STRICT LIABILITY, OR TORT (INCLUDING NEGLIGENCE OR OTHERWISE) ARISING
+ * IN ANY WAY OUT OF THE USE OF THIS SOFTWARE, EVEN IF ADVISED OF THE
+ * POSSIBILITY OF SUCH DAMAGE.
+ */
+package com.kangirigungi.jstatemachine.persistence;
+
+import java.nio.ByteBuffer;
+
+/**
+ * Converts events to and from their binary form in the journal.
+ *
+ * @author Peter Szabados
+ *
+ */
+public interface IEventCodec<Event> {
+	/**
+	 * Write an event to the buffer, starting at its current position.
+	 *
+	 * @param event The event to be written.
+	 * @param buffer The buffer. If the event does not fit in it, the
+	 * relative put methods of the buffer throw
+	 * {@link java.nio.BufferOverflowException}, which must be propagated.
+	 */
+	public void encode(Event event, ByteBuffer buffer);
+	/**
+	 * Read an event written by {@link #encode(Object, ByteBuffer) encode}.
+	 *
+	 * @param buffer The buffer. Its remaining bytes are exactly the bytes
+	 * written for the event.
+	 * @return The event.
+	 */
+	public Event decode(ByteBuffer buffer);
+}
@@ -0,0 +1,433 @@
+/*
+ * Copyright (c) 2013, Peter Szabados
+ * All rights reserved.
+ *
+ * Redistribution and use in source and binary forms, with or without
+ * modification, are permitted provided that the following conditions are
+ * met:
+ *
+ *     (1) Redistributions of source code must retain the above copyright
+ *     notice, this list of conditions and the following disclaimer.
+ *
+ *     (2) Redistributions in binary form must reproduce the above copyright
+ *     notice, this list of conditions and the following disclaimer in
+ *     the documentation and/or other materials provided with the
+ *     distribution.
+ *
+ *     (3)The name of the author may not be used to
+ *     endorse or promote products derived from this software without
+ *     specific prior written permission.
+ *
+ * THIS SOFTWARE IS PROVIDED BY THE AUTHOR ``AS IS'' AND ANY EXPRESS OR
+ * IMPLIED WARRANTIES, INCLUDING, BUT NOT LIMITED TO, THE IMPLIED
+ * WARRANTIES OF MERCHANTABILITY AND FITNESS FOR A PARTICULAR PURPOSE ARE
+ * DISCLAIMED. IN NO EVENT SHALL THE AUTHOR BE LIABLE FOR ANY DIRECT,
+ * INDIRECT, INCIDENTAL, SPECIAL, EXEMPLARY, OR CONSEQUENTIAL DAMAGES
+ * (INCLUDING, BUT NOT LIMITED TO, PROCUREMENT OF SUBSTITUTE GOODS OR
+ * SERVICES; LOSS OF USE, DATA, OR PROFITS; OR BUSINESS INTERRUPTION)
+ * HOWEVER CAUSED AND ON ANY THEORY OF LIABILITY, WHETHER IN CONTRACT,
+ * STRICT LIABILITY, OR TORT (INCLUDING NEGLIGENCE OR OTHERWISE) ARISING
+ * IN ANY WAY OUT OF THE USE OF THIS SOFTWARE, EVEN IF ADVISED OF THE
+ * POSSIBILITY OF SUCH DAMAGE.
+ */
+package com.kangirigungi.jstatemachine.persistence;
+
+import java.io.File;
+import java.io.IOException;
+import java.io.RandomAccessFile;
+import java.nio.BufferOverflowException;
+import java.nio.ByteBuffer;
+import java.nio.MappedByteBuffer;
+import java.nio.channels.FileChannel;
+import java.util.Arrays;
+
+import com.kangirigungi.jstatemachine.StateMachineException;
+
+/**
+ * An append-only log of the events processed by state machine instances.
+ * <p>
+ * The journal is a sequence of fixed size segment files in a directory.
+ * The last segment is memory mapped, and records are written directly into
+ * the mapping. When a record does not fit in the last segment, the segment
+ * is forced to the disk and a new one is started.
+ * <p>
+ * Appending does not make a record durable. {@link #sync(long)} forces the
+ * records to the disk, and concurrent callers share a single force: while
+ * one thread forces the journal, the others wait, and the next force
+ * covers all the records appended in the meantime.
+ * <p>
+ * Each record has a checksum, so a record torn by a crash is detected when
+ * the journal is opened, and the journal continues from the last complete
+ * record.
+ * <p>
+ * This class is thread-safe.
+ *
+ * @author Peter Szabados
+ *
+ */
+public class Journal<Event> {
+	/**
+	 * The default size of a segment file.
+	 */
+	public static final int DEFAULT_SEGMENT_SIZE = 64 * 1024 * 1024;
+
+	private static final String SUFFIX = ".journal";
+	// record size, checksum, instance id
+	private static final int HEADER_SIZE = 16;
+
+	private final File directory;
+	private final int segmentSize;
+	private final IEventCodec<Event> codec;
+	private long firstSegment;
+	private long segment;
+	private MappedByteBuffer buffer;
+	private int writeOffset;
+	private long syncedPosition;
+	private boolean syncing = false;
+	private boolean closed = false;
+
+	public Journal(File directory, IEventCodec<Event> codec) {
+		this(directory, DEFAULT_SEGMENT_SIZE, codec);
+	}
+
+	/**
+	 * Open a journal. If the directory contains a journal, new records are
+	 * appended to it.
+	 *
+	 * @param directory The directory of the segment files. It is created if
+	 * it does not exist.
+	 * @param segmentSize The size of a new segment file, in bytes. It limits
+	 * the size of a record.
+	 * @param codec The codec of the events.
+	 * @throws JournalException If the journal cannot be opened.
+	 */
+	public Journal(File directory, int segmentSize, IEventCodec<Event> codec) {
+		if (segmentSize <= HEADER_SIZE) {
+			throw new StateMachineException("Segment size is too small.");
+		}
+		this.directory = directory;
+		this.segmentSize = segmentSize;
+		this.codec = codec;
+		if (!directory.isDirectory() && !directory.mkdirs()) {
+			throw new JournalException("Cannot create directory: " +
+					directory);
+		}
+		long[] segments = listSegments();
+		try {
+			if (segments.length == 0) {
+				firstSegment = 0;
+				openSegment(0);
+			} else {
+				firstSegment = segments[0];
+				segment = segments[segments.length - 1];
+				buffer = map(segmentFile(segment), FileChannel.MapMode.READ_WRITE);
+				writeOffset = scan(buffer, 0, null);
+				clear(buffer, writeOffset, buffer.capacity());
+			}
+		} catch (IOException e) {
+			throw new JournalException("Cannot open journal: " + directory, e);
+		}
+		syncedPosition = getPosition();
+	}
+
+	private long[] listSegments() {
+		String[] names = directory.list();
+		if (names == null) {
+			throw new JournalException("Cannot list directory: " + directory);
+		}
+		long[] segments = new long[names.length];
+		int count = 0;
+		for (String name : names) {
+			if (name.endsWith(SUFFIX)) {
+				try {
+					segments[count] = Long.parseLong(name.substring(0,
+							name.length() - SUFFIX.length()), 16);
+					++count;
+				} catch (NumberFormatException e) {
+					// not a segment
+				}
+			}
+		}
+		segments = Arrays.copyOf(segments, count);
+		Arrays.sort(segments);
+		for (int i = 1; i < count; ++i) {
+			if (segments[i] != segments[i - 1] + 1) {
+				throw new JournalException("Missing journal segment: " +
+						segmentFile(segments[i - 1] + 1));
+			}
+		}
+		return segments;
+	}
+
+	private File segmentFile(long number) {
+		return new File(directory, String.format("%016x", number) + SUFFIX);
+	}
+
+	private static MappedByteBuffer map(File file, FileChannel.MapMode mode)
+			throws IOException {
+		// the mapping stays valid after the file is closed
+		RandomAccessFile randomAccessFile = new RandomAccessFile(file,
+				mode == FileChannel.MapMode.READ_ONLY ? "r" : "rw");
+		try {
+			FileChannel channel = randomAccessFile.getChannel();
+			return channel.map(mode, 0, channel.size());
+		} finally {
+			randomAccessFile.close();
+		}
+	}
+
+	private void openSegment(long number) throws IOException {
+		File file = segmentFile(number);
+		RandomAccessFile randomAccessFile = new RandomAccessFile(file, "rw");
+		try {
+			randomAccessFile.setLength(segmentSize);
+		} finally {
+			randomAccessFile.close();
+		}
+		buffer = map(file, FileChannel.MapMode.READ_WRITE);
+		segment = number;
+		writeOffset = 0;
+	}
+
+	private static int checksum(ByteBuffer buffer, int from, int to) {
+		// FNV-1a
+		int hash = 0x811c9dc5;
+		for (int i = from; i < to; ++i) {
+			hash ^= buffer.get(i) & 0xff;
+			hash *= 0x01000193;
+		}
+		return hash;
+	}
+
+	private static void clear(ByteBuffer buffer, int from, int to) {
+		for (int i = from; i < to; ++i) {
+			if (buffer.get(i) != 0) {
+				buffer.put(i, (byte)0);
+			}
+		}
+	}
+
+	/**
+	 * Read the records of a segment.
+	 *
+	 * @param from The records ending at or before this offset are not
+	 * passed to the handler.
+	 * @return The offset after the last complete record.
+	 */
+	private int scan(ByteBuffer buffer, int from,
+			IJournalHandler<Event> handler) {
+		int capacity = buffer.capacity();
+		int offset = 0;
+		while (capacity - offset >= HEADER_SIZE) {
+			int size = buffer.getInt(offset);
+			if (size < HEADER_SIZE || size > capacity - offset) {
+				break;
+			}
+			int end = offset + size;
+			if (buffer.getInt(offset + 4) != checksum(buffer, offset + 8, end)) {
+				break;
+			}
+			if (handler != null && end > from) {
+				ByteBuffer payload = buffer.duplicate();
+				payload.limit(end);
+				payload.position(offset + HEADER_SIZE);
+				handler.onRecord(buffer.getLong(offset + 8),
+						codec.decode(payload));
+			}
+			offset = end;
+		}
+		return offset;
+	}
+
+	private boolean write(long instanceId, Event event) {
+		int start = writeOffset;
+		if (buffer.capacity() - start < HEADER_SIZE) {
+			return false;
+		}
+		buffer.limit(buffer.capacity());
+		buffer.position(start + HEADER_SIZE);
+		boolean written = false;
+		try {
+			codec.encode(event, buffer);
+			written = true;
+		} catch (BufferOverflowException e) {
+			return false;
+		} finally {
+			if (!written) {
+				clear(buffer, start, buffer.position());
+			}
+		}
+		int end = buffer.position();
+		buffer.putLong(start + 8, instanceId);
+		buffer.putInt(start + 4, checksum(buffer, start + 8, end));
+		// the size is written last, so an incomplete record is never read
+		buffer.putInt(start, end - start);
+		writeOffset = end;
+		return true;
+	}
+
+	private void checkOpen() {
+		if (closed) {
+			throw new JournalException("The journal is closed.");
+		}
+	}
+
+	/**
+	 * Get the position after the last appended record. Positions grow
+	 * monotonically.
+	 */
+	public synchronized long getPosition() {
+		return (segment << 32) | writeOffset;
+	}
+
+	/**
+	 * Append a record to the journal. The record is not durable until
+	 * {@link #sync(long)} is called.
+	 *
+	 * @param instanceId The id of the state machine instance.
+	 * @param event The event processed by the instance.
+	 * @return The position after the record.
+	 * @throws JournalException If the record cannot be written.
+	 */
+	public synchronized long append(long instanceId, Event event) {
+		checkOpen();
+		if (!write(instanceId, event)) {
+			try {
+				buffer.force();
+				openSegment(segment + 1);
+			} catch (IOException e) {
+				throw new JournalException("Cannot create journal segment.", e);
+			}
+			if (!write(instanceId, event)) {
+				throw new JournalException(
+						"The record does not fit in a segment.");
+			}
+		}
+		return getPosition();
+	}
+
+	/**
+	 * Make the records durable up to a position. If another thread is
+	 * forcing the journal, wait for it, and force the journal only if that
+	 * did not cover the position.
+	 *
+	 * @param position The position returned by
+	 * {@link #append(long, Object) append}.
+	 * @throws JournalException If interrupted while waiting.
+	 */
+	public void sync(long position) {
+		MappedByteBuffer toForce;
+		long target;
+		synchronized (this) {
+			while (position > syncedPosition && syncing) {
+				try {
+					wait();
+				} catch (InterruptedException e) {
+					Thread.currentThread().interrupt();
+					throw new JournalException(
+							"Interrupted while waiting for the journal.", e);
+				}
+			}
+			if (position <= syncedPosition) {
+				return;
+			}
+			checkOpen();
+			syncing = true;
+			toForce = buffer;
+			target = getPosition();
+		}
+		boolean forced = false;
+		try {
+			// previous segments are forced when they are finished
+			toForce.force();
+			forced = true;
+		} finally {
+			synchronized (this) {
+				syncing = false;
+				if (forced && target > syncedPosition) {
+					syncedPosition = target;
+				}
+				notifyAll();
+			}
+		}
+	}
+
+	/**
+	 * Make all appended records durable.
+	 */
+	public void sync() {
+		sync(getPosition());
+	}
+
+	/**
+	 * Read all the records of the journal, in the order they were appended.
+	 *
+	 * @param handler Called for each record.
+	 * @throws JournalException If a segment cannot be read.
+	 */
+	public void replay(IJournalHandler<Event> handler) {
+		replay(0, handler);
+	}
+
+	/**
+	 * Read the records of the journal appended after a position, in the
+	 * order they were appended.
+	 *
+	 * @param position A position returned by {@link #getPosition()} or
+	 * {@link #append(long, Object) append}.
+	 * @param handler Called for each record.
+	 * @throws JournalException If a segment cannot be read.
+	 */
+	public synchronized void replay(long position,
+			IJournalHandler<Event> handler) {
+		checkOpen();
+		long fromSegment = position >>> 32;
+		int fromOffset = (int)position;
+		for (long number = Math.max(firstSegment, fromSegment);
+				number < segment; ++number) {
+			try {
+				scan(map(segmentFile(number), FileChannel.MapMode.READ_ONLY),
+						number == fromSegment ? fromOffset : 0, handler);
+			} catch (IOException e) {
+				throw new JournalException("Cannot read journal segment: " +
+						segmentFile(number), e);
+			}
+		}
+		if (segment >= fromSegment) {
+			scan(buffer, segment == fromSegment ? fromOffset : 0, handler);
+		}
+	}
+
+	/**
+	 * Delete the segments that only contain records before a position.
+	 * The records after the position are kept, but some records before it
+	 * may be kept too.
+	 *
+	 * @param position The position, typically the one a snapshot was
+	 * taken at.
+	 * @throws JournalException If a segment cannot be deleted.
+	 */
+	public synchronized void truncate(long position) {
+		checkOpen();
+		long lastSegment = Math.min(position >>> 32, segment);
+		while (firstSegment < lastSegment) {
+			File file = segmentFile(firstSegment);
+			if (!file.delete()) {
+				throw new JournalException("Cannot delete journal segment: " +
+						file);
+			}
+			++firstSegment;
+		}
+	}
+
+	/**
+	 * Make all records durable and close the journal.
+	 */
+	public void close() {
+		sync();
+		synchronized (this) {
+			closed = true;
+			buffer = null;
+		}
+	}
+}
@@ -0,0 +1,249 @@
+/*
+ * Copyright (c) 2013, Peter Szabados
+ * All rights reserved.
+ *
+ * Redistribution and use in source and binary forms, with or without
+ * modification, are permitted provided that the following conditions are
+ * met:
+ *
+ *     (1) Redistributions of source code must retain the above copyright
+ *     notice, this list of conditions and the following disclaimer.
+ *
+ *     (2) Redistributions in binary form must reproduce the above copyright
+ *     notice, this list of conditions and the following disclaimer in
+ *     the documentation and/or other materials provided with the
+ *     distribution.
+ *
+ *     (3)The name of the author may not be used to
+ *     endorse or promote products derived from this software without
+ *     specific prior written permission.
+ *
+ * THIS SOFTWARE IS PROVIDED BY THE AUTHOR ``AS IS'' AND ANY EXPRESS OR
+ * IMPLIED WARRANTIES, INCLUDING, BUT NOT LIMITED TO, THE IMPLIED
+ * WARRANTIES OF MERCHANTABILITY AND FITNESS FOR A PARTICULAR PURPOSE ARE
+ * DISCLAIMED. IN NO EVENT SHALL THE AUTHOR BE LIABLE FOR ANY DIRECT,
+ * INDIRECT, INCIDENTAL, SPECIAL, EXEMPLARY, OR CONSEQUENTIAL DAMAGES
+ * (INCLUDING, BUT NOT LIMITED TO, PROCUREMENT OF SUBSTITUTE GOODS OR
+ * SERVICES; LOSS OF USE, DATA, OR PROFITS; OR BUSINESS INTERRUPTION)
+ * HOWEVER CAUSED AND ON ANY THEORY OF LIABILITY, WHETHER IN CONTRACT,
+ * STRICT LIABILITY, OR TORT (INCLUDING NEGLIGENCE OR OTHERWISE) ARISING
+ * IN ANY WAY OUT OF THE USE OF THIS SOFTWARE, EVEN IF ADVISED OF THE
+ * POSSIBILITY OF SUCH DAMAGE.
+ */
+package com.kangirigungi.jstatemachine.persistence;
+
+import java.nio.channels.ReadableByteChannel;
+import java.nio.channels.WritableByteChannel;
+import java.util.Map;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.ConcurrentMap;
+
+import com.kangirigungi.jstatemachine.IStateMachine;
+import com.kangirigungi.jstatemachine.MachineDefinition;
+import com.kangirigungi.jstatemachine.StateMachineException;
+
+/**
+ * A set of state machine instances whose events are recorded in a
+ * {@link Journal}. After a restart, {@link #recover()} rebuilds the state
+ * of each instance by processing its recorded events again.
+ * <p>
+ * Replaying a long journal is slow, so the configuration of all instances
+ * can be saved with {@link #snapshot(WritableByteChannel)}. Then
+ * {@link #recover(ReadableByteChannel)} restores the instances from the
+ * snapshot without calling any callbacks, and processes only the events
+ * recorded after the snapshot. The deferred events are not saved, so a
+ * snapshot can only be taken while no instance has deferred events. The
+ * timers are not saved either, and they are not journaled, so snapshots are
+ * not supported for definitions with timed transitions.
+ * <p>
+ * Each instance is identified by a number. An instance is created when it
+ * is first requested, and an instance that has not processed any events
+ * is in its initial state, so there is nothing to record about it until
+ * it processes its first event.
+ * <p>
+ * Processing the events again calls the action callbacks again, so they
+ * must not have side effects that cannot be repeated, or they must
+ * recognize the recovery. An event is recorded only if it is processed
+ * without an exception.
+ * <p>
+ * Instances can be requested from any thread, but each instance must be
+ * used by only one thread at a time, like any other state machine. The
+ * journal can be shared between threads, and threads waiting for their
+ * events to become durable share the disk writes.
+ *
+ * @author Peter Szabados
+ *
+ */
+public class JournaledMachines<StateId, Event> {
+
+	private final MachineDefinition<StateId, Event> definition;
+	private final Journal<Event> journal;
+	private final ConcurrentMap<Long, JournaledStateMachine<StateId, Event>>
+			instances =
+			new ConcurrentHashMap<Long, JournaledStateMachine<StateId, Event>>();
+	private volatile boolean synchronous = true;
+
+	/**
+	 * @param definition The definition of the instances.
+	 * @param journal The journal of the events.
+	 */
+	public JournaledMachines(MachineDefinition<StateId, Event> definition,
+			Journal<Event> journal) {
+		this.definition = definition;
+		this.journal = journal;
+	}
+
+	public Journal<Event> getJournal() {
+		return journal;
+	}
+
+	public boolean isSynchronous() {
+		return synchronous;
+	}
+
+	/**
+	 * Set whether processing an event waits for the event to become
+	 * durable. If not, the events are durable only after
+	 * {@link Journal#sync()} is called.
+	 *
+	 * @param synchronous The default is <code>true</code>.
+	 * @return this.
+	 */
+	public JournaledMachines<StateId, Event> setSynchronous(
+			boolean synchronous) {
+		this.synchronous = synchronous;
+		return this;
+	}
+
+	private JournaledStateMachine<StateId, Event> getInstance(
+			long instanceId) {
+		JournaledStateMachine<StateId, Event> result =
+				instances.get(instanceId);
+		if (result == null) {
+			JournaledStateMachine<StateId, Event> instance =
+					new JournaledStateMachine<StateId, Event>(this,
+							instanceId, definition.newInstance());
+			result = instances.putIfAbsent(instanceId, instance);
+			if (result == null) {
+				result = instance;
+			}
+		}
+		return result;
+	}
+
+	/**
+	 * Get an instance. It is created if it does not exist.
+	 *
+	 * @param instanceId The id of the instance.
+	 * @return The instance. The events processed by it are recorded in the
+	 * journal.
+	 */
+	public IStateMachine<StateId, Event> get(long instanceId) {
+		return getInstance(instanceId);
+	}
+
+	/**
+	 * Get the number of instances created.
+	 */
+	public int size() {
+		return instances.size();
+	}
+
+	/**
+	 * Rebuild the instances from the journal. It must be called before
+	 * any instance is requested.
+	 *
+	 * @throws StateMachineException If an instance has already been
+	 * requested.
+	 */
+	public void recover() {
+		checkNotUsed();
+		replay(0);
+	}
+
+	/**
+	 * Rebuild the instances from a snapshot and the events recorded in the
+	 * journal after it. The instances in the snapshot are restored without
+	 * calling their entry actions. It must be called before any instance
+	 * is requested.
+	 *
+	 * @param snapshot The channel of a snapshot written by
+	 * {@link #snapshot(WritableByteChannel)}.
+	 * @throws StateMachineException If an instance has already been
+	 * requested, or the definition has timed transitions.
+	 * @throws JournalException If the snapshot cannot be read.
+	 */
+	public void recover(ReadableByteChannel snapshot) {
+		checkNotUsed();
+		checkNoTimedTransitions();
+		SnapshotReader reader = new SnapshotReader(snapshot);
+		while (reader.next()) {
+			long instanceId = reader.getInstanceId();
+			instances.put(instanceId, new JournaledStateMachine<StateId, Event>(
+					this, instanceId,
+					definition.newInstance(reader.getConfiguration(),
+							reader.getRememberedStates())));
+		}
+		replay(reader.getJournalPosition());
+	}
+
+	/**
+	 * Write the configuration and the remembered states of all instances to
+	 * a snapshot, together with the current position of the journal. No
+	 * events may be processed while the snapshot is taken. The deferred
+	 * events and the timers are not saved, so no instance may have
+	 * deferred events, and the definition may not have timed transitions.
+	 * <p>
+	 * The journal segments before the snapshot can be deleted with
+	 * {@link Journal#truncate(long)} once the snapshot is safely stored.
+	 *
+	 * @param snapshot The channel to write the snapshot to. It is not
+	 * closed.
+	 * @return The position of the journal the snapshot belongs to.
+	 * @throws StateMachineException If an instance has deferred events or
+	 * the definition has timed transitions. Nothing is written in this
+	 * case.
+	 * @throws JournalException If the snapshot cannot be written.
+	 */
+	public long snapshot(WritableByteChannel snapshot) {
+		checkNoTimedTransitions();
+		for (Map.Entry<Long, JournaledStateMachine<StateId, Event>> entry:
+				instances.entrySet()) {
+			if (entry.getValue().getDeferredEventCount() != 0) {
+				throw new StateMachineException("Instance " +
+						entry.getKey() + " has deferred events.");
+			}
+		}
+		long position = journal.getPosition();
+		SnapshotWriter writer = new SnapshotWriter(snapshot, position);
+		for (Map.Entry<Long, JournaledStateMachine<StateId, Event>> entry:
+				instances.entrySet()) {
+			writer.write(entry.getKey(), entry.getValue());
+		}
+		writer.flush();
+		return position;
+	}
+
+	private void checkNotUsed() {
+		if (!instances.isEmpty()) {
+			throw new StateMachineException(
+					"Instances must be recovered before they are used.");
+		}
+	}
+
+	private void checkNoTimedTransitions() {
+		if (definition.hasTimedTransitions()) {
+			throw new StateMachineException("Snapshots are not supported " +
+					"for definitions with timed transitions.");
+		}
+	}
+
+	private void replay(long position) {
+		journal.replay(position, new IJournalHandler<Event>() {
+			@Override
+			public void onRecord(long instanceId, Event event) {
+				getInstance(instanceId).replay(event);
+			}
+		});
+	}
+}
@@ -0,0 +1,209 @@
+/*
+ * Copyright (c) 2013, Peter Szabados
+ * All rights reserved.
+ *
+ * Redistribution and use in source and binary forms, with or without
+ * modification, are permitted provided that the following conditions are
+ * met:
+ *
+ *     (1) Redistributions of source code must retain the above copyright
+ *     notice, this list of conditions and the following disclaimer.
+ *
+ *     (2) Redistributions in binary form must reproduce the above copyright
+ *     notice, this list of conditions and the following disclaimer in
+ *     the documentation and/or other materials provided with the
+ *     distribution.
+ *
+ *     (3)The name of the author may not be used to
+ *     endorse or promote products derived from this software without
+ *     specific prior written permission.
+ *
+ * THIS SOFTWARE IS PROVIDED BY THE AUTHOR ``AS IS'' AND ANY EXPRESS OR
+ * IMPLIED WARRANTIES, INCLUDING, BUT NOT LIMITED TO, THE IMPLIED
+ * WARRANTIES OF MERCHANTABILITY AND FITNESS FOR A PARTICULAR PURPOSE ARE
+ * DISCLAIMED. IN NO EVENT SHALL THE AUTHOR BE LIABLE FOR ANY DIRECT,
+ * INDIRECT, INCIDENTAL, SPECIAL, EXEMPLARY, OR CONSEQUENTIAL DAMAGES
+ * (INCLUDING, BUT NOT LIMITED TO, PROCUREMENT OF SUBSTITUTE GOODS OR
+ * SERVICES; LOSS OF USE, DATA, OR PROFITS; OR BUSINESS INTERRUPTION)
+ * HOWEVER CAUSED AND ON ANY THEORY OF LIABILITY, WHETHER IN CONTRACT,
+ * STRICT LIABILITY, OR TORT (INCLUDING NEGLIGENCE OR OTHERWISE) ARISING
+ * IN ANY WAY OUT OF THE USE OF THIS SOFTWARE, EVEN IF ADVISED OF THE
+ * POSSIBILITY OF SUCH DAMAGE.
+ */
+package com.kangirigungi.jstatemachine.persistence;
+
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.List;
+
+import com.kangirigungi.jstatemachine.EventOutcome;
+import com.kangirigungi.jstatemachine.IRestorableStateMachine;
+import com.kangirigungi.jstatemachine.IStateMachine;
+
+/**
+ * Records the events processed by a state machine. Events sent from the
+ * callbacks of the state machine are not recorded, because processing the
+ * recorded event again sends them again.
+ */
+final class JournaledStateMachine<StateId, Event>
+		implements IStateMachine<StateId, Event>, IRestorableStateMachine {
+
+	private final JournaledMachines<StateId, Event> owner;
+	private final long instanceId;
+	private final IStateMachine<StateId, Event> stateMachine;
+	private boolean processing = false;
+
+	public JournaledStateMachine(JournaledMachines<StateId, Event> owner,
+			long instanceId, IStateMachine<StateId, Event> stateMachine) {
+		this.owner = owner;
+		this.instanceId = instanceId;
+		this.stateMachine = stateMachine;
+	}
+
+	void replay(Event event) {
+		processing = true;
+		try {
+			stateMachine.processEvent(event);
+		} finally {
+			processing = false;
+		}
+	}
+
+	private EventOutcome process(Event[] events, int index) {
+		processing = true;
+		try {
+			return stateMachine.processEvents(events, index, index + 1)[0];
+		} finally {
+			processing = false;
+		}
+	}
+
+	private EventOutcome process(Event event) {
+		processing = true;
+		try {
+			return stateMachine.processEvents(
+					Collections.singletonList(event))[0];
+		} finally {
+			processing = false;
+		}
+	}
+
+	private void sync(long position) {
+		if (position >= 0 && owner.isSynchronous()) {
+			owner.getJournal().sync(position);
+		}
+	}
+
+	@Override
+	public StateId getCurrentState() {
+		return stateMachine.getCurrentState();
+	}
+
+	@Override
+	public List<StateId> getCurrentStates() {
+		return stateMachine.getCurrentStates();
+	}
+
+	@Override
+	public StateId getCurrentDeepState() {
+		return stateMachine.getCurrentDeepState();
+	}
+
+	@Override
+	public int[] getConfiguration() {
+		return ((IRestorableStateMachine)stateMachine).getConfiguration();
+	}
+
+	/**
+	 * {@inheritDoc}
+	 * <p>
+	 * The change is not recorded in the journal, so it is lost after a
+	 * restart unless a snapshot is taken.
+	 */
+	@Override
+	public void restoreConfiguration(int[] configuration) {
+		((IRestorableStateMachine)stateMachine).restoreConfiguration(
+				configuration);
+	}
+
+	@Override
+	public int[] getRememberedStates() {
+		return ((IRestorableStateMachine)stateMachine).getRememberedStates();
+	}
+
+	/**
+	 * {@inheritDoc}
+	 * <p>
+	 * The change is not recorded in the journal, so it is lost after a
+	 * restart unless a snapshot is taken.
+	 */
+	@Override
+	public void restoreRememberedStates(int[] history) {
+		((IRestorableStateMachine)stateMachine).restoreRememberedStates(
+				history);
+	}
+
+	@Override
+	public int getDeferredEventCount() {
+		return ((IRestorableStateMachine)stateMachine).
+				getDeferredEventCount();
+	}
+
+	@Override
+	public void processEvent(Event event) {
+		if (processing) {
+			stateMachine.processEvent(event);
+			return;
+		}
+		processing = true;
+		try {
+			stateMachine.processEvent(event);
+		} finally {
+			processing = false;
+		}
+		sync(owner.getJournal().append(instanceId, event));
+	}
+
+	@Override
+	public EventOutcome[] processEvents(Event[] events, int from, int to) {
+		if (processing) {
+			return stateMachine.processEvents(events, from, to);
+		}
+		if (from < 0 || to > events.length || from > to) {
+			throw new IndexOutOfBoundsException("Invalid range: " + from +
+					"-" + to);
+		}
+		EventOutcome[] result = new EventOutcome[to - from];
+		long position = -1;
+		try {
+			for (int i = from; i < to; ++i) {
+				result[i - from] = process(events, i);
+				position = owner.getJournal().append(instanceId, events[i]);
+			}
+		} finally {
+			// one sync for the whole batch, including the events recorded
+			// before a failed one
+			sync(position);
+		}
+		return result;
+	}
+
+	@Override
+	public EventOutcome[] processEvents(Iterable<Event> events) {
+		if (processing) {
+			return stateMachine.processEvents(events);
+		}
+		List<EventOutcome> result = new ArrayList<EventOutcome>();
+		long position = -1;
+		try {
+			for (Event event: events) {
+				result.add(process(event));
+				position = owner.getJournal().append(instanceId, event);
+			}
+		} finally {
+			sync(position);
+		}
+		return result.toArray(new EventOutcome[result.size()]);
+	}
+
+}
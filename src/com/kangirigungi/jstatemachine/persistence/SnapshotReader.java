@@ -0,0 +1,208 @@
+/*
+ * Copyright (c) 2013, Peter Szabados
+ * All rights reserved.
+ *
+ * Redistribution and use in source and binary forms, with or without
+ * modification, are permitted provided that the following conditions are
+ * met:
+ *
+ *     (1) Redistributions of source code must retain the above copyright
+ *     notice, this list of conditions and the following disclaimer.
+ *
+ *     (2) Redistributions in binary form must reproduce the above copyright
+ *     notice, this list of conditions and the following disclaimer in
+ *     the documentation and/or other materials provided with the
+ *     distribution.
+ *
+ *     (3)The name of the author may not be used to
+ *     endorse or promote products derived from this software without
+ *     specific prior written permission.
+ *
+ * THIS SOFTWARE IS PROVIDED BY THE AUTHOR ``AS IS'' AND ANY EXPRESS OR
+ * IMPLIED WARRANTIES, INCLUDING, BUT NOT LIMITED TO, THE IMPLIED
+ * WARRANTIES OF MERCHANTABILITY AND FITNESS FOR A PARTICULAR PURPOSE ARE
+ * DISCLAIMED. IN NO EVENT SHALL THE AUTHOR BE LIABLE FOR ANY DIRECT,
+ * INDIRECT, INCIDENTAL, SPECIAL, EXEMPLARY, OR CONSEQUENTIAL DAMAGES
+ * (INCLUDING, BUT NOT LIMITED TO, PROCUREMENT OF SUBSTITUTE GOODS OR
+ * SERVICES; LOSS OF USE, DATA, OR PROFITS; OR BUSINESS INTERRUPTION)
+ * HOWEVER CAUSED AND ON ANY THEORY OF LIABILITY, WHETHER IN CONTRACT,
+ * STRICT LIABILITY, OR TORT (INCLUDING NEGLIGENCE OR OTHERWISE) ARISING
+ * IN ANY WAY OUT OF THE USE OF THIS SOFTWARE, EVEN IF ADVISED OF THE
+ * POSSIBILITY OF SUCH DAMAGE.
+ */
+package com.kangirigungi.jstatemachine.persistence;
+
+import java.io.IOException;
+import java.nio.ByteBuffer;
+import java.nio.channels.ReadableByteChannel;
+
+import com.kangirigungi.jstatemachine.IRestorableStateMachine;
+import com.kangirigungi.jstatemachine.StateMachineException;
+
+/**
+ * Reads a snapshot written by {@link SnapshotWriter}. The instances are
+ * read one by one with {@link #next()}, so snapshots of any size can be
+ * read with a fixed amount of memory.
+ *
+ * @author Peter Szabados
+ *
+ */
+public class SnapshotReader {
+
+	private final ReadableByteChannel channel;
+	private final ByteBuffer buffer;
+	private boolean endOfStream = false;
+	private final byte version;
+	private final long journalPosition;
+	private long instanceId;
+	private int[] configuration = null;
+	private int[] rememberedStates = null;
+
+	public SnapshotReader(ReadableByteChannel channel) {
+		this(channel, SnapshotWriter.DEFAULT_BUFFER_SIZE);
+	}
+
+	/**
+	 * Start reading a snapshot.
+	 *
+	 * @param channel The channel of the snapshot. It is not closed by this
+	 * class.
+	 * @param bufferSize The size of the buffer.
+	 * @throws JournalException If the snapshot cannot be read, or it is
+	 * not a valid snapshot.
+	 */
+	public SnapshotReader(ReadableByteChannel channel, int bufferSize) {
+		if (bufferSize < 64) {
+			throw new StateMachineException("Buffer size is too small.");
+		}
+		this.channel = channel;
+		buffer = ByteBuffer.allocateDirect(bufferSize);
+		buffer.flip();
+		if (!fill(13) || buffer.getInt() != SnapshotWriter.MAGIC) {
+			throw new JournalException("Not a snapshot.");
+		}
+		version = buffer.get();
+		if (version < 1 || version > SnapshotWriter.VERSION) {
+			throw new JournalException("Unknown snapshot version: " +
+					version);
+		}
+		journalPosition = buffer.getLong();
+	}
+
+	/**
+	 * Make sure that the given number of bytes are available in the
+	 * buffer.
+	 *
+	 * @return false if the end of the stream is reached before.
+	 */
+	private boolean fill(int size) {
+		if (buffer.remaining() >= size) {
+			return true;
+		}
+		buffer.compact();
+		try {
+			while (buffer.position() < size && !endOfStream) {
+				endOfStream = channel.read(buffer) < 0;
+			}
+		} catch (IOException e) {
+			throw new JournalException("Cannot read snapshot.", e);
+		} finally {
+			buffer.flip();
+		}
+		return buffer.remaining() >= size;
+	}
+
+	private long getVarLong(int maxSize) {
+		long result = 0;
+		for (int shift = 0; shift < maxSize * 7; shift += 7) {
+			if (!fill(1)) {
+				throw new JournalException("Unexpected end of snapshot.");
+			}
+			byte b = buffer.get();
+			result |= (long)(b & 0x7f) << shift;
+			if (b >= 0) {
+				return result;
+			}
+		}
+		throw new JournalException("Invalid snapshot.");
+	}
+
+	private int getVarInt() {
+		long result = getVarLong(SnapshotWriter.MAX_VARINT_SIZE);
+		if (result > Integer.MAX_VALUE) {
+			throw new JournalException("Invalid snapshot.");
+		}
+		return (int)result;
+	}
+
+	/**
+	 * Get the journal position given to the {@link SnapshotWriter}.
+	 */
+	public long getJournalPosition() {
+		return journalPosition;
+	}
+
+	/**
+	 * Read the next instance.
+	 *
+	 * @return false if there are no more instances.
+	 * @throws JournalException If the snapshot cannot be read.
+	 */
+	public boolean next() {
+		if (!fill(1)) {
+			configuration = null;
+			rememberedStates = null;
+			return false;
+		}
+		instanceId = getVarLong(SnapshotWriter.MAX_VARLONG_SIZE);
+		configuration = getIntArray();
+		// Version 1 snapshots did not contain remembered states.
+		rememberedStates = version < 2 ? new int[0] : getIntArray();
+		return true;
+	}
+
+	private int[] getIntArray() {
+		int length = getVarInt();
+		int[] result = new int[length];
+		for (int i = 0; i < length; ++i) {
+			result[i] = getVarInt();
+		}
+		return result;
+	}
+
+	/**
+	 * Get the id of the current instance.
+	 */
+	public long getInstanceId() {
+		return instanceId;
+	}
+
+	/**
+	 * Get the configuration of the current instance.
+	 *
+	 * @return The configuration. It is not used by the reader after it is
+	 * returned.
+	 */
+	public int[] getConfiguration() {
+		return configuration;
+	}
+
+	/**
+	 * Get the remembered states of the current instance.
+	 *
+	 * @return The remembered states. It is not used by the reader after it
+	 * is returned.
+	 */
+	public int[] getRememberedStates() {
+		return rememberedStates;
+	}
+
+	/**
+	 * Restore the configuration and the remembered states of the current
+	 * instance to a state machine.
+	 */
+	public void restore(IRestorableStateMachine stateMachine) {
+		stateMachine.restoreConfiguration(configuration);
+		stateMachine.restoreRememberedStates(rememberedStates);
+	}
+}
@@ -0,0 +1,185 @@
+/*
+ * Copyright (c) 2013, Peter Szabados
+ * All rights reserved.
+ *
+ * Redistribution and use in source and binary forms, with or without
+ * modification, are permitted provided that the following conditions are
+ * met:
+ *
+ *     (1) Redistributions of source code must retain the above copyright
+ *     notice, this list of conditions and the following disclaimer.
+ *
+ *     (2) Redistributions in binary form must reproduce the above copyright
+ *     notice, this list of conditions and the following disclaimer in
+ *     the documentation and/or other materials provided with the
+ *     distribution.
+ *
+ *     (3)The name of the author may not be used to
+ *     endorse or promote products derived from this software without
+ *     specific prior written permission.
+ *
+ * THIS SOFTWARE IS PROVIDED BY THE AUTHOR ``AS IS'' AND ANY EXPRESS OR
+ * IMPLIED WARRANTIES, INCLUDING, BUT NOT LIMITED TO, THE IMPLIED
+ * WARRANTIES OF MERCHANTABILITY AND FITNESS FOR A PARTICULAR PURPOSE ARE
+ * DISCLAIMED. IN NO EVENT SHALL THE AUTHOR BE LIABLE FOR ANY DIRECT,
+ * INDIRECT, INCIDENTAL, SPECIAL, EXEMPLARY, OR CONSEQUENTIAL DAMAGES
+ * (INCLUDING, BUT NOT LIMITED TO, PROCUREMENT OF SUBSTITUTE GOODS OR
+ * SERVICES; LOSS OF USE, DATA, OR PROFITS; OR BUSINESS INTERRUPTION)
+ * HOWEVER CAUSED AND ON ANY THEORY OF LIABILITY, WHETHER IN CONTRACT,
+ * STRICT LIABILITY, OR TORT (INCLUDING NEGLIGENCE OR OTHERWISE) ARISING
+ * IN ANY WAY OUT OF THE USE OF THIS SOFTWARE, EVEN IF ADVISED OF THE
+ * POSSIBILITY OF SUCH DAMAGE.
+ */
+package com.kangirigungi.jstatemachine.persistence;
+
+import java.io.IOException;
+import java.nio.ByteBuffer;
+import java.nio.channels.WritableByteChannel;
+
+import com.kangirigungi.jstatemachine.IRestorableStateMachine;
+import com.kangirigungi.jstatemachine.StateMachineException;
+
+/**
+ * Writes the configuration of state machine instances to a channel. Any
+ * number of instances can be written, they are buffered and written to the
+ * channel in large blocks.
+ * <p>
+ * The snapshot starts with a header holding the position of the journal
+ * it belongs to. Each instance is written as its id, the number of its
+ * active states, the index of each active state, the length of its
+ * remembered states and the remembered states, all as variable length
+ * integers, so an instance typically takes a few bytes.
+ * <p>
+ * Use {@link SnapshotReader} to read the snapshot.
+ *
+ * @author Peter Szabados
+ *
+ */
+public class SnapshotWriter {
+	/**
+	 * The default size of the buffer.
+	 */
+	public static final int DEFAULT_BUFFER_SIZE = 64 * 1024;
+
+	static final int MAGIC = 0x4a534d53;
+	static final byte VERSION = 2;
+	static final int MAX_VARINT_SIZE = 5;
+	static final int MAX_VARLONG_SIZE = 10;
+
+	private final WritableByteChannel channel;
+	private ByteBuffer buffer;
+
+	public SnapshotWriter(WritableByteChannel channel, long journalPosition) {
+		this(channel, journalPosition, DEFAULT_BUFFER_SIZE);
+	}
+
+	/**
+	 * Start writing a snapshot.
+	 *
+	 * @param channel The channel of the snapshot. It is not closed by this
+	 * class.
+	 * @param journalPosition The position of the journal the snapshot
+	 * belongs to, or 0 if it does not belong to a journal.
+	 * @param bufferSize The size of the buffer.
+	 */
+	public SnapshotWriter(WritableByteChannel channel, long journalPosition,
+			int bufferSize) {
+		if (bufferSize < 64) {
+			throw new StateMachineException("Buffer size is too small.");
+		}
+		this.channel = channel;
+		buffer = ByteBuffer.allocateDirect(bufferSize);
+		buffer.putInt(MAGIC);
+		buffer.put(VERSION);
+		buffer.putLong(journalPosition);
+	}
+
+	static void putVarLong(ByteBuffer buffer, long value) {
+		while ((value & ~0x7fL) != 0) {
+			buffer.put((byte)((value & 0x7f) | 0x80));
+			value >>>= 7;
+		}
+		buffer.put((byte)value);
+	}
+
+	/**
+	 * Write the configuration of an instance that remembers no states.
+	 *
+	 * @param instanceId The id of the instance.
+	 * @param configuration The configuration returned by
+	 * {@link IRestorableStateMachine#getConfiguration()}.
+	 * @throws JournalException If the channel cannot be written.
+	 */
+	public void write(long instanceId, int[] configuration) {
+		write(instanceId, configuration, new int[0]);
+	}
+
+	/**
+	 * Write the configuration of an instance.
+	 *
+	 * @param instanceId The id of the instance.
+	 * @param configuration The configuration returned by
+	 * {@link IRestorableStateMachine#getConfiguration()}.
+	 * @param rememberedStates The remembered states returned by
+	 * {@link IRestorableStateMachine#getRememberedStates()}.
+	 * @throws JournalException If the channel cannot be written.
+	 */
+	public void write(long instanceId, int[] configuration,
+			int[] rememberedStates) {
+		int maxSize = MAX_VARLONG_SIZE + (configuration.length +
+				rememberedStates.length + 2) * MAX_VARINT_SIZE;
+		if (buffer.remaining() < maxSize) {
+			flush();
+			if (buffer.capacity() < maxSize) {
+				buffer = ByteBuffer.allocateDirect(maxSize);
+			}
+		}
+		putVarLong(buffer, instanceId);
+		putVarLong(buffer, configuration.length);
+		for (int i = 0; i < configuration.length; ++i) {
+			putVarLong(buffer, configuration[i]);
+		}
+		putVarLong(buffer, rememberedStates.length);
+		for (int i = 0; i < rememberedStates.length; ++i) {
+			putVarLong(buffer, rememberedStates[i]);
+		}
+	}
+
+	/**
+	 * Write the configuration and the remembered states of an instance.
+	 * The deferred events cannot be written, so the instance must not have
+	 * any.
+	 *
+	 * @param instanceId The id of the instance.
+	 * @param stateMachine The instance.
+	 * @throws StateMachineException If the instance has deferred events.
+	 * @throws JournalException If the channel cannot be written.
+	 */
+	public void write(long instanceId, IRestorableStateMachine stateMachine) {
+		if (stateMachine.getDeferredEventCount() != 0) {
+			throw new StateMachineException("Instance " + instanceId +
+					" has deferred events.");
+		}
+		write(instanceId, stateMachine.getConfiguration(),
+				stateMachine.getRememberedStates());
+	}
+
+	/**
+	 * Write the buffered data to the channel. It must be called after the
+	 * last instance is written.
+	 *
+	 * @throws JournalException If the channel cannot be written.
+	 */
+	public void flush() {
+		buffer.flip();
+		try {
+			while (buffer.hasRemaining()) {
+				channel.write(buffer);
+			}
+		} catch (IOException e) {
+			throw new JournalException("Cannot write snapshot.", e);
+		} finally {
+			buffer.clear();
+		}
+	}
+}
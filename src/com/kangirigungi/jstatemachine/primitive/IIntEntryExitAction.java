@@ -0,0 +1,64 @@
+/*
+ * Copyright (c) 2013, Peter Szabados
+ * All rights reserved.
+ *
+ * Redistribution and use in source and binary forms, with or without
+ * modification, are permitted provided that the following conditions are
+ * met:
+ *
+ *     (1) Redistributions of source code must retain the above copyright
+ *     notice, this list of conditions and the following disclaimer.
+ *
+ *     (2) Redistributions in binary form must reproduce the above copyright
+ *     notice, this list of conditions and the following disclaimer in
+ *     the documentation and/or other materials provided with the
+ *     distribution.
+ *
+ *     (3)The name of the author may not be used to
+ *     endorse or promote products derived from this software without
+ *     specific prior written permission.
+ *
+ * THIS SOFTWARE IS PROVIDED BY THE AUTHOR ``AS IS'' AND ANY EXPRESS OR
+ * IMPLIED WARRANTIES, INCLUDING, BUT NOT LIMITED TO, THE IMPLIED
+ * WARRANTIES OF MERCHANTABILITY AND FITNESS FOR A PARTICULAR PURPOSE ARE
+ * DISCLAIMED. IN NO EVENT SHALL THE AUTHOR BE LIABLE FOR ANY DIRECT,
+ * INDIRECT, INCIDENTAL, SPECIAL, EXEMPLARY, OR CONSEQUENTIAL DAMAGES
+ * (INCLUDING, BUT NOT LIMITED TO, PROCUREMENT OF SUBSTITUTE GOODS OR
+ * SERVICES; LOSS OF USE, DATA, OR PROFITS; OR BUSINESS INTERRUPTION)
+ * HOWEVER CAUSED AND ON ANY THEORY OF LIABILITY, WHETHER IN CONTRACT,
+ * STRICT LIABILITY, OR TORT (INCLUDING NEGLIGENCE OR OTHERWISE) ARISING
+ * IN ANY WAY OUT OF THE USE OF THIS SOFTWARE, EVEN IF ADVISED OF THE
+ * POSSIBILITY OF SUCH DAMAGE.
+ */
+package com.kangirigungi.jstatemachine.primitive;
+
+/**
+ * Entry and exit actions of the states of an {@link IIntStateMachine}. It
+ * is the primitive version of
+ * {@link com.kangirigungi.jstatemachine.IEntryExitAction}, with
+ * {@link IIntStateMachine#NONE} used instead of <code>null</code> events.
+ *
+ * @author Peter Szabados
+ */
+public interface IIntEntryExitAction {
+	/**
+	 * Called when the state is entered. The <code>event</code> parameter
+	 * is {@link IIntStateMachine#NONE} when the initial state is entered,
+	 * when the state is entered through a completion transition, or when
+	 * the state is reentered after an exception is thrown from a callback.
+	 *
+	 * @param state The state being entered.
+	 * @param event The event triggering the transition into the state.
+	 */
+	public void onEnter(int state, int event);
+
+	/**
+	 * Called when the state is exited. The <code>event</code> parameter
+	 * is {@link IIntStateMachine#NONE} when the state is exited through a
+	 * completion transition.
+	 *
+	 * @param state The state being exited.
+	 * @param event The event triggering the transition from the state.
+	 */
+	public void onExit(int state, int event);
+}
@@ -0,0 +1,88 @@
+/*
+ * Copyright (c) 2013, Peter Szabados
+ * All rights reserved.
+ *
+ * Redistribution and use in source and binary forms, with or without
+ * modification, are permitted provided that the following conditions are
+ * met:
+ *
+ *     (1) Redistributions of source code must retain the above copyright
+ *     notice, this list of conditions and the following disclaimer.
+ *
+ *     (2) Redistributions in binary form must reproduce the above copyright
+ *     notice, this list of conditions and the following disclaimer in
+ *     the documentation and/or other materials provided with the
+ *     distribution.
+ *
+ *     (3)The name of the author may not be used to
+ *     endorse or promote products derived from this software without
+ *     specific prior written permission.
+ *
+ * THIS SOFTWARE IS PROVIDED BY THE AUTHOR ``AS IS'' AND ANY EXPRESS OR
+ * IMPLIED WARRANTIES, INCLUDING, BUT NOT LIMITED TO, THE IMPLIED
+ * WARRANTIES OF MERCHANTABILITY AND FITNESS FOR A PARTICULAR PURPOSE ARE
+ * DISCLAIMED. IN NO EVENT SHALL THE AUTHOR BE LIABLE FOR ANY DIRECT,
+ * INDIRECT, INCIDENTAL, SPECIAL, EXEMPLARY, OR CONSEQUENTIAL DAMAGES
+ * (INCLUDING, BUT NOT LIMITED TO, PROCUREMENT OF SUBSTITUTE GOODS OR
+ * SERVICES; LOSS OF USE, DATA, OR PROFITS; OR BUSINESS INTERRUPTION)
+ * HOWEVER CAUSED AND ON ANY THEORY OF LIABILITY, WHETHER IN CONTRACT,
+ * STRICT LIABILITY, OR TORT (INCLUDING NEGLIGENCE OR OTHERWISE) ARISING
+ * IN ANY WAY OUT OF THE USE OF THIS SOFTWARE, EVEN IF ADVISED OF THE
+ * POSSIBILITY OF SUCH DAMAGE.
+ */
+package com.kangirigungi.jstatemachine.primitive;
+
+import com.kangirigungi.jstatemachine.EventOutcome;
+
+/**
+ * State machine with <code>int</code> state ids and events. It works the
+ * same way as a flat {@link com.kangirigungi.jstatemachine.IStateMachine},
+ * but processing an event does not box the event or the states, and does
+ * not call <code>hashCode</code> or <code>equals</code>.
+ * <p>
+ * The value {@link #NONE} is reserved. It cannot be used as a state id, and
+ * it is used as the event of completion transitions.
+ * <p>
+ * Use {@link IntStateMachineBuilder} to acquire an implementation of this
+ * interface.
+ *
+ * @author Peter Szabados
+ */
+public interface IIntStateMachine {
+	/**
+	 * Value used instead of <code>null</code> for states and events.
+	 */
+	public static final int NONE = Integer.MIN_VALUE;
+
+	/**
+	 * Get the current state.
+	 */
+	public int getCurrentState();
+
+	/**
+	 * Process one event of the state machine. Make any necessary state
+	 * changes and call the action callbacks (transition, entry and exit
+	 * actions). If the event is {@link #NONE}, the completion transitions
+	 * of the current state are checked.
+	 * <p>
+	 * <b>Note:</b> Do not call this method from within an action callback.
+	 *
+	 * @param event The event to be processed.
+	 * @throws com.kangirigungi.jstatemachine.InTransitionException If it is
+	 * called while a transition is taking place.
+	 */
+	public void processEvent(int event);
+
+	/**
+	 * Process a range of events, one after the other.
+	 *
+	 * @param events The events to be processed.
+	 * @param from The index of the first event to be processed, inclusive.
+	 * @param to The index of the last event to be processed, exclusive.
+	 * @return The outcome of each processed event.
+	 * @throws IndexOutOfBoundsException If the range is invalid.
+	 * @throws com.kangirigungi.jstatemachine.InTransitionException If it is
+	 * called while a transition is taking place.
+	 */
+	public EventOutcome[] processEvents(int[] events, int from, int to);
+}
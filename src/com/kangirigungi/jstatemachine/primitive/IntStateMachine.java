@@ -0,0 +1,228 @@
+/*
+ * Copyright (c) 2013, Peter Szabados
+ * All rights reserved.
+ *
+ * Redistribution and use in source and binary forms, with or without
+ * modification, are permitted provided that the following conditions are
+ * met:
+ *
+ *     (1) Redistributions of source code must retain the above copyright
+ *     notice, this list of conditions and the following disclaimer.
+ *
+ *     (2) Redistributions in binary form must reproduce the above copyright
+ *     notice, this list of conditions and the following disclaimer in
+ *     the documentation and/or other materials provided with the
+ *     distribution.
+ *
+ *     (3)The name of the author may not be used to
+ *     endorse or promote products derived from this software without
+ *     specific prior written permission.
+ *
+ * THIS SOFTWARE IS PROVIDED BY THE AUTHOR ``AS IS'' AND ANY EXPRESS OR
+ * IMPLIED WARRANTIES, INCLUDING, BUT NOT LIMITED TO, THE IMPLIED
+ * WARRANTIES OF MERCHANTABILITY AND FITNESS FOR A PARTICULAR PURPOSE ARE
+ * DISCLAIMED. IN NO EVENT SHALL THE AUTHOR BE LIABLE FOR ANY DIRECT,
+ * INDIRECT, INCIDENTAL, SPECIAL, EXEMPLARY, OR CONSEQUENTIAL DAMAGES
+ * (INCLUDING, BUT NOT LIMITED TO, PROCUREMENT OF SUBSTITUTE GOODS OR
+ * SERVICES; LOSS OF USE, DATA, OR PROFITS; OR BUSINESS INTERRUPTION)
+ * HOWEVER CAUSED AND ON ANY THEORY OF LIABILITY, WHETHER IN CONTRACT,
+ * STRICT LIABILITY, OR TORT (INCLUDING NEGLIGENCE OR OTHERWISE) ARISING
+ * IN ANY WAY OUT OF THE USE OF THIS SOFTWARE, EVEN IF ADVISED OF THE
+ * POSSIBILITY OF SUCH DAMAGE.
+ */
+package com.kangirigungi.jstatemachine.primitive;
+
+import com.kangirigungi.jstatemachine.CompletionCycleException;
+import com.kangirigungi.jstatemachine.EventOutcome;
+import com.kangirigungi.jstatemachine.InTransitionException;
+
+/**
+ * Implementation of {@link IIntStateMachine}. States are referred to by
+ * their index. The transitions are stored in parallel arrays, and the
+ * first transition of each state and event is found with a
+ * {@link LongIntMap} lookup. Guarded transitions of the same state and
+ * event are chained with the <code>next</code> array.
+ */
+final class IntStateMachine implements IIntStateMachine {
+	private final int[] stateIds;
+	private final IIntEntryExitAction[] entryExitActions;
+	private final LongIntMap firstTransitions;
+	private final int[] targets;
+	private final IIntTransitionAction[] actions;
+	private final IIntGuard[] guards;
+	private final int[] next;
+	private final int maxCompletionSteps;
+	private int current = -1;
+	private boolean inTransition = false;
+
+	IntStateMachine(int[] stateIds, IIntEntryExitAction[] entryExitActions,
+			LongIntMap firstTransitions, int[] targets,
+			IIntTransitionAction[] actions, IIntGuard[] guards, int[] next,
+			int maxCompletionSteps) {
+		this.stateIds = stateIds;
+		this.entryExitActions = entryExitActions;
+		this.firstTransitions = firstTransitions;
+		this.targets = targets;
+		this.actions = actions;
+		this.guards = guards;
+		this.next = next;
+		this.maxCompletionSteps = maxCompletionSteps;
+	}
+
+	void start(int initialState) {
+		inTransition = true;
+		try {
+			enterState(initialState, NONE);
+			processCompletionTransitions();
+		} finally {
+			inTransition = false;
+		}
+	}
+
+	@Override
+	public int getCurrentState() {
+		return stateIds[current];
+	}
+
+	@Override
+	public void processEvent(int event) {
+		checkNotInTransition();
+		inTransition = true;
+		try {
+			dispatch(event);
+		} finally {
+			inTransition = false;
+		}
+	}
+
+	@Override
+	public EventOutcome[] processEvents(int[] events, int from, int to) {
+		if (from < 0 || to > events.length || from > to) {
+			throw new IndexOutOfBoundsException("Invalid range: " + from +
+					" - " + to + ", length = " + events.length);
+		}
+		checkNotInTransition();
+		EventOutcome[] result = new EventOutcome[to - from];
+		inTransition = true;
+		try {
+			for (int i = from; i < to; ++i) {
+				result[i - from] = dispatch(events[i]);
+			}
+		} finally {
+			inTransition = false;
+		}
+		return result;
+	}
+
+	private void checkNotInTransition() {
+		if (inTransition) {
+			throw new InTransitionException("Cannot initiate transition " +
+					"while another transition is running.");
+		}
+	}
+
+	private EventOutcome dispatch(int event) {
+		EventOutcome result = executeTransition(event);
+		if (result == EventOutcome.TRANSITIONED ||
+				result == EventOutcome.INTERNAL) {
+			processCompletionTransitions();
+		}
+		return result;
+	}
+
+	private void processCompletionTransitions() {
+		for (int steps = 0; ; ++steps) {
+			if (steps == maxCompletionSteps && isCompletionAllowed()) {
+				throw new CompletionCycleException("Completion transitions " +
+						"did not finish after " + maxCompletionSteps +
+						" steps. Last state: " + stateIds[current] + ".");
+			}
+			if (executeTransition(NONE) != EventOutcome.TRANSITIONED) {
+				return;
+			}
+		}
+	}
+
+	/**
+	 * Check whether the first completion transition whose guard allows it
+	 * changes the state, without executing it.
+	 */
+	private boolean isCompletionAllowed() {
+		int transition = firstTransitions.get(LongIntMap.key(current, NONE));
+		if (transition == LongIntMap.NO_VALUE) {
+			return false;
+		}
+		int sourceId = stateIds[current];
+		for (; transition >= 0; transition = next[transition]) {
+			int target = targets[transition];
+			IIntGuard guard = guards[transition];
+			if (guard == null || guard.checkTransition(sourceId,
+					target < 0 ? NONE : stateIds[target], NONE)) {
+				return target >= 0;
+			}
+		}
+		return false;
+	}
+
+	/**
+	 * Execute the first transition whose guard allows it.
+	 */
+	private EventOutcome executeTransition(int event) {
+		int transition = firstTransitions.get(LongIntMap.key(current, event));
+		if (transition == LongIntMap.NO_VALUE) {
+			return EventOutcome.IGNORED;
+		}
+
+		int source = current;
+		int sourceId = stateIds[source];
+		for (; transition >= 0; transition = next[transition]) {
+			int target = targets[transition];
+			int targetId = target < 0 ? NONE : stateIds[target];
+
+			// check guard condition
+			IIntGuard guard = guards[transition];
+			if (guard != null &&
+					!guard.checkTransition(sourceId, targetId, event)) {
+				continue;
+			}
+
+			IIntTransitionAction action = actions[transition];
+			if (target < 0) {
+				// internal transition
+				if (action != null) {
+					action.onTransition(sourceId, NONE, event);
+				}
+				return EventOutcome.INTERNAL;
+			}
+
+			// change the state
+			exitState(source, event);
+			try {
+				if (action != null) {
+					action.onTransition(sourceId, targetId, event);
+				}
+				enterState(target, event);
+			} catch (RuntimeException e) {
+				enterState(source, NONE);
+				throw e;
+			}
+			return EventOutcome.TRANSITIONED;
+		}
+		return EventOutcome.GUARD_REJECTED;
+	}
+
+	private void exitState(int state, int event) {
+		IIntEntryExitAction entryExitAction = entryExitActions[state];
+		if (entryExitAction != null) {
+			entryExitAction.onExit(stateIds[state], event);
+		}
+	}
+
+	private void enterState(int state, int event) {
+		IIntEntryExitAction entryExitAction = entryExitActions[state];
+		if (entryExitAction != null) {
+			entryExitAction.onEnter(stateIds[state], event);
+		}
+		current = state;
+	}
+}
@@ -0,0 +1,308 @@
+/*
+ * Copyright (c) 2013, Peter Szabados
+ * All rights reserved.
+ *
+ * Redistribution and use in source and binary forms, with or without
+ * modification, are permitted provided that the following conditions are
+ * met:
+ *
+ *     (1) Redistributions of source code must retain the above copyright
+ *     notice, this list of conditions and the following disclaimer.
+ *
+ *     (2) Redistributions in binary form must reproduce the above copyright
+ *     notice, this list of conditions and the following disclaimer in
+ *     the documentation and/or other materials provided with the
+ *     distribution.
+ *
+ *     (3)The name of the author may not be used to
+ *     endorse or promote products derived from this software without
+ *     specific prior written permission.
+ *
+ * THIS SOFTWARE IS PROVIDED BY THE AUTHOR ``AS IS'' AND ANY EXPRESS OR
+ * IMPLIED WARRANTIES, INCLUDING, BUT NOT LIMITED TO, THE IMPLIED
+ * WARRANTIES OF MERCHANTABILITY AND FITNESS FOR A PARTICULAR PURPOSE ARE
+ * DISCLAIMED. IN NO EVENT SHALL THE AUTHOR BE LIABLE FOR ANY DIRECT,
+ * INDIRECT, INCIDENTAL, SPECIAL, EXEMPLARY, OR CONSEQUENTIAL DAMAGES
+ * (INCLUDING, BUT NOT LIMITED TO, PROCUREMENT OF SUBSTITUTE GOODS OR
+ * SERVICES; LOSS OF USE, DATA, OR PROFITS; OR BUSINESS INTERRUPTION)
+ * HOWEVER CAUSED AND ON ANY THEORY OF LIABILITY, WHETHER IN CONTRACT,
+ * STRICT LIABILITY, OR TORT (INCLUDING NEGLIGENCE OR OTHERWISE) ARISING
+ * IN ANY WAY OUT OF THE USE OF THIS SOFTWARE, EVEN IF ADVISED OF THE
+ * POSSIBILITY OF SUCH DAMAGE.
+ */
+package com.kangirigungi.jstatemachine.primitive;
+
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.List;
+
+import com.kangirigungi.jstatemachine.CompletionCycleException;
+import com.kangirigungi.jstatemachine.DuplicateStateException;
+import com.kangirigungi.jstatemachine.DuplicateTransitionException;
+import com.kangirigungi.jstatemachine.IllegalEventException;
+import com.kangirigungi.jstatemachine.NoStateException;
+import com.kangirigungi.jstatemachine.StateMachineException;
+
+/**
+ * Builder to create state machines with <code>int</code> state ids and
+ * events. Use this to create instances of {@link IIntStateMachine}. The
+ * created state machines are flat, composite states are not supported.
+ * Otherwise the transitions and callbacks work the same way as with
+ * {@link com.kangirigungi.jstatemachine.StateMachineBuilder}, with
+ * {@link IIntStateMachine#NONE} used instead of <code>null</code>.
+ * <p>
+ * When the state machine is created, the states are numbered and the
+ * transitions are stored in primitive arrays, so processing an event
+ * involves no boxing, <code>hashCode</code> or <code>equals</code> calls.
+ * <p>
+ * <b>Note:</b> The created class is not thread-safe.
+ *
+ * @author Peter Szabados
+ */
+public class IntStateMachineBuilder {
+	private static class Transition {
+		final int target;
+		final IIntTransitionAction action;
+		final IIntGuard guard;
+		int next = -1;
+
+		Transition(int target, IIntTransitionAction action, IIntGuard guard) {
+			this.target = target;
+			this.action = action;
+			this.guard = guard;
+		}
+	}
+
+	private int[] stateIds;
+	private List<IIntEntryExitAction> entryExitActions;
+	private LongIntMap stateIndexes;
+	private List<Transition> transitions;
+	private LongIntMap firstTransitions;
+	private int initialState;
+	private int maxCompletionSteps = 10000;
+
+	public IntStateMachineBuilder() {
+		initialize();
+	}
+
+	/**
+	 * Add a new state.
+	 *
+	 * @param id The identifier of the new state. It cannot be
+	 * {@link IIntStateMachine#NONE}.
+	 * @param entryExitAction The entry and exit action of the state, or
+	 * <code>null</code>.
+	 * @return this.
+	 * @throws DuplicateStateException If the state id already exists.
+	 */
+	public IntStateMachineBuilder addState(int id,
+			IIntEntryExitAction entryExitAction) {
+		if (id == IIntStateMachine.NONE) {
+			throw new StateMachineException("Invalid state id: " + id + ".");
+		}
+		long key = id;
+		if (stateIndexes.get(key) != LongIntMap.NO_VALUE) {
+			throw new DuplicateStateException(
+					"Duplicate state: " + id + ".", null, id);
+		}
+		int index = entryExitActions.size();
+		if (index == stateIds.length) {
+			stateIds = Arrays.copyOf(stateIds, index * 2);
+		}
+		stateIds[index] = id;
+		entryExitActions.add(entryExitAction);
+		stateIndexes.put(key, index);
+		return this;
+	}
+
+	/**
+	 * Same as {@link #addState(int, IIntEntryExitAction)
+	 * addState(id, null)}.
+	 */
+	public IntStateMachineBuilder addState(int id) {
+		return addState(id, null);
+	}
+
+	/**
+	 * Set the initial state of the state machine.
+	 *
+	 * @param initialState The initial state of the state machine.
+	 * @return this.
+	 * @throws NoStateException If the state does not exist.
+	 */
+	public IntStateMachineBuilder setInitialState(int initialState) {
+		getStateIndex(initialState);
+		this.initialState = initialState;
+		return this;
+	}
+
+	/**
+	 * Set the maximum number of completion transitions that can follow each
+	 * other. At most this many completion transitions are executed in a row.
+	 * If the guard of a further one allows it, a
+	 * {@link CompletionCycleException} is thrown before it is executed
+	 * instead of looping forever. The default is 10000.
+	 *
+	 * @param maxCompletionSteps The maximum number of completion steps.
+	 * @return this.
+	 * @throws StateMachineException If the number is negative.
+	 */
+	public IntStateMachineBuilder setMaxCompletionSteps(
+			int maxCompletionSteps) {
+		if (maxCompletionSteps < 0) {
+			throw new StateMachineException("The number of completion steps " +
+					"cannot be negative.");
+		}
+		this.maxCompletionSteps = maxCompletionSteps;
+		return this;
+	}
+
+	/**
+	 * Add a new transition. The action and guard parameters are optional.
+	 * If event is {@link IIntStateMachine#NONE}, it is a completion
+	 * transition. Otherwise, it is a normal transition.
+	 * <p>
+	 * For each state and event, only one transition is allowed, except if
+	 * all transitions for that state and event are guarded. The guards are
+	 * checked in the order the transitions are added.
+	 *
+	 * @param fromState The initial state of the transition.
+	 * @param event The event that triggers the transition.
+	 * @param action The action to be executed.
+	 * @param toState The final state of the transition.
+	 * @param guard The guard of the transition.
+	 * @return this.
+	 * @throws DuplicateTransitionException If there is an ambiguous
+	 * transition.
+	 * @throws NoStateException If either fromState or toState does not
+	 * exist.
+	 */
+	public IntStateMachineBuilder addTransition(int fromState, int event,
+			IIntTransitionAction action, int toState, IIntGuard guard) {
+		doAddTransition(getStateIndex(fromState), event,
+				new Transition(getStateIndex(toState), action, guard));
+		return this;
+	}
+
+	/**
+	 * Same as {@link #addTransition(int, int, IIntTransitionAction, int, IIntGuard)
+	 * addTransition(fromState, event, action, toState, null)}.
+	 */
+	public IntStateMachineBuilder addTransition(int fromState, int event,
+			IIntTransitionAction action, int toState) {
+		return addTransition(fromState, event, action, toState, null);
+	}
+
+	/**
+	 * Add a new internal transition. Internal transitions do not
+	 * leave the state when performing an action. The action and
+	 * guard parameters are optional.
+	 *
+	 * @param state The initial state of the transition.
+	 * @param event The event that triggers the transition. It cannot be
+	 * {@link IIntStateMachine#NONE}.
+	 * @param action The action to be executed.
+	 * @param guard The guard of the transition.
+	 * @return this.
+	 * @throws DuplicateTransitionException If there is an ambiguous
+	 * transition.
+	 * @throws NoStateException If the state does not exist.
+	 */
+	public IntStateMachineBuilder addInternalTransition(int state, int event,
+			IIntTransitionAction action, IIntGuard guard) {
+		if (event == IIntStateMachine.NONE) {
+			throw new IllegalEventException("No internal completion " +
+					"transitions are allowed.");
+		}
+		doAddTransition(getStateIndex(state), event,
+				new Transition(-1, action, guard));
+		return this;
+	}
+
+	/**
+	 * Same as {@link #addInternalTransition(int, int, IIntTransitionAction, IIntGuard)
+	 * addInternalTransition(state, event, action, null)}.
+	 */
+	public IntStateMachineBuilder addInternalTransition(int state, int event,
+			IIntTransitionAction action) {
+		return addInternalTransition(state, event, action, null);
+	}
+
+	/**
+	 * Create the state machine and enter its initial state. After calling
+	 * this method, the builder is reset, so it can be used to build a
+	 * completely new state machine.
+	 *
+	 * @return The created state machine.
+	 * @throws StateMachineException If the initial state is not set.
+	 */
+	public IIntStateMachine create() {
+		if (initialState == IIntStateMachine.NONE) {
+			throw new StateMachineException("No initial state is set.");
+		}
+		int size = transitions.size();
+		int[] targets = new int[size];
+		IIntTransitionAction[] actions = new IIntTransitionAction[size];
+		IIntGuard[] guards = new IIntGuard[size];
+		int[] next = new int[size];
+		for (int i = 0; i < size; ++i) {
+			Transition transition = transitions.get(i);
+			targets[i] = transition.target;
+			actions[i] = transition.action;
+			guards[i] = transition.guard;
+			next[i] = transition.next;
+		}
+		IntStateMachine result = new IntStateMachine(
+				Arrays.copyOf(stateIds, entryExitActions.size()),
+				entryExitActions.toArray(
+						new IIntEntryExitAction[entryExitActions.size()]),
+				firstTransitions, targets, actions, guards, next,
+				maxCompletionSteps);
+		int initialIndex = getStateIndex(initialState);
+		initialize();
+		result.start(initialIndex);
+		return result;
+	}
+
+	private void doAddTransition(int fromIndex, int event,
+			Transition transition) {
+		long key = LongIntMap.key(fromIndex, event);
+		int index = transitions.size();
+		int first = firstTransitions.get(key);
+		if (first == LongIntMap.NO_VALUE) {
+			firstTransitions.put(key, index);
+		} else {
+			Transition last = null;
+			for (int i = first; i >= 0; i = last.next) {
+				last = transitions.get(i);
+				if (last.guard == null || transition.guard == null) {
+					throw new DuplicateTransitionException(
+							"Duplicate transition from " +
+							stateIds[fromIndex] + " with event " + event +
+							". For each event, either all transitions " +
+							"must be guarded or only one unguarded " +
+							"transition must occur.");
+				}
+			}
+			last.next = index;
+		}
+		transitions.add(transition);
+	}
+
+	private int getStateIndex(int id) {
+		int result = stateIndexes.get(id);
+		if (result == LongIntMap.NO_VALUE) {
+			throw new NoStateException("State " + id + " does not exist.");
+		}
+		return result;
+	}
+
+	private void initialize() {
+		stateIds = new int[16];
+		entryExitActions = new ArrayList<IIntEntryExitAction>();
+		stateIndexes = new LongIntMap(16);
+		transitions = new ArrayList<Transition>();
+		firstTransitions = new LongIntMap(16);
+		initialState = IIntStateMachine.NONE;
+	}
+}
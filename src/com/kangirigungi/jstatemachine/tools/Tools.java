@@ -37,6 +37,7 @@ package com.kangirigungi.jstatemachine.tools;
 public class Tools {
 	public static int hashCombine(int seed, Object o)
 	{
-	    return seed ^ o.hashCode() + 0x9e3779b9 + (seed<<6) + (seed>>2);
+	    return seed ^ (o == null ? 0 : o.hashCode()) + 0x9e3779b9 +
+	    		(seed<<6) + (seed>>2);
 	}
 }
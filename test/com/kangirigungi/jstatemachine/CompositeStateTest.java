@@ -73,6 +73,22 @@ public class CompositeStateTest {
 		verifyNoMoreInteractions(stateMachineEngine);
 	}
 
+	@Test
+	public void resumeState() {
+		MockStateFactory<Integer, Integer> mockStateFactory =
+				new MockStateFactory<Integer, Integer>();
+		CompositeState<Integer, Integer> compositeState =
+				new CompositeState<Integer, Integer>(1, null, mockStateFactory);
+		IState<Integer, Integer> state = mockStateFactory.lastCreatedState;
+		IStateMachineEngine<Integer, Integer> stateMachineEngine =
+				mockStateFactory.lastCreatedStateMachine;
+
+		compositeState.resumeState(10);
+		verify(state, times(1)).enterState(10);
+		verify(stateMachineEngine, times(1)).resume();
+		verifyNoMoreInteractions(stateMachineEngine);
+	}
+
 	@Test
 	@SuppressWarnings("unchecked")
 	public void stateMachine() {
@@ -0,0 +1,111 @@
+/*
+ * Copyright (c) 2013, Peter Szabados
+ * All rights reserved.
+ *
+ * Redistribution and use in source and binary forms, with or without
+ * modification, are permitted provided that the following conditions are
+ * met:
+ *
+ *     (1) Redistributions of source code must retain the above copyright
+ *     notice, this list of conditions and the following disclaimer.
+ *
+ *     (2) Redistributions in binary form must reproduce the above copyright
+ *     notice, this list of conditions and the following disclaimer in
+ *     the documentation and/or other materials provided with the
+ *     distribution.
+ *
+ *     (3)The name of the author may not be used to
+ *     endorse or promote products derived from this software without
+ *     specific prior written permission.
+ *
+ * THIS SOFTWARE IS PROVIDED BY THE AUTHOR ``AS IS'' AND ANY EXPRESS OR
+ * IMPLIED WARRANTIES, INCLUDING, BUT NOT LIMITED TO, THE IMPLIED
+ * WARRANTIES OF MERCHANTABILITY AND FITNESS FOR A PARTICULAR PURPOSE ARE
+ * DISCLAIMED. IN NO EVENT SHALL THE AUTHOR BE LIABLE FOR ANY DIRECT,
+ * INDIRECT, INCIDENTAL, SPECIAL, EXEMPLARY, OR CONSEQUENTIAL DAMAGES
+ * (INCLUDING, BUT NOT LIMITED TO, PROCUREMENT OF SUBSTITUTE GOODS OR
+ * SERVICES; LOSS OF USE, DATA, OR PROFITS; OR BUSINESS INTERRUPTION)
+ * HOWEVER CAUSED AND ON ANY THEORY OF LIABILITY, WHETHER IN CONTRACT,
+ * STRICT LIABILITY, OR TORT (INCLUDING NEGLIGENCE OR OTHERWISE) ARISING
+ * IN ANY WAY OUT OF THE USE OF THIS SOFTWARE, EVEN IF ADVISED OF THE
+ * POSSIBILITY OF SUCH DAMAGE.
+ */
+
+package com.kangirigungi.jstatemachine;
+
+import junit.framework.Assert;
+
+import org.junit.Test;
+
+public class DeferredEventsTest {
+
+	@Test
+	public void releaseInArrivalOrder() {
+		DeferredEvents<Integer> events = new DeferredEvents<Integer>();
+		events.defer(2, 1);
+		events.defer(0, 2);
+		events.defer(2, 3);
+		events.defer(1, 4);
+		events.defer(0, 5);
+		Assert.assertEquals(5, events.size());
+		Assert.assertFalse(events.hasReleased());
+
+		events.release(0);
+		events.release(2);
+		events.release(3);
+		Assert.assertEquals(new Integer(1), events.replay());
+		events.finishReplay();
+		Assert.assertEquals(new Integer(2), events.replay());
+		events.finishReplay();
+		Assert.assertEquals(new Integer(3), events.replay());
+		events.finishReplay();
+		Assert.assertEquals(new Integer(5), events.replay());
+		events.finishReplay();
+		Assert.assertFalse(events.hasReleased());
+		Assert.assertEquals(1, events.size());
+	}
+
+	@Test
+	public void deferAgain() {
+		DeferredEvents<Integer> events = new DeferredEvents<Integer>();
+		events.defer(0, 1);
+		events.defer(1, 2);
+		events.release(0);
+		events.defer(1, 3);
+
+		// the replayed event keeps its place before the later ones
+		Assert.assertEquals(new Integer(1), events.replay());
+		events.defer(1, 1);
+		events.finishReplay();
+		Assert.assertEquals(3, events.size());
+		events.release(1);
+		Assert.assertEquals(new Integer(1), events.replay());
+		events.finishReplay();
+		Assert.assertEquals(new Integer(2), events.replay());
+		events.finishReplay();
+		Assert.assertEquals(new Integer(3), events.replay());
+		events.finishReplay();
+		Assert.assertEquals(0, events.size());
+	}
+
+	@Test
+	public void clear() {
+		DeferredEvents<Integer> events = new DeferredEvents<Integer>();
+		for (int i = 0; i < 20; ++i) {
+			events.defer(i % 3, i);
+		}
+		events.release(1);
+		events.clearReleased();
+		Assert.assertFalse(events.hasReleased());
+		Assert.assertEquals(13, events.size());
+		events.clear();
+		Assert.assertEquals(0, events.size());
+
+		// the entries are reused
+		events.defer(4, 7);
+		events.release(4);
+		Assert.assertEquals(new Integer(7), events.replay());
+		events.finishReplay();
+		Assert.assertEquals(0, events.size());
+	}
+}
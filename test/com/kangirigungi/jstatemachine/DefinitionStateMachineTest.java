@@ -0,0 +1,361 @@
+/*
+ * Copyright (c) 2013, Peter Szabados
+ * All rights reserved.
+ *
+ * Redistribution and use in source and binary forms, with or without
+ * modification, are permitted provided that the following conditions are
+ * met:
+ *
+ *     (1) Redistributions of source code must retain the above copyright
+ *     notice, this list of conditions and the following disclaimer.
+ *
+ *     (2) Redistributions in binary form must reproduce the above copyright
+ *     notice, this list of conditions and the following disclaimer in
+ *     the documentation and/or other materials provided with the
+ *     distribution.
+ *
+ *     (3)The name of the author may not be used to
+ *     endorse or promote products derived from this software without
+ *     specific prior written permission.
+ *
+ * THIS SOFTWARE IS PROVIDED BY THE AUTHOR ``AS IS'' AND ANY EXPRESS OR
+ * IMPLIED WARRANTIES, INCLUDING, BUT NOT LIMITED TO, THE IMPLIED
+ * WARRANTIES OF MERCHANTABILITY AND FITNESS FOR A PARTICULAR PURPOSE ARE
+ * DISCLAIMED. IN NO EVENT SHALL THE AUTHOR BE LIABLE FOR ANY DIRECT,
+ * INDIRECT, INCIDENTAL, SPECIAL, EXEMPLARY, OR CONSEQUENTIAL DAMAGES
+ * (INCLUDING, BUT NOT LIMITED TO, PROCUREMENT OF SUBSTITUTE GOODS OR
+ * SERVICES; LOSS OF USE, DATA, OR PROFITS; OR BUSINESS INTERRUPTION)
+ * HOWEVER CAUSED AND ON ANY THEORY OF LIABILITY, WHETHER IN CONTRACT,
+ * STRICT LIABILITY, OR TORT (INCLUDING NEGLIGENCE OR OTHERWISE) ARISING
+ * IN ANY WAY OUT OF THE USE OF THIS SOFTWARE, EVEN IF ADVISED OF THE
+ * POSSIBILITY OF SUCH DAMAGE.
+ */
+
+package com.kangirigungi.jstatemachine;
+
+import static org.mockito.Matchers.anyInt;
+import static org.mockito.Mockito.doThrow;
+import static org.mockito.Mockito.inOrder;
+import static org.mockito.Mockito.mock;
+import static org.mockito.Mockito.times;
+import static org.mockito.Mockito.verifyNoMoreInteractions;
+
+import java.util.Arrays;
+
+import junit.framework.Assert;
+
+import org.junit.Before;
+import org.junit.Test;
+import org.mockito.InOrder;
+
+public class DefinitionStateMachineTest {
+
+	private StateMachineBuilder<Integer, Integer> builder;
+	private IEntryExitAction<Integer, Integer> entryExitAction;
+	private ITransitionAction<Integer, Integer> action;
+
+	@Before
+	@SuppressWarnings("unchecked")
+	public void initialize() {
+		builder = new StateMachineBuilder<Integer, Integer>();
+		entryExitAction = mock(IEntryExitAction.class);
+		action = mock(ITransitionAction.class);
+	}
+
+	private void addState(SubStateMachineBuilder<Integer, Integer> level,
+			int id) {
+		level.addState(id).setEntryExitAction(entryExitAction);
+	}
+
+	private SubStateMachineBuilder<Integer, Integer> addCompositeState(
+			SubStateMachineBuilder<Integer, Integer> level, int id) {
+		return level.addCompositeState(id).
+				setEntryExitAction(entryExitAction).getStateMachineBuilder();
+	}
+
+	@Test
+	public void compositeTransition() {
+		addState(builder.get(), 1);
+		SubStateMachineBuilder<Integer, Integer> sub =
+				addCompositeState(builder.get(), 2);
+		addState(sub, 21);
+		addState(sub, 22);
+		builder.get().setInitialState(1).
+				addTransition(1, 10, action, 2).
+				addTransition(2, 10, action, 1);
+		sub.setInitialState(21).
+				addTransition(21, 20, action, 22);
+
+		IStateMachine<Integer, Integer> stateMachine =
+				builder.createDefinition().newInstance();
+		stateMachine.processEvent(10);
+		stateMachine.processEvent(20);
+		Assert.assertEquals(Arrays.asList(2, 22),
+				stateMachine.getCurrentStates());
+		stateMachine.processEvent(10);
+		Assert.assertEquals(Arrays.asList(1),
+				stateMachine.getCurrentStates());
+
+		InOrder inOrder = inOrder(entryExitAction, action);
+		inOrder.verify(entryExitAction, times(1)).onEnter(1, null);
+		inOrder.verify(entryExitAction, times(1)).onExit(1, 10);
+		inOrder.verify(action, times(1)).onTransition(1, 2, 10);
+		inOrder.verify(entryExitAction, times(1)).onEnter(2, 10);
+		inOrder.verify(entryExitAction, times(1)).onEnter(21, null);
+		inOrder.verify(entryExitAction, times(1)).onExit(21, 20);
+		inOrder.verify(action, times(1)).onTransition(21, 22, 20);
+		inOrder.verify(entryExitAction, times(1)).onEnter(22, 20);
+		inOrder.verify(entryExitAction, times(1)).onExit(22, null);
+		inOrder.verify(entryExitAction, times(1)).onExit(2, 10);
+		inOrder.verify(action, times(1)).onTransition(2, 1, 10);
+		inOrder.verify(entryExitAction, times(1)).onEnter(1, 10);
+		verifyNoMoreInteractions(entryExitAction, action);
+	}
+
+	@Test
+	public void independentInstances() {
+		addState(builder.get(), 1);
+		addState(builder.get(), 2);
+		builder.get().setInitialState(1).
+				addTransition(1, 10, action, 2);
+
+		MachineDefinition<Integer, Integer> definition =
+				builder.createDefinition();
+		Assert.assertEquals(2, definition.getStateCount());
+		IStateMachine<Integer, Integer> stateMachine =
+				definition.newInstance();
+		IStateMachine<Integer, Integer> otherStateMachine =
+				definition.newInstance();
+		stateMachine.processEvent(10);
+		Assert.assertEquals(Arrays.asList(2),
+				stateMachine.getCurrentStates());
+		Assert.assertEquals(Arrays.asList(1),
+				otherStateMachine.getCurrentStates());
+	}
+
+	@Test(expected = StateMachineException.class)
+	public void noInitialState() {
+		addCompositeState(builder.get(), 1).addState(11);
+		builder.get().setInitialState(1);
+		builder.createDefinition();
+	}
+
+	@Test
+	public void internalTransitionDelegates() {
+		SubStateMachineBuilder<Integer, Integer> sub =
+				addCompositeState(builder.get(), 1);
+		addState(sub, 11);
+		addState(sub, 12);
+		builder.get().setInitialState(1).
+				addInternalTransition(1, 10, action);
+		sub.setInitialState(11).
+				addTransition(11, 10, action, 12);
+
+		IStateMachine<Integer, Integer> stateMachine =
+				builder.createDefinition().newInstance();
+		stateMachine.processEvent(10);
+		Assert.assertEquals(Arrays.asList(1, 12),
+				stateMachine.getCurrentStates());
+
+		InOrder inOrder = inOrder(action);
+		inOrder.verify(action, times(1)).onTransition(1, null, 10);
+		inOrder.verify(action, times(1)).onTransition(11, 12, 10);
+	}
+
+	@Test
+	public void outermostLevelHandlesEvent() {
+		SubStateMachineBuilder<Integer, Integer> sub =
+				addCompositeState(builder.get(), 1);
+		addState(builder.get(), 2);
+		SubStateMachineBuilder<Integer, Integer> subsub =
+				addCompositeState(sub, 11);
+		addState(sub, 12);
+		addState(subsub, 111);
+		addState(subsub, 112);
+		builder.get().setInitialState(1).
+				addTransition(1, 10, action, 2).
+				addTransition(1, 30, action, 2,
+						new FakeGuard<Integer, Integer>(false));
+		sub.setInitialState(11).
+				addTransition(11, 20, action, 12).
+				addTransition(11, 30, action, 12);
+		subsub.setInitialState(111).
+				addTransition(111, 10, action, 112).
+				addTransition(111, 20, action, 112).
+				addTransition(111, 40, action, 112);
+
+		MachineDefinition<Integer, Integer> definition =
+				builder.createDefinition();
+		IStateMachine<Integer, Integer> stateMachine =
+				definition.newInstance();
+		// guard rejected on the top level, not delegated
+		stateMachine.processEvent(30);
+		Assert.assertEquals(Arrays.asList(1, 11, 111),
+				stateMachine.getCurrentStates());
+		// handled on the deepest level only
+		stateMachine.processEvent(40);
+		Assert.assertEquals(Arrays.asList(1, 11, 112),
+				stateMachine.getCurrentStates());
+		stateMachine.processEvent(50);
+		Assert.assertEquals(Arrays.asList(1, 11, 112),
+				stateMachine.getCurrentStates());
+
+		stateMachine = definition.newInstance();
+		// handled on the middle level before the deepest
+		stateMachine.processEvent(20);
+		Assert.assertEquals(Arrays.asList(1, 12),
+				stateMachine.getCurrentStates());
+
+		stateMachine = definition.newInstance();
+		// handled on the top level before the deepest
+		stateMachine.processEvent(10);
+		Assert.assertEquals(Arrays.asList(2),
+				stateMachine.getCurrentStates());
+	}
+
+	@Test
+	public void completionTransition() {
+		addState(builder.get(), 1);
+		addState(builder.get(), 2);
+		addState(builder.get(), 3);
+		builder.get().setInitialState(1).
+				addTransition(1, null, action, 2).
+				addTransition(2, null, action, 3);
+
+		IStateMachine<Integer, Integer> stateMachine =
+				builder.createDefinition().newInstance();
+		Assert.assertEquals(new Integer(3), stateMachine.getCurrentState());
+	}
+
+	@Test
+	public void exceptionFromAction() {
+		doThrow(new RuntimeException()).when(action).
+				onTransition(anyInt(), anyInt(), anyInt());
+		addState(builder.get(), 1);
+		addState(builder.get(), 2);
+		builder.get().setInitialState(1).
+				addTransition(1, 10, action, 2);
+
+		IStateMachine<Integer, Integer> stateMachine =
+				builder.createDefinition().newInstance();
+		boolean exceptionThrown = false;
+		try {
+			stateMachine.processEvent(10);
+		} catch (RuntimeException e) {
+			exceptionThrown = true;
+		}
+
+		Assert.assertTrue(exceptionThrown);
+		Assert.assertEquals(new Integer(1), stateMachine.getCurrentState());
+
+		InOrder inOrder = inOrder(entryExitAction, action);
+		inOrder.verify(entryExitAction, times(1)).onEnter(1, null);
+		inOrder.verify(entryExitAction, times(1)).onExit(1, 10);
+		inOrder.verify(action, times(1)).onTransition(1, 2, 10);
+		inOrder.verify(entryExitAction, times(1)).onEnter(1, null);
+		verifyNoMoreInteractions(entryExitAction, action);
+	}
+
+	@Test
+	public void processEventFromCallbackQueued() {
+		final IStateMachine<?, ?>[] holder = new IStateMachine<?, ?>[1];
+		ITransitionAction<Integer, Integer> sendingAction =
+				new ITransitionAction<Integer, Integer>() {
+			@Override
+			@SuppressWarnings("unchecked")
+			public void onTransition(Integer fromState, Integer toState,
+					Integer event) {
+				action.onTransition(fromState, toState, event);
+				if (event == 10) {
+					((IStateMachine<Integer, Integer>)holder[0]).
+							processEvent(20);
+				}
+			}
+		};
+		addState(builder.get(), 1);
+		addState(builder.get(), 2);
+		addState(builder.get(), 3);
+		builder.get().setInitialState(1).
+				addTransition(1, 10, sendingAction, 2).
+				addTransition(2, 20, sendingAction, 3);
+		builder.setEventQueueCapacity(1);
+
+		MachineDefinition<Integer, Integer> definition =
+				builder.createDefinition();
+		IStateMachine<Integer, Integer> stateMachine =
+				definition.newInstance();
+		holder[0] = stateMachine;
+		stateMachine.processEvent(10);
+		Assert.assertEquals(new Integer(3), stateMachine.getCurrentState());
+
+		InOrder inOrder = inOrder(entryExitAction, action);
+		inOrder.verify(entryExitAction, times(1)).onEnter(1, null);
+		inOrder.verify(entryExitAction, times(1)).onExit(1, 10);
+		inOrder.verify(action, times(1)).onTransition(1, 2, 10);
+		inOrder.verify(entryExitAction, times(1)).onEnter(2, 10);
+		inOrder.verify(entryExitAction, times(1)).onExit(2, 20);
+		inOrder.verify(action, times(1)).onTransition(2, 3, 20);
+		inOrder.verify(entryExitAction, times(1)).onEnter(3, 20);
+		verifyNoMoreInteractions(entryExitAction, action);
+	}
+
+	@Test
+	public void restoreConfiguration() {
+		addState(builder.get(), 1);
+		SubStateMachineBuilder<Integer, Integer> sub =
+				addCompositeState(builder.get(), 2);
+		addState(sub, 21);
+		addState(sub, 22);
+		builder.get().setInitialState(1).
+				addTransition(2, 10, action, 1);
+		sub.setInitialState(21);
+
+		MachineDefinition<Integer, Integer> definition =
+				builder.createDefinition();
+		IStateMachine<Integer, Integer> stateMachine =
+				definition.newInstance();
+		int[] initial = ((IRestorableStateMachine)stateMachine).
+				getConfiguration();
+		DefinitionStateMachine<Integer, Integer> indexed =
+				(DefinitionStateMachine<Integer, Integer>)stateMachine;
+		int[] configuration = new int[] {
+				indexed.getStateIndex(2), indexed.getStateIndex(22)};
+		((IRestorableStateMachine)stateMachine).restoreConfiguration(
+				configuration);
+		Assert.assertEquals(Arrays.asList(2, 22),
+				stateMachine.getCurrentStates());
+
+		IStateMachine<Integer, Integer> restored =
+				definition.newInstance(configuration);
+		Assert.assertEquals(Arrays.asList(2, 22),
+				restored.getCurrentStates());
+		Assert.assertTrue(Arrays.equals(configuration,
+				((IRestorableStateMachine)restored).getConfiguration()));
+		restored.processEvent(10);
+		Assert.assertEquals(Arrays.asList(1), restored.getCurrentStates());
+
+		InOrder inOrder = inOrder(entryExitAction, action);
+		inOrder.verify(entryExitAction, times(1)).onEnter(1, null);
+		inOrder.verify(entryExitAction, times(1)).onExit(22, null);
+		inOrder.verify(entryExitAction, times(1)).onExit(2, 10);
+		inOrder.verify(action, times(1)).onTransition(2, 1, 10);
+		inOrder.verify(entryExitAction, times(1)).onEnter(1, 10);
+		verifyNoMoreInteractions(entryExitAction, action);
+
+		int[][] invalidConfigurations = new int[][] {
+				{},
+				{configuration[0]},
+				{configuration[1]},
+				{initial[0], configuration[1]},
+				{100}};
+		for (int[] invalid: invalidConfigurations) {
+			boolean exceptionThrown = false;
+			try {
+				definition.newInstance(invalid);
+			} catch (StateMachineException e) {
+				exceptionThrown = true;
+			}
+			Assert.assertTrue(exceptionThrown);
+		}
+	}
+}
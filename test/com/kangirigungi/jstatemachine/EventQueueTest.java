@@ -0,0 +1,73 @@
+/*
+ * Copyright (c) 2013, Peter Szabados
+ * All rights reserved.
+ *
+ * Redistribution and use in source and binary forms, with or without
+ * modification, are permitted provided that the following conditions are
+ * met:
+ *
+ *     (1) Redistributions of source code must retain the above copyright
+ *     notice, this list of conditions and the following disclaimer.
+ *
+ *     (2) Redistributions in binary form must reproduce the above copyright
+ *     notice, this list of conditions and the following disclaimer in
+ *     the documentation and/or other materials provided with the
+ *     distribution.
+ *
+ *     (3)The name of the author may not be used to
+ *     endorse or promote products derived from this software without
+ *     specific prior written permission.
+ *
+ * THIS SOFTWARE IS PROVIDED BY THE AUTHOR ``AS IS'' AND ANY EXPRESS OR
+ * IMPLIED WARRANTIES, INCLUDING, BUT NOT LIMITED TO, THE IMPLIED
+ * WARRANTIES OF MERCHANTABILITY AND FITNESS FOR A PARTICULAR PURPOSE ARE
+ * DISCLAIMED. IN NO EVENT SHALL THE AUTHOR BE LIABLE FOR ANY DIRECT,
+ * INDIRECT, INCIDENTAL, SPECIAL, EXEMPLARY, OR CONSEQUENTIAL DAMAGES
+ * (INCLUDING, BUT NOT LIMITED TO, PROCUREMENT OF SUBSTITUTE GOODS OR
+ * SERVICES; LOSS OF USE, DATA, OR PROFITS; OR BUSINESS INTERRUPTION)
+ * HOWEVER CAUSED AND ON ANY THEORY OF LIABILITY, WHETHER IN CONTRACT,
+ * STRICT LIABILITY, OR TORT (INCLUDING NEGLIGENCE OR OTHERWISE) ARISING
+ * IN ANY WAY OUT OF THE USE OF THIS SOFTWARE, EVEN IF ADVISED OF THE
+ * POSSIBILITY OF SUCH DAMAGE.
+ */
+
+package com.kangirigungi.jstatemachine;
+
+import junit.framework.Assert;
+
+import org.junit.Test;
+
+public class EventQueueTest {
+
+	@Test
+	public void offerPoll() {
+		EventQueue<Integer> queue = new EventQueue<Integer>(3);
+		Assert.assertTrue(queue.isEmpty());
+		Assert.assertTrue(queue.offer(1));
+		Assert.assertTrue(queue.offer(null));
+		Assert.assertTrue(queue.offer(3));
+		Assert.assertFalse(queue.offer(4));
+		Assert.assertEquals(3, queue.size());
+
+		Assert.assertEquals(new Integer(1), queue.poll());
+		Assert.assertNull(queue.poll());
+		Assert.assertTrue(queue.offer(5));
+		Assert.assertTrue(queue.offer(6));
+		Assert.assertFalse(queue.offer(7));
+		Assert.assertEquals(new Integer(3), queue.poll());
+		Assert.assertEquals(new Integer(5), queue.poll());
+		Assert.assertEquals(new Integer(6), queue.poll());
+		Assert.assertTrue(queue.isEmpty());
+	}
+
+	@Test
+	public void clear() {
+		EventQueue<Integer> queue = new EventQueue<Integer>(2);
+		queue.offer(1);
+		queue.offer(2);
+		queue.clear();
+		Assert.assertTrue(queue.isEmpty());
+		Assert.assertTrue(queue.offer(3));
+		Assert.assertEquals(new Integer(3), queue.poll());
+	}
+}
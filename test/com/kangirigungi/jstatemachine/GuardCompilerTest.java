@@ -0,0 +1,192 @@
+/*
+ * Copyright (c) 2013, Peter Szabados
+ * All rights reserved.
+ *
+ * Redistribution and use in source and binary forms, with or without
+ * modification, are permitted provided that the following conditions are
+ * met:
+ *
+ *     (1) Redistributions of source code must retain the above copyright
+ *     notice, this list of conditions and the following disclaimer.
+ *
+ *     (2) Redistributions in binary form must reproduce the above copyright
+ *     notice, this list of conditions and the following disclaimer in
+ *     the documentation and/or other materials provided with the
+ *     distribution.
+ *
+ *     (3)The name of the author may not be used to
+ *     endorse or promote products derived from this software without
+ *     specific prior written permission.
+ *
+ * THIS SOFTWARE IS PROVIDED BY THE AUTHOR ``AS IS'' AND ANY EXPRESS OR
+ * IMPLIED WARRANTIES, INCLUDING, BUT NOT LIMITED TO, THE IMPLIED
+ * WARRANTIES OF MERCHANTABILITY AND FITNESS FOR A PARTICULAR PURPOSE ARE
+ * DISCLAIMED. IN NO EVENT SHALL THE AUTHOR BE LIABLE FOR ANY DIRECT,
+ * INDIRECT, INCIDENTAL, SPECIAL, EXEMPLARY, OR CONSEQUENTIAL DAMAGES
+ * (INCLUDING, BUT NOT LIMITED TO, PROCUREMENT OF SUBSTITUTE GOODS OR
+ * SERVICES; LOSS OF USE, DATA, OR PROFITS; OR BUSINESS INTERRUPTION)
+ * HOWEVER CAUSED AND ON ANY THEORY OF LIABILITY, WHETHER IN CONTRACT,
+ * STRICT LIABILITY, OR TORT (INCLUDING NEGLIGENCE OR OTHERWISE) ARISING
+ * IN ANY WAY OUT OF THE USE OF THIS SOFTWARE, EVEN IF ADVISED OF THE
+ * POSSIBILITY OF SUCH DAMAGE.
+ */
+
+package com.kangirigungi.jstatemachine;
+
+import static org.mockito.Mockito.inOrder;
+import static org.mockito.Mockito.mock;
+import static org.mockito.Mockito.never;
+import static org.mockito.Mockito.verify;
+import static org.mockito.Mockito.when;
+import static org.mockito.Mockito.withSettings;
+
+import java.util.Random;
+
+import junit.framework.Assert;
+
+import org.junit.Test;
+import org.mockito.InOrder;
+
+public class GuardCompilerTest {
+
+	private static class CostGuard extends FakeGuard<Integer, Integer>
+			implements IGuardCost {
+		private int cost;
+
+		public CostGuard(boolean value, int cost) {
+			super(value);
+			this.cost = cost;
+		}
+
+		@Override
+		public int getCost() {
+			return cost;
+		}
+	}
+
+	private FakeGuard<Integer, Integer> a = new FakeGuard<Integer, Integer>();
+	private FakeGuard<Integer, Integer> b = new FakeGuard<Integer, Integer>();
+	private FakeGuard<Integer, Integer> c = new FakeGuard<Integer, Integer>();
+
+	private IGuard<Integer, Integer> and(IGuard<Integer, Integer> left,
+			IGuard<Integer, Integer> right) {
+		return new GuardAnd<Integer, Integer>(left, right);
+	}
+
+	private IGuard<Integer, Integer> or(IGuard<Integer, Integer> left,
+			IGuard<Integer, Integer> right) {
+		return new GuardOr<Integer, Integer>(left, right);
+	}
+
+	private IGuard<Integer, Integer> not(IGuard<Integer, Integer> other) {
+		return new GuardNot<Integer, Integer>(other);
+	}
+
+	private IGuard<Integer, Integer> constant(boolean value) {
+		return new GuardConstant<Integer, Integer>(value);
+	}
+
+	private void checkAllValues(IGuard<Integer, Integer> guard) {
+		IGuard<Integer, Integer> compiled = GuardCompiler.compile(guard);
+		for (int i = 0; i < 8; ++i) {
+			a.setValue((i & 1) != 0);
+			b.setValue((i & 2) != 0);
+			c.setValue((i & 4) != 0);
+			Assert.assertEquals(guard.checkTransition(1, 2, 3),
+					compiled.checkTransition(1, 2, 3));
+		}
+	}
+
+	private IGuard<Integer, Integer> createRandom(Random random, int depth) {
+		int type = random.nextInt(depth == 0 ? 2 : 6);
+		switch (type) {
+		case 0:
+			return random.nextBoolean() ? a : random.nextBoolean() ? b : c;
+		case 1:
+			return random.nextInt(4) == 0 ?
+					constant(random.nextBoolean()) : a;
+		case 2:
+			return not(createRandom(random, depth - 1));
+		case 3:
+		case 4:
+			return and(createRandom(random, depth - 1),
+					createRandom(random, depth - 1));
+		default:
+			return or(createRandom(random, depth - 1),
+					createRandom(random, depth - 1));
+		}
+	}
+
+	@Test
+	public void sameResult() {
+		checkAllValues(and(a, or(b, not(c))));
+		checkAllValues(not(and(a, or(not(b), c))));
+		checkAllValues(or(and(a, b), and(a, c)));
+		checkAllValues(and(or(a, b), or(b, a)));
+
+		Random random = new Random(1234);
+		for (int i = 0; i < 1000; ++i) {
+			checkAllValues(createRandom(random, 5));
+		}
+	}
+
+	@Test
+	public void noExpression() {
+		Assert.assertNull(GuardCompiler.compile(null));
+		Assert.assertSame(a, GuardCompiler.compile(a));
+	}
+
+	@Test
+	public void simplify() {
+		Assert.assertSame(a, GuardCompiler.compile(not(not(a))));
+		Assert.assertSame(a, GuardCompiler.compile(and(a, a)));
+		Assert.assertSame(a, GuardCompiler.compile(or(a, constant(false))));
+		Assert.assertSame(a, GuardCompiler.compile(and(constant(true), a)));
+
+		IGuard<Integer, Integer> compiled =
+				GuardCompiler.compile(and(a, constant(false)));
+		Assert.assertTrue(compiled instanceof GuardConstant<?, ?>);
+		Assert.assertFalse(((GuardConstant<?, ?>)compiled).getValue());
+
+		compiled = GuardCompiler.compile(or(not(a), or(b, a)));
+		Assert.assertTrue(compiled instanceof GuardConstant<?, ?>);
+		Assert.assertTrue(((GuardConstant<?, ?>)compiled).getValue());
+	}
+
+	@Test
+	@SuppressWarnings("unchecked")
+	public void shortCircuit() {
+		IGuard<Integer, Integer> other = mock(IGuard.class);
+		a.setValue(false);
+		Assert.assertFalse(GuardCompiler.compile(and(a, other)).
+				checkTransition(1, 2, 3));
+		a.setValue(true);
+		Assert.assertTrue(GuardCompiler.compile(or(a, other)).
+				checkTransition(1, 2, 3));
+		verify(other, never()).checkTransition(1, 2, 3);
+	}
+
+	@Test
+	@SuppressWarnings("unchecked")
+	public void costOrder() {
+		IGuard<Integer, Integer> expensive = mock(IGuard.class);
+		IGuard<Integer, Integer> cheap =
+				mock(IGuard.class, withSettings().
+						extraInterfaces(IGuardCost.class));
+		when(((IGuardCost)cheap).getCost()).thenReturn(1);
+		when(expensive.checkTransition(1, 2, 3)).thenReturn(true);
+		when(cheap.checkTransition(1, 2, 3)).thenReturn(true);
+
+		Assert.assertTrue(GuardCompiler.compile(and(expensive, cheap)).
+				checkTransition(1, 2, 3));
+		InOrder inOrder = inOrder(cheap, expensive);
+		inOrder.verify(cheap).checkTransition(1, 2, 3);
+		inOrder.verify(expensive).checkTransition(1, 2, 3);
+
+		CostGuard cheapFalse = new CostGuard(false, 0);
+		IGuard<Integer, Integer> unused = mock(IGuard.class);
+		Assert.assertFalse(GuardCompiler.compile(and(unused, cheapFalse)).
+				checkTransition(1, 2, 3));
+		verify(unused, never()).checkTransition(1, 2, 3);
+	}
+}
@@ -101,6 +101,15 @@ public class GuardTest {
 		Assert.assertTrue(guard.checkTransition(null, null, null));
 	}
 
+	private static void setCurrentStates(
+			IStateMachine<Integer, Integer> stateMachine,
+			Integer... states) {
+		when(stateMachine.getCurrentStates()).thenReturn(Arrays.asList(states));
+		when(stateMachine.getCurrentState()).thenReturn(states[0]);
+		when(stateMachine.getCurrentDeepState()).thenReturn(
+				states[states.length - 1]);
+	}
+
 	@Test
 	@SuppressWarnings("unchecked")
 	public void guardState() {
@@ -113,19 +122,19 @@ public class GuardTest {
 
 		Assert.assertFalse(guard.checkTransition(null, null, null));
 
-		when(stateMachine.getCurrentStates()).thenReturn(Arrays.asList(1));
+		setCurrentStates(stateMachine, 1);
 		Assert.assertTrue(guard.checkTransition(null, null, null));
-		when(stateMachine.getCurrentStates()).thenReturn(Arrays.asList(2));
+		setCurrentStates(stateMachine, 2);
 		Assert.assertTrue(guard.checkTransition(null, null, null));
-		when(stateMachine.getCurrentStates()).thenReturn(Arrays.asList(3));
+		setCurrentStates(stateMachine, 3);
 		Assert.assertFalse(guard.checkTransition(null, null, null));
-		when(stateMachine.getCurrentStates()).thenReturn(Arrays.asList(1, 5));
+		setCurrentStates(stateMachine, 1, 5);
 		Assert.assertTrue(guard.checkTransition(null, null, null));
-		when(stateMachine.getCurrentStates()).thenReturn(Arrays.asList(2, 6));
+		setCurrentStates(stateMachine, 2, 6);
 		Assert.assertTrue(guard.checkTransition(null, null, null));
-		when(stateMachine.getCurrentStates()).thenReturn(Arrays.asList(3, 1));
+		setCurrentStates(stateMachine, 3, 1);
 		Assert.assertFalse(guard.checkTransition(null, null, null));
-		when(stateMachine.getCurrentStates()).thenReturn(Arrays.asList(4, 2));
+		setCurrentStates(stateMachine, 4, 2);
 		Assert.assertFalse(guard.checkTransition(null, null, null));
 	}
 
@@ -141,19 +150,71 @@ public class GuardTest {
 
 		Assert.assertFalse(guard.checkTransition(null, null, null));
 
-		when(stateMachine.getCurrentStates()).thenReturn(Arrays.asList(1));
+		setCurrentStates(stateMachine, 1);
 		Assert.assertTrue(guard.checkTransition(null, null, null));
-		when(stateMachine.getCurrentStates()).thenReturn(Arrays.asList(2));
+		setCurrentStates(stateMachine, 2);
 		Assert.assertTrue(guard.checkTransition(null, null, null));
-		when(stateMachine.getCurrentStates()).thenReturn(Arrays.asList(3));
+		setCurrentStates(stateMachine, 3);
 		Assert.assertFalse(guard.checkTransition(null, null, null));
-		when(stateMachine.getCurrentStates()).thenReturn(Arrays.asList(1, 5));
+		setCurrentStates(stateMachine, 1, 5);
 		Assert.assertFalse(guard.checkTransition(null, null, null));
-		when(stateMachine.getCurrentStates()).thenReturn(Arrays.asList(2, 6));
+		setCurrentStates(stateMachine, 2, 6);
 		Assert.assertFalse(guard.checkTransition(null, null, null));
-		when(stateMachine.getCurrentStates()).thenReturn(Arrays.asList(3, 1));
+		setCurrentStates(stateMachine, 3, 1);
 		Assert.assertTrue(guard.checkTransition(null, null, null));
-		when(stateMachine.getCurrentStates()).thenReturn(Arrays.asList(4, 2));
+		setCurrentStates(stateMachine, 4, 2);
 		Assert.assertTrue(guard.checkTransition(null, null, null));
 	}
+
+	/**
+	 * States 1 and 2 on the top level, 2 has substates 5 and 6. Event 10
+	 * toggles the top level, event 20 toggles the substates.
+	 */
+	private StateMachineBuilder<Integer, Integer> createIndexedBuilder() {
+		StateMachineBuilder<Integer, Integer> builder =
+				new StateMachineBuilder<Integer, Integer>();
+		builder.get().addState(1);
+		SubStateMachineBuilder<Integer, Integer> sub =
+				builder.get().addCompositeState(2).getStateMachineBuilder();
+		sub.addState(5);
+		sub.addState(6);
+		sub.setInitialState(5).
+				addTransition(5, 20, null, 6).
+				addTransition(6, 20, null, 5);
+		builder.get().setInitialState(1).
+				addTransition(1, 10, null, 2).
+				addTransition(2, 10, null, 1);
+		return builder;
+	}
+
+	private void checkIndexedGuardState(
+			IStateMachine<Integer, Integer> stateMachine) {
+		Assert.assertTrue(stateMachine instanceof IIndexedStateMachine<?>);
+		GuardState<Integer, Integer> guard =
+				new GuardState<Integer, Integer>(stateMachine,
+						new Integer[] {2, 4}, false);
+		GuardState<Integer, Integer> deepGuard =
+				new GuardState<Integer, Integer>(stateMachine,
+						new Integer[] {1, 6}, true);
+
+		Assert.assertFalse(guard.checkTransition(null, null, null));
+		Assert.assertTrue(deepGuard.checkTransition(null, null, null));
+		stateMachine.processEvent(10);
+		Assert.assertTrue(guard.checkTransition(null, null, null));
+		Assert.assertFalse(deepGuard.checkTransition(null, null, null));
+		stateMachine.processEvent(20);
+		Assert.assertTrue(guard.checkTransition(null, null, null));
+		Assert.assertTrue(deepGuard.checkTransition(null, null, null));
+		stateMachine.processEvent(10);
+		Assert.assertFalse(guard.checkTransition(null, null, null));
+		Assert.assertTrue(deepGuard.checkTransition(null, null, null));
+	}
+
+	@Test
+	public void guardStateIndexed() {
+		checkIndexedGuardState(createIndexedBuilder().create());
+		checkIndexedGuardState(
+				createIndexedBuilder().createDefinition().newInstance());
+		checkIndexedGuardState(createIndexedBuilder().createConcurrent());
+	}
 }
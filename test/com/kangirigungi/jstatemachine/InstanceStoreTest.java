@@ -0,0 +1,245 @@
+/*
+ * Copyright (c) 2013, Peter Szabados
+ * All rights reserved.
+ *
+ * Redistribution and use in source and binary forms, with or without
+ * modification, are permitted provided that the following conditions are
+ * met:
+ *
+ *     (1) Redistributions of source code must retain the above copyright
+ *     notice, this list of conditions and the following disclaimer.
+ *
+ *     (2) Redistributions in binary form must reproduce the above copyright
+ *     notice, this list of conditions and the following disclaimer in
+ *     the documentation and/or other materials provided with the
+ *     distribution.
+ *
+ *     (3)The name of the author may not be used to
+ *     endorse or promote products derived from this software without
+ *     specific prior written permission.
+ *
+ * THIS SOFTWARE IS PROVIDED BY THE AUTHOR ``AS IS'' AND ANY EXPRESS OR
+ * IMPLIED WARRANTIES, INCLUDING, BUT NOT LIMITED TO, THE IMPLIED
+ * WARRANTIES OF MERCHANTABILITY AND FITNESS FOR A PARTICULAR PURPOSE ARE
+ * DISCLAIMED. IN NO EVENT SHALL THE AUTHOR BE LIABLE FOR ANY DIRECT,
+ * INDIRECT, INCIDENTAL, SPECIAL, EXEMPLARY, OR CONSEQUENTIAL DAMAGES
+ * (INCLUDING, BUT NOT LIMITED TO, PROCUREMENT OF SUBSTITUTE GOODS OR
+ * SERVICES; LOSS OF USE, DATA, OR PROFITS; OR BUSINESS INTERRUPTION)
+ * HOWEVER CAUSED AND ON ANY THEORY OF LIABILITY, WHETHER IN CONTRACT,
+ * STRICT LIABILITY, OR TORT (INCLUDING NEGLIGENCE OR OTHERWISE) ARISING
+ * IN ANY WAY OUT OF THE USE OF THIS SOFTWARE, EVEN IF ADVISED OF THE
+ * POSSIBILITY OF SUCH DAMAGE.
+ */
+
+package com.kangirigungi.jstatemachine;
+
+import static org.mockito.Mockito.doThrow;
+import static org.mockito.Mockito.inOrder;
+import static org.mockito.Mockito.mock;
+import static org.mockito.Mockito.times;
+
+import java.util.Arrays;
+import java.util.concurrent.atomic.AtomicReference;
+
+import junit.framework.Assert;
+
+import org.junit.Before;
+import org.junit.Test;
+import org.mockito.InOrder;
+
+public class InstanceStoreTest {
+
+	private StateMachineBuilder<Integer, Integer> builder;
+	private IEntryExitAction<Integer, Integer> entryExitAction;
+	private ITransitionAction<Integer, Integer> action;
+
+	@Before
+	@SuppressWarnings("unchecked")
+	public void initialize() {
+		builder = new StateMachineBuilder<Integer, Integer>();
+		entryExitAction = mock(IEntryExitAction.class);
+		action = mock(ITransitionAction.class);
+	}
+
+	private MachineDefinition<Integer, Integer> createDefinition() {
+		builder.get().addState(1).setEntryExitAction(entryExitAction);
+		SubStateMachineBuilder<Integer, Integer> sub =
+				builder.get().addCompositeState(2).
+				setEntryExitAction(entryExitAction).getStateMachineBuilder();
+		sub.addState(21).setEntryExitAction(entryExitAction);
+		sub.addState(22).setEntryExitAction(entryExitAction);
+		builder.get().setInitialState(1).
+				addTransition(1, 10, action, 2).
+				addTransition(2, 10, action, 1);
+		sub.setInitialState(21).
+				addTransition(21, 20, action, 22);
+		return builder.createDefinition();
+	}
+
+	@Test
+	public void processEvents() {
+		InstanceStore<Integer, Integer> store =
+				createDefinition().newInstanceStore(3);
+		Assert.assertEquals(3, store.getCapacity());
+		Assert.assertEquals(1, store.getBytesPerInstance());
+		Assert.assertEquals(0, store.addInstance());
+		Assert.assertEquals(1, store.addInstance());
+		Assert.assertEquals(2, store.size());
+
+		Assert.assertEquals(EventOutcome.TRANSITIONED,
+				store.processEvent(1, 10));
+		Assert.assertEquals(EventOutcome.TRANSITIONED,
+				store.processEvent(1, 20));
+		Assert.assertEquals(EventOutcome.IGNORED, store.processEvent(0, 20));
+		Assert.assertEquals(Arrays.asList(1), store.getCurrentStates(0));
+		Assert.assertEquals(Arrays.asList(2, 22), store.getCurrentStates(1));
+		Assert.assertEquals(Integer.valueOf(2), store.getCurrentState(1));
+		Assert.assertEquals(Integer.valueOf(22),
+				store.getCurrentDeepState(1));
+
+		InOrder inOrder = inOrder(entryExitAction, action);
+		inOrder.verify(entryExitAction, times(2)).onEnter(1, null);
+		inOrder.verify(entryExitAction, times(1)).onExit(1, 10);
+		inOrder.verify(action, times(1)).onTransition(1, 2, 10);
+		inOrder.verify(entryExitAction, times(1)).onEnter(2, 10);
+		inOrder.verify(entryExitAction, times(1)).onEnter(21, null);
+		inOrder.verify(entryExitAction, times(1)).onExit(21, 20);
+		inOrder.verify(action, times(1)).onTransition(21, 22, 20);
+		inOrder.verify(entryExitAction, times(1)).onEnter(22, 20);
+		inOrder.verifyNoMoreInteractions();
+	}
+
+	@Test
+	public void configuration() {
+		MachineDefinition<Integer, Integer> definition = createDefinition();
+		IStateMachine<Integer, Integer> stateMachine =
+				definition.newInstance();
+		stateMachine.processEvent(10);
+		int[] configuration =
+				((IRestorableStateMachine)stateMachine).getConfiguration();
+
+		InstanceStore<Integer, Integer> store =
+				definition.newInstanceStore(2);
+		Assert.assertEquals(0, store.addInstance(configuration));
+		Assert.assertTrue(Arrays.equals(configuration,
+				store.getConfiguration(0)));
+		Assert.assertEquals(stateMachine.getCurrentStates(),
+				store.getCurrentStates(0));
+
+		store.addInstance();
+		store.restoreConfiguration(1, configuration);
+		Assert.assertEquals(Arrays.asList(2, 21), store.getCurrentStates(1));
+		Assert.assertEquals(
+				((DefinitionStateMachine<Integer, Integer>)stateMachine).
+						getCurrentDeepStateIndex(),
+				store.getCurrentDeepStateIndex(1));
+	}
+
+	@Test(expected = StateMachineException.class)
+	public void invalidConfiguration() {
+		InstanceStore<Integer, Integer> store =
+				createDefinition().newInstanceStore(1);
+		store.addInstance(new int[] {1});
+	}
+
+	@Test
+	public void wideStates() {
+		for (int i = 0; i < 300; ++i) {
+			builder.get().addState(i);
+			if (i > 0) {
+				builder.get().addTransition(i - 1, 10, null, i);
+			}
+		}
+		builder.get().setInitialState(0);
+		InstanceStore<Integer, Integer> store =
+				builder.createDefinition().newInstanceStore(4);
+		Assert.assertEquals(2, store.getBytesPerInstance());
+		for (int i = 0; i < 4; ++i) {
+			store.addInstance();
+		}
+		for (int i = 0; i < 200; ++i) {
+			store.processEvent(2, 10);
+		}
+		Assert.assertEquals(Integer.valueOf(200),
+				store.getCurrentDeepState(2));
+		Assert.assertEquals(Integer.valueOf(0), store.getCurrentDeepState(1));
+		Assert.assertEquals(Integer.valueOf(0), store.getCurrentDeepState(3));
+	}
+
+	@Test
+	public void failedTransition() {
+		InstanceStore<Integer, Integer> store =
+				createDefinition().newInstanceStore(1);
+		store.addInstance();
+		doThrow(new IllegalStateException()).when(action).onTransition(
+				1, 2, 10);
+		try {
+			store.processEvent(0, 10);
+			Assert.fail();
+		} catch (IllegalStateException e) {
+		}
+		Assert.assertEquals(Arrays.asList(1), store.getCurrentStates(0));
+	}
+
+	@Test
+	public void reentrantCall() {
+		final AtomicReference<InstanceStore<Integer, Integer>> store =
+				new AtomicReference<InstanceStore<Integer, Integer>>();
+		builder.get().addState(1);
+		builder.get().addState(2);
+		builder.get().setInitialState(1).addTransition(1, 10,
+				new ITransitionAction<Integer, Integer>() {
+			@Override
+			public void onTransition(Integer fromState, Integer toState,
+					Integer event) {
+				store.get().processEvent(1, 10);
+			}
+		}, 2);
+		store.set(builder.createDefinition().newInstanceStore(2));
+		store.get().addInstance();
+		store.get().addInstance();
+		try {
+			store.get().processEvent(0, 10);
+			Assert.fail();
+		} catch (InTransitionException e) {
+		}
+		Assert.assertEquals(Arrays.asList(1), store.get().getCurrentStates(0));
+		Assert.assertEquals(Arrays.asList(1), store.get().getCurrentStates(1));
+		Assert.assertEquals(EventOutcome.IGNORED,
+				store.get().processEvent(1, 20));
+	}
+
+	@Test(expected = StateMachineException.class)
+	public void full() {
+		InstanceStore<Integer, Integer> store =
+				createDefinition().newInstanceStore(1);
+		store.addInstance();
+		store.addInstance();
+	}
+
+	@Test(expected = IndexOutOfBoundsException.class)
+	public void invalidInstance() {
+		InstanceStore<Integer, Integer> store =
+				createDefinition().newInstanceStore(2);
+		store.addInstance();
+		store.processEvent(1, 10);
+	}
+
+	@Test(expected = StateMachineException.class)
+	public void unsupportedHistory() {
+		SubStateMachineBuilder<Integer, Integer> sub = builder.get().
+				addCompositeState(1).setHistory(History.SHALLOW).
+				getStateMachineBuilder();
+		sub.addState(2);
+		sub.setInitialState(2);
+		builder.get().setInitialState(1);
+		builder.createDefinition().newInstanceStore(1);
+	}
+
+	@Test(expected = StateMachineException.class)
+	public void unsupportedDeferredEvents() {
+		builder.get().addState(1);
+		builder.get().setInitialState(1).addDeferredEvent(1, 10);
+		builder.createDefinition().newInstanceStore(1);
+	}
+}
@@ -41,6 +41,7 @@ public class MockStateFactory<StateId, Event>
 
 	public IState<StateId, Event> lastCreatedState;
 	public ICompositeState<StateId, Event> lastCreatedCompositeState;
+	public IOrthogonalState<StateId, Event> lastCreatedOrthogonalState;
 	public IStateMachineEngine<StateId, Event> lastCreatedStateMachine;
 
 	@Override
@@ -57,11 +58,24 @@ public class MockStateFactory<StateId, Event>
 			StateId id, IStateMachineEngine<StateId, Event> topLevelStateMachine) {
 		lastCreatedCompositeState = mock(ICompositeState.class);
 		when(lastCreatedCompositeState.getId()).thenReturn(id);
-		when(lastCreatedCompositeState.getStateMachine()).
+		IStateMachineEngine<StateId, Event> stateMachine =
+				mock(IStateMachineEngine.class);
+		when(stateMachine.getTopLevelStateMachine()).
 				thenReturn(topLevelStateMachine);
+		when(lastCreatedCompositeState.getStateMachine()).
+				thenReturn(stateMachine);
 		return lastCreatedCompositeState;
 	}
 
+	@Override
+	@SuppressWarnings("unchecked")
+	public IOrthogonalState<StateId, Event> createOrthogonalState(
+			StateId id, IStateMachineEngine<StateId, Event> topLevelStateMachine) {
+		lastCreatedOrthogonalState = mock(IOrthogonalState.class);
+		when(lastCreatedOrthogonalState.getId()).thenReturn(id);
+		return lastCreatedOrthogonalState;
+	}
+
 	@Override
 	@SuppressWarnings("unchecked")
 	public IStateMachineEngine<StateId, Event> createStateMachine(
@@ -0,0 +1,143 @@
+/*
+ * Copyright (c) 2013, Peter Szabados
+ * All rights reserved.
+ *
+ * Redistribution and use in source and binary forms, with or without
+ * modification, are permitted provided that the following conditions are
+ * met:
+ *
+ *     (1) Redistributions of source code must retain the above copyright
+ *     notice, this list of conditions and the following disclaimer.
+ *
+ *     (2) Redistributions in binary form must reproduce the above copyright
+ *     notice, this list of conditions and the following disclaimer in
+ *     the documentation and/or other materials provided with the
+ *     distribution.
+ *
+ *     (3)The name of the author may not be used to
+ *     endorse or promote products derived from this software without
+ *     specific prior written permission.
+ *
+ * THIS SOFTWARE IS PROVIDED BY THE AUTHOR ``AS IS'' AND ANY EXPRESS OR
+ * IMPLIED WARRANTIES, INCLUDING, BUT NOT LIMITED TO, THE IMPLIED
+ * WARRANTIES OF MERCHANTABILITY AND FITNESS FOR A PARTICULAR PURPOSE ARE
+ * DISCLAIMED. IN NO EVENT SHALL THE AUTHOR BE LIABLE FOR ANY DIRECT,
+ * INDIRECT, INCIDENTAL, SPECIAL, EXEMPLARY, OR CONSEQUENTIAL DAMAGES
+ * (INCLUDING, BUT NOT LIMITED TO, PROCUREMENT OF SUBSTITUTE GOODS OR
+ * SERVICES; LOSS OF USE, DATA, OR PROFITS; OR BUSINESS INTERRUPTION)
+ * HOWEVER CAUSED AND ON ANY THEORY OF LIABILITY, WHETHER IN CONTRACT,
+ * STRICT LIABILITY, OR TORT (INCLUDING NEGLIGENCE OR OTHERWISE) ARISING
+ * IN ANY WAY OUT OF THE USE OF THIS SOFTWARE, EVEN IF ADVISED OF THE
+ * POSSIBILITY OF SUCH DAMAGE.
+ */
+package com.kangirigungi.jstatemachine;
+
+import static org.mockito.Mockito.inOrder;
+import static org.mockito.Mockito.mock;
+import static org.mockito.Mockito.verify;
+import static org.mockito.Mockito.when;
+
+import java.util.Arrays;
+
+import junit.framework.Assert;
+
+import org.junit.Before;
+import org.junit.Test;
+import org.mockito.InOrder;
+
+public class OrthogonalStateTest {
+	private MockStateFactory<Integer, Integer> mockStateFactory;
+	private IStateMachineEngine<Integer, Integer> topLevelStateMachine;
+	private OrthogonalState<Integer, Integer> orthogonalState;
+	private IState<Integer, Integer> state;
+	private IStateMachineEngine<Integer, Integer> region1;
+	private IStateMachineEngine<Integer, Integer> region2;
+
+	@Before
+	@SuppressWarnings("unchecked")
+	public void setUp() {
+		mockStateFactory = new MockStateFactory<Integer, Integer>();
+		topLevelStateMachine = mock(IStateMachineEngine.class);
+		orthogonalState = new OrthogonalState<Integer, Integer>(1,
+				topLevelStateMachine, mockStateFactory);
+		state = mockStateFactory.lastCreatedState;
+		region1 = orthogonalState.addRegion();
+		region2 = orthogonalState.addRegion();
+	}
+
+	@Test
+	public void regions() {
+		Assert.assertEquals(new Integer(1), orthogonalState.getId());
+		Assert.assertSame(region2, mockStateFactory.lastCreatedStateMachine);
+		Assert.assertEquals(Arrays.asList(region1, region2),
+				orthogonalState.getRegions());
+		// the states of the regions are registered on the top level
+		verify(region1).setEnclosingStateMachine(topLevelStateMachine);
+		verify(region2).setEnclosingStateMachine(topLevelStateMachine);
+	}
+
+	@Test
+	public void enterExit() {
+		orthogonalState.enterState(10);
+		orthogonalState.exitState(20);
+
+		InOrder order = inOrder(state, region1, region2);
+		order.verify(state).enterState(10);
+		order.verify(region1).enter();
+		order.verify(region2).enter();
+		order.verify(region2).leave();
+		order.verify(region1).leave();
+		order.verify(state).exitState(20);
+	}
+
+	@Test
+	public void dispatchEvent() {
+		when(region1.getDispatchOutcome()).thenReturn(EventOutcome.IGNORED);
+		when(region2.getDispatchOutcome()).thenReturn(
+				EventOutcome.GUARD_REJECTED);
+		Assert.assertEquals(EventOutcome.GUARD_REJECTED,
+				orthogonalState.dispatchEvent(10));
+
+		when(region1.getDispatchOutcome()).thenReturn(
+				EventOutcome.TRANSITIONED);
+		when(region2.getDispatchOutcome()).thenReturn(EventOutcome.INTERNAL);
+		Assert.assertEquals(EventOutcome.TRANSITIONED,
+				orthogonalState.dispatchEvent(11));
+
+		InOrder order = inOrder(region1, region2);
+		order.verify(region1).dispatchEvent(10);
+		order.verify(region2).dispatchEvent(10);
+		order.verify(region1).dispatchEvent(11);
+		order.verify(region2).dispatchEvent(11);
+	}
+
+	@Test
+	public void merge() {
+		Assert.assertEquals(EventOutcome.IGNORED, OrthogonalState.merge(
+				EventOutcome.IGNORED, EventOutcome.IGNORED));
+		Assert.assertEquals(EventOutcome.GUARD_REJECTED, OrthogonalState.merge(
+				EventOutcome.IGNORED, EventOutcome.GUARD_REJECTED));
+		Assert.assertEquals(EventOutcome.INTERNAL, OrthogonalState.merge(
+				EventOutcome.INTERNAL, EventOutcome.GUARD_REJECTED));
+		Assert.assertEquals(EventOutcome.TRANSITIONED, OrthogonalState.merge(
+				EventOutcome.INTERNAL, EventOutcome.TRANSITIONED));
+	}
+
+	@Test
+	public void configuration() {
+		when(region1.getConfiguration()).thenReturn(new int[] {0});
+		when(region2.getConfiguration()).thenReturn(new int[] {1, 3});
+		Assert.assertTrue(Arrays.equals(new int[] {4, 1, 0, 2, 1, 3},
+				orthogonalState.getConfiguration(new int[] {4})));
+
+		int[] configuration = {4, 1, 0, 2, 1, 3};
+		when(region1.checkConfiguration(configuration, 2)).thenReturn(3);
+		when(region2.checkConfiguration(configuration, 4)).thenReturn(6);
+		Assert.assertEquals(6,
+				orthogonalState.checkConfiguration(configuration, 1));
+		Assert.assertEquals(-1, orthogonalState.checkConfiguration(
+				new int[] {4, 1, 0, 5, 1, 3}, 1));
+		Assert.assertEquals(-1, orthogonalState.checkConfiguration(
+				new int[] {4, 1, 0}, 1));
+	}
+}
@@ -0,0 +1,373 @@
+/*
+ * Copyright (c) 2013, Peter Szabados
+ * All rights reserved.
+ *
+ * Redistribution and use in source and binary forms, with or without
+ * modification, are permitted provided that the following conditions are
+ * met:
+ *
+ *     (1) Redistributions of source code must retain the above copyright
+ *     notice, this list of conditions and the following disclaimer.
+ *
+ *     (2) Redistributions in binary form must reproduce the above copyright
+ *     notice, this list of conditions and the following disclaimer in
+ *     the documentation and/or other materials provided with the
+ *     distribution.
+ *
+ *     (3)The name of the author may not be used to
+ *     endorse or promote products derived from this software without
+ *     specific prior written permission.
+ *
+ * THIS SOFTWARE IS PROVIDED BY THE AUTHOR ``AS IS'' AND ANY EXPRESS OR
+ * IMPLIED WARRANTIES, INCLUDING, BUT NOT LIMITED TO, THE IMPLIED
+ * WARRANTIES OF MERCHANTABILITY AND FITNESS FOR A PARTICULAR PURPOSE ARE
+ * DISCLAIMED. IN NO EVENT SHALL THE AUTHOR BE LIABLE FOR ANY DIRECT,
+ * INDIRECT, INCIDENTAL, SPECIAL, EXEMPLARY, OR CONSEQUENTIAL DAMAGES
+ * (INCLUDING, BUT NOT LIMITED TO, PROCUREMENT OF SUBSTITUTE GOODS OR
+ * SERVICES; LOSS OF USE, DATA, OR PROFITS; OR BUSINESS INTERRUPTION)
+ * HOWEVER CAUSED AND ON ANY THEORY OF LIABILITY, WHETHER IN CONTRACT,
+ * STRICT LIABILITY, OR TORT (INCLUDING NEGLIGENCE OR OTHERWISE) ARISING
+ * IN ANY WAY OUT OF THE USE OF THIS SOFTWARE, EVEN IF ADVISED OF THE
+ * POSSIBILITY OF SUCH DAMAGE.
+ */
+package com.kangirigungi.jstatemachine;
+
+import java.io.File;
+import java.io.FileOutputStream;
+import java.io.IOException;
+import java.io.OutputStreamWriter;
+import java.io.Writer;
+import java.lang.reflect.InvocationTargetException;
+import java.net.URL;
+import java.net.URLClassLoader;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.List;
+import java.util.concurrent.TimeUnit;
+
+import javax.tools.JavaCompiler;
+import javax.tools.ToolProvider;
+
+import junit.framework.Assert;
+
+import org.junit.Assume;
+import org.junit.Before;
+import org.junit.Rule;
+import org.junit.Test;
+import org.junit.rules.TemporaryFolder;
+
+public class SourceGeneratorTest {
+
+	public static enum States {
+		Idle, Running, Loading, Working, Done
+	}
+
+	public static enum Events {
+		Start, Load, Finish, Reset
+	}
+
+	/**
+	 * Records every callback, so the generated state machine can be
+	 * compared to the generic one.
+	 */
+	private class Recorder<StateId, Event> implements
+			IEntryExitAction<StateId, Event>,
+			ITransitionAction<StateId, Event> {
+		private final String name;
+
+		Recorder(String name) {
+			this.name = name;
+		}
+
+		@Override
+		public void onEnter(StateId state, Event event) {
+			log.add(name + " enter " + state + " " + event);
+		}
+
+		@Override
+		public void onExit(StateId state, Event event) {
+			log.add(name + " exit " + state + " " + event);
+		}
+
+		@Override
+		public void onTransition(StateId fromState, StateId toState,
+				Event event) {
+			log.add(name + " " + fromState + " -> " + toState + " " + event);
+			if (failing) {
+				throw new RuntimeException();
+			}
+		}
+	}
+
+	@Rule
+	public TemporaryFolder folder = new TemporaryFolder();
+
+	private List<String> log;
+	private boolean failing;
+	/**
+	 * The state machine that receives the events sent from callbacks.
+	 */
+	private IStateMachine<?, ?> current;
+
+	@Before
+	public void initialize() {
+		log = new ArrayList<String>();
+		failing = false;
+	}
+
+	private Class<?> compile(String className, String source)
+			throws IOException, ClassNotFoundException {
+		JavaCompiler compiler = ToolProvider.getSystemJavaCompiler();
+		Assume.assumeNotNull(compiler);
+		File directory = folder.newFolder();
+		File packageDirectory = new File(directory, "generated");
+		Assert.assertTrue(packageDirectory.mkdir());
+		File file = new File(packageDirectory, className + ".java");
+		Writer writer = new OutputStreamWriter(new FileOutputStream(file),
+				"UTF-8");
+		try {
+			writer.write(source);
+		} finally {
+			writer.close();
+		}
+		Assert.assertEquals(0, compiler.run(null, null, null, "-nowarn",
+				"-d", directory.getPath(),
+				"-cp", System.getProperty("java.class.path"),
+				file.getPath()));
+		ClassLoader loader = new URLClassLoader(
+				new URL[] {directory.toURI().toURL()},
+				getClass().getClassLoader());
+		return loader.loadClass("generated." + className);
+	}
+
+	@SuppressWarnings("unchecked")
+	private <StateId, Event> IStateMachine<StateId, Event> newInstance(
+			Class<?> type, MachineDefinition<StateId, Event> definition)
+			throws Exception {
+		try {
+			return (IStateMachine<StateId, Event>)type.getConstructor(
+					MachineDefinition.class).newInstance(definition);
+		} catch (InvocationTargetException e) {
+			throw (Exception)e.getCause();
+		}
+	}
+
+	/**
+	 * Process the events, and record the callbacks, the outcomes and the
+	 * states.
+	 */
+	private <StateId, Event> List<String> run(
+			IStateMachine<StateId, Event> stateMachine, Event[] events) {
+		log.add("start " + stateMachine.getCurrentStates());
+		for (Event event: events) {
+			failing = event != null && event.equals(15);
+			try {
+				EventOutcome outcome = stateMachine.processEvents(
+						Arrays.asList(event))[0];
+				log.add(event + " " + outcome);
+			} catch (RuntimeException e) {
+				log.add(event + " " + e.getClass().getSimpleName());
+			}
+			failing = false;
+			log.add(stateMachine.getCurrentStates() + " " +
+					stateMachine.getCurrentState() + " " +
+					stateMachine.getCurrentDeepState());
+		}
+		List<String> result = log;
+		log = new ArrayList<String>();
+		return result;
+	}
+
+	private StateMachineBuilder<Integer, Integer> createIntegerBuilder(
+			FakeGuard<Integer, Integer> guard) {
+		ITransitionAction<Integer, Integer> sendingAction =
+				new ITransitionAction<Integer, Integer>() {
+			@Override
+			@SuppressWarnings("unchecked")
+			public void onTransition(Integer fromState, Integer toState,
+					Integer event) {
+				log.add("send " + fromState + " -> " + toState);
+				((IStateMachine<Integer, Integer>)current).processEvent(10);
+			}
+		};
+		StateMachineBuilder<Integer, Integer> builder =
+				new StateMachineBuilder<Integer, Integer>();
+		builder.setEventQueueCapacity(2);
+		SubStateMachineBuilder<Integer, Integer> top = builder.get();
+		Recorder<Integer, Integer> recorder =
+				new Recorder<Integer, Integer>("r");
+		top.addState(1).setEntryExitAction(recorder);
+		SubStateMachineBuilder<Integer, Integer> sub = top.addCompositeState(2).
+				setEntryExitAction(recorder).getStateMachineBuilder();
+		top.addState(3).setEntryExitAction(recorder);
+		sub.addState(21);
+		SubStateMachineBuilder<Integer, Integer> subsub =
+				sub.addCompositeState(22).setEntryExitAction(recorder).
+				getStateMachineBuilder();
+		subsub.addState(221).setEntryExitAction(recorder);
+		subsub.addState(222).setEntryExitAction(recorder);
+		top.setInitialState(1).
+				addTransition(1, 10, recorder, 2).
+				addTransition(1, 11, recorder, 3,
+						new FakeGuard<Integer, Integer>(false)).
+				addTransition(1, 11, recorder, 2,
+						new FakeGuard<Integer, Integer>(true)).
+				addTransition(1, 16, sendingAction, 1).
+				addTransition(1, 17, null, 3).
+				addTransition(2, 12, recorder, 1).
+				addInternalTransition(2, 13, recorder).
+				addTransition(3, null, recorder, 1, guard).
+				addTransition(3, 15, recorder, 1).
+				addTransition(3, 18, recorder, 1);
+		sub.setInitialState(21).
+				addTransition(21, 13, recorder, 22).
+				addTransition(21, -5, recorder, 21);
+		subsub.setInitialState(221).
+				addTransition(221, 14, recorder, 222).
+				addTransition(221, null, recorder, 222, guard).
+				addTransition(222, null, recorder, 221, guard);
+		builder.setMaxCompletionSteps(3);
+		return builder;
+	}
+
+	@Test
+	public void sameBehavior() throws Exception {
+		FakeGuard<Integer, Integer> guard =
+				new FakeGuard<Integer, Integer>(false);
+		MachineDefinition<Integer, Integer> definition =
+				createIntegerBuilder(guard).createDefinition();
+		String source = new SourceGenerator<Integer, Integer>(definition,
+				Integer.class, Integer.class).generate("generated",
+						"IntegerMachine");
+		Class<?> type = compile("IntegerMachine", source);
+
+		Integer[] events = new Integer[] {99, 10, -5, 13, 14, 12, 11, 12, 16,
+				12, 17, null, 15, 18, 10, 13};
+		IStateMachine<Integer, Integer> expectedMachine =
+				definition.newInstance();
+		current = expectedMachine;
+		List<String> expected = run(expectedMachine, events);
+		IStateMachine<Integer, Integer> generatedMachine =
+				newInstance(type, definition);
+		current = generatedMachine;
+		List<String> generated = run(generatedMachine, events);
+		Assert.assertEquals(expected, generated);
+
+		// completion cycle
+		guard.setValue(true);
+		expected = run(expectedMachine, new Integer[] {14});
+		generated = run(generatedMachine, new Integer[] {14});
+		Assert.assertEquals(expected, generated);
+		Assert.assertTrue(generated.contains("14 CompletionCycleException"));
+
+		int[] configuration =
+				((IRestorableStateMachine)expectedMachine).getConfiguration();
+		((IRestorableStateMachine)generatedMachine).restoreConfiguration(
+				configuration);
+		Assert.assertEquals(expectedMachine.getCurrentStates(),
+				generatedMachine.getCurrentStates());
+		Assert.assertTrue(Arrays.equals(configuration,
+				((IRestorableStateMachine)generatedMachine).
+						getConfiguration()));
+	}
+
+	@Test
+	public void enumStates() throws Exception {
+		Recorder<States, Events> recorder = new Recorder<States, Events>("r");
+		StateMachineBuilder<States, Events> builder =
+				new StateMachineBuilder<States, Events>();
+		SubStateMachineBuilder<States, Events> top = builder.get();
+		top.addState(States.Idle).setEntryExitAction(recorder);
+		SubStateMachineBuilder<States, Events> running =
+				top.addCompositeState(States.Running).
+				setEntryExitAction(recorder).getStateMachineBuilder();
+		top.addState(States.Done);
+		running.addState(States.Loading).setEntryExitAction(recorder);
+		running.addState(States.Working);
+		top.setInitialState(States.Idle).
+				addTransition(States.Idle, Events.Start, recorder,
+						States.Running).
+				addTransition(States.Running, Events.Finish, recorder,
+						States.Done).
+				addTransition(States.Done, Events.Reset, null, States.Idle);
+		running.setInitialState(States.Loading).
+				addTransition(States.Loading, Events.Load, recorder,
+						States.Working).
+				addTransition(States.Working, Events.Load, recorder,
+						States.Loading);
+		MachineDefinition<States, Events> definition =
+				builder.createDefinition();
+		Class<?> type = compile("EnumMachine", new SourceGenerator<States,
+				Events>(definition, States.class, Events.class).generate(
+						"generated", "EnumMachine"));
+
+		Events[] events = new Events[] {Events.Load, Events.Start,
+				Events.Finish, Events.Reset, Events.Start, Events.Load,
+				Events.Reset};
+		List<String> expected = run(definition.newInstance(), events);
+		IStateMachine<States, Events> stateMachine =
+				newInstance(type, definition);
+		Assert.assertEquals(expected, run(stateMachine, events));
+		Assert.assertEquals(States.Running, stateMachine.getCurrentState());
+	}
+
+	@Test(expected = StateMachineException.class)
+	public void differentDefinition() throws Exception {
+		FakeGuard<Integer, Integer> guard =
+				new FakeGuard<Integer, Integer>(false);
+		MachineDefinition<Integer, Integer> definition =
+				createIntegerBuilder(guard).createDefinition();
+		Class<?> type = compile("IntegerMachine",
+				new SourceGenerator<Integer, Integer>(definition,
+						Integer.class, Integer.class).generate("generated",
+								"IntegerMachine"));
+		StateMachineBuilder<Integer, Integer> builder =
+				createIntegerBuilder(guard);
+		builder.get().addTransition(3, 10, null, 2);
+		newInstance(type, builder.createDefinition());
+	}
+
+	@Test(expected = StateMachineException.class)
+	public void unsupportedStateType() {
+		StateMachineBuilder<String, Integer> builder =
+				new StateMachineBuilder<String, Integer>();
+		builder.get().addState("a");
+		new SourceGenerator<String, Integer>(builder.createDefinition(),
+				String.class, Integer.class);
+	}
+
+	@Test(expected = StateMachineException.class)
+	public void unsupportedTimedTransition() {
+		StateMachineBuilder<Integer, Integer> builder =
+				new StateMachineBuilder<Integer, Integer>();
+		builder.setTimingWheel(new TimingWheel(new FakeClock(), 1,
+				TimeUnit.MILLISECONDS));
+		builder.get().addState(1);
+		builder.get().addTransition(1, 1, TimeUnit.SECONDS, null, 1);
+		new SourceGenerator<Integer, Integer>(builder.createDefinition(),
+				Integer.class, Integer.class);
+	}
+
+	@Test(expected = StateMachineException.class)
+	public void unsupportedHistory() {
+		StateMachineBuilder<Integer, Integer> builder =
+				new StateMachineBuilder<Integer, Integer>();
+		builder.get().addCompositeState(1).setHistory(History.SHALLOW).
+				getStateMachineBuilder().addState(2);
+		builder.get().setInitialState(1);
+		builder.get().addState(3);
+		new SourceGenerator<Integer, Integer>(builder.createDefinition(),
+				Integer.class, Integer.class);
+	}
+
+	@Test(expected = StateMachineException.class)
+	public void unsupportedDeferredEvents() {
+		StateMachineBuilder<Integer, Integer> builder =
+				new StateMachineBuilder<Integer, Integer>();
+		builder.get().addState(1);
+		builder.get().setInitialState(1);
+		builder.get().addDeferredEvent(1, 10);
+		new SourceGenerator<Integer, Integer>(builder.createDefinition(),
+				Integer.class, Integer.class);
+	}
+}
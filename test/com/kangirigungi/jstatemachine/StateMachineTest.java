@@ -35,6 +35,7 @@ package com.kangirigungi.jstatemachine;
 
 import static org.mockito.Matchers.anyInt;
 import static org.mockito.Mockito.doAnswer;
+import static org.mockito.Mockito.doNothing;
 import static org.mockito.Mockito.doThrow;
 import static org.mockito.Mockito.ignoreStubs;
 import static org.mockito.Mockito.inOrder;
@@ -42,6 +43,10 @@ import static org.mockito.Mockito.mock;
 import static org.mockito.Mockito.times;
 import static org.mockito.Mockito.verify;
 import static org.mockito.Mockito.verifyNoMoreInteractions;
+
+import java.util.Arrays;
+import java.util.List;
+
 import junit.framework.Assert;
 
 import org.junit.Before;
@@ -399,4 +404,366 @@ public class StateMachineTest {
 		verifyNoMoreInteractions(ignoreStubs(state2));
 		verifyNoMoreInteractions(action);
 	}
+
+	@Test
+	@SuppressWarnings("unchecked")
+	public void processEventFromCallbackQueued() {
+		System.out.println("processEventFromCallbackQueued");
+		ITransitionAction<Integer, Integer> action =
+				mock(ITransitionAction.class);
+		doAnswer(new Answer<Object>() {
+			@Override
+			public Object answer(InvocationOnMock invocation) {
+				stateMachine.processEvent(20);
+				stateMachine.processEvent(30);
+				return null;
+			}})
+			.when(action).
+			onTransition(1, 2, 10);
+		stateMachine.addState(1);
+		stateMachine.addState(2);
+		stateMachine.addState(3);
+		stateMachine.addTransition(1, 10, action, 2, null);
+		stateMachine.addTransition(2, 20, action, 3, null);
+		stateMachine.addTransition(3, 30, action, 1, null);
+		stateMachine.setInitialState(1);
+		stateMachine.setEventQueueCapacity(2);
+		stateMachine.enter();
+
+		stateMachine.processEvent(10);
+		Assert.assertSame(stateMachine.getState(1),
+				stateMachine.getcurrentState());
+
+		IState<Integer, Integer> state1 = stateMachine.getState(1);
+		IState<Integer, Integer> state2 = stateMachine.getState(2);
+		IState<Integer, Integer> state3 = stateMachine.getState(3);
+		InOrder inOrder = inOrder(state1, state2, state3, action);
+
+		inOrder.verify(state1, times(1)).enterState(null);
+		inOrder.verify(state1, times(1)).exitState(10);
+		inOrder.verify(action, times(1)).onTransition(1, 2, 10);
+		inOrder.verify(state2, times(1)).enterState(10);
+		inOrder.verify(state2, times(1)).exitState(20);
+		inOrder.verify(action, times(1)).onTransition(2, 3, 20);
+		inOrder.verify(state3, times(1)).enterState(20);
+		inOrder.verify(state3, times(1)).exitState(30);
+		inOrder.verify(action, times(1)).onTransition(3, 1, 30);
+		inOrder.verify(state1, times(1)).enterState(30);
+		verifyNoMoreInteractions(ignoreStubs(state1));
+		verifyNoMoreInteractions(ignoreStubs(state2));
+		verifyNoMoreInteractions(ignoreStubs(state3));
+		verifyNoMoreInteractions(action);
+	}
+
+	@Test
+	@SuppressWarnings("unchecked")
+	public void eventQueueFull() {
+		System.out.println("eventQueueFull");
+		ITransitionAction<Integer, Integer> action =
+				mock(ITransitionAction.class);
+		doAnswer(new Answer<Object>() {
+			@Override
+			public Object answer(InvocationOnMock invocation) {
+				stateMachine.processEvent(10);
+				stateMachine.processEvent(10);
+				return null;
+			}})
+			.when(action).
+			onTransition(anyInt(), anyInt(), anyInt());
+		stateMachine.addState(1);
+		stateMachine.addState(2);
+		stateMachine.addTransition(1, 10, action, 2, null);
+		stateMachine.setInitialState(1);
+		stateMachine.setEventQueueCapacity(1);
+		stateMachine.enter();
+
+		boolean exceptionThrown = false;
+		try {
+			stateMachine.processEvent(10);
+		} catch (EventQueueFullException e) {
+			exceptionThrown = true;
+		}
+
+		Assert.assertTrue(exceptionThrown);
+		Assert.assertSame(stateMachine.getState(1),
+				stateMachine.getcurrentState());
+
+		// the queue is emptied after the failure
+		doNothing().when(action).
+			onTransition(anyInt(), anyInt(), anyInt());
+		stateMachine.processEvent(10);
+		Assert.assertSame(stateMachine.getState(2),
+				stateMachine.getcurrentState());
+	}
+
+	@Test
+	public void stateIndex() {
+		System.out.println("stateIndex");
+		StateMachineEngine<Integer, Integer> subStateMachine =
+				new StateMachineEngine<Integer, Integer>(stateMachine);
+		subStateMachine.setStateFactory(stateFactory);
+		stateMachine.addState(1);
+		subStateMachine.addState(2);
+
+		Assert.assertTrue(stateMachine.hasState(1));
+		Assert.assertTrue(stateMachine.hasState(2));
+		Assert.assertSame(stateMachine, stateMachine.getStateOwner(1));
+		Assert.assertSame(subStateMachine, stateMachine.getStateOwner(2));
+		Assert.assertSame(subStateMachine, subStateMachine.getStateOwner(2));
+		Assert.assertNull(stateMachine.getStateOwner(3));
+
+		boolean exceptionThrown = false;
+		try {
+			subStateMachine.addState(1);
+		} catch (DuplicateStateException e) {
+			exceptionThrown = true;
+			Assert.assertSame(subStateMachine, e.getStateMachine());
+		}
+		Assert.assertTrue(exceptionThrown);
+
+		exceptionThrown = false;
+		try {
+			stateMachine.addCompositeState(2);
+		} catch (DuplicateStateException e) {
+			exceptionThrown = true;
+			Assert.assertSame(stateMachine, e.getStateMachine());
+		}
+		Assert.assertTrue(exceptionThrown);
+	}
+
+	@Test
+	public void subLevelStates() {
+		System.out.println("subLevelStates");
+		StateMachineEngine<Integer, Integer> topLevel =
+				new StateMachineEngine<Integer, Integer>();
+		IStateMachineEngine<Integer, Integer> subLevel =
+				topLevel.addCompositeState(1).getStateMachine();
+		IStateMachineEngine<Integer, Integer> subSubLevel =
+				subLevel.addCompositeState(2).getStateMachine();
+		IState<Integer, Integer> state = subSubLevel.addState(3);
+		topLevel.addState(4);
+
+		Assert.assertSame(subLevel, subSubLevel.getParent());
+		Assert.assertTrue(subLevel.hasState(2));
+		Assert.assertTrue(subLevel.hasState(3));
+		Assert.assertFalse(subLevel.hasState(1));
+		Assert.assertFalse(subLevel.hasState(4));
+		Assert.assertFalse(subSubLevel.hasState(2));
+		Assert.assertTrue(subSubLevel.hasState(3));
+
+		int index = topLevel.getStateIndex(3);
+		Assert.assertSame(state, subSubLevel.getStateByIndex(index));
+		Assert.assertNull(subLevel.getStateByIndex(index));
+		Assert.assertNull(topLevel.getStateByIndex(index));
+	}
+
+	@Test
+	@SuppressWarnings("unchecked")
+	public void activeConfiguration() {
+		System.out.println("activeConfiguration");
+		IEntryExitAction<Integer, Integer> failingEntry =
+				mock(IEntryExitAction.class);
+		doThrow(new RuntimeException()).when(failingEntry).
+				onEnter(anyInt(), anyInt());
+		StateMachineEngine<Integer, Integer> engine =
+				new StateMachineEngine<Integer, Integer>();
+		engine.addState(1);
+		IStateMachineEngine<Integer, Integer> sub =
+				engine.addCompositeState(2).getStateMachine();
+		sub.addState(21);
+		IStateMachineEngine<Integer, Integer> subsub =
+				sub.addCompositeState(22).getStateMachine();
+		subsub.addState(221);
+		subsub.addState(222).setEntryExitAction(failingEntry);
+		engine.setInitialState(1);
+		sub.setInitialState(21);
+		subsub.setInitialState(221);
+		engine.addTransition(1, 10, null, 2, null);
+		engine.addTransition(2, 10, null, 1, null);
+		sub.addTransition(21, 20, null, 22, null);
+		subsub.addTransition(221, 30, null, 222, null);
+		Assert.assertEquals(0, engine.getDepth());
+		Assert.assertEquals(1, sub.getDepth());
+		Assert.assertEquals(2, subsub.getDepth());
+
+		engine.enter();
+		List<Integer> states = engine.getCurrentStates();
+		Assert.assertEquals(Arrays.asList(1), states);
+		engine.processEvent(10);
+		Assert.assertEquals(Arrays.asList(2, 21), states);
+		engine.processEvent(20);
+		Assert.assertEquals(Arrays.asList(2, 22, 221), states);
+		Assert.assertEquals(new Integer(221),
+				engine.getcurrentDeepState().getId());
+		Assert.assertEquals(engine.getStateIndex(221),
+				engine.getCurrentDeepStateIndex());
+
+		boolean exceptionThrown = false;
+		try {
+			engine.processEvent(30);
+		} catch (RuntimeException e) {
+			exceptionThrown = true;
+		}
+		Assert.assertTrue(exceptionThrown);
+		Assert.assertEquals(Arrays.asList(2, 22, 221), states);
+
+		engine.processEvent(10);
+		Assert.assertEquals(Arrays.asList(1), states);
+		Assert.assertEquals(engine.getStateIndex(1),
+				engine.getCurrentDeepStateIndex());
+
+		exceptionThrown = false;
+		try {
+			states.add(3);
+		} catch (UnsupportedOperationException e) {
+			exceptionThrown = true;
+		}
+		Assert.assertTrue(exceptionThrown);
+	}
+
+	@Test
+	@SuppressWarnings("unchecked")
+	public void restoreConfiguration() {
+		System.out.println("restoreConfiguration");
+		IEntryExitAction<Integer, Integer> entryExitAction =
+				mock(IEntryExitAction.class);
+		StateMachineEngine<Integer, Integer> engine =
+				new StateMachineEngine<Integer, Integer>();
+		engine.addState(1).setEntryExitAction(entryExitAction);
+		ICompositeState<Integer, Integer> state2 = engine.addCompositeState(2);
+		state2.setEntryExitAction(entryExitAction);
+		IStateMachineEngine<Integer, Integer> sub = state2.getStateMachine();
+		sub.addState(21).setEntryExitAction(entryExitAction);
+		ICompositeState<Integer, Integer> state22 = sub.addCompositeState(22);
+		state22.setEntryExitAction(entryExitAction);
+		IStateMachineEngine<Integer, Integer> subsub =
+				state22.getStateMachine();
+		subsub.addState(221).setEntryExitAction(entryExitAction);
+		subsub.addState(222).setEntryExitAction(entryExitAction);
+		engine.setInitialState(1);
+		sub.setInitialState(21);
+		subsub.setInitialState(221);
+		engine.addTransition(2, 10, null, 1, null);
+		engine.enter();
+		verify(entryExitAction).onEnter(1, null);
+		int[] initial = engine.getConfiguration();
+		Assert.assertTrue(Arrays.equals(new int[] {engine.getStateIndex(1)},
+				initial));
+
+		int[] configuration = new int[] {engine.getStateIndex(2),
+				engine.getStateIndex(22), engine.getStateIndex(222)};
+		engine.restoreConfiguration(configuration);
+		Assert.assertEquals(Arrays.asList(2, 22, 222),
+				engine.getCurrentStates());
+		Assert.assertTrue(Arrays.equals(configuration,
+				engine.getConfiguration()));
+		engine.restoreConfiguration(new int[] {engine.getStateIndex(2),
+				engine.getStateIndex(22), engine.getStateIndex(221)});
+		Assert.assertEquals(Arrays.asList(2, 22, 221),
+				engine.getCurrentStates());
+		engine.restoreConfiguration(new int[] {engine.getStateIndex(2),
+				engine.getStateIndex(21)});
+		Assert.assertEquals(Arrays.asList(2, 21),
+				engine.getCurrentStates());
+		engine.restoreConfiguration(configuration);
+		verifyNoMoreInteractions(entryExitAction);
+
+		// the restored states are exited normally
+		engine.processEvent(10);
+		InOrder inOrder = inOrder(entryExitAction);
+		inOrder.verify(entryExitAction).onExit(222, null);
+		inOrder.verify(entryExitAction).onExit(22, null);
+		inOrder.verify(entryExitAction).onExit(2, 10);
+		inOrder.verify(entryExitAction).onEnter(1, 10);
+
+		int[][] invalidConfigurations = new int[][] {
+				{},
+				{engine.getStateIndex(2)},
+				{engine.getStateIndex(21)},
+				{engine.getStateIndex(2), engine.getStateIndex(221)},
+				{engine.getStateIndex(1), engine.getStateIndex(21)},
+				{100}};
+		for (int[] invalid: invalidConfigurations) {
+			boolean exceptionThrown = false;
+			try {
+				engine.restoreConfiguration(invalid);
+			} catch (StateMachineException e) {
+				exceptionThrown = true;
+			}
+			Assert.assertTrue(exceptionThrown);
+			Assert.assertEquals(Arrays.asList(1), engine.getCurrentStates());
+		}
+	}
+
+	@Test
+	public void restoreRememberedStates() {
+		System.out.println("restoreRememberedStates");
+		StateMachineEngine<Integer, Integer> engine =
+				new StateMachineEngine<Integer, Integer>();
+		engine.addState(1);
+		ICompositeState<Integer, Integer> state2 = engine.addCompositeState(2);
+		IStateMachineEngine<Integer, Integer> sub = state2.getStateMachine();
+		sub.setHistory(History.SHALLOW);
+		sub.addState(21);
+		sub.addState(22);
+		engine.setInitialState(1);
+		sub.setInitialState(21);
+		engine.addTransition(1, 10, null, 2, null);
+		engine.addTransition(2, 10, null, 1, null);
+		sub.addTransition(21, 20, null, 22, null);
+		engine.enter();
+		Assert.assertEquals(0, engine.getRememberedStates().length);
+		engine.processEvent(10);
+		engine.processEvent(20);
+		engine.processEvent(10);
+		int[] history = engine.getRememberedStates();
+		Assert.assertTrue(Arrays.equals(new int[] {engine.getStateIndex(2),
+				engine.getStateIndex(22)}, history));
+
+		StateMachineEngine<Integer, Integer> restored =
+				new StateMachineEngine<Integer, Integer>();
+		restored.addState(1);
+		IStateMachineEngine<Integer, Integer> restoredSub =
+				restored.addCompositeState(2).getStateMachine();
+		restoredSub.setHistory(History.SHALLOW);
+		restoredSub.addState(21);
+		restoredSub.addState(22);
+		restored.setInitialState(1);
+		restoredSub.setInitialState(21);
+		restored.addTransition(1, 10, null, 2, null);
+		restored.enter();
+
+		int[][] invalidHistories = new int[][] {
+				{restored.getStateIndex(2)},
+				{restored.getStateIndex(1), restored.getStateIndex(21)},
+				{restored.getStateIndex(2), 100},
+				{restored.getStateIndex(2), restored.getStateIndex(21),
+						restored.getStateIndex(2), restored.getStateIndex(22)}};
+		for (int[] invalid: invalidHistories) {
+			boolean exceptionThrown = false;
+			try {
+				restored.restoreRememberedStates(invalid);
+			} catch (StateMachineException e) {
+				exceptionThrown = true;
+			}
+			Assert.assertTrue(exceptionThrown);
+			Assert.assertEquals(0, restored.getRememberedStates().length);
+		}
+
+		restored.restoreRememberedStates(history);
+		Assert.assertTrue(Arrays.equals(history,
+				restored.getRememberedStates()));
+		restored.processEvent(10);
+		Assert.assertEquals(Arrays.asList(2, 22),
+				restored.getCurrentStates());
+	}
+
+	@Test(expected = StateMachineException.class)
+	public void compileNonEnumTypes() {
+		StateMachineBuilder<Integer, Integer> stateMachineBuilder =
+				new StateMachineBuilder<Integer, Integer>();
+		stateMachineBuilder.get().addState(1);
+		stateMachineBuilder.get().setInitialState(1);
+		stateMachineBuilder.createCompiled(Integer.class, Integer.class);
+	}
 }
@@ -0,0 +1,218 @@
+/*
+ * Copyright (c) 2013, Peter Szabados
+ * All rights reserved.
+ *
+ * Redistribution and use in source and binary forms, with or without
+ * modification, are permitted provided that the following conditions are
+ * met:
+ *
+ *     (1) Redistributions of source code must retain the above copyright
+ *     notice, this list of conditions and the following disclaimer.
+ *
+ *     (2) Redistributions in binary form must reproduce the above copyright
+ *     notice, this list of conditions and the following disclaimer in
+ *     the documentation and/or other materials provided with the
+ *     distribution.
+ *
+ *     (3)The name of the author may not be used to
+ *     endorse or promote products derived from this software without
+ *     specific prior written permission.
+ *
+ * THIS SOFTWARE IS PROVIDED BY THE AUTHOR ``AS IS'' AND ANY EXPRESS OR
+ * IMPLIED WARRANTIES, INCLUDING, BUT NOT LIMITED TO, THE IMPLIED
+ * WARRANTIES OF MERCHANTABILITY AND FITNESS FOR A PARTICULAR PURPOSE ARE
+ * DISCLAIMED. IN NO EVENT SHALL THE AUTHOR BE LIABLE FOR ANY DIRECT,
+ * INDIRECT, INCIDENTAL, SPECIAL, EXEMPLARY, OR CONSEQUENTIAL DAMAGES
+ * (INCLUDING, BUT NOT LIMITED TO, PROCUREMENT OF SUBSTITUTE GOODS OR
+ * SERVICES; LOSS OF USE, DATA, OR PROFITS; OR BUSINESS INTERRUPTION)
+ * HOWEVER CAUSED AND ON ANY THEORY OF LIABILITY, WHETHER IN CONTRACT,
+ * STRICT LIABILITY, OR TORT (INCLUDING NEGLIGENCE OR OTHERWISE) ARISING
+ * IN ANY WAY OUT OF THE USE OF THIS SOFTWARE, EVEN IF ADVISED OF THE
+ * POSSIBILITY OF SUCH DAMAGE.
+ */
+package com.kangirigungi.jstatemachine;
+
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.List;
+import java.util.concurrent.TimeUnit;
+
+import junit.framework.Assert;
+
+import org.junit.Before;
+import org.junit.Test;
+
+public class TimingWheelTest {
+
+	private FakeClock clock;
+	private TimingWheel wheel;
+	private List<Integer> expired;
+
+	private class RecordingTimeout extends Timeout {
+		private final int id;
+
+		RecordingTimeout(int id) {
+			this.id = id;
+		}
+
+		@Override
+		void expire() {
+			expired.add(id);
+		}
+	}
+
+	@Before
+	public void initialize() {
+		clock = new FakeClock();
+		wheel = new TimingWheel(clock, 1, TimeUnit.MILLISECONDS);
+		expired = new ArrayList<Integer>();
+	}
+
+	private void schedule(Timeout timeout, long millis) {
+		wheel.schedule(timeout, TimeUnit.MILLISECONDS.toNanos(millis));
+	}
+
+	@Test
+	public void expireInOrder() {
+		schedule(new RecordingTimeout(3), 30);
+		schedule(new RecordingTimeout(1), 10);
+		schedule(new RecordingTimeout(2), 20);
+		Assert.assertEquals(3, wheel.size());
+
+		clock.advance(9, TimeUnit.MILLISECONDS);
+		wheel.advance();
+		Assert.assertTrue(expired.isEmpty());
+		clock.advance(11, TimeUnit.MILLISECONDS);
+		wheel.advance();
+		Assert.assertEquals(Arrays.asList(1, 2), expired);
+		clock.advance(10, TimeUnit.MILLISECONDS);
+		wheel.advance();
+		Assert.assertEquals(Arrays.asList(1, 2, 3), expired);
+		Assert.assertEquals(0, wheel.size());
+	}
+
+	@Test
+	public void neverExpireEarly() {
+		clock.advance(500, TimeUnit.MICROSECONDS);
+		schedule(new RecordingTimeout(1), 1);
+		clock.advance(1000, TimeUnit.MICROSECONDS);
+		wheel.advance();
+		Assert.assertTrue(expired.isEmpty());
+		// expired in the first tick that starts after the deadline
+		clock.advance(500, TimeUnit.MICROSECONDS);
+		wheel.advance();
+		Assert.assertEquals(Arrays.asList(1), expired);
+	}
+
+	@Test
+	public void longDelays() {
+		long[] delays = {63, 64, 65, 4095, 4096, 4097, 300000, 20000000};
+		for (int i = 0; i < delays.length; ++i) {
+			schedule(new RecordingTimeout(i), delays[i]);
+		}
+		long time = 0;
+		for (int i = 0; i < delays.length; ++i) {
+			clock.advance(delays[i] - 1 - time, TimeUnit.MILLISECONDS);
+			wheel.advance();
+			Assert.assertEquals(i, expired.size());
+			clock.advance(1, TimeUnit.MILLISECONDS);
+			wheel.advance();
+			Assert.assertEquals(i + 1, expired.size());
+			Assert.assertEquals(new Integer(i), expired.get(i));
+			time = delays[i];
+		}
+	}
+
+	@Test
+	public void cancel() {
+		RecordingTimeout timeout1 = new RecordingTimeout(1);
+		RecordingTimeout timeout2 = new RecordingTimeout(2);
+		schedule(timeout1, 10);
+		schedule(timeout2, 10000);
+		wheel.cancel(timeout1);
+		wheel.cancel(timeout2);
+		wheel.cancel(timeout2);
+		Assert.assertEquals(0, wheel.size());
+		Assert.assertFalse(timeout1.isScheduled());
+
+		clock.advance(20, TimeUnit.SECONDS);
+		wheel.advance();
+		Assert.assertTrue(expired.isEmpty());
+	}
+
+	@Test
+	public void reschedule() {
+		RecordingTimeout timeout = new RecordingTimeout(1);
+		schedule(timeout, 10);
+		clock.advance(5, TimeUnit.MILLISECONDS);
+		schedule(timeout, 10);
+		Assert.assertEquals(1, wheel.size());
+		clock.advance(5, TimeUnit.MILLISECONDS);
+		wheel.advance();
+		Assert.assertTrue(expired.isEmpty());
+		clock.advance(5, TimeUnit.MILLISECONDS);
+		wheel.advance();
+		Assert.assertEquals(Arrays.asList(1), expired);
+	}
+
+	@Test
+	public void scheduleFromExpire() {
+		final RecordingTimeout second = new RecordingTimeout(2);
+		schedule(new RecordingTimeout(1) {
+			@Override
+			void expire() {
+				super.expire();
+				schedule(second, 0);
+			}
+		}, 10);
+		clock.advance(10, TimeUnit.MILLISECONDS);
+		wheel.advance();
+		Assert.assertEquals(Arrays.asList(1), expired);
+		Assert.assertEquals(1, wheel.size());
+		clock.advance(1, TimeUnit.MILLISECONDS);
+		wheel.advance();
+		Assert.assertEquals(Arrays.asList(1, 2), expired);
+	}
+
+	@Test
+	public void cancelFromExpire() {
+		final RecordingTimeout second = new RecordingTimeout(2);
+		schedule(new RecordingTimeout(1) {
+			@Override
+			void expire() {
+				super.expire();
+				wheel.cancel(second);
+			}
+		}, 10);
+		schedule(second, 10);
+		clock.advance(10, TimeUnit.MILLISECONDS);
+		wheel.advance();
+		Assert.assertEquals(Arrays.asList(1), expired);
+		Assert.assertEquals(0, wheel.size());
+	}
+
+	@Test
+	public void exceptionFromExpire() {
+		schedule(new RecordingTimeout(1) {
+			@Override
+			void expire() {
+				super.expire();
+				throw new RuntimeException();
+			}
+		}, 10);
+		schedule(new RecordingTimeout(2), 10);
+		clock.advance(10, TimeUnit.MILLISECONDS);
+		boolean exceptionThrown = false;
+		try {
+			wheel.advance();
+		} catch (RuntimeException e) {
+			exceptionThrown = true;
+		}
+		Assert.assertTrue(exceptionThrown);
+		Assert.assertEquals(Arrays.asList(1), expired);
+		Assert.assertEquals(1, wheel.size());
+
+		wheel.advance();
+		Assert.assertEquals(Arrays.asList(1, 2), expired);
+	}
+}
@@ -0,0 +1,333 @@
+/*
+ * Copyright (c) 2013, Peter Szabados
+ * All rights reserved.
+ *
+ * Redistribution and use in source and binary forms, with or without
+ * modification, are permitted provided that the following conditions are
+ * met:
+ *
+ *     (1) Redistributions of source code must retain the above copyright
+ *     notice, this list of conditions and the following disclaimer.
+ *
+ *     (2) Redistributions in binary form must reproduce the above copyright
+ *     notice, this list of conditions and the following disclaimer in
+ *     the documentation and/or other materials provided with the
+ *     distribution.
+ *
+ *     (3)The name of the author may not be used to
+ *     endorse or promote products derived from this software without
+ *     specific prior written permission.
+ *
+ * THIS SOFTWARE IS PROVIDED BY THE AUTHOR ``AS IS'' AND ANY EXPRESS OR
+ * IMPLIED WARRANTIES, INCLUDING, BUT NOT LIMITED TO, THE IMPLIED
+ * WARRANTIES OF MERCHANTABILITY AND FITNESS FOR A PARTICULAR PURPOSE ARE
+ * DISCLAIMED. IN NO EVENT SHALL THE AUTHOR BE LIABLE FOR ANY DIRECT,
+ * INDIRECT, INCIDENTAL, SPECIAL, EXEMPLARY, OR CONSEQUENTIAL DAMAGES
+ * (INCLUDING, BUT NOT LIMITED TO, PROCUREMENT OF SUBSTITUTE GOODS OR
+ * SERVICES; LOSS OF USE, DATA, OR PROFITS; OR BUSINESS INTERRUPTION)
+ * HOWEVER CAUSED AND ON ANY THEORY OF LIABILITY, WHETHER IN CONTRACT,
+ * STRICT LIABILITY, OR TORT (INCLUDING NEGLIGENCE OR OTHERWISE) ARISING
+ * IN ANY WAY OUT OF THE USE OF THIS SOFTWARE, EVEN IF ADVISED OF THE
+ * POSSIBILITY OF SUCH DAMAGE.
+ */
+package com.kangirigungi.jstatemachine.annotation;
+
+import java.io.ByteArrayOutputStream;
+import java.io.File;
+import java.io.FileOutputStream;
+import java.io.IOException;
+import java.io.OutputStreamWriter;
+import java.io.Writer;
+import java.lang.reflect.Array;
+import java.lang.reflect.InvocationHandler;
+import java.lang.reflect.InvocationTargetException;
+import java.lang.reflect.Method;
+import java.lang.reflect.Proxy;
+import java.net.URL;
+import java.net.URLClassLoader;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.HashSet;
+import java.util.List;
+import java.util.Set;
+
+import javax.tools.JavaCompiler;
+import javax.tools.ToolProvider;
+
+import junit.framework.Assert;
+
+import org.junit.Assume;
+import org.junit.Before;
+import org.junit.Rule;
+import org.junit.Test;
+import org.junit.rules.TemporaryFolder;
+
+import com.kangirigungi.jstatemachine.EventOutcome;
+import com.kangirigungi.jstatemachine.IRestorableStateMachine;
+import com.kangirigungi.jstatemachine.IStateMachine;
+import com.kangirigungi.jstatemachine.InTransitionException;
+
+public class EnumStateMachineProcessorTest {
+
+	private static final String EVENTS =
+			"package generated;\n" +
+			"public enum Events { Open, Close, Lock, Unlock, Knock }\n";
+
+	private static final String STATES =
+			"package generated;\n" +
+			"import com.kangirigungi.jstatemachine.annotation.*;\n" +
+			"@EnumStateMachine(name = \"Door\", events = Events.class,\n" +
+			"		initial = \"Closed\")\n" +
+			"public enum States {\n" +
+			"	@StateActions(onEnter = \"enterOpened\", " +
+					"onExit = \"exitOpened\")\n" +
+			"	@Transition(event = \"Close\", target = \"Closed\", " +
+					"action = \"slam\")\n" +
+			"	Opened,\n" +
+			"	@StateActions(onEnter = \"enterClosed\")\n" +
+			"	@Transitions({\n" +
+			"		@Transition(event = \"Open\", target = \"Opened\", " +
+					"guard = \"unlocked\"),\n" +
+			"		@Transition(event = \"Open\", target = \"Locked\", " +
+					"guard = \"jammed\", action = \"slam\"),\n" +
+			"		@Transition(event = \"Lock\", target = \"Locked\", " +
+					"action = \"turnKey\"),\n" +
+			"		@Transition(event = \"Knock\", action = \"answer\")\n" +
+			"	})\n" +
+			"	Closed,\n" +
+			"	@Transition(event = \"Unlock\", target = \"Closed\", " +
+					"action = \"turnKey\")\n" +
+			"	Locked\n" +
+			"}\n";
+
+	@Rule
+	public TemporaryFolder folder = new TemporaryFolder();
+
+	private List<String> log;
+	private Set<String> allowed;
+	private String failing;
+	private ClassLoader loader;
+	private String errors;
+
+	@Before
+	public void initialize() {
+		log = new ArrayList<String>();
+		allowed = new HashSet<String>();
+		failing = null;
+	}
+
+	/**
+	 * Compile the sources with the annotation processor.
+	 *
+	 * @param sources The simple names and sources of the classes in the
+	 * <code>generated</code> package.
+	 * @return True if the compilation succeeded.
+	 */
+	private boolean compile(String... sources) throws IOException {
+		JavaCompiler compiler = ToolProvider.getSystemJavaCompiler();
+		Assume.assumeNotNull(compiler);
+		File directory = folder.newFolder();
+		File packageDirectory = new File(directory, "generated");
+		Assert.assertTrue(packageDirectory.mkdir());
+		List<String> arguments = new ArrayList<String>(Arrays.asList(
+				"-nowarn", "-d", directory.getPath(),
+				"-s", directory.getPath(),
+				"-cp", System.getProperty("java.class.path"),
+				"-processor", EnumStateMachineProcessor.class.getName()));
+		for (int i = 0; i < sources.length; i += 2) {
+			File file = new File(packageDirectory, sources[i] + ".java");
+			Writer writer = new OutputStreamWriter(
+					new FileOutputStream(file), "UTF-8");
+			try {
+				writer.write(sources[i + 1]);
+			} finally {
+				writer.close();
+			}
+			arguments.add(file.getPath());
+		}
+		ByteArrayOutputStream output = new ByteArrayOutputStream();
+		int result = compiler.run(null, output, output,
+				arguments.toArray(new String[arguments.size()]));
+		errors = output.toString("UTF-8");
+		loader = new URLClassLoader(new URL[] {directory.toURI().toURL()},
+				getClass().getClassLoader());
+		return result == 0;
+	}
+
+	@SuppressWarnings("unchecked")
+	private IStateMachine<Object, Object> newDoor() throws Exception {
+		Assert.assertTrue(errors, compile("Events", EVENTS,
+				"States", STATES));
+		final Class<?> callbacksType =
+				loader.loadClass("generated.Door$Callbacks");
+		Object callbacks = Proxy.newProxyInstance(loader,
+				new Class<?>[] {callbacksType}, new InvocationHandler() {
+			@Override
+			public Object invoke(Object proxy, Method method, Object[] args) {
+				String name = method.getName();
+				log.add(name + " " + Arrays.toString(args));
+				if (name.equals(failing)) {
+					throw new IllegalStateException(name);
+				}
+				if (method.getReturnType() == boolean.class) {
+					return allowed.contains(name);
+				}
+				return null;
+			}
+		});
+		try {
+			return (IStateMachine<Object, Object>)loader.
+					loadClass("generated.Door").
+					getConstructor(callbacksType).newInstance(callbacks);
+		} catch (InvocationTargetException e) {
+			throw (Exception)e.getCause();
+		}
+	}
+
+	private Object event(String name) throws Exception {
+		Class<?> type = loader.loadClass("generated.Events");
+		for (Object event: type.getEnumConstants()) {
+			if (event.toString().equals(name)) {
+				return event;
+			}
+		}
+		throw new IllegalArgumentException(name);
+	}
+
+	private Object[] events(String... names) throws Exception {
+		Object[] result = (Object[])Array.newInstance(
+				loader.loadClass("generated.Events"), names.length);
+		for (int i = 0; i < names.length; ++i) {
+			result[i] = event(names[i]);
+		}
+		return result;
+	}
+
+	@Test
+	public void transitions() throws Exception {
+		IStateMachine<Object, Object> door = newDoor();
+		Assert.assertEquals("Closed", door.getCurrentState().toString());
+		Assert.assertEquals("[Closed]", door.getCurrentStates().toString());
+		allowed.add("unlocked");
+		Assert.assertEquals(Arrays.asList(EventOutcome.INTERNAL,
+				EventOutcome.TRANSITIONED, EventOutcome.IGNORED,
+				EventOutcome.TRANSITIONED, EventOutcome.TRANSITIONED,
+				EventOutcome.TRANSITIONED),
+				Arrays.asList(door.processEvents(events("Knock", "Open",
+						"Lock", "Close", "Lock", "Unlock"), 0, 6)));
+		Assert.assertEquals("Closed", door.getCurrentDeepState().toString());
+		Assert.assertEquals(Arrays.asList(
+				"enterClosed [Closed, null]",
+				"answer [Closed, null, Knock]",
+				"unlocked [Closed, Opened, Open]",
+				"enterOpened [Opened, Open]",
+				"exitOpened [Opened, Close]",
+				"slam [Opened, Closed, Close]",
+				"enterClosed [Closed, Close]",
+				"turnKey [Closed, Locked, Lock]",
+				"turnKey [Locked, Closed, Unlock]",
+				"enterClosed [Closed, Unlock]"), log);
+	}
+
+	@Test
+	public void guards() throws Exception {
+		IStateMachine<Object, Object> door = newDoor();
+		log.clear();
+		Assert.assertEquals(Arrays.asList(EventOutcome.GUARD_REJECTED,
+				EventOutcome.IGNORED), Arrays.asList(door.processEvents(
+						Arrays.asList(event("Open"), null))));
+		Assert.assertEquals(Arrays.asList(
+				"unlocked [Closed, Opened, Open]",
+				"jammed [Closed, Locked, Open]"), log);
+		allowed.add("jammed");
+		door.processEvent(event("Open"));
+		Assert.assertEquals("Locked", door.getCurrentState().toString());
+	}
+
+	@Test
+	public void failingAction() throws Exception {
+		IStateMachine<Object, Object> door = newDoor();
+		allowed.add("unlocked");
+		door.processEvent(event("Open"));
+		failing = "slam";
+		log.clear();
+		try {
+			door.processEvent(event("Close"));
+			Assert.fail("The action should have failed.");
+		} catch (IllegalStateException e) {
+		}
+		Assert.assertEquals("Opened", door.getCurrentState().toString());
+		Assert.assertEquals(Arrays.asList(
+				"exitOpened [Opened, Close]",
+				"slam [Opened, Closed, Close]",
+				"enterOpened [Opened, null]"), log);
+	}
+
+	@Test
+	public void restoreConfiguration() throws Exception {
+		IStateMachine<Object, Object> door = newDoor();
+		IRestorableStateMachine restorable = (IRestorableStateMachine)door;
+		Assert.assertTrue(Arrays.equals(new int[] {1},
+				restorable.getConfiguration()));
+		log.clear();
+		restorable.restoreConfiguration(new int[] {2});
+		Assert.assertEquals("Locked", door.getCurrentState().toString());
+		Assert.assertTrue(log.isEmpty());
+	}
+
+	@Test(expected = InTransitionException.class)
+	public void reentrantEvent() throws Exception {
+		final IStateMachine<Object, Object> door = newDoor();
+		final Object close = event("Close");
+		log = new ArrayList<String>() {
+			private static final long serialVersionUID = 1L;
+
+			@Override
+			public boolean add(String entry) {
+				door.processEvent(close);
+				return super.add(entry);
+			}
+		};
+		door.processEvent(event("Knock"));
+	}
+
+	@Test
+	public void duplicateTransition() throws Exception {
+		Assert.assertFalse(compile("Events", EVENTS, "States",
+				STATES.replace("guard = \"jammed\", ", "")));
+		Assert.assertTrue(errors, errors.contains(
+				"Duplicate transition from Closed with event Open."));
+	}
+
+	@Test
+	public void unknownNames() throws Exception {
+		Assert.assertFalse(compile("Events", EVENTS, "States",
+				STATES.replace("initial = \"Closed\"", "initial = \"Ajar\"").
+				replace("target = \"Opened\"", "target = \"Ajar\"").
+				replace("event = \"Knock\"", "event = \"Ring\"")));
+		Assert.assertTrue(errors,
+				errors.contains("Unknown initial state: Ajar."));
+		Assert.assertTrue(errors,
+				errors.contains("Unknown target state: Ajar."));
+		Assert.assertTrue(errors, errors.contains("Unknown event: Ring."));
+	}
+
+	@Test
+	public void conflictingCallbacks() throws Exception {
+		Assert.assertFalse(compile("Events", EVENTS, "States",
+				STATES.replace("guard = \"jammed\"", "guard = \"slam\"")));
+		Assert.assertTrue(errors, errors.contains(
+				"The callback slam is used both as"));
+	}
+
+	@Test
+	public void notAnEnum() throws Exception {
+		Assert.assertFalse(compile("Events", EVENTS, "Door",
+				"package generated;\n" +
+				"import com.kangirigungi.jstatemachine.annotation.*;\n" +
+				"@EnumStateMachine(events = Events.class, initial = \"A\")\n" +
+				"public class Door {}\n"));
+		Assert.assertTrue(errors, errors.contains(
+				"@EnumStateMachine can only be used on enums."));
+	}
+}
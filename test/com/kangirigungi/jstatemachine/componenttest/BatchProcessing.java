@@ -0,0 +1,199 @@
+/*
+ * Copyright (c) 2013, Peter Szabados
+ * All rights reserved.
+ *
+ * Redistribution and use in source and binary forms, with or without
+ * modification, are permitted provided that the following conditions are
+ * met:
+ *
+ *     (1) Redistributions of source code must retain the above copyright
+ *     notice, this list of conditions and the following disclaimer.
+ *
+ *     (2) Redistributions in binary form must reproduce the above copyright
+ *     notice, this list of conditions and the following disclaimer in
+ *     the documentation and/or other materials provided with the
+ *     distribution.
+ *
+ *     (3)The name of the author may not be used to
+ *     endorse or promote products derived from this software without
+ *     specific prior written permission.
+ *
+ * THIS SOFTWARE IS PROVIDED BY THE AUTHOR ``AS IS'' AND ANY EXPRESS OR
+ * IMPLIED WARRANTIES, INCLUDING, BUT NOT LIMITED TO, THE IMPLIED
+ * WARRANTIES OF MERCHANTABILITY AND FITNESS FOR A PARTICULAR PURPOSE ARE
+ * DISCLAIMED. IN NO EVENT SHALL THE AUTHOR BE LIABLE FOR ANY DIRECT,
+ * INDIRECT, INCIDENTAL, SPECIAL, EXEMPLARY, OR CONSEQUENTIAL DAMAGES
+ * (INCLUDING, BUT NOT LIMITED TO, PROCUREMENT OF SUBSTITUTE GOODS OR
+ * SERVICES; LOSS OF USE, DATA, OR PROFITS; OR BUSINESS INTERRUPTION)
+ * HOWEVER CAUSED AND ON ANY THEORY OF LIABILITY, WHETHER IN CONTRACT,
+ * STRICT LIABILITY, OR TORT (INCLUDING NEGLIGENCE OR OTHERWISE) ARISING
+ * IN ANY WAY OUT OF THE USE OF THIS SOFTWARE, EVEN IF ADVISED OF THE
+ * POSSIBILITY OF SUCH DAMAGE.
+ */
+
+package com.kangirigungi.jstatemachine.componenttest;
+
+import java.util.Arrays;
+
+import org.junit.Assert;
+import org.junit.Test;
+
+import com.kangirigungi.jstatemachine.EventOutcome;
+import com.kangirigungi.jstatemachine.IGuard;
+import com.kangirigungi.jstatemachine.IStateMachine;
+import com.kangirigungi.jstatemachine.InTransitionException;
+import com.kangirigungi.jstatemachine.ITransitionAction;
+import com.kangirigungi.jstatemachine.StateMachineBuilder;
+import com.kangirigungi.jstatemachine.SubStateMachineBuilder;
+
+/**
+ * Processing events in batches.
+ */
+public class BatchProcessing {
+
+	private IStateMachine<Integer, Integer> stateMachine;
+	private int transitions = 0;
+	private EventOutcome[] recursiveOutcomes = null;
+
+	private ITransitionAction<Integer, Integer> action =
+			new ITransitionAction<Integer, Integer>() {
+		@Override
+		public void onTransition(Integer fromState, Integer toState,
+				Integer event) {
+			++transitions;
+		}
+	};
+
+	private ITransitionAction<Integer, Integer> recursiveAction =
+			new ITransitionAction<Integer, Integer>() {
+		@Override
+		public void onTransition(Integer fromState, Integer toState,
+				Integer event) {
+			recursiveOutcomes = stateMachine.processEvents(
+					new Integer[] {10, 20}, 0, 2);
+		}
+	};
+
+	private IGuard<Integer, Integer> rejectingGuard =
+			new IGuard<Integer, Integer>() {
+		@Override
+		public boolean checkTransition(Integer fromState, Integer toState,
+				Integer event) {
+			return false;
+		}
+	};
+
+	/**
+	 * State 1 goes to composite state 2 with event 10. Event 20 is an
+	 * internal transition of 2, event 30 is guarded away, event 40 is
+	 * handled by the substates 21 and 22.
+	 */
+	private StateMachineBuilder<Integer, Integer> createBuilder() {
+		StateMachineBuilder<Integer, Integer> stateMachineBuilder =
+				new StateMachineBuilder<Integer, Integer>();
+		SubStateMachineBuilder<Integer, Integer> mainStateMachine =
+				stateMachineBuilder.get();
+		mainStateMachine.addState(1);
+		SubStateMachineBuilder<Integer, Integer> subStateMachine =
+				mainStateMachine.addCompositeState(2).getStateMachineBuilder();
+		subStateMachine.addState(21);
+		subStateMachine.addState(22);
+		subStateMachine.setInitialState(21).
+				addTransition(21, 40, action, 22).
+				addTransition(22, 40, action, 21);
+		mainStateMachine.setInitialState(1).
+				addTransition(1, 10, action, 2).
+				addTransition(1, 50, recursiveAction, 1).
+				addInternalTransition(2, 20, action).
+				addTransition(2, 30, action, 1, rejectingGuard);
+		return stateMachineBuilder;
+	}
+
+	private void checkBatch() {
+		Integer[] events = {0, 10, 10, 20, 30, 40, 40, 40, 0};
+		EventOutcome[] outcomes = stateMachine.processEvents(events, 1, 8);
+		Assert.assertArrayEquals(new EventOutcome[] {
+				EventOutcome.TRANSITIONED, EventOutcome.IGNORED,
+				EventOutcome.INTERNAL, EventOutcome.GUARD_REJECTED,
+				EventOutcome.TRANSITIONED, EventOutcome.TRANSITIONED,
+				EventOutcome.TRANSITIONED}, outcomes);
+		Assert.assertEquals(Arrays.asList(2, 22),
+				stateMachine.getCurrentStates());
+		Assert.assertEquals(5, transitions);
+
+		outcomes = stateMachine.processEvents(Arrays.asList(40, 10));
+		Assert.assertArrayEquals(new EventOutcome[] {
+				EventOutcome.TRANSITIONED, EventOutcome.IGNORED}, outcomes);
+		Assert.assertEquals(Arrays.asList(2, 21),
+				stateMachine.getCurrentStates());
+	}
+
+	private void checkRecursive() {
+		boolean exceptionThrown = false;
+		try {
+			stateMachine.processEvent(50);
+		} catch (InTransitionException e) {
+			exceptionThrown = true;
+		}
+		Assert.assertTrue(exceptionThrown);
+		Assert.assertEquals(new Integer(1), stateMachine.getCurrentState());
+	}
+
+	private void checkQueued() {
+		stateMachine.processEvent(50);
+		Assert.assertArrayEquals(new EventOutcome[] {
+				EventOutcome.QUEUED, EventOutcome.QUEUED}, recursiveOutcomes);
+		Assert.assertEquals(new Integer(2), stateMachine.getCurrentState());
+		// the transition to 2 and the internal transition
+		Assert.assertEquals(2, transitions);
+	}
+
+	@Test
+	public void engine() {
+		stateMachine = createBuilder().create();
+		checkBatch();
+	}
+
+	@Test
+	public void definition() {
+		stateMachine = createBuilder().createDefinition().newInstance();
+		checkBatch();
+	}
+
+	@Test
+	public void concurrent() {
+		stateMachine = createBuilder().createConcurrent();
+		checkBatch();
+	}
+
+	@Test
+	public void engineRecursive() {
+		stateMachine = createBuilder().create();
+		checkRecursive();
+	}
+
+	@Test
+	public void definitionRecursive() {
+		stateMachine = createBuilder().createDefinition().newInstance();
+		checkRecursive();
+	}
+
+	@Test
+	public void engineQueued() {
+		stateMachine = createBuilder().setEventQueueCapacity(2).create();
+		checkQueued();
+	}
+
+	@Test
+	public void definitionQueued() {
+		stateMachine = createBuilder().setEventQueueCapacity(2).
+				createDefinition().newInstance();
+		checkQueued();
+	}
+
+	@Test(expected=IndexOutOfBoundsException.class)
+	public void invalidRange() {
+		stateMachine = createBuilder().create();
+		stateMachine.processEvents(new Integer[] {10}, 0, 2);
+	}
+}
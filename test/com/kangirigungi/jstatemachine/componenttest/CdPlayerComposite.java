@@ -33,12 +33,17 @@
 
 package com.kangirigungi.jstatemachine.componenttest;
 
+import java.util.Arrays;
+import java.util.Collection;
 import java.util.List;
 
 import org.junit.After;
 import org.junit.Assert;
 import org.junit.Before;
 import org.junit.Test;
+import org.junit.runner.RunWith;
+import org.junit.runners.Parameterized;
+import org.junit.runners.Parameterized.Parameters;
 
 import com.kangirigungi.jstatemachine.FakeGuard;
 import com.kangirigungi.jstatemachine.GuardNot;
@@ -48,8 +53,15 @@ import com.kangirigungi.jstatemachine.ITransitionAction;
 import com.kangirigungi.jstatemachine.StateMachineBuilder;
 import com.kangirigungi.jstatemachine.SubStateMachineBuilder;
 
-
+/**
+ * Each test is run on every kind of state machine the builder can create.
+ */
+@RunWith(Parameterized.class)
 public class CdPlayerComposite {
+	static enum Factory {
+		ENGINE, COMPILED, DEFINITION
+	}
+
 	private static enum States {
 		Empty, Stopped, Playing, Playback, Paused, Open
 	}
@@ -64,6 +76,7 @@ public class CdPlayerComposite {
 		 ForwardTrack
 	}
 
+	private final Factory factory;
 	private IStateMachine<States, Events> stateMachine;
 	private Actions lastAction;
 	private States lastStateEntered;
@@ -112,6 +125,33 @@ public class CdPlayerComposite {
 		}
 	}
 
+	@Parameters
+	public static Collection<Object[]> factories() {
+		Factory[] factories = Factory.values();
+		Object[][] result = new Object[factories.length][];
+		for (int i = 0; i < factories.length; ++i) {
+			result[i] = new Object[] {factories[i]};
+		}
+		return Arrays.asList(result);
+	}
+
+	public CdPlayerComposite(Factory factory) {
+		this.factory = factory;
+	}
+
+	private IStateMachine<States, Events> create(
+			StateMachineBuilder<States, Events> stateMachineBuilder) {
+		switch (factory) {
+		case COMPILED:
+			return stateMachineBuilder.createCompiled(States.class,
+					Events.class);
+		case DEFINITION:
+			return stateMachineBuilder.createDefinition().newInstance();
+		default:
+			return stateMachineBuilder.create();
+		}
+	}
+
 	private void checkState(States previousState, States nextState, Actions action) {
 		List<States> currentStates = stateMachine.getCurrentStates();
 		Assert.assertEquals(nextState, currentStates.get(currentStates.size()-1));
@@ -178,7 +218,7 @@ public class CdPlayerComposite {
 			.addTransition(States.Paused,          Events.Pause,
 				new ActionHandler(Actions.ResumePlayback),   States.Playback);
 
-		stateMachine = stateMachineBuilder.create();
+		stateMachine = create(stateMachineBuilder);
 	}
 
 	@After
@@ -0,0 +1,175 @@
+/*
+ * Copyright (c) 2013, Peter Szabados
+ * All rights reserved.
+ *
+ * Redistribution and use in source and binary forms, with or without
+ * modification, are permitted provided that the following conditions are
+ * met:
+ *
+ *     (1) Redistributions of source code must retain the above copyright
+ *     notice, this list of conditions and the following disclaimer.
+ *
+ *     (2) Redistributions in binary form must reproduce the above copyright
+ *     notice, this list of conditions and the following disclaimer in
+ *     the documentation and/or other materials provided with the
+ *     distribution.
+ *
+ *     (3)The name of the author may not be used to
+ *     endorse or promote products derived from this software without
+ *     specific prior written permission.
+ *
+ * THIS SOFTWARE IS PROVIDED BY THE AUTHOR ``AS IS'' AND ANY EXPRESS OR
+ * IMPLIED WARRANTIES, INCLUDING, BUT NOT LIMITED TO, THE IMPLIED
+ * WARRANTIES OF MERCHANTABILITY AND FITNESS FOR A PARTICULAR PURPOSE ARE
+ * DISCLAIMED. IN NO EVENT SHALL THE AUTHOR BE LIABLE FOR ANY DIRECT,
+ * INDIRECT, INCIDENTAL, SPECIAL, EXEMPLARY, OR CONSEQUENTIAL DAMAGES
+ * (INCLUDING, BUT NOT LIMITED TO, PROCUREMENT OF SUBSTITUTE GOODS OR
+ * SERVICES; LOSS OF USE, DATA, OR PROFITS; OR BUSINESS INTERRUPTION)
+ * HOWEVER CAUSED AND ON ANY THEORY OF LIABILITY, WHETHER IN CONTRACT,
+ * STRICT LIABILITY, OR TORT (INCLUDING NEGLIGENCE OR OTHERWISE) ARISING
+ * IN ANY WAY OUT OF THE USE OF THIS SOFTWARE, EVEN IF ADVISED OF THE
+ * POSSIBILITY OF SUCH DAMAGE.
+ */
+
+package com.kangirigungi.jstatemachine.componenttest;
+
+import java.util.Arrays;
+import java.util.List;
+import java.util.concurrent.atomic.AtomicBoolean;
+
+import org.junit.Assert;
+import org.junit.Test;
+
+import com.kangirigungi.jstatemachine.IStateMachine;
+import com.kangirigungi.jstatemachine.ITransitionAction;
+import com.kangirigungi.jstatemachine.OrthogonalStateBuilder;
+import com.kangirigungi.jstatemachine.StateMachineBuilder;
+import com.kangirigungi.jstatemachine.SubStateMachineBuilder;
+
+/**
+ * Several threads sending events to the same state machine while others
+ * read its state.
+ */
+public class ConcurrentAccess {
+
+	private static final int WRITERS = 4;
+	private static final int EVENTS = 10000;
+
+	private int transitions = 0;
+	private int active = 0;
+	private final AtomicBoolean failed = new AtomicBoolean(false);
+
+	private class CountingAction implements ITransitionAction<Integer, Integer> {
+		@Override
+		public void onTransition(Integer fromState, Integer toState,
+				Integer event) {
+			if (++active != 1) {
+				failed.set(true);
+			}
+			if (event == 1) {
+				++transitions;
+			}
+			--active;
+		}
+	}
+
+	private StateMachineBuilder<Integer, Integer> createBuilder() {
+		StateMachineBuilder<Integer, Integer> stateMachineBuilder =
+				new StateMachineBuilder<Integer, Integer>();
+		SubStateMachineBuilder<Integer, Integer> mainStateMachine =
+				stateMachineBuilder.get();
+		CountingAction action = new CountingAction();
+		SubStateMachineBuilder<Integer, Integer> subStateMachine =
+				mainStateMachine.addCompositeState(1).getStateMachineBuilder();
+		subStateMachine.addState(11);
+		subStateMachine.addState(12);
+		subStateMachine.setInitialState(11).
+				addTransition(11, 2, action, 12).
+				addTransition(12, 2, action, 11);
+		mainStateMachine.addState(2);
+		mainStateMachine.setInitialState(1).
+				addTransition(1, 1, action, 2).
+				addTransition(2, 1, action, 1);
+		return stateMachineBuilder;
+	}
+
+	private void runThreads(final IStateMachine<Integer, Integer> stateMachine)
+			throws InterruptedException {
+		final AtomicBoolean running = new AtomicBoolean(true);
+		Thread[] writers = new Thread[WRITERS];
+		for (int i = 0; i < WRITERS; ++i) {
+			writers[i] = new Thread() {
+				@Override
+				public void run() {
+					for (int j = 0; j < EVENTS; ++j) {
+						stateMachine.processEvent(1);
+						stateMachine.processEvent(2);
+					}
+				}
+			};
+		}
+		Thread reader = new Thread() {
+			@Override
+			public void run() {
+				while (running.get()) {
+					List<Integer> states = stateMachine.getCurrentStates();
+					boolean consistent = states.get(0) == 1 ?
+							states.size() == 2 && states.get(1) > 10 :
+							states.size() == 1 && states.get(0) == 2;
+					if (!consistent) {
+						failed.set(true);
+					}
+				}
+			}
+		};
+		reader.start();
+		for (Thread writer: writers) {
+			writer.start();
+		}
+		for (Thread writer: writers) {
+			writer.join();
+		}
+		running.set(false);
+		reader.join();
+
+		Assert.assertFalse(failed.get());
+		Assert.assertEquals(WRITERS * EVENTS, transitions);
+		Assert.assertEquals(new Integer(1), stateMachine.getCurrentState());
+	}
+
+	@Test
+	public void engine() throws InterruptedException {
+		runThreads(createBuilder().createConcurrent());
+	}
+
+	@Test
+	public void definition() throws InterruptedException {
+		runThreads(createBuilder().createDefinition().newConcurrentInstance());
+	}
+
+	@Test
+	public void regions() {
+		StateMachineBuilder<Integer, Integer> stateMachineBuilder =
+				new StateMachineBuilder<Integer, Integer>();
+		OrthogonalStateBuilder<Integer, Integer> state =
+				stateMachineBuilder.get().addOrthogonalState(1);
+		stateMachineBuilder.get().setInitialState(1);
+		SubStateMachineBuilder<Integer, Integer> first = state.addRegion();
+		first.addState(10);
+		first.addState(11);
+		first.setInitialState(10).addTransition(10, 1, null, 11);
+		SubStateMachineBuilder<Integer, Integer> second = state.addRegion();
+		second.addState(20);
+		second.setInitialState(20);
+
+		IStateMachine<Integer, Integer> stateMachine =
+				stateMachineBuilder.createConcurrent();
+		Assert.assertEquals(Arrays.asList(1, 10, 20),
+				stateMachine.getCurrentStates());
+		stateMachine.processEvent(1);
+		Assert.assertEquals(Arrays.asList(1, 11, 20),
+				stateMachine.getCurrentStates());
+		Assert.assertEquals(new Integer(1),
+				stateMachine.getCurrentDeepState());
+	}
+}
@@ -0,0 +1,283 @@
+/*
+ * Copyright (c) 2013, Peter Szabados
+ * All rights reserved.
+ *
+ * Redistribution and use in source and binary forms, with or without
+ * modification, are permitted provided that the following conditions are
+ * met:
+ *
+ *     (1) Redistributions of source code must retain the above copyright
+ *     notice, this list of conditions and the following disclaimer.
+ *
+ *     (2) Redistributions in binary form must reproduce the above copyright
+ *     notice, this list of conditions and the following disclaimer in
+ *     the documentation and/or other materials provided with the
+ *     distribution.
+ *
+ *     (3)The name of the author may not be used to
+ *     endorse or promote products derived from this software without
+ *     specific prior written permission.
+ *
+ * THIS SOFTWARE IS PROVIDED BY THE AUTHOR ``AS IS'' AND ANY EXPRESS OR
+ * IMPLIED WARRANTIES, INCLUDING, BUT NOT LIMITED TO, THE IMPLIED
+ * WARRANTIES OF MERCHANTABILITY AND FITNESS FOR A PARTICULAR PURPOSE ARE
+ * DISCLAIMED. IN NO EVENT SHALL THE AUTHOR BE LIABLE FOR ANY DIRECT,
+ * INDIRECT, INCIDENTAL, SPECIAL, EXEMPLARY, OR CONSEQUENTIAL DAMAGES
+ * (INCLUDING, BUT NOT LIMITED TO, PROCUREMENT OF SUBSTITUTE GOODS OR
+ * SERVICES; LOSS OF USE, DATA, OR PROFITS; OR BUSINESS INTERRUPTION)
+ * HOWEVER CAUSED AND ON ANY THEORY OF LIABILITY, WHETHER IN CONTRACT,
+ * STRICT LIABILITY, OR TORT (INCLUDING NEGLIGENCE OR OTHERWISE) ARISING
+ * IN ANY WAY OUT OF THE USE OF THIS SOFTWARE, EVEN IF ADVISED OF THE
+ * POSSIBILITY OF SUCH DAMAGE.
+ */
+
+package com.kangirigungi.jstatemachine.componenttest;
+
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.List;
+
+import org.junit.Assert;
+import org.junit.Before;
+import org.junit.Test;
+
+import com.kangirigungi.jstatemachine.EventOutcome;
+import com.kangirigungi.jstatemachine.IEntryExitAction;
+import com.kangirigungi.jstatemachine.IRestorableStateMachine;
+import com.kangirigungi.jstatemachine.IStateMachine;
+import com.kangirigungi.jstatemachine.ITransitionAction;
+import com.kangirigungi.jstatemachine.OrthogonalStateBuilder;
+import com.kangirigungi.jstatemachine.StateMachineBuilder;
+import com.kangirigungi.jstatemachine.SubStateMachineBuilder;
+
+/**
+ * A connection that can only send messages while it is online and idle.
+ * Messages sent earlier are deferred. Each test is run both on a state
+ * machine and on an instance of a definition.
+ */
+public class DeferredEvents {
+	private static enum States {
+		Offline, Connecting, Online, Idle, Busy, Regions, Waiting, Ready,
+		Listening
+	}
+
+	private static enum Events {
+		Connect, Connected, Send, Print, Done, Disconnect
+	}
+
+	private List<String> log;
+	private boolean failEntry;
+
+	private class Logger implements ITransitionAction<States, Events> {
+		@Override
+		public void onTransition(States fromState, States toState,
+				Events event) {
+			log.add(event + " in " + fromState);
+		}
+	}
+
+	private class FailingEntry implements IEntryExitAction<States, Events> {
+		@Override
+		public void onEnter(States state, Events event) {
+			if (failEntry) {
+				throw new IllegalStateException();
+			}
+		}
+
+		@Override
+		public void onExit(States state, Events event) {
+		}
+	}
+
+	@Before
+	public void setUp() {
+		log = new ArrayList<String>();
+		failEntry = false;
+	}
+
+	private StateMachineBuilder<States, Events> createBuilder() {
+		Logger logger = new Logger();
+		StateMachineBuilder<States, Events> builder =
+				new StateMachineBuilder<States, Events>();
+		SubStateMachineBuilder<States, Events> top = builder.get();
+		top.addState(States.Offline);
+		top.addState(States.Connecting);
+		SubStateMachineBuilder<States, Events> online =
+				top.addCompositeState(States.Online).
+				setEntryExitAction(new FailingEntry()).
+				getStateMachineBuilder();
+		top.setInitialState(States.Offline);
+		top.addTransition(States.Offline, Events.Connect, null,
+				States.Connecting);
+		top.addTransition(States.Connecting, Events.Connected, null,
+				States.Online);
+		top.addTransition(States.Online, Events.Disconnect, null,
+				States.Offline);
+		top.addDeferredEvent(States.Connecting, Events.Send);
+		top.addDeferredEvent(States.Connecting, Events.Print);
+
+		online.addState(States.Idle);
+		online.addState(States.Busy);
+		online.setInitialState(States.Idle);
+		online.addTransition(States.Idle, Events.Send, logger, States.Busy);
+		online.addInternalTransition(States.Idle, Events.Print, logger);
+		online.addTransition(States.Busy, Events.Done, null, States.Idle);
+		online.addDeferredEvent(States.Busy, Events.Send);
+		online.addDeferredEvent(States.Busy, Events.Print);
+		return builder;
+	}
+
+	private List<IStateMachine<States, Events>> create() {
+		return Arrays.asList(createBuilder().create(),
+				createBuilder().createDefinition().newInstance());
+	}
+
+	@Test
+	public void deferUntilLeft() {
+		for (IStateMachine<States, Events> stateMachine: create()) {
+			log.clear();
+			Assert.assertArrayEquals(new EventOutcome[] {
+					EventOutcome.TRANSITIONED, EventOutcome.DEFERRED,
+					EventOutcome.DEFERRED},
+					stateMachine.processEvents(new Events[] {Events.Connect,
+							Events.Send, Events.Send}, 0, 3));
+			Assert.assertTrue(log.isEmpty());
+
+			// only the first one is processed, Busy defers the second one
+			stateMachine.processEvent(Events.Connected);
+			Assert.assertEquals(Arrays.asList(States.Online, States.Busy),
+					stateMachine.getCurrentStates());
+			Assert.assertEquals(Arrays.asList("Send in Idle"), log);
+
+			stateMachine.processEvent(Events.Done);
+			Assert.assertEquals(Arrays.asList(States.Online, States.Busy),
+					stateMachine.getCurrentStates());
+			Assert.assertEquals(Arrays.asList("Send in Idle",
+					"Send in Idle"), log);
+		}
+	}
+
+	@Test
+	public void arrivalOrder() {
+		for (IStateMachine<States, Events> stateMachine: create()) {
+			log.clear();
+			stateMachine.processEvents(new Events[] {Events.Connect,
+					Events.Print, Events.Send, Events.Print,
+					Events.Connected}, 0, 5);
+			Assert.assertEquals(Arrays.asList("Print in Idle",
+					"Send in Idle"), log);
+
+			// the second print keeps its place before the later events
+			Assert.assertArrayEquals(new EventOutcome[] {
+					EventOutcome.DEFERRED, EventOutcome.TRANSITIONED},
+					stateMachine.processEvents(new Events[] {Events.Send,
+							Events.Done}, 0, 2));
+			Assert.assertEquals(Arrays.asList("Print in Idle",
+					"Send in Idle", "Print in Idle", "Send in Idle"), log);
+		}
+	}
+
+	@Test
+	public void transitionOfOuterState() {
+		for (IStateMachine<States, Events> stateMachine: create()) {
+			log.clear();
+			stateMachine.processEvents(new Events[] {Events.Connect,
+					Events.Connected, Events.Send, Events.Send}, 0, 4);
+			Assert.assertEquals(EventOutcome.TRANSITIONED,
+					stateMachine.processEvents(new Events[] {
+							Events.Disconnect}, 0, 1)[0]);
+			// the released event is ignored in the new state
+			Assert.assertEquals(Arrays.asList(States.Offline),
+					stateMachine.getCurrentStates());
+			Assert.assertEquals(Arrays.asList("Send in Idle"), log);
+
+			stateMachine.processEvents(new Events[] {Events.Connect,
+					Events.Connected}, 0, 2);
+			Assert.assertEquals(Arrays.asList(States.Online, States.Idle),
+					stateMachine.getCurrentStates());
+		}
+	}
+
+	@Test
+	public void failedTransitionKeepsDeferredEvents() {
+		for (IStateMachine<States, Events> stateMachine: create()) {
+			log.clear();
+			stateMachine.processEvents(new Events[] {Events.Connect,
+					Events.Send}, 0, 2);
+			failEntry = true;
+			boolean exceptionThrown = false;
+			try {
+				stateMachine.processEvent(Events.Connected);
+			} catch (IllegalStateException e) {
+				exceptionThrown = true;
+			}
+			Assert.assertTrue(exceptionThrown);
+			Assert.assertEquals(Arrays.asList(States.Connecting),
+					stateMachine.getCurrentStates());
+
+			// the source is still active, so it still defers the event
+			failEntry = false;
+			stateMachine.processEvent(Events.Connected);
+			Assert.assertEquals(Arrays.asList(States.Online, States.Busy),
+					stateMachine.getCurrentStates());
+			Assert.assertEquals(Arrays.asList("Send in Idle"), log);
+		}
+	}
+
+	@Test
+	public void restoreDropsDeferredEvents() {
+		for (IStateMachine<States, Events> stateMachine: create()) {
+			log.clear();
+			stateMachine.processEvents(new Events[] {Events.Connect,
+					Events.Send}, 0, 2);
+			IRestorableStateMachine restorable =
+					(IRestorableStateMachine)stateMachine;
+			Assert.assertEquals(1, restorable.getDeferredEventCount());
+			restorable.restoreConfiguration(restorable.getConfiguration());
+			Assert.assertEquals(0, restorable.getDeferredEventCount());
+			stateMachine.processEvent(Events.Connected);
+			Assert.assertEquals(Arrays.asList(States.Online, States.Idle),
+					stateMachine.getCurrentStates());
+			Assert.assertTrue(log.isEmpty());
+		}
+	}
+
+	@Test
+	public void regions() {
+		Logger logger = new Logger();
+		StateMachineBuilder<States, Events> builder =
+				new StateMachineBuilder<States, Events>();
+		OrthogonalStateBuilder<States, Events> regions =
+				builder.get().addOrthogonalState(States.Regions);
+		builder.get().setInitialState(States.Regions);
+
+		SubStateMachineBuilder<States, Events> first = regions.addRegion();
+		first.addState(States.Waiting);
+		first.addState(States.Ready);
+		first.setInitialState(States.Waiting);
+		first.addTransition(States.Waiting, Events.Connected, null,
+				States.Ready);
+		first.addInternalTransition(States.Ready, Events.Send, logger);
+		first.addDeferredEvent(States.Waiting, Events.Send);
+
+		SubStateMachineBuilder<States, Events> second = regions.addRegion();
+		second.addState(States.Listening);
+		second.setInitialState(States.Listening);
+		second.addInternalTransition(States.Listening, Events.Send, logger);
+
+		IStateMachine<States, Events> stateMachine = builder.create();
+		IRestorableStateMachine restorable =
+				(IRestorableStateMachine)stateMachine;
+		Assert.assertArrayEquals(new EventOutcome[] {EventOutcome.INTERNAL},
+				stateMachine.processEvents(new Events[] {Events.Send}, 0, 1));
+		Assert.assertEquals(1, restorable.getDeferredEventCount());
+		Assert.assertArrayEquals(new EventOutcome[] {
+				EventOutcome.TRANSITIONED},
+				stateMachine.processEvents(new Events[] {Events.Connected},
+						0, 1));
+		Assert.assertEquals(0, restorable.getDeferredEventCount());
+		// the event is replayed only in the region that deferred it
+		Assert.assertEquals(Arrays.asList("Send in Listening",
+				"Send in Ready"), log);
+	}
+}
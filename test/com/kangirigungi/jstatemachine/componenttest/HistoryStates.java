@@ -0,0 +1,221 @@
+/*
+ * Copyright (c) 2013, Peter Szabados
+ * All rights reserved.
+ *
+ * Redistribution and use in source and binary forms, with or without
+ * modification, are permitted provided that the following conditions are
+ * met:
+ *
+ *     (1) Redistributions of source code must retain the above copyright
+ *     notice, this list of conditions and the following disclaimer.
+ *
+ *     (2) Redistributions in binary form must reproduce the above copyright
+ *     notice, this list of conditions and the following disclaimer in
+ *     the documentation and/or other materials provided with the
+ *     distribution.
+ *
+ *     (3)The name of the author may not be used to
+ *     endorse or promote products derived from this software without
+ *     specific prior written permission.
+ *
+ * THIS SOFTWARE IS PROVIDED BY THE AUTHOR ``AS IS'' AND ANY EXPRESS OR
+ * IMPLIED WARRANTIES, INCLUDING, BUT NOT LIMITED TO, THE IMPLIED
+ * WARRANTIES OF MERCHANTABILITY AND FITNESS FOR A PARTICULAR PURPOSE ARE
+ * DISCLAIMED. IN NO EVENT SHALL THE AUTHOR BE LIABLE FOR ANY DIRECT,
+ * INDIRECT, INCIDENTAL, SPECIAL, EXEMPLARY, OR CONSEQUENTIAL DAMAGES
+ * (INCLUDING, BUT NOT LIMITED TO, PROCUREMENT OF SUBSTITUTE GOODS OR
+ * SERVICES; LOSS OF USE, DATA, OR PROFITS; OR BUSINESS INTERRUPTION)
+ * HOWEVER CAUSED AND ON ANY THEORY OF LIABILITY, WHETHER IN CONTRACT,
+ * STRICT LIABILITY, OR TORT (INCLUDING NEGLIGENCE OR OTHERWISE) ARISING
+ * IN ANY WAY OUT OF THE USE OF THIS SOFTWARE, EVEN IF ADVISED OF THE
+ * POSSIBILITY OF SUCH DAMAGE.
+ */
+package com.kangirigungi.jstatemachine.componenttest;
+
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.List;
+
+import org.junit.Assert;
+import org.junit.Before;
+import org.junit.Test;
+
+import com.kangirigungi.jstatemachine.CompositeStateBuilder;
+import com.kangirigungi.jstatemachine.History;
+import com.kangirigungi.jstatemachine.IEntryExitAction;
+import com.kangirigungi.jstatemachine.IStateMachine;
+import com.kangirigungi.jstatemachine.ITransitionAction;
+import com.kangirigungi.jstatemachine.StateMachineBuilder;
+import com.kangirigungi.jstatemachine.SubStateMachineBuilder;
+
+/**
+ * A player that can be switched off and on again. Each test is run both on
+ * a state machine and on an instance of a definition.
+ */
+public class HistoryStates {
+	private static enum States {
+		Off, On, Idle, Playing, Track1, Track2
+	}
+
+	private static enum Events {
+		Power, Play, Next, Stop
+	}
+
+	private List<String> log;
+	private boolean failing;
+
+	private class Logger implements IEntryExitAction<States, Events>,
+			ITransitionAction<States, Events> {
+		@Override
+		public void onEnter(States state, Events event) {
+			log.add("enter " + state + " (" + event + ")");
+		}
+
+		@Override
+		public void onExit(States state, Events event) {
+			log.add("exit " + state);
+		}
+
+		@Override
+		public void onTransition(States fromState, States toState,
+				Events event) {
+			if (failing) {
+				throw new IllegalStateException();
+			}
+		}
+	}
+
+	@Before
+	public void setUp() {
+		log = new ArrayList<String>();
+		failing = false;
+	}
+
+	private StateMachineBuilder<States, Events> createBuilder(
+			History onHistory, History playingHistory) {
+		Logger logger = new Logger();
+		StateMachineBuilder<States, Events> builder =
+				new StateMachineBuilder<States, Events>();
+		SubStateMachineBuilder<States, Events> top = builder.get();
+		top.addState(States.Off);
+		CompositeStateBuilder<States, Events> on =
+				top.addCompositeState(States.On).setHistory(onHistory);
+		top.setInitialState(States.Off);
+		top.addTransition(States.Off, Events.Power, null, States.On);
+		top.addTransition(States.On, Events.Power, logger, States.Off);
+
+		SubStateMachineBuilder<States, Events> player =
+				on.getStateMachineBuilder();
+		player.addState(States.Idle).setEntryExitAction(logger);
+		CompositeStateBuilder<States, Events> playing =
+				player.addCompositeState(States.Playing).
+				setEntryExitAction(logger).setHistory(playingHistory);
+		player.setInitialState(States.Idle);
+		player.addTransition(States.Idle, Events.Play, null,
+				States.Playing);
+		player.addTransition(States.Playing, Events.Stop, null,
+				States.Idle);
+
+		SubStateMachineBuilder<States, Events> tracks =
+				playing.getStateMachineBuilder();
+		tracks.addState(States.Track1).setEntryExitAction(logger);
+		tracks.addState(States.Track2).setEntryExitAction(logger);
+		tracks.setInitialState(States.Track1);
+		tracks.addTransition(States.Track1, Events.Next, null,
+				States.Track2);
+		return builder;
+	}
+
+	private List<IStateMachine<States, Events>> create(History onHistory,
+			History playingHistory) {
+		return Arrays.asList(
+				createBuilder(onHistory, playingHistory).create(),
+				createBuilder(onHistory, playingHistory).createDefinition().
+						newInstance());
+	}
+
+	private List<States> playAndRestart(
+			IStateMachine<States, Events> stateMachine) {
+		stateMachine.processEvents(new Events[] {Events.Power, Events.Play,
+				Events.Next, Events.Power}, 0, 4);
+		log.clear();
+		stateMachine.processEvent(Events.Power);
+		return stateMachine.getCurrentStates();
+	}
+
+	@Test
+	public void noHistory() {
+		for (IStateMachine<States, Events> stateMachine:
+				create(History.NONE, History.NONE)) {
+			Assert.assertEquals(Arrays.asList(States.On, States.Idle),
+					playAndRestart(stateMachine));
+		}
+	}
+
+	@Test
+	public void shallowHistory() {
+		for (IStateMachine<States, Events> stateMachine:
+				create(History.SHALLOW, History.NONE)) {
+			Assert.assertEquals(Arrays.asList(States.On, States.Playing,
+					States.Track1), playAndRestart(stateMachine));
+			Assert.assertEquals(Arrays.asList("enter Playing (null)",
+					"enter Track1 (null)"), log);
+		}
+	}
+
+	@Test
+	public void nestedShallowHistory() {
+		for (IStateMachine<States, Events> stateMachine:
+				create(History.SHALLOW, History.SHALLOW)) {
+			Assert.assertEquals(Arrays.asList(States.On, States.Playing,
+					States.Track2), playAndRestart(stateMachine));
+		}
+	}
+
+	@Test
+	public void deepHistory() {
+		for (IStateMachine<States, Events> stateMachine:
+				create(History.DEEP, History.NONE)) {
+			Assert.assertEquals(Arrays.asList(States.On, States.Playing,
+					States.Track2), playAndRestart(stateMachine));
+			Assert.assertEquals(Arrays.asList("enter Playing (null)",
+					"enter Track2 (null)"), log);
+
+			// the history of the inner level is used when it is entered
+			// from within
+			stateMachine.processEvents(new Events[] {Events.Stop,
+					Events.Play}, 0, 2);
+			Assert.assertEquals(Arrays.asList(States.On, States.Playing,
+					States.Track1), stateMachine.getCurrentStates());
+		}
+	}
+
+	@Test
+	public void historyOfInnerLevel() {
+		for (IStateMachine<States, Events> stateMachine:
+				create(History.NONE, History.SHALLOW)) {
+			stateMachine.processEvents(new Events[] {Events.Power,
+					Events.Play, Events.Next, Events.Stop, Events.Play}, 0, 5);
+			Assert.assertEquals(Arrays.asList(States.On, States.Playing,
+					States.Track2), stateMachine.getCurrentStates());
+		}
+	}
+
+	@Test
+	public void failingTransition() {
+		for (IStateMachine<States, Events> stateMachine:
+				create(History.DEEP, History.NONE)) {
+			stateMachine.processEvents(new Events[] {Events.Power,
+					Events.Play, Events.Next}, 0, 3);
+			failing = true;
+			try {
+				stateMachine.processEvent(Events.Power);
+				Assert.fail("The action should have failed.");
+			} catch (IllegalStateException e) {
+			}
+			// the source state is entered again through its history
+			Assert.assertEquals(Arrays.asList(States.On, States.Playing,
+					States.Track2), stateMachine.getCurrentStates());
+		}
+	}
+}
@@ -0,0 +1,250 @@
+/*
+ * Copyright (c) 2013, Peter Szabados
+ * All rights reserved.
+ *
+ * Redistribution and use in source and binary forms, with or without
+ * modification, are permitted provided that the following conditions are
+ * met:
+ *
+ *     (1) Redistributions of source code must retain the above copyright
+ *     notice, this list of conditions and the following disclaimer.
+ *
+ *     (2) Redistributions in binary form must reproduce the above copyright
+ *     notice, this list of conditions and the following disclaimer in
+ *     the documentation and/or other materials provided with the
+ *     distribution.
+ *
+ *     (3)The name of the author may not be used to
+ *     endorse or promote products derived from this software without
+ *     specific prior written permission.
+ *
+ * THIS SOFTWARE IS PROVIDED BY THE AUTHOR ``AS IS'' AND ANY EXPRESS OR
+ * IMPLIED WARRANTIES, INCLUDING, BUT NOT LIMITED TO, THE IMPLIED
+ * WARRANTIES OF MERCHANTABILITY AND FITNESS FOR A PARTICULAR PURPOSE ARE
+ * DISCLAIMED. IN NO EVENT SHALL THE AUTHOR BE LIABLE FOR ANY DIRECT,
+ * INDIRECT, INCIDENTAL, SPECIAL, EXEMPLARY, OR CONSEQUENTIAL DAMAGES
+ * (INCLUDING, BUT NOT LIMITED TO, PROCUREMENT OF SUBSTITUTE GOODS OR
+ * SERVICES; LOSS OF USE, DATA, OR PROFITS; OR BUSINESS INTERRUPTION)
+ * HOWEVER CAUSED AND ON ANY THEORY OF LIABILITY, WHETHER IN CONTRACT,
+ * STRICT LIABILITY, OR TORT (INCLUDING NEGLIGENCE OR OTHERWISE) ARISING
+ * IN ANY WAY OUT OF THE USE OF THIS SOFTWARE, EVEN IF ADVISED OF THE
+ * POSSIBILITY OF SUCH DAMAGE.
+ */
+
+package com.kangirigungi.jstatemachine.componenttest;
+
+import org.junit.Assert;
+import org.junit.Test;
+
+import com.kangirigungi.jstatemachine.CompletionCycleException;
+import com.kangirigungi.jstatemachine.IStateMachine;
+import com.kangirigungi.jstatemachine.ITransitionAction;
+import com.kangirigungi.jstatemachine.StateMachineBuilder;
+import com.kangirigungi.jstatemachine.SubStateMachineBuilder;
+
+/**
+ * Long completion transition chains and deep hierarchies.
+ */
+public class LongRunToCompletion {
+
+	private static final int CHAIN_LENGTH = 50000;
+	private static final int DEPTH = 200;
+	private static final int LIMIT = 5;
+
+	private int completionSteps;
+
+	private StateMachineBuilder<Integer, Integer> createChain() {
+		StateMachineBuilder<Integer, Integer> stateMachineBuilder =
+				new StateMachineBuilder<Integer, Integer>();
+		SubStateMachineBuilder<Integer, Integer> mainStateMachine =
+				stateMachineBuilder.get();
+		for (int i = 0; i <= CHAIN_LENGTH; ++i) {
+			mainStateMachine.addState(i);
+		}
+		for (int i = 0; i < CHAIN_LENGTH; ++i) {
+			mainStateMachine.addTransition(i, null, null, i + 1);
+		}
+		mainStateMachine.setInitialState(0);
+		stateMachineBuilder.setMaxCompletionSteps(CHAIN_LENGTH);
+		return stateMachineBuilder;
+	}
+
+	/**
+	 * Event 10 starts a chain of exactly LIMIT completion transitions, event
+	 * 11 starts one of LIMIT + 1.
+	 */
+	private StateMachineBuilder<Integer, Integer> createLimitedChains() {
+		StateMachineBuilder<Integer, Integer> stateMachineBuilder =
+				new StateMachineBuilder<Integer, Integer>();
+		SubStateMachineBuilder<Integer, Integer> mainStateMachine =
+				stateMachineBuilder.get();
+		ITransitionAction<Integer, Integer> counter =
+				new ITransitionAction<Integer, Integer>() {
+			@Override
+			public void onTransition(Integer fromState, Integer toState,
+					Integer event) {
+				++completionSteps;
+			}
+		};
+		mainStateMachine.addState(0);
+		mainStateMachine.setInitialState(0);
+		for (int chain = 0; chain < 2; ++chain) {
+			int first = 100 * (chain + 1);
+			int length = LIMIT + chain;
+			for (int i = 0; i <= length; ++i) {
+				mainStateMachine.addState(first + i);
+			}
+			mainStateMachine.addTransition(0, 10 + chain, null, first);
+			for (int i = 0; i < length; ++i) {
+				mainStateMachine.addTransition(first + i, null, counter,
+						first + i + 1);
+			}
+		}
+		stateMachineBuilder.setMaxCompletionSteps(LIMIT);
+		return stateMachineBuilder;
+	}
+
+	private StateMachineBuilder<Integer, Integer> createCycle() {
+		StateMachineBuilder<Integer, Integer> stateMachineBuilder =
+				new StateMachineBuilder<Integer, Integer>();
+		SubStateMachineBuilder<Integer, Integer> mainStateMachine =
+				stateMachineBuilder.get();
+		mainStateMachine.addState(1);
+		mainStateMachine.addState(2);
+		mainStateMachine.setInitialState(1)
+			.addTransition(1, 10, null, 2)
+			.addTransition(2, null, null, 1)
+			.addTransition(1, null, null, 2, new GuardStarted());
+		stateMachineBuilder.setMaxCompletionSteps(100);
+		return stateMachineBuilder;
+	}
+
+	/**
+	 * Prevents the cycle from being entered at startup.
+	 */
+	private static class GuardStarted
+			implements com.kangirigungi.jstatemachine.IGuard<Integer, Integer> {
+		private int calls = 0;
+
+		@Override
+		public boolean checkTransition(Integer fromState, Integer toState,
+				Integer event) {
+			return calls++ > 0;
+		}
+	}
+
+	private StateMachineBuilder<Integer, Integer> createDeepHierarchy() {
+		StateMachineBuilder<Integer, Integer> stateMachineBuilder =
+				new StateMachineBuilder<Integer, Integer>();
+		SubStateMachineBuilder<Integer, Integer> level =
+				stateMachineBuilder.get();
+		for (int i = 0; i < DEPTH; ++i) {
+			SubStateMachineBuilder<Integer, Integer> subLevel =
+					level.addCompositeState(i).getStateMachineBuilder();
+			level.setInitialState(i);
+			level = subLevel;
+		}
+		level.addState(DEPTH);
+		level.addState(DEPTH + 1);
+		level.setInitialState(DEPTH)
+			.addTransition(DEPTH, 10, null, DEPTH + 1)
+			.addTransition(DEPTH + 1, 10, null, DEPTH);
+		return stateMachineBuilder;
+	}
+
+	private void checkCycle(IStateMachine<Integer, Integer> stateMachine) {
+		Assert.assertEquals(new Integer(1), stateMachine.getCurrentState());
+		boolean exceptionThrown = false;
+		try {
+			stateMachine.processEvent(10);
+		} catch (CompletionCycleException e) {
+			exceptionThrown = true;
+		}
+		Assert.assertTrue(exceptionThrown);
+	}
+
+	private IStateMachine<Integer, Integer> createLimitedChains(
+			boolean definition) {
+		StateMachineBuilder<Integer, Integer> builder = createLimitedChains();
+		return definition ? builder.createDefinition().newInstance() :
+				builder.create();
+	}
+
+	private void checkLimit(boolean definition) {
+		IStateMachine<Integer, Integer> stateMachine =
+				createLimitedChains(definition);
+		completionSteps = 0;
+		stateMachine.processEvent(10);
+		Assert.assertEquals(LIMIT, completionSteps);
+		Assert.assertEquals(new Integer(100 + LIMIT),
+				stateMachine.getCurrentState());
+
+		stateMachine = createLimitedChains(definition);
+		completionSteps = 0;
+		boolean exceptionThrown = false;
+		try {
+			stateMachine.processEvent(11);
+		} catch (CompletionCycleException e) {
+			exceptionThrown = true;
+		}
+		Assert.assertTrue(exceptionThrown);
+		// the transition over the limit is not executed
+		Assert.assertEquals(LIMIT, completionSteps);
+	}
+
+	private void checkDeepHierarchy(IStateMachine<Integer, Integer> stateMachine) {
+		Assert.assertEquals(DEPTH + 1, stateMachine.getCurrentStates().size());
+		Assert.assertEquals(new Integer(DEPTH),
+				stateMachine.getCurrentDeepState());
+		stateMachine.processEvent(10);
+		Assert.assertEquals(new Integer(DEPTH + 1),
+				stateMachine.getCurrentDeepState());
+		stateMachine.processEvent(10);
+		Assert.assertEquals(new Integer(DEPTH),
+				stateMachine.getCurrentDeepState());
+	}
+
+	@Test
+	public void longChain() {
+		Assert.assertEquals(new Integer(CHAIN_LENGTH),
+				createChain().create().getCurrentState());
+	}
+
+	@Test
+	public void longChainDefinition() {
+		Assert.assertEquals(new Integer(CHAIN_LENGTH),
+				createChain().createDefinition().newInstance().
+						getCurrentState());
+	}
+
+	@Test
+	public void limit() {
+		checkLimit(false);
+	}
+
+	@Test
+	public void limitDefinition() {
+		checkLimit(true);
+	}
+
+	@Test
+	public void cycle() {
+		checkCycle(createCycle().create());
+	}
+
+	@Test
+	public void cycleDefinition() {
+		checkCycle(createCycle().createDefinition().newInstance());
+	}
+
+	@Test
+	public void deepHierarchy() {
+		checkDeepHierarchy(createDeepHierarchy().create());
+	}
+
+	@Test
+	public void deepHierarchyDefinition() {
+		checkDeepHierarchy(createDeepHierarchy().createDefinition().
+				newInstance());
+	}
+}
@@ -0,0 +1,398 @@
+/*
+ * Copyright (c) 2013, Peter Szabados
+ * All rights reserved.
+ *
+ * Redistribution and use in source and binary forms, with or without
+ * modification, are permitted provided that the following conditions are
+ * met:
+ *
+ *     (1) Redistributions of source code must retain the above copyright
+ *     notice, this list of conditions and the following disclaimer.
+ *
+ *     (2) Redistributions in binary form must reproduce the above copyright
+ *     notice, this list of conditions and the following disclaimer in
+ *     the documentation and/or other materials provided with the
+ *     distribution.
+ *
+ *     (3)The name of the author may not be used to
+ *     endorse or promote products derived from this software without
+ *     specific prior written permission.
+ *
+ * THIS SOFTWARE IS PROVIDED BY THE AUTHOR ``AS IS'' AND ANY EXPRESS OR
+ * IMPLIED WARRANTIES, INCLUDING, BUT NOT LIMITED TO, THE IMPLIED
+ * WARRANTIES OF MERCHANTABILITY AND FITNESS FOR A PARTICULAR PURPOSE ARE
+ * DISCLAIMED. IN NO EVENT SHALL THE AUTHOR BE LIABLE FOR ANY DIRECT,
+ * INDIRECT, INCIDENTAL, SPECIAL, EXEMPLARY, OR CONSEQUENTIAL DAMAGES
+ * (INCLUDING, BUT NOT LIMITED TO, PROCUREMENT OF SUBSTITUTE GOODS OR
+ * SERVICES; LOSS OF USE, DATA, OR PROFITS; OR BUSINESS INTERRUPTION)
+ * HOWEVER CAUSED AND ON ANY THEORY OF LIABILITY, WHETHER IN CONTRACT,
+ * STRICT LIABILITY, OR TORT (INCLUDING NEGLIGENCE OR OTHERWISE) ARISING
+ * IN ANY WAY OUT OF THE USE OF THIS SOFTWARE, EVEN IF ADVISED OF THE
+ * POSSIBILITY OF SUCH DAMAGE.
+ */
+package com.kangirigungi.jstatemachine.componenttest;
+
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.Collections;
+import java.util.HashSet;
+import java.util.List;
+import java.util.Set;
+import java.util.concurrent.CyclicBarrier;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.TimeUnit;
+
+import org.junit.After;
+import org.junit.Assert;
+import org.junit.Before;
+import org.junit.Test;
+
+import com.kangirigungi.jstatemachine.DuplicateStateException;
+import com.kangirigungi.jstatemachine.EventOutcome;
+import com.kangirigungi.jstatemachine.FakeClock;
+import com.kangirigungi.jstatemachine.FakeGuard;
+import com.kangirigungi.jstatemachine.History;
+import com.kangirigungi.jstatemachine.IEntryExitAction;
+import com.kangirigungi.jstatemachine.IRestorableStateMachine;
+import com.kangirigungi.jstatemachine.IStateMachine;
+import com.kangirigungi.jstatemachine.ITransitionAction;
+import com.kangirigungi.jstatemachine.OrthogonalStateBuilder;
+import com.kangirigungi.jstatemachine.StateMachineBuilder;
+import com.kangirigungi.jstatemachine.StateMachineException;
+import com.kangirigungi.jstatemachine.SubStateMachineBuilder;
+import com.kangirigungi.jstatemachine.TimingWheel;
+
+/**
+ * A keyboard with independent caps lock and num lock regions.
+ */
+public class OrthogonalRegions {
+	private static enum States {
+		Off, Active, Default, CapsLocked, Numbers, Arrows
+	}
+
+	private static enum Events {
+		Power, CapsLock, NumLock, Key
+	}
+
+	private List<String> log;
+	private ExecutorService executor;
+	private FakeGuard<States, Events> numLockAllowed;
+	/**
+	 * If set, the actions of the regions wait for each other on it.
+	 */
+	private CyclicBarrier barrier;
+	/**
+	 * The transition action that throws an exception, if any.
+	 */
+	private String failing;
+	private boolean historyEnabled;
+
+	private class Logger implements IEntryExitAction<States, Events>,
+			ITransitionAction<States, Events> {
+		private final String name;
+
+		public Logger(String name) {
+			this.name = name;
+		}
+
+		@Override
+		public void onEnter(States state, Events event) {
+			log.add("enter " + state);
+		}
+
+		@Override
+		public void onExit(States state, Events event) {
+			log.add("exit " + state);
+		}
+
+		@Override
+		public void onTransition(States fromState, States toState,
+				Events event) {
+			if (barrier != null) {
+				try {
+					barrier.await(10, TimeUnit.SECONDS);
+				} catch (Exception e) {
+					throw new IllegalStateException(e);
+				}
+			}
+			if (name.equals(failing)) {
+				throw new IllegalStateException(name);
+			}
+			log.add(name + " " + fromState + " -> " + toState);
+		}
+	}
+
+	@Before
+	public void setUp() {
+		log = Collections.synchronizedList(new ArrayList<String>());
+		numLockAllowed = new FakeGuard<States, Events>(true);
+		executor = Executors.newFixedThreadPool(2);
+		historyEnabled = false;
+	}
+
+	@After
+	public void tearDown() {
+		executor.shutdown();
+	}
+
+	private StateMachineBuilder<States, Events> createBuilder(
+			ExecutorService regionExecutor) {
+		Logger logger = new Logger("");
+		StateMachineBuilder<States, Events> builder =
+				new StateMachineBuilder<States, Events>();
+		SubStateMachineBuilder<States, Events> top = builder.get();
+		top.addState(States.Off).setEntryExitAction(logger);
+		OrthogonalStateBuilder<States, Events> active =
+				top.addOrthogonalState(States.Active).
+				setEntryExitAction(logger).setExecutor(regionExecutor).
+				setHistory(historyEnabled ? History.SHALLOW : History.NONE);
+		top.setInitialState(States.Off);
+		top.addTransition(States.Off, Events.Power, null, States.Active);
+		top.addTransition(States.Active, Events.Power, null, States.Off);
+
+		Logger caps = new Logger("caps");
+		SubStateMachineBuilder<States, Events> capsLock = active.addRegion();
+		capsLock.addState(States.Default).setEntryExitAction(logger);
+		capsLock.addState(States.CapsLocked).setEntryExitAction(logger);
+		capsLock.setInitialState(States.Default);
+		capsLock.addTransition(States.Default, Events.CapsLock, caps,
+				States.CapsLocked);
+		capsLock.addTransition(States.CapsLocked, Events.CapsLock, caps,
+				States.Default);
+		capsLock.addInternalTransition(States.Default, Events.Key, caps);
+
+		Logger num = new Logger("num");
+		SubStateMachineBuilder<States, Events> numLock = active.addRegion();
+		numLock.addState(States.Numbers).setEntryExitAction(logger);
+		numLock.addState(States.Arrows).setEntryExitAction(logger);
+		numLock.setInitialState(States.Numbers);
+		numLock.addTransition(States.Numbers, Events.NumLock, num,
+				States.Arrows, numLockAllowed);
+		numLock.addTransition(States.Arrows, Events.NumLock, num,
+				States.Numbers);
+		numLock.addTransition(States.Numbers, Events.CapsLock, num,
+				States.Numbers);
+		return builder;
+	}
+
+	@Test
+	public void regions() {
+		IStateMachine<States, Events> stateMachine =
+				createBuilder(null).create();
+		Assert.assertEquals(Arrays.asList(EventOutcome.TRANSITIONED,
+				EventOutcome.INTERNAL, EventOutcome.TRANSITIONED),
+				Arrays.asList(stateMachine.processEvents(new Events[] {
+						Events.Power, Events.Key, Events.CapsLock}, 0, 3)));
+		Assert.assertEquals(Arrays.asList(States.Active, States.CapsLocked,
+				States.Numbers), stateMachine.getCurrentStates());
+		Assert.assertEquals(States.Active, stateMachine.getCurrentState());
+		Assert.assertEquals(States.Active,
+				stateMachine.getCurrentDeepState());
+		Assert.assertEquals(Arrays.asList(
+				"enter Off", "exit Off", "enter Active", "enter Default",
+				"enter Numbers", "caps Default -> null",
+				"exit Default", "caps Default -> CapsLocked",
+				"enter CapsLocked",
+				"exit Numbers", "num Numbers -> Numbers", "enter Numbers"),
+				log);
+
+		log.clear();
+		numLockAllowed.setValue(false);
+		Assert.assertEquals(Arrays.asList(EventOutcome.GUARD_REJECTED,
+				EventOutcome.IGNORED, EventOutcome.TRANSITIONED),
+				Arrays.asList(stateMachine.processEvents(Arrays.asList(
+						Events.NumLock, Events.Key, Events.Power))));
+		Assert.assertEquals(Arrays.asList(States.Off),
+				stateMachine.getCurrentStates());
+		Assert.assertEquals(Arrays.asList("exit Numbers", "exit CapsLocked",
+				"exit Active", "enter Off"), log);
+	}
+
+	@Test
+	public void configuration() {
+		IStateMachine<States, Events> stateMachine =
+				createBuilder(null).create();
+		stateMachine.processEvent(Events.Power);
+		stateMachine.processEvent(Events.NumLock);
+		int[] configuration =
+				((IRestorableStateMachine)stateMachine).getConfiguration();
+
+		IStateMachine<States, Events> restored =
+				createBuilder(null).create();
+		log.clear();
+		((IRestorableStateMachine)restored).restoreConfiguration(
+				configuration);
+		Assert.assertTrue(log.isEmpty());
+		Assert.assertEquals(Arrays.asList(States.Active, States.Default,
+				States.Arrows), restored.getCurrentStates());
+		restored.processEvent(Events.NumLock);
+		Assert.assertEquals(Arrays.asList(States.Active, States.Default,
+				States.Numbers), restored.getCurrentStates());
+
+		((IRestorableStateMachine)restored).restoreConfiguration(
+				new int[] {0});
+		Assert.assertEquals(Arrays.asList(States.Off),
+				restored.getCurrentStates());
+		try {
+			((IRestorableStateMachine)restored).restoreConfiguration(
+					Arrays.copyOf(configuration, configuration.length - 1));
+			Assert.fail("Invalid configuration restored.");
+		} catch (StateMachineException e) {
+		}
+		Assert.assertEquals(Arrays.asList(States.Off),
+				restored.getCurrentStates());
+	}
+
+	@Test
+	public void compiled() {
+		IStateMachine<States, Events> stateMachine =
+				createBuilder(null).createCompiled(States.class, Events.class);
+		stateMachine.processEvent(Events.Power);
+		stateMachine.processEvent(Events.NumLock);
+		Assert.assertEquals(Arrays.asList(States.Active, States.Default,
+				States.Arrows), stateMachine.getCurrentStates());
+	}
+
+	@Test(expected = StateMachineException.class)
+	public void definitionNotSupported() {
+		createBuilder(null).createDefinition();
+	}
+
+	@Test
+	public void history() {
+		IStateMachine<States, Events> stateMachine =
+				createBuilder(null).create();
+		stateMachine.processEvents(new Events[] {Events.Power,
+				Events.CapsLock, Events.Power, Events.Power}, 0, 4);
+		Assert.assertEquals(Arrays.asList(States.Active, States.Default,
+				States.Numbers), stateMachine.getCurrentStates());
+
+		historyEnabled = true;
+		stateMachine = createBuilder(null).create();
+		stateMachine.processEvents(new Events[] {Events.Power,
+				Events.CapsLock, Events.Power, Events.Power}, 0, 4);
+		Assert.assertEquals(Arrays.asList(States.Active, States.CapsLocked,
+				States.Numbers), stateMachine.getCurrentStates());
+	}
+
+	@Test
+	public void parallel() {
+		IStateMachine<States, Events> stateMachine =
+				createBuilder(executor).create();
+		stateMachine.processEvent(Events.Power);
+		log.clear();
+		// both regions must be in their action at the same time to pass
+		// the barrier
+		barrier = new CyclicBarrier(2);
+		stateMachine.processEvent(Events.CapsLock);
+		Assert.assertEquals(Arrays.asList(States.Active, States.CapsLocked,
+				States.Numbers), stateMachine.getCurrentStates());
+		Assert.assertTrue(log.contains("caps Default -> CapsLocked"));
+		Assert.assertTrue(log.contains("num Numbers -> Numbers"));
+
+		barrier = null;
+		Assert.assertEquals(Arrays.asList(EventOutcome.TRANSITIONED,
+				EventOutcome.IGNORED), Arrays.asList(
+						stateMachine.processEvents(new Events[] {
+								Events.NumLock, Events.Key}, 0, 2)));
+		Assert.assertEquals(Arrays.asList(States.Active, States.CapsLocked,
+				States.Arrows), stateMachine.getCurrentStates());
+	}
+
+	@Test
+	public void parallelFailure() {
+		IStateMachine<States, Events> stateMachine =
+				createBuilder(executor).create();
+		stateMachine.processEvent(Events.Power);
+		failing = "num";
+		try {
+			stateMachine.processEvent(Events.CapsLock);
+			Assert.fail("The action should have failed.");
+		} catch (IllegalStateException e) {
+			Assert.assertEquals("num", e.getMessage());
+		}
+		// the other region still processed the event
+		Assert.assertEquals(Arrays.asList(States.Active, States.CapsLocked,
+				States.Numbers), stateMachine.getCurrentStates());
+
+		failing = "caps";
+		try {
+			stateMachine.processEvent(Events.CapsLock);
+			Assert.fail("The action should have failed.");
+		} catch (IllegalStateException e) {
+			Assert.assertEquals("caps", e.getMessage());
+		}
+	}
+
+	@Test
+	public void timedTransitions() {
+		FakeClock clock = new FakeClock();
+		TimingWheel wheel = new TimingWheel(clock, 10, TimeUnit.MILLISECONDS);
+		StateMachineBuilder<States, Events> builder =
+				new StateMachineBuilder<States, Events>();
+		builder.setTimingWheel(wheel);
+		SubStateMachineBuilder<States, Events> top = builder.get();
+		top.addState(States.Off);
+		OrthogonalStateBuilder<States, Events> active =
+				top.addOrthogonalState(States.Active);
+		top.setInitialState(States.Off);
+		top.addTransition(States.Off, Events.Power, null, States.Active);
+		top.addTransition(States.Active, Events.Power, null, States.Off);
+		SubStateMachineBuilder<States, Events> capsLock = active.addRegion();
+		capsLock.addState(States.Default);
+		capsLock.addState(States.CapsLocked);
+		capsLock.setInitialState(States.Default);
+		capsLock.addTransition(States.Default, 1, TimeUnit.SECONDS, null,
+				States.CapsLocked, null);
+		SubStateMachineBuilder<States, Events> numLock = active.addRegion();
+		numLock.addState(States.Numbers);
+		numLock.setInitialState(States.Numbers);
+
+		IStateMachine<States, Events> stateMachine = builder.create();
+		stateMachine.processEvent(Events.Power);
+		Assert.assertEquals(1, wheel.size());
+		clock.advance(1, TimeUnit.SECONDS);
+		wheel.advance();
+		Assert.assertEquals(Arrays.asList(States.Active, States.CapsLocked,
+				States.Numbers), stateMachine.getCurrentStates());
+		Assert.assertEquals(0, wheel.size());
+
+		// leaving the state cancels the timers of the regions
+		stateMachine.processEvents(new Events[] {Events.Power,
+				Events.Power}, 0, 2);
+		Assert.assertEquals(1, wheel.size());
+		stateMachine.processEvent(Events.Power);
+		Assert.assertEquals(0, wheel.size());
+
+		try {
+			active.setExecutor(executor);
+			Assert.fail("Regions with a timing wheel set to parallel.");
+		} catch (StateMachineException e) {
+		}
+	}
+
+	@Test
+	public void statesUniqueInWholeStateMachine() {
+		StateMachineBuilder<States, Events> builder = createBuilder(null);
+		IStateMachine<States, Events> stateMachine = builder.create();
+		stateMachine.processEvent(Events.Power);
+		int[] configuration =
+				((IRestorableStateMachine)stateMachine).getConfiguration();
+		// the state and the first state of each region
+		Assert.assertEquals(5, configuration.length);
+		Set<Integer> indexes = new HashSet<Integer>(Arrays.asList(
+				configuration[0], configuration[2], configuration[4]));
+		Assert.assertEquals(3, indexes.size());
+
+		SubStateMachineBuilder<States, Events> top = builder.get();
+		top.addState(States.Off);
+		SubStateMachineBuilder<States, Events> region =
+				top.addOrthogonalState(States.Active).addRegion();
+		try {
+			region.addState(States.Off);
+			Assert.fail("Duplicate state added to a region.");
+		} catch (DuplicateStateException e) {
+		}
+	}
+}
@@ -0,0 +1,293 @@
+/*
+ * Copyright (c) 2013, Peter Szabados
+ * All rights reserved.
+ *
+ * Redistribution and use in source and binary forms, with or without
+ * modification, are permitted provided that the following conditions are
+ * met:
+ *
+ *     (1) Redistributions of source code must retain the above copyright
+ *     notice, this list of conditions and the following disclaimer.
+ *
+ *     (2) Redistributions in binary form must reproduce the above copyright
+ *     notice, this list of conditions and the following disclaimer in
+ *     the documentation and/or other materials provided with the
+ *     distribution.
+ *
+ *     (3)The name of the author may not be used to
+ *     endorse or promote products derived from this software without
+ *     specific prior written permission.
+ *
+ * THIS SOFTWARE IS PROVIDED BY THE AUTHOR ``AS IS'' AND ANY EXPRESS OR
+ * IMPLIED WARRANTIES, INCLUDING, BUT NOT LIMITED TO, THE IMPLIED
+ * WARRANTIES OF MERCHANTABILITY AND FITNESS FOR A PARTICULAR PURPOSE ARE
+ * DISCLAIMED. IN NO EVENT SHALL THE AUTHOR BE LIABLE FOR ANY DIRECT,
+ * INDIRECT, INCIDENTAL, SPECIAL, EXEMPLARY, OR CONSEQUENTIAL DAMAGES
+ * (INCLUDING, BUT NOT LIMITED TO, PROCUREMENT OF SUBSTITUTE GOODS OR
+ * SERVICES; LOSS OF USE, DATA, OR PROFITS; OR BUSINESS INTERRUPTION)
+ * HOWEVER CAUSED AND ON ANY THEORY OF LIABILITY, WHETHER IN CONTRACT,
+ * STRICT LIABILITY, OR TORT (INCLUDING NEGLIGENCE OR OTHERWISE) ARISING
+ * IN ANY WAY OUT OF THE USE OF THIS SOFTWARE, EVEN IF ADVISED OF THE
+ * POSSIBILITY OF SUCH DAMAGE.
+ */
+
+package com.kangirigungi.jstatemachine.componenttest;
+
+import java.lang.management.ManagementFactory;
+
+import org.junit.Assert;
+import org.junit.Assume;
+import org.junit.Before;
+import org.junit.Test;
+
+import com.kangirigungi.jstatemachine.FakeGuard;
+import com.kangirigungi.jstatemachine.GuardNot;
+import com.kangirigungi.jstatemachine.GuardState;
+import com.kangirigungi.jstatemachine.IEntryExitAction;
+import com.kangirigungi.jstatemachine.IStateMachine;
+import com.kangirigungi.jstatemachine.ITransitionAction;
+import com.kangirigungi.jstatemachine.StateMachineBuilder;
+import com.kangirigungi.jstatemachine.SubStateMachineBuilder;
+import com.kangirigungi.jstatemachine.primitive.IIntEntryExitAction;
+import com.kangirigungi.jstatemachine.primitive.IIntGuard;
+import com.kangirigungi.jstatemachine.primitive.IIntStateMachine;
+import com.kangirigungi.jstatemachine.primitive.IIntTransitionAction;
+import com.kangirigungi.jstatemachine.primitive.IntStateMachineBuilder;
+
+/**
+ * Checks that processing events does not allocate memory once the state
+ * machine is built.
+ */
+public class ProcessEventAllocation {
+	private static enum States {
+		Empty, Stopped, Playing, Playback, Paused, Open
+	}
+
+	private static enum Events {
+		Play, Stop, Pause, OpenClose, FastForward
+	}
+
+	private static final Events[] EVENTS = {
+		Events.Play, Events.Pause, Events.Pause, Events.FastForward,
+		Events.Stop, Events.Pause
+	};
+	private static final int WARMUP_ITERATIONS = 20000;
+	private static final int ITERATIONS = 100000;
+	private static final int ROUNDS = 5;
+
+	private com.sun.management.ThreadMXBean threadMXBean;
+	private int transitionCount;
+
+	private class ActionHandler implements
+			ITransitionAction<States, Events> {
+		@Override
+		public void onTransition(States fromState, States toState, Events event) {
+			++transitionCount;
+		}
+	}
+
+	private class EntryExitHandler implements IEntryExitAction<States, Events> {
+		@Override
+		public void onEnter(States state, Events event) {
+			++transitionCount;
+		}
+
+		@Override
+		public void onExit(States state, Events event) {
+			++transitionCount;
+		}
+	}
+
+	@Before
+	public void initialize() {
+		Assume.assumeTrue(ManagementFactory.getThreadMXBean() instanceof
+				com.sun.management.ThreadMXBean);
+		threadMXBean = (com.sun.management.ThreadMXBean)
+				ManagementFactory.getThreadMXBean();
+		Assume.assumeTrue(threadMXBean.isThreadAllocatedMemorySupported());
+		threadMXBean.setThreadAllocatedMemoryEnabled(true);
+	}
+
+	private StateMachineBuilder<States, Events> createBuilder(
+			IStateMachine<States, Events> otherStateMachine) {
+		EntryExitHandler entryExitHandler = new EntryExitHandler();
+		ActionHandler actionHandler = new ActionHandler();
+		StateMachineBuilder<States, Events> stateMachineBuilder =
+				new StateMachineBuilder<States, Events>();
+		SubStateMachineBuilder<States, Events> mainStateMachine =
+				stateMachineBuilder.get();
+
+		mainStateMachine.addState(States.Stopped).setEntryExitAction(entryExitHandler);
+		mainStateMachine.addState(States.Open).setEntryExitAction(entryExitHandler);
+		SubStateMachineBuilder<States, Events> statePlaying =
+				mainStateMachine.addCompositeState(States.Playing).
+				setEntryExitAction(entryExitHandler).
+				getStateMachineBuilder();
+
+		statePlaying.addState(States.Playback).setEntryExitAction(entryExitHandler);
+		statePlaying.addState(States.Paused).setEntryExitAction(entryExitHandler);
+
+		mainStateMachine.setInitialState(States.Stopped)
+			.addTransition(States.Stopped,         null,
+				actionHandler,                       States.Open,
+				new FakeGuard<States, Events>(false))
+			.addTransition(States.Stopped,         Events.Play,
+				actionHandler,                       States.Playing)
+			.addTransition(States.Playing,         Events.Stop,
+				actionHandler,                       States.Stopped,
+				new GuardState<States, Events>(otherStateMachine,
+						new States[] {States.Empty, States.Paused}, true))
+			.addInternalTransition(States.Playing, Events.FastForward,
+				actionHandler,
+				new GuardNot<States, Events>(
+						new FakeGuard<States, Events>(false)));
+
+		statePlaying.setInitialState(States.Playback)
+			.addTransition(States.Playback,        Events.Pause,
+				actionHandler,                       States.Paused)
+			.addTransition(States.Paused,          Events.Pause,
+				actionHandler,                       States.Playback);
+		return stateMachineBuilder;
+	}
+
+	private IStateMachine<States, Events> createOtherStateMachine() {
+		StateMachineBuilder<States, Events> stateMachineBuilder =
+				new StateMachineBuilder<States, Events>();
+		stateMachineBuilder.get().addState(States.Empty);
+		stateMachineBuilder.get().setInitialState(States.Empty);
+		return stateMachineBuilder.create();
+	}
+
+	private void processEvents(IStateMachine<States, Events> stateMachine,
+			int iterations) {
+		for (int i = 0; i < iterations; ++i) {
+			for (Events event: EVENTS) {
+				stateMachine.processEvent(event);
+			}
+		}
+	}
+
+	private long measureAllocation(IStateMachine<States, Events> stateMachine,
+			int iterations) {
+		long threadId = Thread.currentThread().getId();
+		long before = threadMXBean.getThreadAllocatedBytes(threadId);
+		processEvents(stateMachine, iterations);
+		return threadMXBean.getThreadAllocatedBytes(threadId) - before;
+	}
+
+	private void checkAllocation(IStateMachine<States, Events> stateMachine) {
+		processEvents(stateMachine, WARMUP_ITERATIONS);
+		Assert.assertEquals(States.Stopped, stateMachine.getCurrentState());
+		transitionCount = 0;
+
+		// Compilation can cause one-off allocations, so steady state is
+		// reached if any of the rounds allocates nothing.
+		long overhead = measureAllocation(stateMachine, 0);
+		long allocated = Long.MAX_VALUE;
+		for (int i = 0; i < ROUNDS && allocated != 0; ++i) {
+			allocated = Math.min(allocated,
+					measureAllocation(stateMachine, ITERATIONS) - overhead);
+		}
+		Assert.assertTrue(transitionCount > ITERATIONS * EVENTS.length);
+		Assert.assertEquals("Bytes allocated while processing events",
+				0, allocated);
+	}
+
+	@Test
+	public void stateMachine() {
+		checkAllocation(createBuilder(createOtherStateMachine()).create());
+	}
+
+	@Test
+	public void compiledStateMachine() {
+		checkAllocation(createBuilder(createOtherStateMachine()).
+				createCompiled(States.class, Events.class));
+	}
+
+	@Test
+	public void definitionStateMachine() {
+		checkAllocation(createBuilder(createOtherStateMachine()).
+				createDefinition().newInstance());
+	}
+
+	private class IntHandler implements IIntTransitionAction,
+			IIntEntryExitAction, IIntGuard {
+		@Override
+		public void onTransition(int fromState, int toState, int event) {
+			++transitionCount;
+		}
+
+		@Override
+		public void onEnter(int state, int event) {
+			++transitionCount;
+		}
+
+		@Override
+		public void onExit(int state, int event) {
+			++transitionCount;
+		}
+
+		@Override
+		public boolean checkTransition(int fromState, int toState,
+				int event) {
+			return true;
+		}
+	}
+
+	private void processIntEvents(IIntStateMachine stateMachine,
+			int iterations) {
+		for (int i = 0; i < iterations; ++i) {
+			for (Events event: EVENTS) {
+				stateMachine.processEvent(event.ordinal());
+			}
+		}
+	}
+
+	private long measureIntAllocation(IIntStateMachine stateMachine,
+			int iterations) {
+		long threadId = Thread.currentThread().getId();
+		long before = threadMXBean.getThreadAllocatedBytes(threadId);
+		processIntEvents(stateMachine, iterations);
+		return threadMXBean.getThreadAllocatedBytes(threadId) - before;
+	}
+
+	@Test
+	public void intStateMachine() {
+		IntHandler handler = new IntHandler();
+		int stopped = States.Stopped.ordinal();
+		int playback = States.Playback.ordinal();
+		int paused = States.Paused.ordinal();
+		IIntStateMachine stateMachine = new IntStateMachineBuilder().
+				addState(stopped, handler).
+				addState(playback, handler).
+				addState(paused, handler).
+				setInitialState(stopped).
+				addTransition(stopped, Events.Play.ordinal(), handler,
+						playback).
+				addTransition(playback, Events.Pause.ordinal(), handler,
+						paused, handler).
+				addTransition(paused, Events.Pause.ordinal(), handler,
+						playback, handler).
+				addInternalTransition(playback,
+						Events.FastForward.ordinal(), handler).
+				addTransition(playback, Events.Stop.ordinal(), handler,
+						stopped).
+				addTransition(paused, Events.Stop.ordinal(), handler,
+						stopped).
+				create();
+
+		processIntEvents(stateMachine, WARMUP_ITERATIONS);
+		Assert.assertEquals(stopped, stateMachine.getCurrentState());
+		transitionCount = 0;
+
+		long overhead = measureIntAllocation(stateMachine, 0);
+		long allocated = Long.MAX_VALUE;
+		for (int i = 0; i < ROUNDS && allocated != 0; ++i) {
+			allocated = Math.min(allocated,
+					measureIntAllocation(stateMachine, ITERATIONS) - overhead);
+		}
+		Assert.assertTrue(transitionCount > ITERATIONS * EVENTS.length);
+		Assert.assertEquals("Bytes allocated while processing events",
+				0, allocated);
+	}
+}
@@ -0,0 +1,239 @@
+/*
+ * Copyright (c) 2013, Peter Szabados
+ * All rights reserved.
+ *
+ * Redistribution and use in source and binary forms, with or without
+ * modification, are permitted provided that the following conditions are
+ * met:
+ *
+ *     (1) Redistributions of source code must retain the above copyright
+ *     notice, this list of conditions and the following disclaimer.
+ *
+ *     (2) Redistributions in binary form must reproduce the above copyright
+ *     notice, this list of conditions and the following disclaimer in
+ *     the documentation and/or other materials provided with the
+ *     distribution.
+ *
+ *     (3)The name of the author may not be used to
+ *     endorse or promote products derived from this software without
+ *     specific prior written permission.
+ *
+ * THIS SOFTWARE IS PROVIDED BY THE AUTHOR ``AS IS'' AND ANY EXPRESS OR
+ * IMPLIED WARRANTIES, INCLUDING, BUT NOT LIMITED TO, THE IMPLIED
+ * WARRANTIES OF MERCHANTABILITY AND FITNESS FOR A PARTICULAR PURPOSE ARE
+ * DISCLAIMED. IN NO EVENT SHALL THE AUTHOR BE LIABLE FOR ANY DIRECT,
+ * INDIRECT, INCIDENTAL, SPECIAL, EXEMPLARY, OR CONSEQUENTIAL DAMAGES
+ * (INCLUDING, BUT NOT LIMITED TO, PROCUREMENT OF SUBSTITUTE GOODS OR
+ * SERVICES; LOSS OF USE, DATA, OR PROFITS; OR BUSINESS INTERRUPTION)
+ * HOWEVER CAUSED AND ON ANY THEORY OF LIABILITY, WHETHER IN CONTRACT,
+ * STRICT LIABILITY, OR TORT (INCLUDING NEGLIGENCE OR OTHERWISE) ARISING
+ * IN ANY WAY OUT OF THE USE OF THIS SOFTWARE, EVEN IF ADVISED OF THE
+ * POSSIBILITY OF SUCH DAMAGE.
+ */
+package com.kangirigungi.jstatemachine.componenttest;
+
+import static org.mockito.Mockito.mock;
+import static org.mockito.Mockito.times;
+import static org.mockito.Mockito.verify;
+
+import java.util.Arrays;
+import java.util.concurrent.TimeUnit;
+
+import org.junit.Assert;
+import org.junit.Before;
+import org.junit.Test;
+
+import com.kangirigungi.jstatemachine.FakeClock;
+import com.kangirigungi.jstatemachine.FakeGuard;
+import com.kangirigungi.jstatemachine.IRestorableStateMachine;
+import com.kangirigungi.jstatemachine.IStateMachine;
+import com.kangirigungi.jstatemachine.ITransitionListener;
+import com.kangirigungi.jstatemachine.MachineDefinition;
+import com.kangirigungi.jstatemachine.StateMachineBuilder;
+import com.kangirigungi.jstatemachine.StateMachineException;
+import com.kangirigungi.jstatemachine.SubStateMachineBuilder;
+import com.kangirigungi.jstatemachine.TimingWheel;
+
+/**
+ * Timed transitions executed by a shared timing wheel.
+ */
+public class TimedTransitions {
+
+	private FakeClock clock;
+	private TimingWheel wheel;
+	private ITransitionListener<Integer, Integer> listener;
+
+	@Before
+	@SuppressWarnings("unchecked")
+	public void initialize() {
+		clock = new FakeClock();
+		wheel = new TimingWheel(clock, 10, TimeUnit.MILLISECONDS);
+		listener = mock(ITransitionListener.class);
+	}
+
+	/**
+	 * A session: event 10 opens it (state 2), and it is closed (state 3)
+	 * after 30 seconds without activity (event 20). Inside the session,
+	 * state 21 retries (goes to 22) after 5 seconds, and event 30 goes
+	 * back to 21. The closed state has a timed transition that is never
+	 * allowed by its guard.
+	 */
+	private StateMachineBuilder<Integer, Integer> createBuilder() {
+		StateMachineBuilder<Integer, Integer> stateMachineBuilder =
+				new StateMachineBuilder<Integer, Integer>();
+		stateMachineBuilder.setTimingWheel(wheel).
+				setTransitionListener(listener);
+		SubStateMachineBuilder<Integer, Integer> mainStateMachine =
+				stateMachineBuilder.get();
+		mainStateMachine.addState(1);
+		SubStateMachineBuilder<Integer, Integer> session =
+				mainStateMachine.addCompositeState(2).getStateMachineBuilder();
+		mainStateMachine.addState(3);
+		session.addState(21);
+		session.addState(22);
+		mainStateMachine.setInitialState(1).
+				addTransition(1, 10, null, 2).
+				addTransition(2, 20, null, 2).
+				addTransition(2, 30, TimeUnit.SECONDS, null, 3).
+				addTransition(3, 1, TimeUnit.MINUTES, null, 1,
+						new FakeGuard<Integer, Integer>(false));
+		session.setInitialState(21).
+				addTransition(21, 5, TimeUnit.SECONDS, null, 22).
+				addTransition(22, 30, null, 21);
+		return stateMachineBuilder;
+	}
+
+	private void advance(long duration, TimeUnit unit) {
+		clock.advance(duration, unit);
+		wheel.advance();
+	}
+
+	private void runSession(IStateMachine<Integer, Integer> stateMachine) {
+		Assert.assertEquals(0, wheel.size());
+		stateMachine.processEvent(10);
+		Assert.assertEquals(Arrays.asList(2, 21),
+				stateMachine.getCurrentStates());
+		Assert.assertEquals(2, wheel.size());
+
+		advance(5, TimeUnit.SECONDS);
+		Assert.assertEquals(Arrays.asList(2, 22),
+				stateMachine.getCurrentStates());
+		Assert.assertEquals(1, wheel.size());
+
+		stateMachine.processEvent(30);
+		advance(4, TimeUnit.SECONDS);
+		Assert.assertEquals(Arrays.asList(2, 21),
+				stateMachine.getCurrentStates());
+
+		// activity restarts the timers of the session
+		stateMachine.processEvent(20);
+		advance(26, TimeUnit.SECONDS);
+		Assert.assertEquals(Arrays.asList(2, 22),
+				stateMachine.getCurrentStates());
+		advance(4, TimeUnit.SECONDS);
+		Assert.assertEquals(Arrays.asList(3),
+				stateMachine.getCurrentStates());
+		Assert.assertEquals(1, wheel.size());
+
+		advance(1, TimeUnit.MINUTES);
+		Assert.assertEquals(Arrays.asList(3),
+				stateMachine.getCurrentStates());
+		Assert.assertEquals(0, wheel.size());
+	}
+
+	@Test
+	public void stateMachine() {
+		runSession(createBuilder().create());
+		verify(listener, times(1)).onGuardRejected(3, null);
+	}
+
+	@Test
+	public void definitionStateMachine() {
+		runSession(createBuilder().createDefinition().newInstance());
+		verify(listener, times(1)).onGuardRejected(3, null);
+	}
+
+	@Test
+	public void sharedWheel() {
+		MachineDefinition<Integer, Integer> definition =
+				createBuilder().createDefinition();
+		IStateMachine<Integer, Integer> stateMachine1 =
+				definition.newInstance();
+		IStateMachine<Integer, Integer> stateMachine2 =
+				definition.newInstance();
+		IStateMachine<Integer, Integer> stateMachine3 =
+				createBuilder().create();
+		stateMachine1.processEvent(10);
+		advance(20, TimeUnit.SECONDS);
+		stateMachine2.processEvent(10);
+		stateMachine3.processEvent(10);
+		Assert.assertEquals(5, wheel.size());
+
+		advance(10, TimeUnit.SECONDS);
+		Assert.assertEquals(new Integer(3), stateMachine1.getCurrentState());
+		Assert.assertEquals(new Integer(2), stateMachine2.getCurrentState());
+		Assert.assertEquals(new Integer(2), stateMachine3.getCurrentState());
+		advance(20, TimeUnit.SECONDS);
+		Assert.assertEquals(new Integer(3), stateMachine2.getCurrentState());
+		Assert.assertEquals(new Integer(3), stateMachine3.getCurrentState());
+	}
+
+	@Test
+	public void restoredTimers() {
+		MachineDefinition<Integer, Integer> definition =
+				createBuilder().createDefinition();
+		IStateMachine<Integer, Integer> stateMachine =
+				definition.newInstance();
+		stateMachine.processEvent(10);
+		int[] configuration =
+				((IRestorableStateMachine)stateMachine).getConfiguration();
+		advance(4, TimeUnit.SECONDS);
+
+		// the timers of the restored states start again
+		IStateMachine<Integer, Integer> restored =
+				definition.newInstance(configuration);
+		Assert.assertEquals(4, wheel.size());
+		advance(1, TimeUnit.SECONDS);
+		Assert.assertEquals(Arrays.asList(2, 22),
+				stateMachine.getCurrentStates());
+		Assert.assertEquals(Arrays.asList(2, 21),
+				restored.getCurrentStates());
+		advance(4, TimeUnit.SECONDS);
+		Assert.assertEquals(Arrays.asList(2, 22),
+				restored.getCurrentStates());
+		Assert.assertEquals(2, wheel.size());
+
+		// the timer of the state that stays active is kept
+		((IRestorableStateMachine)restored).restoreConfiguration(
+				configuration);
+		Assert.assertEquals(3, wheel.size());
+		advance(5, TimeUnit.SECONDS);
+		Assert.assertEquals(Arrays.asList(2, 22),
+				restored.getCurrentStates());
+		advance(16, TimeUnit.SECONDS);
+		Assert.assertEquals(Arrays.asList(2, 22),
+				restored.getCurrentStates());
+		advance(4, TimeUnit.SECONDS);
+		Assert.assertEquals(Arrays.asList(3),
+				restored.getCurrentStates());
+	}
+
+	@Test(expected = StateMachineException.class)
+	public void noTimingWheel() {
+		StateMachineBuilder<Integer, Integer> stateMachineBuilder =
+				new StateMachineBuilder<Integer, Integer>();
+		stateMachineBuilder.get().addState(1);
+		stateMachineBuilder.get().addTransition(1, 1, TimeUnit.SECONDS,
+				null, 1);
+	}
+
+	@Test(expected = StateMachineException.class)
+	public void concurrent() {
+		createBuilder().createConcurrent();
+	}
+
+	@Test(expected = StateMachineException.class)
+	public void concurrentDefinition() {
+		createBuilder().createDefinition().newConcurrentInstance();
+	}
+}
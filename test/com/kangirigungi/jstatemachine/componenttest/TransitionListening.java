@@ -0,0 +1,148 @@
+/*
+ * Copyright (c) 2013, Peter Szabados
+ * All rights reserved.
+ *
+ * Redistribution and use in source and binary forms, with or without
+ * modification, are permitted provided that the following conditions are
+ * met:
+ *
+ *     (1) Redistributions of source code must retain the above copyright
+ *     notice, this list of conditions and the following disclaimer.
+ *
+ *     (2) Redistributions in binary form must reproduce the above copyright
+ *     notice, this list of conditions and the following disclaimer in
+ *     the documentation and/or other materials provided with the
+ *     distribution.
+ *
+ *     (3)The name of the author may not be used to
+ *     endorse or promote products derived from this software without
+ *     specific prior written permission.
+ *
+ * THIS SOFTWARE IS PROVIDED BY THE AUTHOR ``AS IS'' AND ANY EXPRESS OR
+ * IMPLIED WARRANTIES, INCLUDING, BUT NOT LIMITED TO, THE IMPLIED
+ * WARRANTIES OF MERCHANTABILITY AND FITNESS FOR A PARTICULAR PURPOSE ARE
+ * DISCLAIMED. IN NO EVENT SHALL THE AUTHOR BE LIABLE FOR ANY DIRECT,
+ * INDIRECT, INCIDENTAL, SPECIAL, EXEMPLARY, OR CONSEQUENTIAL DAMAGES
+ * (INCLUDING, BUT NOT LIMITED TO, PROCUREMENT OF SUBSTITUTE GOODS OR
+ * SERVICES; LOSS OF USE, DATA, OR PROFITS; OR BUSINESS INTERRUPTION)
+ * HOWEVER CAUSED AND ON ANY THEORY OF LIABILITY, WHETHER IN CONTRACT,
+ * STRICT LIABILITY, OR TORT (INCLUDING NEGLIGENCE OR OTHERWISE) ARISING
+ * IN ANY WAY OUT OF THE USE OF THIS SOFTWARE, EVEN IF ADVISED OF THE
+ * POSSIBILITY OF SUCH DAMAGE.
+ */
+
+package com.kangirigungi.jstatemachine.componenttest;
+
+import static org.mockito.Matchers.anyLong;
+import static org.mockito.Matchers.eq;
+import static org.mockito.Mockito.inOrder;
+import static org.mockito.Mockito.mock;
+import static org.mockito.Mockito.times;
+import static org.mockito.Mockito.verifyNoMoreInteractions;
+
+import org.junit.Assert;
+import org.junit.Before;
+import org.junit.Test;
+import org.mockito.InOrder;
+
+import com.kangirigungi.jstatemachine.FakeGuard;
+import com.kangirigungi.jstatemachine.IStateMachine;
+import com.kangirigungi.jstatemachine.ITransitionListener;
+import com.kangirigungi.jstatemachine.StateMachineBuilder;
+import com.kangirigungi.jstatemachine.SubStateMachineBuilder;
+import com.kangirigungi.jstatemachine.metrics.TransitionMetrics;
+
+/**
+ * Transition listeners registered on the builder.
+ */
+public class TransitionListening {
+
+	private ITransitionListener<Integer, Integer> listener;
+	private TransitionMetrics<Integer, Integer> metrics;
+
+	@Before
+	@SuppressWarnings("unchecked")
+	public void initialize() {
+		listener = mock(ITransitionListener.class);
+		metrics = new TransitionMetrics<Integer, Integer>();
+	}
+
+	/**
+	 * State 1 goes to composite state 2 with event 10, which goes to 21 and
+	 * then to 22 with a completion transition. Event 20 is rejected by a
+	 * guard in 2, event 30 is an internal transition of 22.
+	 */
+	private StateMachineBuilder<Integer, Integer> createBuilder(
+			ITransitionListener<Integer, Integer> listener) {
+		StateMachineBuilder<Integer, Integer> stateMachineBuilder =
+				new StateMachineBuilder<Integer, Integer>();
+		SubStateMachineBuilder<Integer, Integer> mainStateMachine =
+				stateMachineBuilder.get();
+		mainStateMachine.addState(1);
+		SubStateMachineBuilder<Integer, Integer> subStateMachine =
+				mainStateMachine.addCompositeState(2).getStateMachineBuilder();
+		subStateMachine.addState(21);
+		subStateMachine.addState(22);
+		subStateMachine.setInitialState(21).
+				addTransition(21, null, null, 22).
+				addInternalTransition(22, 30, null);
+		mainStateMachine.setInitialState(1).
+				addTransition(1, 10, null, 2).
+				addTransition(2, 20, null, 1,
+						new FakeGuard<Integer, Integer>(false));
+		stateMachineBuilder.setTransitionListener(listener);
+		return stateMachineBuilder;
+	}
+
+	private void runEvents(IStateMachine<Integer, Integer> stateMachine) {
+		stateMachine.processEvent(10);
+		stateMachine.processEvent(20);
+		stateMachine.processEvent(30);
+		stateMachine.processEvent(40);
+	}
+
+	private void checkListener() {
+		InOrder inOrder = inOrder(listener);
+		inOrder.verify(listener, times(1)).onTransition(eq(21), eq((Integer)null),
+				eq(22), anyLong());
+		inOrder.verify(listener, times(1)).onTransition(eq(1), eq(10),
+				eq(2), anyLong());
+		inOrder.verify(listener, times(1)).onGuardRejected(2, 20);
+		inOrder.verify(listener, times(1)).onTransition(eq(22), eq(30),
+				eq((Integer)null), anyLong());
+		inOrder.verify(listener, times(1)).onEventIgnored(22, 40);
+		verifyNoMoreInteractions(listener);
+	}
+
+	private void checkMetrics() {
+		Assert.assertEquals(2, metrics.getTransitionCount(21, null, 22));
+		Assert.assertEquals(2, metrics.getTransitionCount(1, 10, 2));
+		Assert.assertEquals(2, metrics.getTransitionCount(22, 30, null));
+		Assert.assertEquals(0, metrics.getTransitionCount(2, 20, 1));
+		Assert.assertEquals(2, metrics.getGuardRejectionCount(2, 20));
+		Assert.assertEquals(2, metrics.getIgnoredEventCount(22, 40));
+		Assert.assertEquals(0, metrics.getIgnoredEventCount(22, 50));
+		Assert.assertEquals(3, metrics.getTransitions().size());
+		Assert.assertNull(metrics.getTransition(2, 20, 1));
+	}
+
+	@Test
+	public void engine() {
+		runEvents(createBuilder(listener).create());
+		checkListener();
+	}
+
+	@Test
+	public void definition() {
+		runEvents(createBuilder(listener).createDefinition().newInstance());
+		checkListener();
+	}
+
+	@Test
+	public void metrics() {
+		StateMachineBuilder<Integer, Integer> builder = createBuilder(metrics);
+		runEvents(builder.createDefinition().newInstance());
+		runEvents(createBuilder(metrics).create());
+		checkMetrics();
+	}
+}
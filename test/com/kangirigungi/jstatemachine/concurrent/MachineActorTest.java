@@ -0,0 +1,287 @@
+/*
+ * Copyright (c) 2013, Peter Szabados
+ * All rights reserved.
+ *
+ * Redistribution and use in source and binary forms, with or without
+ * modification, are permitted provided that the following conditions are
+ * met:
+ *
+ *     (1) Redistributions of source code must retain the above copyright
+ *     notice, this list of conditions and the following disclaimer.
+ *
+ *     (2) Redistributions in binary form must reproduce the above copyright
+ *     notice, this list of conditions and the following disclaimer in
+ *     the documentation and/or other materials provided with the
+ *     distribution.
+ *
+ *     (3)The name of the author may not be used to
+ *     endorse or promote products derived from this software without
+ *     specific prior written permission.
+ *
+ * THIS SOFTWARE IS PROVIDED BY THE AUTHOR ``AS IS'' AND ANY EXPRESS OR
+ * IMPLIED WARRANTIES, INCLUDING, BUT NOT LIMITED TO, THE IMPLIED
+ * WARRANTIES OF MERCHANTABILITY AND FITNESS FOR A PARTICULAR PURPOSE ARE
+ * DISCLAIMED. IN NO EVENT SHALL THE AUTHOR BE LIABLE FOR ANY DIRECT,
+ * INDIRECT, INCIDENTAL, SPECIAL, EXEMPLARY, OR CONSEQUENTIAL DAMAGES
+ * (INCLUDING, BUT NOT LIMITED TO, PROCUREMENT OF SUBSTITUTE GOODS OR
+ * SERVICES; LOSS OF USE, DATA, OR PROFITS; OR BUSINESS INTERRUPTION)
+ * HOWEVER CAUSED AND ON ANY THEORY OF LIABILITY, WHETHER IN CONTRACT,
+ * STRICT LIABILITY, OR TORT (INCLUDING NEGLIGENCE OR OTHERWISE) ARISING
+ * IN ANY WAY OUT OF THE USE OF THIS SOFTWARE, EVEN IF ADVISED OF THE
+ * POSSIBILITY OF SUCH DAMAGE.
+ */
+
+package com.kangirigungi.jstatemachine.concurrent;
+
+import java.util.ArrayList;
+import java.util.List;
+import java.util.concurrent.ExecutionException;
+import java.util.concurrent.Executor;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.Future;
+import java.util.concurrent.RejectedExecutionException;
+import java.util.concurrent.TimeUnit;
+
+import junit.framework.Assert;
+
+import org.junit.Test;
+
+import com.kangirigungi.jstatemachine.IStateMachine;
+import com.kangirigungi.jstatemachine.ITransitionAction;
+import com.kangirigungi.jstatemachine.StateMachineBuilder;
+import com.kangirigungi.jstatemachine.SubStateMachineBuilder;
+
+public class MachineActorTest {
+
+	private static class ManualExecutor implements Executor {
+		private List<Runnable> tasks = new ArrayList<Runnable>();
+		private boolean rejecting = false;
+
+		@Override
+		public void execute(Runnable command) {
+			if (rejecting) {
+				throw new RejectedExecutionException();
+			}
+			tasks.add(command);
+		}
+
+		public void runAll() {
+			while (!tasks.isEmpty()) {
+				tasks.remove(0).run();
+			}
+		}
+	}
+
+	private ITransitionAction<Integer, Integer> failingAction =
+			new ITransitionAction<Integer, Integer>() {
+		@Override
+		public void onTransition(Integer fromState, Integer toState,
+				Integer event) {
+			throw new IllegalStateException();
+		}
+	};
+
+	/**
+	 * States 0..3 in a cycle on event 1. Event 2 fails.
+	 */
+	private IStateMachine<Integer, Integer> createStateMachine() {
+		StateMachineBuilder<Integer, Integer> builder =
+				new StateMachineBuilder<Integer, Integer>();
+		SubStateMachineBuilder<Integer, Integer> stateMachine = builder.get();
+		for (int i = 0; i < 4; ++i) {
+			stateMachine.addState(i);
+		}
+		for (int i = 0; i < 4; ++i) {
+			stateMachine.addTransition(i, 1, null, (i + 1) % 4);
+			stateMachine.addTransition(i, 2, failingAction, i);
+		}
+		stateMachine.setInitialState(0);
+		return builder.create();
+	}
+
+	@Test
+	public void submit() throws Exception {
+		ManualExecutor executor = new ManualExecutor();
+		MachineActor<Integer, Integer> actor = new MachineExecutor(executor,
+				10, OverflowPolicy.REJECT).spawn(createStateMachine());
+		Future<Integer> first = actor.submit(1);
+		Future<Integer> second = actor.submit(1);
+		Assert.assertEquals(1, executor.tasks.size());
+		Assert.assertEquals(2, actor.getMailboxSize());
+		Assert.assertFalse(first.isDone());
+
+		executor.runAll();
+		Assert.assertEquals(new Integer(1), first.get());
+		Assert.assertEquals(new Integer(2), second.get());
+		Assert.assertEquals(0, actor.getMailboxSize());
+	}
+
+	@Test
+	public void exceptionFromCallback() throws Exception {
+		ManualExecutor executor = new ManualExecutor();
+		MachineActor<Integer, Integer> actor = new MachineExecutor(executor,
+				10, OverflowPolicy.REJECT).spawn(createStateMachine());
+		Future<Integer> failed = actor.submit(2);
+		Future<Integer> next = actor.submit(1);
+		executor.runAll();
+
+		boolean exceptionThrown = false;
+		try {
+			failed.get();
+		} catch (ExecutionException e) {
+			exceptionThrown = true;
+			Assert.assertTrue(e.getCause() instanceof IllegalStateException);
+		}
+		Assert.assertTrue(exceptionThrown);
+		Assert.assertEquals(new Integer(1), next.get());
+	}
+
+	@Test
+	public void reject() {
+		ManualExecutor executor = new ManualExecutor();
+		MachineActor<Integer, Integer> actor = new MachineExecutor(executor,
+				2, OverflowPolicy.REJECT).spawn(createStateMachine());
+		actor.submit(1);
+		actor.submit(1);
+		boolean exceptionThrown = false;
+		try {
+			actor.submit(1);
+		} catch (MailboxFullException e) {
+			exceptionThrown = true;
+		}
+		Assert.assertTrue(exceptionThrown);
+		executor.runAll();
+		Assert.assertEquals(new Integer(2),
+				actor.getStateMachine().getCurrentState());
+	}
+
+	@Test
+	public void dropNewest() throws Exception {
+		ManualExecutor executor = new ManualExecutor();
+		MachineActor<Integer, Integer> actor = new MachineExecutor(executor,
+				1, OverflowPolicy.DROP_NEWEST).spawn(createStateMachine());
+		Future<Integer> first = actor.submit(1);
+		Future<Integer> second = actor.submit(1);
+		Assert.assertTrue(second.isCancelled());
+		executor.runAll();
+		Assert.assertEquals(new Integer(1), first.get());
+	}
+
+	@Test
+	public void dropOldest() throws Exception {
+		ManualExecutor executor = new ManualExecutor();
+		MachineActor<Integer, Integer> actor = new MachineExecutor(executor,
+				1, OverflowPolicy.DROP_OLDEST).spawn(createStateMachine());
+		Future<Integer> first = actor.submit(1);
+		Future<Integer> second = actor.submit(1);
+		Assert.assertTrue(first.isCancelled());
+		executor.runAll();
+		Assert.assertEquals(new Integer(1), second.get());
+	}
+
+	@Test
+	public void throughput() {
+		ManualExecutor executor = new ManualExecutor();
+		MachineActor<Integer, Integer> actor = new MachineExecutor(executor,
+				10, OverflowPolicy.REJECT).setThroughput(2).
+				spawn(createStateMachine());
+		actor.submit(1);
+		actor.submit(1);
+		actor.submit(1);
+		executor.tasks.remove(0).run();
+		Assert.assertEquals(1, actor.getMailboxSize());
+		Assert.assertEquals(1, executor.tasks.size());
+		executor.runAll();
+		Assert.assertEquals(new Integer(3),
+				actor.getStateMachine().getCurrentState());
+	}
+
+	@Test
+	public void rescheduleRejected() {
+		ManualExecutor executor = new ManualExecutor();
+		MachineActor<Integer, Integer> actor = new MachineExecutor(executor,
+				10, OverflowPolicy.REJECT).setThroughput(1).
+				spawn(createStateMachine());
+		actor.submit(1);
+		actor.submit(1);
+		executor.rejecting = true;
+		executor.tasks.remove(0).run();
+		Assert.assertEquals(1, actor.getMailboxSize());
+		Assert.assertTrue(executor.tasks.isEmpty());
+
+		executor.rejecting = false;
+		actor.submit(1);
+		executor.runAll();
+		Assert.assertEquals(new Integer(3),
+				actor.getStateMachine().getCurrentState());
+	}
+
+	@Test
+	public void submitRejected() {
+		ManualExecutor executor = new ManualExecutor();
+		MachineActor<Integer, Integer> actor = new MachineExecutor(executor,
+				1, OverflowPolicy.REJECT).spawn(createStateMachine());
+		executor.rejecting = true;
+		boolean exceptionThrown = false;
+		try {
+			actor.submit(1);
+		} catch (RejectedExecutionException e) {
+			exceptionThrown = true;
+		}
+		Assert.assertTrue(exceptionThrown);
+		Assert.assertEquals(0, actor.getMailboxSize());
+
+		executor.rejecting = false;
+		actor.submit(1);
+		executor.runAll();
+		Assert.assertEquals(new Integer(1),
+				actor.getStateMachine().getCurrentState());
+	}
+
+	@Test
+	public void manyProducers() throws Exception {
+		final int producers = 8;
+		final int events = 1000;
+		ExecutorService executorService = Executors.newFixedThreadPool(2);
+		ExecutorService producerService =
+				Executors.newFixedThreadPool(producers);
+		try {
+			MachineExecutor machineExecutor = new MachineExecutor(
+					executorService, producers * events + 1,
+					OverflowPolicy.REJECT);
+			final List<MachineActor<Integer, Integer>> actors =
+					new ArrayList<MachineActor<Integer, Integer>>();
+			for (int i = 0; i < 10; ++i) {
+				actors.add(machineExecutor.spawn(createStateMachine()));
+			}
+			List<Future<?>> results = new ArrayList<Future<?>>();
+			for (int i = 0; i < producers; ++i) {
+				results.add(producerService.submit(new Runnable() {
+					@Override
+					public void run() {
+						for (int j = 0; j < events; ++j) {
+							for (MachineActor<Integer, Integer> actor: actors) {
+								actor.submit(1);
+							}
+						}
+					}
+				}));
+			}
+			for (Future<?> result: results) {
+				result.get();
+			}
+			List<Future<Integer>> last = new ArrayList<Future<Integer>>();
+			for (MachineActor<Integer, Integer> actor: actors) {
+				last.add(actor.submit(1));
+			}
+			for (Future<Integer> state: last) {
+				Assert.assertEquals(new Integer((producers * events + 1) % 4),
+						state.get(10, TimeUnit.SECONDS));
+			}
+		} finally {
+			producerService.shutdown();
+			executorService.shutdown();
+		}
+	}
+}
@@ -0,0 +1,77 @@
+/*
+ * Copyright (c) 2013, Peter Szabados
+ * All rights reserved.
+ *
+ * Redistribution and use in source and binary forms, with or without
+ * modification, are permitted provided that the following conditions are
+ * met:
+ *
+ *     (1) Redistributions of source code must retain the above copyright
+ *     notice, this list of conditions and the following disclaimer.
+ *
+ *     (2) Redistributions in binary form must reproduce the above copyright
+ *     notice, this list of conditions and the following disclaimer in
+ *     the documentation and/or other materials provided with the
+ *     distribution.
+ *
+ *     (3)The name of the author may not be used to
+ *     endorse or promote products derived from this software without
+ *     specific prior written permission.
+ *
+ * THIS SOFTWARE IS PROVIDED BY THE AUTHOR ``AS IS'' AND ANY EXPRESS OR
+ * IMPLIED WARRANTIES, INCLUDING, BUT NOT LIMITED TO, THE IMPLIED
+ * WARRANTIES OF MERCHANTABILITY AND FITNESS FOR A PARTICULAR PURPOSE ARE
+ * DISCLAIMED. IN NO EVENT SHALL THE AUTHOR BE LIABLE FOR ANY DIRECT,
+ * INDIRECT, INCIDENTAL, SPECIAL, EXEMPLARY, OR CONSEQUENTIAL DAMAGES
+ * (INCLUDING, BUT NOT LIMITED TO, PROCUREMENT OF SUBSTITUTE GOODS OR
+ * SERVICES; LOSS OF USE, DATA, OR PROFITS; OR BUSINESS INTERRUPTION)
+ * HOWEVER CAUSED AND ON ANY THEORY OF LIABILITY, WHETHER IN CONTRACT,
+ * STRICT LIABILITY, OR TORT (INCLUDING NEGLIGENCE OR OTHERWISE) ARISING
+ * IN ANY WAY OUT OF THE USE OF THIS SOFTWARE, EVEN IF ADVISED OF THE
+ * POSSIBILITY OF SUCH DAMAGE.
+ */
+
+package com.kangirigungi.jstatemachine.metrics;
+
+import junit.framework.Assert;
+
+import org.junit.Test;
+
+public class LatencyHistogramTest {
+
+	@Test
+	public void record() {
+		LatencyHistogram histogram = new LatencyHistogram();
+		Assert.assertEquals(0, histogram.getPercentile(50));
+		histogram.record(0);
+		histogram.record(1);
+		histogram.record(5);
+		histogram.record(7);
+		histogram.record(1000);
+		histogram.record(-3);
+
+		Assert.assertEquals(6, histogram.getCount());
+		Assert.assertEquals(1013, histogram.getTotalNanos());
+		Assert.assertEquals(1000, histogram.getMaxNanos());
+
+		long[] buckets = histogram.getBuckets();
+		Assert.assertEquals(LatencyHistogram.BUCKET_COUNT, buckets.length);
+		Assert.assertEquals(2, buckets[0]);
+		Assert.assertEquals(1, buckets[1]);
+		Assert.assertEquals(2, buckets[3]);
+		Assert.assertEquals(1, buckets[10]);
+
+		Assert.assertEquals(0, histogram.getPercentile(30));
+		Assert.assertEquals(7, histogram.getPercentile(80));
+		Assert.assertEquals(1023, histogram.getPercentile(100));
+	}
+
+	@Test
+	public void largeValues() {
+		LatencyHistogram histogram = new LatencyHistogram();
+		histogram.record(Long.MAX_VALUE);
+		Assert.assertEquals(1,
+				histogram.getBuckets()[LatencyHistogram.BUCKET_COUNT - 1]);
+		Assert.assertEquals(Long.MAX_VALUE, histogram.getPercentile(50));
+	}
+}
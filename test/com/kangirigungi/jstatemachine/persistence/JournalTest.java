@@ -0,0 +1,250 @@
+/*
+ * Copyright (c) 2013, Peter Szabados
+ * All rights reserved.
+ *
+ * Redistribution and use in source and binary forms, with or without
+ * modification, are permitted provided that the following conditions are
+ * met:
+ *
+ *     (1) Redistributions of source code must retain the above copyright
+ *     notice, this list of conditions and the following disclaimer.
+ *
+ *     (2) Redistributions in binary form must reproduce the above copyright
+ *     notice, this list of conditions and the following disclaimer in
+ *     the documentation and/or other materials provided with the
+ *     distribution.
+ *
+ *     (3)The name of the author may not be used to
+ *     endorse or promote products derived from this software without
+ *     specific prior written permission.
+ *
+ * THIS SOFTWARE IS PROVIDED BY THE AUTHOR ``AS IS'' AND ANY EXPRESS OR
+ * IMPLIED WARRANTIES, INCLUDING, BUT NOT LIMITED TO, THE IMPLIED
+ * WARRANTIES OF MERCHANTABILITY AND FITNESS FOR A PARTICULAR PURPOSE ARE
+ * DISCLAIMED. IN NO EVENT SHALL THE AUTHOR BE LIABLE FOR ANY DIRECT,
+ * INDIRECT, INCIDENTAL, SPECIAL, EXEMPLARY, OR CONSEQUENTIAL DAMAGES
+ * (INCLUDING, BUT NOT LIMITED TO, PROCUREMENT OF SUBSTITUTE GOODS OR
+ * SERVICES; LOSS OF USE, DATA, OR PROFITS; OR BUSINESS INTERRUPTION)
+ * HOWEVER CAUSED AND ON ANY THEORY OF LIABILITY, WHETHER IN CONTRACT,
+ * STRICT LIABILITY, OR TORT (INCLUDING NEGLIGENCE OR OTHERWISE) ARISING
+ * IN ANY WAY OUT OF THE USE OF THIS SOFTWARE, EVEN IF ADVISED OF THE
+ * POSSIBILITY OF SUCH DAMAGE.
+ */
+package com.kangirigungi.jstatemachine.persistence;
+
+import java.io.File;
+import java.io.IOException;
+import java.io.RandomAccessFile;
+import java.nio.ByteBuffer;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.List;
+
+import junit.framework.Assert;
+
+import org.junit.Before;
+import org.junit.Rule;
+import org.junit.Test;
+import org.junit.rules.TemporaryFolder;
+
+public class JournalTest {
+
+	static final IEventCodec<Integer> CODEC = new IEventCodec<Integer>() {
+		@Override
+		public void encode(Integer event, ByteBuffer buffer) {
+			// the size of the record depends on the event
+			for (int i = 0; i < event; ++i) {
+				buffer.put((byte)i);
+			}
+		}
+
+		@Override
+		public Integer decode(ByteBuffer buffer) {
+			return buffer.remaining();
+		}
+	};
+
+	private static class Collector implements IJournalHandler<Integer> {
+		final List<Long> instanceIds = new ArrayList<Long>();
+		final List<Integer> events = new ArrayList<Integer>();
+
+		@Override
+		public void onRecord(long instanceId, Integer event) {
+			instanceIds.add(instanceId);
+			events.add(event);
+		}
+	}
+
+	@Rule
+	public TemporaryFolder folder = new TemporaryFolder();
+
+	private File directory;
+
+	@Before
+	public void initialize() {
+		directory = new File(folder.getRoot(), "journal");
+	}
+
+	private Collector replay(Journal<Integer> journal) {
+		Collector collector = new Collector();
+		journal.replay(collector);
+		return collector;
+	}
+
+	@Test
+	public void appendAndReplay() {
+		Journal<Integer> journal = new Journal<Integer>(directory, 64, CODEC);
+		long position1 = journal.append(1, 3);
+		long position2 = journal.append(2, 0);
+		long position3 = journal.append(1, 5);
+		Assert.assertTrue(position1 < position2);
+		Assert.assertTrue(position2 < position3);
+		Assert.assertEquals(position3, journal.getPosition());
+		journal.sync(position2);
+		journal.sync();
+
+		Collector collector = replay(journal);
+		Assert.assertEquals(Arrays.asList(1L, 2L, 1L), collector.instanceIds);
+		Assert.assertEquals(Arrays.asList(3, 0, 5), collector.events);
+		journal.close();
+	}
+
+	@Test
+	public void segmentsRolled() {
+		Journal<Integer> journal = new Journal<Integer>(directory, 64, CODEC);
+		List<Integer> expected = new ArrayList<Integer>();
+		for (int i = 0; i < 20; ++i) {
+			journal.append(i, i % 40);
+			expected.add(i % 40);
+		}
+		Assert.assertTrue(directory.list().length > 1);
+		Assert.assertEquals(expected, replay(journal).events);
+		journal.close();
+
+		journal = new Journal<Integer>(directory, 64, CODEC);
+		journal.append(100, 7);
+		expected.add(7);
+		Assert.assertEquals(expected, replay(journal).events);
+		journal.close();
+	}
+
+	@Test(expected = JournalException.class)
+	public void recordTooLarge() {
+		Journal<Integer> journal = new Journal<Integer>(directory, 64, CODEC);
+		try {
+			journal.append(1, 49);
+		} finally {
+			journal.close();
+		}
+	}
+
+	@Test
+	public void recordTooLargeLeavesJournalIntact() {
+		Journal<Integer> journal = new Journal<Integer>(directory, 64, CODEC);
+		journal.append(1, 10);
+		try {
+			journal.append(1, 100);
+			Assert.fail();
+		} catch (JournalException e) {
+		}
+		journal.append(2, 1);
+		journal.close();
+
+		journal = new Journal<Integer>(directory, 64, CODEC);
+		Assert.assertEquals(Arrays.asList(10, 1), replay(journal).events);
+		journal.close();
+	}
+
+	@Test
+	public void tornRecordDropped() throws IOException {
+		Journal<Integer> journal = new Journal<Integer>(directory, 1024, CODEC);
+		journal.append(1, 10);
+		journal.append(2, 20);
+		journal.close();
+
+		// damage the payload of the second record
+		File segment = directory.listFiles()[0];
+		RandomAccessFile file = new RandomAccessFile(segment, "rw");
+		try {
+			file.seek(26 + 16 + 5);
+			file.write(0xff);
+		} finally {
+			file.close();
+		}
+
+		journal = new Journal<Integer>(directory, 1024, CODEC);
+		Assert.assertEquals(Arrays.asList(10), replay(journal).events);
+		journal.append(3, 1);
+		journal.close();
+
+		journal = new Journal<Integer>(directory, 1024, CODEC);
+		Collector collector = replay(journal);
+		Assert.assertEquals(Arrays.asList(1L, 3L), collector.instanceIds);
+		Assert.assertEquals(Arrays.asList(10, 1), collector.events);
+		journal.close();
+	}
+
+	@Test
+	public void concurrentSync() throws InterruptedException {
+		final Journal<Integer> journal =
+				new Journal<Integer>(directory, 1024, CODEC);
+		Thread[] threads = new Thread[4];
+		for (int i = 0; i < threads.length; ++i) {
+			final int id = i;
+			threads[i] = new Thread() {
+				@Override
+				public void run() {
+					for (int j = 0; j < 100; ++j) {
+						journal.sync(journal.append(id, 4));
+					}
+				}
+			};
+			threads[i].start();
+		}
+		for (Thread thread : threads) {
+			thread.join();
+		}
+		Assert.assertEquals(400, replay(journal).events.size());
+		journal.close();
+	}
+
+	@Test(expected = JournalException.class)
+	public void appendAfterClose() {
+		Journal<Integer> journal = new Journal<Integer>(directory, 64, CODEC);
+		journal.close();
+		journal.append(1, 1);
+	}
+
+	@Test
+	public void replayAfterPosition() {
+		Journal<Integer> journal = new Journal<Integer>(directory, 64, CODEC);
+		journal.append(1, 40);
+		long position = journal.append(2, 10);
+		journal.append(3, 30);
+		journal.append(4, 40);
+		Assert.assertEquals(Arrays.asList(3L, 4L),
+				replayAfter(journal, position).instanceIds);
+		Assert.assertEquals(Arrays.asList(4L),
+				replayAfter(journal, journal.getPosition() - 1).instanceIds);
+		Assert.assertTrue(
+				replayAfter(journal, journal.getPosition()).events.isEmpty());
+
+		journal.truncate(position);
+		Assert.assertEquals(Arrays.asList(2L, 3L, 4L),
+				replay(journal).instanceIds);
+		journal.truncate(journal.getPosition());
+		Assert.assertEquals(1, directory.list().length);
+		Assert.assertEquals(Arrays.asList(4L), replay(journal).instanceIds);
+		journal.close();
+
+		journal = new Journal<Integer>(directory, 64, CODEC);
+		Assert.assertEquals(Arrays.asList(4L), replay(journal).instanceIds);
+		journal.close();
+	}
+
+	private Collector replayAfter(Journal<Integer> journal, long position) {
+		Collector collector = new Collector();
+		journal.replay(position, collector);
+		return collector;
+	}
+}
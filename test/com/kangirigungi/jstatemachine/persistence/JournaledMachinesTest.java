@@ -0,0 +1,416 @@
+/*
+ * Copyright (c) 2013, Peter Szabados
+ * All rights reserved.
+ *
+ * Redistribution and use in source and binary forms, with or without
+ * modification, are permitted provided that the following conditions are
+ * met:
+ *
+ *     (1) Redistributions of source code must retain the above copyright
+ *     notice, this list of conditions and the following disclaimer.
+ *
+ *     (2) Redistributions in binary form must reproduce the above copyright
+ *     notice, this list of conditions and the following disclaimer in
+ *     the documentation and/or other materials provided with the
+ *     distribution.
+ *
+ *     (3)The name of the author may not be used to
+ *     endorse or promote products derived from this software without
+ *     specific prior written permission.
+ *
+ * THIS SOFTWARE IS PROVIDED BY THE AUTHOR ``AS IS'' AND ANY EXPRESS OR
+ * IMPLIED WARRANTIES, INCLUDING, BUT NOT LIMITED TO, THE IMPLIED
+ * WARRANTIES OF MERCHANTABILITY AND FITNESS FOR A PARTICULAR PURPOSE ARE
+ * DISCLAIMED. IN NO EVENT SHALL THE AUTHOR BE LIABLE FOR ANY DIRECT,
+ * INDIRECT, INCIDENTAL, SPECIAL, EXEMPLARY, OR CONSEQUENTIAL DAMAGES
+ * (INCLUDING, BUT NOT LIMITED TO, PROCUREMENT OF SUBSTITUTE GOODS OR
+ * SERVICES; LOSS OF USE, DATA, OR PROFITS; OR BUSINESS INTERRUPTION)
+ * HOWEVER CAUSED AND ON ANY THEORY OF LIABILITY, WHETHER IN CONTRACT,
+ * STRICT LIABILITY, OR TORT (INCLUDING NEGLIGENCE OR OTHERWISE) ARISING
+ * IN ANY WAY OUT OF THE USE OF THIS SOFTWARE, EVEN IF ADVISED OF THE
+ * POSSIBILITY OF SUCH DAMAGE.
+ */
+package com.kangirigungi.jstatemachine.persistence;
+
+import static org.mockito.Mockito.spy;
+import static org.mockito.Mockito.verify;
+
+import java.io.File;
+import java.io.FileInputStream;
+import java.io.FileOutputStream;
+import java.io.IOException;
+import java.nio.ByteBuffer;
+import java.util.Arrays;
+import java.util.concurrent.TimeUnit;
+
+import junit.framework.Assert;
+
+import org.junit.Before;
+import org.junit.Rule;
+import org.junit.Test;
+import org.junit.rules.TemporaryFolder;
+
+import com.kangirigungi.jstatemachine.EventOutcome;
+import com.kangirigungi.jstatemachine.History;
+import com.kangirigungi.jstatemachine.IStateMachine;
+import com.kangirigungi.jstatemachine.ITransitionAction;
+import com.kangirigungi.jstatemachine.MachineDefinition;
+import com.kangirigungi.jstatemachine.StateMachineBuilder;
+import com.kangirigungi.jstatemachine.StateMachineException;
+import com.kangirigungi.jstatemachine.SubStateMachineBuilder;
+import com.kangirigungi.jstatemachine.TimingWheel;
+
+public class JournaledMachinesTest {
+
+	private static final IEventCodec<Integer> CODEC =
+			new IEventCodec<Integer>() {
+		@Override
+		public void encode(Integer event, ByteBuffer buffer) {
+			buffer.putInt(event);
+		}
+
+		@Override
+		public Integer decode(ByteBuffer buffer) {
+			return buffer.getInt();
+		}
+	};
+
+	@Rule
+	public TemporaryFolder folder = new TemporaryFolder();
+
+	private File directory;
+	private MachineDefinition<Integer, Integer> definition;
+	private JournaledMachines<Integer, Integer> machines;
+
+	@Before
+	public void initialize() {
+		directory = folder.getRoot();
+		ITransitionAction<Integer, Integer> sendingAction =
+				new ITransitionAction<Integer, Integer>() {
+			@Override
+			public void onTransition(Integer fromState, Integer toState,
+					Integer event) {
+				machines.get(1).processEvent(30);
+			}
+		};
+		StateMachineBuilder<Integer, Integer> builder =
+				new StateMachineBuilder<Integer, Integer>();
+		builder.setEventQueueCapacity(1);
+		SubStateMachineBuilder<Integer, Integer> top = builder.get();
+		top.addState(1);
+		SubStateMachineBuilder<Integer, Integer> sub =
+				top.addCompositeState(2).getStateMachineBuilder();
+		top.addState(3);
+		sub.addState(21);
+		sub.addState(22);
+		top.setInitialState(1).
+				addTransition(1, 10, null, 2).
+				addTransition(2, 30, null, 3).
+				addTransition(3, 10, null, 1);
+		sub.setInitialState(21).
+				addTransition(21, 20, null, 22).
+				addTransition(22, 20, sendingAction, 21);
+		definition = builder.createDefinition();
+	}
+
+	private JournaledMachines<Integer, Integer> open() {
+		machines = new JournaledMachines<Integer, Integer>(definition,
+				new Journal<Integer>(directory, 4096, CODEC));
+		return machines;
+	}
+
+	private int countRecords() {
+		final int[] count = new int[1];
+		machines.getJournal().replay(new IJournalHandler<Integer>() {
+			@Override
+			public void onRecord(long instanceId, Integer event) {
+				++count[0];
+			}
+		});
+		return count[0];
+	}
+
+	@Test
+	public void recover() {
+		open();
+		machines.get(1).processEvent(10);
+		machines.get(2).processEvents(new Integer[] {10, 20, 40}, 0, 3);
+		machines.get(3);
+		machines.getJournal().close();
+
+		open();
+		machines.recover();
+		Assert.assertEquals(2, machines.size());
+		Assert.assertEquals(Arrays.asList(2, 21),
+				machines.get(1).getCurrentStates());
+		Assert.assertEquals(Arrays.asList(2, 22),
+				machines.get(2).getCurrentStates());
+		Assert.assertEquals(Arrays.asList(1),
+				machines.get(3).getCurrentStates());
+
+		machines.get(1).processEvent(20);
+		machines.getJournal().close();
+		open();
+		machines.recover();
+		Assert.assertEquals(Arrays.asList(2, 22),
+				machines.get(1).getCurrentStates());
+		machines.getJournal().close();
+	}
+
+	@Test
+	public void eventsFromCallbacksNotRecorded() {
+		IStateMachine<Integer, Integer> stateMachine = open().get(1);
+		EventOutcome[] outcomes = stateMachine.processEvents(
+				Arrays.asList(10, 20, 20, 20));
+		Assert.assertEquals(4, outcomes.length);
+		Assert.assertEquals(EventOutcome.IGNORED, outcomes[3]);
+		Assert.assertEquals(Arrays.asList(3),
+				stateMachine.getCurrentStates());
+		stateMachine.processEvent(10);
+		Assert.assertEquals(5, countRecords());
+		machines.getJournal().close();
+
+		open().recover();
+		Assert.assertEquals(Arrays.asList(1),
+				machines.get(1).getCurrentStates());
+		Assert.assertEquals(5, countRecords());
+		machines.getJournal().close();
+	}
+
+	@Test
+	public void syncBeforeFailedEvent() {
+		ITransitionAction<Integer, Integer> failingAction =
+				new ITransitionAction<Integer, Integer>() {
+			@Override
+			public void onTransition(Integer fromState, Integer toState,
+					Integer event) {
+				throw new IllegalStateException();
+			}
+		};
+		StateMachineBuilder<Integer, Integer> builder =
+				new StateMachineBuilder<Integer, Integer>();
+		SubStateMachineBuilder<Integer, Integer> top = builder.get();
+		top.addState(1);
+		top.addState(2);
+		top.setInitialState(1).
+				addTransition(1, 10, null, 2).
+				addTransition(2, 20, failingAction, 1);
+		definition = builder.createDefinition();
+		Journal<Integer> journal =
+				spy(new Journal<Integer>(directory, 4096, CODEC));
+		machines = new JournaledMachines<Integer, Integer>(definition,
+				journal);
+
+		try {
+			machines.get(1).processEvents(new Integer[] {10, 20}, 0, 2);
+			Assert.fail();
+		} catch (IllegalStateException e) {
+		}
+		long position = journal.getPosition();
+		verify(journal).sync(position);
+
+		try {
+			machines.get(2).processEvents(Arrays.asList(10, 20));
+			Assert.fail();
+		} catch (IllegalStateException e) {
+		}
+		long secondPosition = journal.getPosition();
+		Assert.assertTrue(secondPosition > position);
+		verify(journal).sync(secondPosition);
+		Assert.assertEquals(2, countRecords());
+		journal.close();
+	}
+
+	@Test(expected = StateMachineException.class)
+	public void recoverAfterUse() {
+		open();
+		machines.get(1);
+		machines.recover();
+	}
+
+	@Test
+	public void recoverFromSnapshot() throws IOException {
+		Assert.assertFalse(definition.hasTimedTransitions());
+		open();
+		machines.get(1).processEvent(10);
+		machines.get(2).processEvent(10);
+		machines.get(2).processEvent(20);
+		machines.get(3);
+		File snapshot = folder.newFile("snapshot");
+		FileOutputStream output = new FileOutputStream(snapshot);
+		long position;
+		try {
+			position = machines.snapshot(output.getChannel());
+		} finally {
+			output.close();
+		}
+		machines.get(1).processEvent(20);
+		machines.get(4).processEvent(10);
+		machines.getJournal().truncate(position);
+		machines.getJournal().close();
+
+		open();
+		FileInputStream input = new FileInputStream(snapshot);
+		try {
+			machines.recover(input.getChannel());
+		} finally {
+			input.close();
+		}
+		Assert.assertEquals(4, machines.size());
+		Assert.assertEquals(Arrays.asList(2, 22),
+				machines.get(1).getCurrentStates());
+		Assert.assertEquals(Arrays.asList(2, 22),
+				machines.get(2).getCurrentStates());
+		Assert.assertEquals(Arrays.asList(1),
+				machines.get(3).getCurrentStates());
+		Assert.assertEquals(Arrays.asList(2, 21),
+				machines.get(4).getCurrentStates());
+		machines.getJournal().close();
+	}
+
+	@Test
+	public void snapshotWithHistory() throws IOException {
+		StateMachineBuilder<Integer, Integer> builder =
+				new StateMachineBuilder<Integer, Integer>();
+		SubStateMachineBuilder<Integer, Integer> top = builder.get();
+		SubStateMachineBuilder<Integer, Integer> sub =
+				top.addCompositeState(1).setHistory(History.SHALLOW).
+				getStateMachineBuilder();
+		top.addState(2);
+		sub.addState(11);
+		sub.addState(12);
+		top.setInitialState(1).
+				addTransition(1, 20, null, 2).
+				addTransition(2, 10, null, 1);
+		sub.setInitialState(11).
+				addTransition(11, 10, null, 12);
+		definition = builder.createDefinition();
+		open();
+		machines.get(1).processEvent(10);
+		machines.get(1).processEvent(20);
+		machines.get(2).processEvent(20);
+		File snapshot = folder.newFile("snapshot");
+		FileOutputStream output = new FileOutputStream(snapshot);
+		long position;
+		try {
+			position = machines.snapshot(output.getChannel());
+		} finally {
+			output.close();
+		}
+		machines.getJournal().truncate(position);
+		machines.getJournal().close();
+
+		open();
+		FileInputStream input = new FileInputStream(snapshot);
+		try {
+			machines.recover(input.getChannel());
+		} finally {
+			input.close();
+		}
+		Assert.assertEquals(Arrays.asList(2),
+				machines.get(1).getCurrentStates());
+		machines.get(1).processEvent(10);
+		machines.get(2).processEvent(10);
+		Assert.assertEquals(Arrays.asList(1, 12),
+				machines.get(1).getCurrentStates());
+		Assert.assertEquals(Arrays.asList(1, 11),
+				machines.get(2).getCurrentStates());
+		machines.getJournal().close();
+	}
+
+	@Test
+	public void snapshotWithDeferredEvents() throws IOException {
+		StateMachineBuilder<Integer, Integer> builder =
+				new StateMachineBuilder<Integer, Integer>();
+		SubStateMachineBuilder<Integer, Integer> top = builder.get();
+		SubStateMachineBuilder<Integer, Integer> sub =
+				top.addCompositeState(1).getStateMachineBuilder();
+		top.addState(2);
+		sub.addState(11);
+		sub.addState(12);
+		top.setInitialState(1).
+				addTransition(1, 30, null, 2);
+		sub.setInitialState(11).
+				addTransition(11, 20, null, 12).
+				addTransition(12, 10, null, 11).
+				addDeferredEvent(11, 10);
+		definition = builder.createDefinition();
+		open();
+		machines.get(1).processEvent(10);
+		machines.get(2);
+		File snapshot = folder.newFile("snapshot");
+		FileOutputStream output = new FileOutputStream(snapshot);
+		try {
+			machines.snapshot(output.getChannel());
+			Assert.fail();
+		} catch (StateMachineException e) {
+		} finally {
+			output.close();
+		}
+		Assert.assertEquals(0, snapshot.length());
+
+		// the deferred event is processed when 11 is left
+		machines.get(1).processEvent(20);
+		machines.get(2).processEvent(30);
+		output = new FileOutputStream(snapshot);
+		long position;
+		try {
+			position = machines.snapshot(output.getChannel());
+		} finally {
+			output.close();
+		}
+		machines.getJournal().truncate(position);
+		machines.getJournal().close();
+
+		open();
+		FileInputStream input = new FileInputStream(snapshot);
+		try {
+			machines.recover(input.getChannel());
+		} finally {
+			input.close();
+		}
+		Assert.assertEquals(Arrays.asList(1, 11),
+				machines.get(1).getCurrentStates());
+		Assert.assertEquals(Arrays.asList(2),
+				machines.get(2).getCurrentStates());
+		machines.getJournal().close();
+	}
+
+	@Test
+	public void snapshotWithTimedTransitions() throws IOException {
+		StateMachineBuilder<Integer, Integer> builder =
+				new StateMachineBuilder<Integer, Integer>();
+		builder.setTimingWheel(new TimingWheel(10, TimeUnit.MILLISECONDS));
+		SubStateMachineBuilder<Integer, Integer> top = builder.get();
+		top.addState(1);
+		top.addState(2);
+		top.setInitialState(1).
+				addTransition(1, 1, TimeUnit.SECONDS, null, 2, null);
+		definition = builder.createDefinition();
+		Assert.assertTrue(definition.hasTimedTransitions());
+		open();
+		machines.get(1);
+		File snapshot = folder.newFile("snapshot");
+		FileOutputStream output = new FileOutputStream(snapshot);
+		try {
+			machines.snapshot(output.getChannel());
+			Assert.fail();
+		} catch (StateMachineException e) {
+		} finally {
+			output.close();
+		}
+		Assert.assertEquals(0, snapshot.length());
+		machines.getJournal().close();
+
+		open();
+		FileInputStream input = new FileInputStream(snapshot);
+		try {
+			machines.recover(input.getChannel());
+			Assert.fail();
+		} catch (StateMachineException e) {
+		} finally {
+			input.close();
+		}
+		machines.getJournal().close();
+	}
+}
@@ -0,0 +1,154 @@
+/*
+ * Copyright (c) 2013, Peter Szabados
+ * All rights reserved.
+ *
+ * Redistribution and use in source and binary forms, with or without
+ * modification, are permitted provided that the following conditions are
+ * met:
+ *
+ *     (1) Redistributions of source code must retain the above copyright
+ *     notice, this list of conditions and the following disclaimer.
+ *
+ *     (2) Redistributions in binary form must reproduce the above copyright
+ *     notice, this list of conditions and the following disclaimer in
+ *     the documentation and/or other materials provided with the
+ *     distribution.
+ *
+ *     (3)The name of the author may not be used to
+ *     endorse or promote products derived from this software without
+ *     specific prior written permission.
+ *
+ * THIS SOFTWARE IS PROVIDED BY THE AUTHOR ``AS IS'' AND ANY EXPRESS OR
+ * IMPLIED WARRANTIES, INCLUDING, BUT NOT LIMITED TO, THE IMPLIED
+ * WARRANTIES OF MERCHANTABILITY AND FITNESS FOR A PARTICULAR PURPOSE ARE
+ * DISCLAIMED. IN NO EVENT SHALL THE AUTHOR BE LIABLE FOR ANY DIRECT,
+ * INDIRECT, INCIDENTAL, SPECIAL, EXEMPLARY, OR CONSEQUENTIAL DAMAGES
+ * (INCLUDING, BUT NOT LIMITED TO, PROCUREMENT OF SUBSTITUTE GOODS OR
+ * SERVICES; LOSS OF USE, DATA, OR PROFITS; OR BUSINESS INTERRUPTION)
+ * HOWEVER CAUSED AND ON ANY THEORY OF LIABILITY, WHETHER IN CONTRACT,
+ * STRICT LIABILITY, OR TORT (INCLUDING NEGLIGENCE OR OTHERWISE) ARISING
+ * IN ANY WAY OUT OF THE USE OF THIS SOFTWARE, EVEN IF ADVISED OF THE
+ * POSSIBILITY OF SUCH DAMAGE.
+ */
+package com.kangirigungi.jstatemachine.persistence;
+
+import java.io.ByteArrayInputStream;
+import java.io.ByteArrayOutputStream;
+import java.nio.ByteBuffer;
+import java.nio.channels.Channels;
+import java.util.Arrays;
+
+import junit.framework.Assert;
+
+import org.junit.Test;
+
+public class SnapshotTest {
+
+	private static SnapshotReader reader(byte[] data, int bufferSize) {
+		return new SnapshotReader(Channels.newChannel(
+				new ByteArrayInputStream(data)), bufferSize);
+	}
+
+	@Test
+	public void writeAndRead() {
+		ByteArrayOutputStream output = new ByteArrayOutputStream();
+		SnapshotWriter writer = new SnapshotWriter(
+				Channels.newChannel(output), 1234567890123L, 64);
+		int count = 1000;
+		for (int i = 0; i < count; ++i) {
+			writer.write(i, new int[] {1, i % 50, 0});
+		}
+		writer.write(Long.MIN_VALUE, new int[] {Integer.MAX_VALUE});
+		int[] large = new int[100];
+		Arrays.fill(large, 1000000);
+		writer.write(-1, large);
+		writer.flush();
+		byte[] data = output.toByteArray();
+		// the configurations are small
+		Assert.assertTrue(data.length < count * 8);
+
+		SnapshotReader reader = reader(data, 64);
+		Assert.assertEquals(1234567890123L, reader.getJournalPosition());
+		for (int i = 0; i < count; ++i) {
+			Assert.assertTrue(reader.next());
+			Assert.assertEquals(i, reader.getInstanceId());
+			Assert.assertTrue(Arrays.equals(new int[] {1, i % 50, 0},
+					reader.getConfiguration()));
+		}
+		Assert.assertTrue(reader.next());
+		Assert.assertEquals(Long.MIN_VALUE, reader.getInstanceId());
+		Assert.assertTrue(Arrays.equals(new int[] {Integer.MAX_VALUE},
+				reader.getConfiguration()));
+		Assert.assertTrue(reader.next());
+		Assert.assertEquals(-1, reader.getInstanceId());
+		Assert.assertTrue(Arrays.equals(large, reader.getConfiguration()));
+		Assert.assertEquals(0, reader.getRememberedStates().length);
+		Assert.assertFalse(reader.next());
+		Assert.assertFalse(reader.next());
+	}
+
+	@Test
+	public void rememberedStates() {
+		ByteArrayOutputStream output = new ByteArrayOutputStream();
+		SnapshotWriter writer = new SnapshotWriter(
+				Channels.newChannel(output), 0, 64);
+		writer.write(1, new int[] {0}, new int[] {1, 3, 4, 7});
+		writer.write(2, new int[] {1, 2}, new int[0]);
+		writer.flush();
+
+		SnapshotReader reader = reader(output.toByteArray(), 64);
+		Assert.assertTrue(reader.next());
+		Assert.assertTrue(Arrays.equals(new int[] {0},
+				reader.getConfiguration()));
+		Assert.assertTrue(Arrays.equals(new int[] {1, 3, 4, 7},
+				reader.getRememberedStates()));
+		Assert.assertTrue(reader.next());
+		Assert.assertTrue(Arrays.equals(new int[] {1, 2},
+				reader.getConfiguration()));
+		Assert.assertEquals(0, reader.getRememberedStates().length);
+		Assert.assertFalse(reader.next());
+	}
+
+	@Test
+	public void readVersion1() {
+		ByteBuffer buffer = ByteBuffer.allocate(20);
+		buffer.putInt(SnapshotWriter.MAGIC);
+		buffer.put((byte)1);
+		buffer.putLong(5);
+		buffer.put(new byte[] {3, 2, 1, 4});
+		SnapshotReader reader = reader(Arrays.copyOf(buffer.array(),
+				buffer.position()), 64);
+		Assert.assertEquals(5, reader.getJournalPosition());
+		Assert.assertTrue(reader.next());
+		Assert.assertEquals(3, reader.getInstanceId());
+		Assert.assertTrue(Arrays.equals(new int[] {1, 4},
+				reader.getConfiguration()));
+		Assert.assertEquals(0, reader.getRememberedStates().length);
+		Assert.assertFalse(reader.next());
+	}
+
+	@Test
+	public void empty() {
+		ByteArrayOutputStream output = new ByteArrayOutputStream();
+		new SnapshotWriter(Channels.newChannel(output), 0).flush();
+		Assert.assertFalse(reader(output.toByteArray(), 64).next());
+	}
+
+	@Test(expected = JournalException.class)
+	public void notSnapshot() {
+		reader(new byte[] {1, 2, 3, 4, 5, 6, 7, 8, 9, 10, 11, 12, 13}, 64);
+	}
+
+	@Test(expected = JournalException.class)
+	public void truncated() {
+		ByteArrayOutputStream output = new ByteArrayOutputStream();
+		SnapshotWriter writer = new SnapshotWriter(
+				Channels.newChannel(output), 0);
+		writer.write(1, new int[] {1000, 2000});
+		writer.flush();
+		byte[] data = output.toByteArray();
+		SnapshotReader reader = reader(Arrays.copyOf(data, data.length - 1),
+				64);
+		reader.next();
+	}
+}
@@ -0,0 +1,292 @@
+/*
+ * Copyright (c) 2013, Peter Szabados
+ * All rights reserved.
+ *
+ * Redistribution and use in source and binary forms, with or without
+ * modification, are permitted provided that the following conditions are
+ * met:
+ *
+ *     (1) Redistributions of source code must retain the above copyright
+ *     notice, this list of conditions and the following disclaimer.
+ *
+ *     (2) Redistributions in binary form must reproduce the above copyright
+ *     notice, this list of conditions and the following disclaimer in
+ *     the documentation and/or other materials provided with the
+ *     distribution.
+ *
+ *     (3)The name of the author may not be used to
+ *     endorse or promote products derived from this software without
+ *     specific prior written permission.
+ *
+ * THIS SOFTWARE IS PROVIDED BY THE AUTHOR ``AS IS'' AND ANY EXPRESS OR
+ * IMPLIED WARRANTIES, INCLUDING, BUT NOT LIMITED TO, THE IMPLIED
+ * WARRANTIES OF MERCHANTABILITY AND FITNESS FOR A PARTICULAR PURPOSE ARE
+ * DISCLAIMED. IN NO EVENT SHALL THE AUTHOR BE LIABLE FOR ANY DIRECT,
+ * INDIRECT, INCIDENTAL, SPECIAL, EXEMPLARY, OR CONSEQUENTIAL DAMAGES
+ * (INCLUDING, BUT NOT LIMITED TO, PROCUREMENT OF SUBSTITUTE GOODS OR
+ * SERVICES; LOSS OF USE, DATA, OR PROFITS; OR BUSINESS INTERRUPTION)
+ * HOWEVER CAUSED AND ON ANY THEORY OF LIABILITY, WHETHER IN CONTRACT,
+ * STRICT LIABILITY, OR TORT (INCLUDING NEGLIGENCE OR OTHERWISE) ARISING
+ * IN ANY WAY OUT OF THE USE OF THIS SOFTWARE, EVEN IF ADVISED OF THE
+ * POSSIBILITY OF SUCH DAMAGE.
+ */
+package com.kangirigungi.jstatemachine.primitive;
+
+import static org.mockito.Matchers.anyInt;
+import static org.mockito.Mockito.doReturn;
+import static org.mockito.Mockito.doThrow;
+import static org.mockito.Mockito.inOrder;
+import static org.mockito.Mockito.mock;
+import static org.mockito.Mockito.times;
+import static org.mockito.Mockito.verify;
+import static org.mockito.Mockito.verifyNoMoreInteractions;
+
+import java.util.Arrays;
+
+import junit.framework.Assert;
+
+import org.junit.Before;
+import org.junit.Test;
+import org.mockito.InOrder;
+
+import com.kangirigungi.jstatemachine.CompletionCycleException;
+import com.kangirigungi.jstatemachine.DuplicateStateException;
+import com.kangirigungi.jstatemachine.DuplicateTransitionException;
+import com.kangirigungi.jstatemachine.EventOutcome;
+import com.kangirigungi.jstatemachine.IllegalEventException;
+import com.kangirigungi.jstatemachine.InTransitionException;
+import com.kangirigungi.jstatemachine.NoStateException;
+import com.kangirigungi.jstatemachine.StateMachineException;
+
+public class IntStateMachineTest {
+
+	private static final int NONE = IIntStateMachine.NONE;
+
+	private IntStateMachineBuilder builder;
+	private IIntEntryExitAction entryExitAction;
+	private IIntTransitionAction action;
+
+	@Before
+	public void initialize() {
+		builder = new IntStateMachineBuilder();
+		entryExitAction = mock(IIntEntryExitAction.class);
+		action = mock(IIntTransitionAction.class);
+	}
+
+	@Test
+	public void transitions() {
+		builder.addState(1, entryExitAction).
+				addState(2, entryExitAction).
+				setInitialState(1).
+				addTransition(1, 10, action, 2).
+				addTransition(2, 10, action, 1).
+				addInternalTransition(2, 20, action);
+
+		IIntStateMachine stateMachine = builder.create();
+		Assert.assertEquals(1, stateMachine.getCurrentState());
+		stateMachine.processEvent(10);
+		Assert.assertEquals(2, stateMachine.getCurrentState());
+		stateMachine.processEvent(20);
+		stateMachine.processEvent(30);
+		Assert.assertEquals(2, stateMachine.getCurrentState());
+		stateMachine.processEvent(10);
+		Assert.assertEquals(1, stateMachine.getCurrentState());
+
+		InOrder inOrder = inOrder(entryExitAction, action);
+		inOrder.verify(entryExitAction, times(1)).onEnter(1, NONE);
+		inOrder.verify(entryExitAction, times(1)).onExit(1, 10);
+		inOrder.verify(action, times(1)).onTransition(1, 2, 10);
+		inOrder.verify(entryExitAction, times(1)).onEnter(2, 10);
+		inOrder.verify(action, times(1)).onTransition(2, NONE, 20);
+		inOrder.verify(entryExitAction, times(1)).onExit(2, 10);
+		inOrder.verify(action, times(1)).onTransition(2, 1, 10);
+		inOrder.verify(entryExitAction, times(1)).onEnter(1, 10);
+		verifyNoMoreInteractions(entryExitAction, action);
+	}
+
+	@Test
+	public void guardedTransitions() {
+		IIntGuard guard1 = mock(IIntGuard.class);
+		IIntGuard guard2 = mock(IIntGuard.class);
+		doReturn(false).when(guard1).checkTransition(1, 2, 10);
+		doReturn(true).when(guard2).checkTransition(1, 3, 10);
+		builder.addState(1).addState(2).addState(3).
+				setInitialState(1).
+				addTransition(1, 10, action, 2, guard1).
+				addTransition(1, 10, action, 3, guard2).
+				addTransition(3, 10, action, 1, guard1);
+
+		IIntStateMachine stateMachine = builder.create();
+		stateMachine.processEvent(10);
+		Assert.assertEquals(3, stateMachine.getCurrentState());
+
+		InOrder inOrder = inOrder(guard1, guard2, action);
+		inOrder.verify(guard1, times(1)).checkTransition(1, 2, 10);
+		inOrder.verify(guard2, times(1)).checkTransition(1, 3, 10);
+		inOrder.verify(action, times(1)).onTransition(1, 3, 10);
+	}
+
+	@Test
+	public void completionTransition() {
+		builder.addState(1).addState(2).addState(3).
+				setInitialState(1).
+				addTransition(1, NONE, action, 2).
+				addTransition(2, NONE, action, 3);
+
+		IIntStateMachine stateMachine = builder.create();
+		Assert.assertEquals(3, stateMachine.getCurrentState());
+	}
+
+	@Test(expected = CompletionCycleException.class)
+	public void completionCycle() {
+		builder.addState(1).addState(2).
+				setInitialState(1).
+				setMaxCompletionSteps(5).
+				addTransition(1, NONE, action, 2).
+				addTransition(2, NONE, action, 1);
+		builder.create();
+	}
+
+	private void addCompletionChain(int length) {
+		for (int i = 0; i <= length; ++i) {
+			builder.addState(i);
+		}
+		builder.setInitialState(0).setMaxCompletionSteps(5);
+		for (int i = 0; i < length; ++i) {
+			builder.addTransition(i, NONE, action, i + 1);
+		}
+	}
+
+	@Test
+	public void completionLimit() {
+		addCompletionChain(5);
+		Assert.assertEquals(5, builder.create().getCurrentState());
+		verify(action, times(5)).onTransition(anyInt(), anyInt(), anyInt());
+	}
+
+	@Test
+	public void completionOverLimit() {
+		addCompletionChain(6);
+		boolean exceptionThrown = false;
+		try {
+			builder.create();
+		} catch (CompletionCycleException e) {
+			exceptionThrown = true;
+		}
+		Assert.assertTrue(exceptionThrown);
+		// the transition over the limit is not executed
+		verify(action, times(5)).onTransition(anyInt(), anyInt(), anyInt());
+	}
+
+	@Test
+	public void processEvents() {
+		builder.addState(1).addState(2).
+				setInitialState(1).
+				addTransition(1, 10, action, 2).
+				addInternalTransition(2, 20, action).
+				addTransition(2, 30, action, 1,
+						new IIntGuard() {
+					@Override
+					public boolean checkTransition(int fromState,
+							int toState, int event) {
+						return false;
+					}
+				});
+
+		IIntStateMachine stateMachine = builder.create();
+		int[] events = {0, 10, 20, 30, 40, 0};
+		Assert.assertEquals(Arrays.asList(EventOutcome.TRANSITIONED,
+				EventOutcome.INTERNAL, EventOutcome.GUARD_REJECTED,
+				EventOutcome.IGNORED),
+				Arrays.asList(stateMachine.processEvents(events, 1, 5)));
+		Assert.assertEquals(2, stateMachine.getCurrentState());
+	}
+
+	@Test
+	public void exceptionFromAction() {
+		doThrow(new RuntimeException()).when(action).
+				onTransition(anyInt(), anyInt(), anyInt());
+		builder.addState(1, entryExitAction).
+				addState(2, entryExitAction).
+				setInitialState(1).
+				addTransition(1, 10, action, 2);
+
+		IIntStateMachine stateMachine = builder.create();
+		boolean exceptionThrown = false;
+		try {
+			stateMachine.processEvent(10);
+		} catch (RuntimeException e) {
+			exceptionThrown = true;
+		}
+
+		Assert.assertTrue(exceptionThrown);
+		Assert.assertEquals(1, stateMachine.getCurrentState());
+
+		InOrder inOrder = inOrder(entryExitAction, action);
+		inOrder.verify(entryExitAction, times(1)).onEnter(1, NONE);
+		inOrder.verify(entryExitAction, times(1)).onExit(1, 10);
+		inOrder.verify(action, times(1)).onTransition(1, 2, 10);
+		inOrder.verify(entryExitAction, times(1)).onEnter(1, NONE);
+		verifyNoMoreInteractions(entryExitAction, action);
+	}
+
+	@Test(expected = InTransitionException.class)
+	public void processEventFromCallback() {
+		final IIntStateMachine[] holder = new IIntStateMachine[1];
+		builder.addState(1).addState(2).
+				setInitialState(1).
+				addTransition(1, 10, new IIntTransitionAction() {
+					@Override
+					public void onTransition(int fromState, int toState,
+							int event) {
+						holder[0].processEvent(20);
+					}
+				}, 2);
+		holder[0] = builder.create();
+		holder[0].processEvent(10);
+	}
+
+	@Test(expected = DuplicateStateException.class)
+	public void duplicateState() {
+		builder.addState(1).addState(1);
+	}
+
+	@Test(expected = StateMachineException.class)
+	public void reservedState() {
+		builder.addState(NONE);
+	}
+
+	@Test(expected = NoStateException.class)
+	public void noState() {
+		builder.addState(1).addTransition(1, 10, action, 2);
+	}
+
+	@Test(expected = DuplicateTransitionException.class)
+	public void duplicateTransition() {
+		builder.addState(1).addState(2).
+				addTransition(1, 10, action, 2).
+				addInternalTransition(1, 10, action);
+	}
+
+	@Test(expected = IllegalEventException.class)
+	public void internalCompletionTransition() {
+		builder.addState(1).addInternalTransition(1, NONE, action);
+	}
+
+	@Test(expected = StateMachineException.class)
+	public void negativeMaxCompletionSteps() {
+		builder.setMaxCompletionSteps(-1);
+	}
+
+	@Test(expected = StateMachineException.class)
+	public void noInitialState() {
+		builder.addState(1).create();
+	}
+
+	@Test
+	public void builderReset() {
+		builder.addState(1).setInitialState(1).create();
+		builder.addState(1).addState(2).setInitialState(2);
+		Assert.assertEquals(2, builder.create().getCurrentState());
+	}
+}
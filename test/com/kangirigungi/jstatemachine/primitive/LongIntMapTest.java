@@ -0,0 +1,70 @@
+/*
+ * Copyright (c) 2013, Peter Szabados
+ * All rights reserved.
+ *
+ * Redistribution and use in source and binary forms, with or without
+ * modification, are permitted provided that the following conditions are
+ * met:
+ *
+ *     (1) Redistributions of source code must retain the above copyright
+ *     notice, this list of conditions and the following disclaimer.
+ *
+ *     (2) Redistributions in binary form must reproduce the above copyright
+ *     notice, this list of conditions and the following disclaimer in
+ *     the documentation and/or other materials provided with the
+ *     distribution.
+ *
+ *     (3)The name of the author may not be used to
+ *     endorse or promote products derived from this software without
+ *     specific prior written permission.
+ *
+ * THIS SOFTWARE IS PROVIDED BY THE AUTHOR ``AS IS'' AND ANY EXPRESS OR
+ * IMPLIED WARRANTIES, INCLUDING, BUT NOT LIMITED TO, THE IMPLIED
+ * WARRANTIES OF MERCHANTABILITY AND FITNESS FOR A PARTICULAR PURPOSE ARE
+ * DISCLAIMED. IN NO EVENT SHALL THE AUTHOR BE LIABLE FOR ANY DIRECT,
+ * INDIRECT, INCIDENTAL, SPECIAL, EXEMPLARY, OR CONSEQUENTIAL DAMAGES
+ * (INCLUDING, BUT NOT LIMITED TO, PROCUREMENT OF SUBSTITUTE GOODS OR
+ * SERVICES; LOSS OF USE, DATA, OR PROFITS; OR BUSINESS INTERRUPTION)
+ * HOWEVER CAUSED AND ON ANY THEORY OF LIABILITY, WHETHER IN CONTRACT,
+ * STRICT LIABILITY, OR TORT (INCLUDING NEGLIGENCE OR OTHERWISE) ARISING
+ * IN ANY WAY OUT OF THE USE OF THIS SOFTWARE, EVEN IF ADVISED OF THE
+ * POSSIBILITY OF SUCH DAMAGE.
+ */
+package com.kangirigungi.jstatemachine.primitive;
+
+import junit.framework.Assert;
+
+import org.junit.Test;
+
+public class LongIntMapTest {
+
+	@Test
+	public void putGet() {
+		LongIntMap map = new LongIntMap(2);
+		for (int i = 0; i < 1000; ++i) {
+			map.put(LongIntMap.key(i, -i), i);
+		}
+		Assert.assertEquals(1000, map.size());
+		for (int i = 0; i < 1000; ++i) {
+			Assert.assertEquals(i, map.get(LongIntMap.key(i, -i)));
+			Assert.assertEquals(LongIntMap.NO_VALUE,
+					map.get(LongIntMap.key(-i, i + 1)));
+		}
+	}
+
+	@Test
+	public void overwrite() {
+		LongIntMap map = new LongIntMap(4);
+		map.put(Long.MIN_VALUE, 1);
+		map.put(Long.MIN_VALUE, 2);
+		Assert.assertEquals(1, map.size());
+		Assert.assertEquals(2, map.get(Long.MIN_VALUE));
+	}
+
+	@Test
+	public void key() {
+		Assert.assertFalse(LongIntMap.key(1, -1) == LongIntMap.key(0, -1));
+		Assert.assertFalse(LongIntMap.key(-1, 0) == LongIntMap.key(0, -1));
+		Assert.assertEquals(0L, LongIntMap.key(0, 0));
+	}
+}